@@ -23,8 +23,9 @@
 package core;
 
 import math.Quaternion;
-import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
+import math.sampler.Sampler;
 
 public class Camera
 {
@@ -84,7 +85,8 @@ public class Camera
 		ray.getOrigin().set(m_pos);
 	}
 	
-	public void calcRayThroughPixelDistributed(Ray ray, int xRes, int yRes, int xPx, int yPx)
+	// The position inside the pixel is the sampler's next 2D sample.
+	public void calcRayThroughPixelDistributed(Ray ray, int xRes, int yRes, int xPx, int yPx, Sampler sampler)
 	{
 		// FIXME: this will fail when the camera is facing directly on y-axis
 		// TODO: reuse rightDir & upDir
@@ -98,8 +100,10 @@ public class Camera
 		// Pixel coordinates on screen specify the lower-left corner of each pixel. To obtain
 		// anti-aliasing effect, one must distribute ray directions randomly and uniformly on
 		// each pixel's rectangular area.
-		float pixelPosX = ((xPx + Rand.getFloat0_1()) / (xRes / 2.0f) - 1.0f) * halfWidth;
-		float pixelPosY = ((yPx + Rand.getFloat0_1()) / (yRes / 2.0f) - 1.0f) * halfHeight;
+		Vector2f pixelOffset = sampler.get2D(new Vector2f());
+		
+		float pixelPosX = ((xPx + pixelOffset.x) / (xRes / 2.0f) - 1.0f) * halfWidth;
+		float pixelPosY = ((yPx + pixelOffset.y) / (yRes / 2.0f) - 1.0f) * halfHeight;
 		
 		rightDir.mulLocal(pixelPosX);
 		upDir.mulLocal(pixelPosY);
@@ -0,0 +1,325 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Edge-avoiding a-trous wavelet filter for noisy renders, guided by the features of the first visible 
+// surface (see FeatureFrame). The radiance is divided by the albedo first, so textures are kept and 
+// only the (much smoother) lighting is filtered. Each iteration applies a 5x5 B3-spline kernel whose 
+// taps lie 2^i pixels apart, and weights every tap by how similar it is to the center pixel in 
+// normal, depth and luminance. The luminance tolerance follows the estimated variance of the pixel, 
+// which shrinks along with the noise as the iterations go, so converged regions are barely touched.
+//
+// Rows of each iteration are filtered in parallel on a fork-join pool.
+
+public class Denoiser
+{
+	private static final int     NUM_ITERATIONS = 5;
+	private static final float[] KERNEL         = {1.0f / 16.0f, 1.0f / 4.0f, 3.0f / 8.0f, 1.0f / 4.0f, 1.0f / 16.0f};
+	
+	// how many standard deviations apart luminances may be and still be mixed
+	private static final float LUMINANCE_SIGMA = 4.0f;
+	
+	// sharpness of the normal weight, max(0, dot(Np, Nq))^NORMAL_EXPONENT
+	private static final float NORMAL_EXPONENT = 128.0f;
+	
+	// tolerance of depth differences, relative to what the local depth gradient predicts
+	private static final float DEPTH_SIGMA = 1.0f;
+	
+	// albedo channels darker than this are not divided out
+	private static final float MIN_ALBEDO = 0.01f;
+	
+	private static final int MAX_ROWS_PER_TASK = 8;
+	
+	private ForkJoinPool m_pool;
+	
+	public Denoiser()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	public Denoiser(int numThreads)
+	{
+		m_pool = new ForkJoinPool(numThreads);
+	}
+	
+	// The result may be the radiance frame itself.
+	public void denoise(HdrFrame radiance, FeatureFrame features, HdrFrame result)
+	{
+		int widthPx   = radiance.getWidthPx();
+		int heightPx  = radiance.getHeightPx();
+		int numPixels = widthPx * heightPx;
+		
+		float[] radianceRgb = radiance.getPixelData();
+		float[] albedoRgb   = features.getAlbedo().getPixelData();
+		float[] depths      = features.getDepthData();
+		
+		float[] demodulator = new float[numPixels * 3];
+		float[] srcRgb      = new float[numPixels * 3];
+		float[] dstRgb      = new float[numPixels * 3];
+		float[] srcVariance = new float[numPixels];
+		float[] dstVariance = new float[numPixels];
+		float[] depthGrad   = new float[numPixels * 2];
+		
+		// to irradiance; the variance is of luminance, so it is scaled by the albedo's luminance
+		for(int i = 0; i < numPixels; i++)
+		{
+			for(int c = 0; c < 3; c++)
+			{
+				float albedo = albedoRgb[i * 3 + c];
+				
+				demodulator[i * 3 + c] = albedo > MIN_ALBEDO ? albedo : 1.0f;
+				srcRgb[i * 3 + c]      = radianceRgb[i * 3 + c] / demodulator[i * 3 + c];
+			}
+			
+			float albedoLum = calcLuminance(demodulator, i * 3);
+			srcVariance[i]  = features.getVarianceData()[i] / (albedoLum * albedoLum);
+		}
+		
+		// one-sided differences, whichever is smaller, so gradients do not straddle depth edges
+		for(int y = 0; y < heightPx; y++)
+		{
+			for(int x = 0; x < widthPx; x++)
+			{
+				int   i      = y * widthPx + x;
+				float dzdx0  = x > 0            ? depths[i] - depths[i - 1]       : Float.MAX_VALUE;
+				float dzdx1  = x < widthPx - 1  ? depths[i + 1] - depths[i]       : Float.MAX_VALUE;
+				float dzdy0  = y > 0            ? depths[i] - depths[i - widthPx] : Float.MAX_VALUE;
+				float dzdy1  = y < heightPx - 1 ? depths[i + widthPx] - depths[i] : Float.MAX_VALUE;
+				
+				depthGrad[i * 2 + 0] = Math.min(Math.abs(dzdx0), Math.abs(dzdx1));
+				depthGrad[i * 2 + 1] = Math.min(Math.abs(dzdy0), Math.abs(dzdy1));
+				
+				if(depthGrad[i * 2 + 0] == Float.MAX_VALUE) depthGrad[i * 2 + 0] = 0.0f;
+				if(depthGrad[i * 2 + 1] == Float.MAX_VALUE) depthGrad[i * 2 + 1] = 0.0f;
+			}
+		}
+		
+		for(int iteration = 0; iteration < NUM_ITERATIONS; iteration++)
+		{
+			FilterPass pass = new FilterPass(widthPx, heightPx, 1 << iteration, features, depthGrad, 
+			                                 srcRgb, srcVariance, dstRgb, dstVariance);
+			
+			m_pool.invoke(new FilterRowsTask(pass, 0, heightPx));
+			
+			float[] tmpRgb = srcRgb;
+			srcRgb = dstRgb;
+			dstRgb = tmpRgb;
+			
+			float[] tmpVariance = srcVariance;
+			srcVariance = dstVariance;
+			dstVariance = tmpVariance;
+		}
+		
+		float[] resultRgb = result.getPixelData();
+		
+		for(int i = 0; i < numPixels * 3; i++)
+		{
+			resultRgb[i] = srcRgb[i] * demodulator[i];
+		}
+	}
+	
+	public void shutdown()
+	{
+		m_pool.shutdown();
+	}
+	
+	private static float calcLuminance(float[] rgb, int index)
+	{
+		return 0.2126f * rgb[index + 0] + 0.7152f * rgb[index + 1] + 0.0722f * rgb[index + 2];
+	}
+	
+	// One iteration of the filter, reading from the src buffers and writing to the dst ones.
+	private static class FilterPass
+	{
+		private int      m_widthPx;
+		private int      m_heightPx;
+		private int      m_stepPx;
+		private float[]  m_normals;
+		private float[]  m_depths;
+		private float[]  m_depthGrad;
+		private float[]  m_srcRgb;
+		private float[]  m_srcVariance;
+		private float[]  m_dstRgb;
+		private float[]  m_dstVariance;
+		
+		public FilterPass(int widthPx, int heightPx, int stepPx, FeatureFrame features, float[] depthGrad, 
+		                  float[] srcRgb, float[] srcVariance, float[] dstRgb, float[] dstVariance)
+		{
+			m_widthPx     = widthPx;
+			m_heightPx    = heightPx;
+			m_stepPx      = stepPx;
+			m_normals     = features.getNormal().getPixelData();
+			m_depths      = features.getDepthData();
+			m_depthGrad   = depthGrad;
+			m_srcRgb      = srcRgb;
+			m_srcVariance = srcVariance;
+			m_dstRgb      = dstRgb;
+			m_dstVariance = dstVariance;
+		}
+		
+		public void filterRows(int beginY, int endY)
+		{
+			for(int y = beginY; y < endY; y++)
+			{
+				for(int x = 0; x < m_widthPx; x++)
+				{
+					filterPixel(x, y);
+				}
+			}
+		}
+		
+		private void filterPixel(int x, int y)
+		{
+			int   p     = y * m_widthPx + x;
+			float lumP  = calcLuminance(m_srcRgb, p * 3);
+			float sigma = LUMINANCE_SIGMA * (float)Math.sqrt(calcBlurredVariance(x, y)) + 1e-6f;
+			
+			float nx = m_normals[p * 3 + 0];
+			float ny = m_normals[p * 3 + 1];
+			float nz = m_normals[p * 3 + 2];
+			float zP = m_depths[p];
+			
+			// the center tap always has full weight, even where there are no features (nothing was hit)
+			float  centerWeight = KERNEL[2] * KERNEL[2];
+			float  sumWeight    = centerWeight;
+			double sumR         = centerWeight * m_srcRgb[p * 3 + 0];
+			double sumG         = centerWeight * m_srcRgb[p * 3 + 1];
+			double sumB         = centerWeight * m_srcRgb[p * 3 + 2];
+			double sumVariance  = centerWeight * centerWeight * m_srcVariance[p];
+			
+			for(int ky = -2; ky <= 2; ky++)
+			{
+				int qy = y + ky * m_stepPx;
+				if(qy < 0 || qy >= m_heightPx)
+				{
+					continue;
+				}
+				
+				for(int kx = -2; kx <= 2; kx++)
+				{
+					int qx = x + kx * m_stepPx;
+					if(qx < 0 || qx >= m_widthPx || (kx == 0 && ky == 0))
+					{
+						continue;
+					}
+					
+					int q = qy * m_widthPx + qx;
+					
+					float NoN = nx * m_normals[q * 3 + 0] + ny * m_normals[q * 3 + 1] + nz * m_normals[q * 3 + 2];
+					if(NoN <= 0.0f)
+					{
+						continue;
+					}
+					
+					float expectedDz = (m_depthGrad[p * 2 + 0] * Math.abs(kx) + m_depthGrad[p * 2 + 1] * Math.abs(ky)) * m_stepPx;
+					float depthTerm  = Math.abs(zP - m_depths[q]) / (DEPTH_SIGMA * expectedDz + 1e-3f * zP + 1e-6f);
+					float lumTerm    = Math.abs(lumP - calcLuminance(m_srcRgb, q * 3)) / sigma;
+					
+					float weight = KERNEL[kx + 2] * KERNEL[ky + 2] * 
+					               (float)Math.pow(Math.min(NoN, 1.0f), NORMAL_EXPONENT) * 
+					               (float)Math.exp(-depthTerm - lumTerm);
+					
+					sumWeight   += weight;
+					sumR        += weight * m_srcRgb[q * 3 + 0];
+					sumG        += weight * m_srcRgb[q * 3 + 1];
+					sumB        += weight * m_srcRgb[q * 3 + 2];
+					sumVariance += weight * weight * m_srcVariance[q];
+				}
+			}
+			
+			m_dstRgb[p * 3 + 0] = (float)(sumR / sumWeight);
+			m_dstRgb[p * 3 + 1] = (float)(sumG / sumWeight);
+			m_dstRgb[p * 3 + 2] = (float)(sumB / sumWeight);
+			m_dstVariance[p]    = (float)(sumVariance / ((double)sumWeight * sumWeight));
+		}
+		
+		// The variance of a single pixel is too noisy to judge luminance differences with, so a 3x3 
+		// Gaussian of it is used.
+		private float calcBlurredVariance(int x, int y)
+		{
+			float sumVariance = 0.0f;
+			float sumWeight   = 0.0f;
+			
+			for(int ky = -1; ky <= 1; ky++)
+			{
+				int qy = y + ky;
+				if(qy < 0 || qy >= m_heightPx)
+				{
+					continue;
+				}
+				
+				for(int kx = -1; kx <= 1; kx++)
+				{
+					int qx = x + kx;
+					if(qx < 0 || qx >= m_widthPx)
+					{
+						continue;
+					}
+					
+					float weight = (kx == 0 ? 0.5f : 0.25f) * (ky == 0 ? 0.5f : 0.25f);
+					
+					sumVariance += weight * m_srcVariance[qy * m_widthPx + qx];
+					sumWeight   += weight;
+				}
+			}
+			
+			return sumVariance / sumWeight;
+		}
+	}
+	
+	// Halves the row range until few enough rows are left, like TileScheduler does with tiles.
+	@SuppressWarnings("serial")
+	private static class FilterRowsTask extends RecursiveAction
+	{
+		private FilterPass m_pass;
+		private int        m_beginY;
+		private int        m_endY;
+		
+		public FilterRowsTask(FilterPass pass, int beginY, int endY)
+		{
+			m_pass   = pass;
+			m_beginY = beginY;
+			m_endY   = endY;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(m_endY - m_beginY <= MAX_ROWS_PER_TASK)
+			{
+				m_pass.filterRows(m_beginY, m_endY);
+			}
+			else
+			{
+				int midY = (m_beginY + m_endY) / 2;
+				
+				invokeAll(new FilterRowsTask(m_pass, m_beginY, midY), 
+				          new FilterRowsTask(m_pass, midY, m_endY));
+			}
+		}
+	}
+}
@@ -23,7 +23,6 @@
 package core;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.Locale;
 
 import javax.swing.SwingUtilities;
 
@@ -44,13 +43,13 @@ import scene.SponzaScene;
 import ui.Window;
 import util.Debug;
 import util.Logger;
+import util.SystemInfo;
+import util.SystemInfo.OsType;
 import util.Time;
 import util.Util;
 
 public class Engine
 {
-	public static enum OsType {UNKNOWN, WINDOWS, LINUX};
-	
 	private OsType m_osType;
 	
 //	private static final int FRAME_WIDTH_PX  = 1366;
@@ -72,7 +71,8 @@ public class Engine
 	private Window m_window;
 	private Scene scene;
 	
-	private SampleManager sampleManager;
+	private Film m_film;
+	private TileScheduler m_tileScheduler;
 	
 	private Logger m_logger;
 	
@@ -90,7 +90,7 @@ public class Engine
 		
 		tracer = new PathTracer();
 		
-		sampleManager = new SampleManager(FRAME_WIDTH_PX, FRAME_HEIGHT_PX);
+		m_film = new Film(FRAME_WIDTH_PX, FRAME_HEIGHT_PX);
 		
 		scene = new FiveBallsScene();
 //		scene = new ClassicMaterialScene();
@@ -108,14 +108,8 @@ public class Engine
 		
 		scene.cookScene();
 		
-		for(int i = 0; i < 4; i++)
-		{
-			Runnable tracer = new TraceWorker(scene, sampleManager, FRAME_WIDTH_PX, FRAME_HEIGHT_PX);
-			Thread thread = new Thread(tracer);
-			thread.start();
-			
-			Util.threadSleep(100);
-		}
+		m_tileScheduler = new TileScheduler(scene, m_film);
+		m_tileScheduler.start();
 	}
 	
 	private void init()
@@ -123,10 +117,10 @@ public class Engine
 		m_logger.printMsg("initializing engine...");
 		
 		{
-			m_osType = retrieveOsType();
+			m_osType = SystemInfo.retrieveOsType();
 			
 			Input.init();
-			ImageManager.init(this);
+			ImageManager.init(m_osType);
 		}
 		
 		m_logger.printMsg("engine initialized successfully");
@@ -213,11 +207,11 @@ public class Engine
 				
 				if(moved)
 				{
-					sampleManager.refresh();
+					m_film.clear();
 				}
 			}
 			
-			int numSamples = sampleManager.getCombinedSample(frameResult);
+			int numSamples = m_film.resolve(frameResult);
 			
 			m_window.render(frameResult);
 			
@@ -258,22 +252,6 @@ public class Engine
 		m_logger.printMsg("UI initialized successfully");
 	}
 	
-	private OsType retrieveOsType()
-	{
-		String osName = System.getProperty("os.name");
-		
-		if(osName.toLowerCase(Locale.ROOT).contains("windows"))
-		{
-			m_logger.printMsg("OS is Windows (" + osName + ")");
-			return OsType.WINDOWS;
-		}
-		else
-		{
-			m_logger.printWrn("OS is unknown/unsupported (" + osName + ")");
-			return OsType.UNKNOWN;
-		}
-	}
-	
 	public OsType getOsType()
 	{
 		return m_osType;
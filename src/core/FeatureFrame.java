@@ -0,0 +1,77 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+// Per-pixel features of the first visible surface, averaged over the pixel's samples like the 
+// radiance is: albedo, shading normal and distance from the camera (all zero where nothing was hit). 
+// Also holds the variance of each pixel's mean luminance. Denoiser uses them to tell edges from noise. 
+// Layout follows HdrFrame.
+
+public class FeatureFrame
+{
+	private HdrFrame m_albedo;
+	private HdrFrame m_normal;
+	private float[]  m_depth;
+	private float[]  m_variance;
+	
+	public FeatureFrame(int widthPx, int heightPx)
+	{
+		m_albedo   = new HdrFrame(widthPx, heightPx);
+		m_normal   = new HdrFrame(widthPx, heightPx);
+		m_depth    = new float[widthPx * heightPx];
+		m_variance = new float[widthPx * heightPx];
+	}
+	
+	public HdrFrame getAlbedo()
+	{
+		return m_albedo;
+	}
+	
+	public HdrFrame getNormal()
+	{
+		return m_normal;
+	}
+	
+	// one value per pixel, indexed by y * width + x
+	public float[] getDepthData()
+	{
+		return m_depth;
+	}
+	
+	// one value per pixel, indexed by y * width + x
+	public float[] getVarianceData()
+	{
+		return m_variance;
+	}
+	
+	public int getWidthPx()
+	{
+		return m_albedo.getWidthPx();
+	}
+	
+	public int getHeightPx()
+	{
+		return m_albedo.getHeightPx();
+	}
+}
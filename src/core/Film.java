@@ -0,0 +1,166 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The render target. The film is split into tiles that accumulate samples independently 
+// (see FilmTile), so tracing threads never contend with each other or with the display. Clearing 
+// only bumps a generation number; each tile lazily drops its stale data the next time it is traced.
+//
+// With a positive target relative error, sampling is adaptive: pixels stop receiving samples once 
+// the estimated error of their mean drops below the target (see FilmTile).
+
+public class Film
+{
+	public static final int DEFAULT_TILE_SIZE_PX = 32;
+	
+	private int m_widthPx;
+	private int m_heightPx;
+	
+	private List<FilmTile> m_tiles;
+	
+	private volatile int   m_generation;
+	private volatile float m_targetRelativeError;
+	
+	public Film(int widthPx, int heightPx)
+	{
+		this(widthPx, heightPx, DEFAULT_TILE_SIZE_PX);
+	}
+	
+	public Film(int widthPx, int heightPx, int tileSizePx)
+	{
+		m_widthPx    = widthPx;
+		m_heightPx   = heightPx;
+		m_tiles      = new ArrayList<>();
+		m_generation = 0;
+		
+		m_targetRelativeError = 0.0f;
+		
+		for(int y = 0; y < heightPx; y += tileSizePx)
+		{
+			for(int x = 0; x < widthPx; x += tileSizePx)
+			{
+				RenderTile region = new RenderTile(x, y, Math.min(tileSizePx, widthPx - x), Math.min(tileSizePx, heightPx - y));
+				m_tiles.add(new FilmTile(this, region));
+			}
+		}
+		
+		m_tiles = Collections.unmodifiableList(m_tiles);
+	}
+	
+	// Averages all accumulated samples into the result frame. Returns the number of passes that 
+	// every tile has finished at least; with adaptive sampling, converged pixels and tiles sit passes 
+	// out but still count them.
+	public int resolve(HdrFrame result)
+	{
+		int minNumPasses = Integer.MAX_VALUE;
+		
+		for(FilmTile tile : m_tiles)
+		{
+			minNumPasses = Math.min(minNumPasses, tile.resolve(result));
+		}
+		
+		return m_tiles.isEmpty() ? 0 : minNumPasses;
+	}
+	
+	// Writes the averaged first-hit features and the variance of every pixel's mean luminance.
+	public void resolveFeatures(FeatureFrame result)
+	{
+		for(FilmTile tile : m_tiles)
+		{
+			tile.resolveFeatures(result);
+		}
+	}
+	
+	// Discards all accumulated samples, e.g., after the camera has moved.
+	public void clear()
+	{
+		m_generation++;
+	}
+	
+	// A target of 0 disables adaptive sampling, every pixel is then sampled in every pass.
+	public void setTargetRelativeError(float targetRelativeError)
+	{
+		m_targetRelativeError = Math.max(targetRelativeError, 0.0f);
+	}
+	
+	public float getTargetRelativeError()
+	{
+		return m_targetRelativeError;
+	}
+	
+	// True if adaptive sampling is enabled and no pixel needs more samples.
+	public boolean isConverged()
+	{
+		if(m_targetRelativeError <= 0.0f)
+		{
+			return false;
+		}
+		
+		for(FilmTile tile : m_tiles)
+		{
+			if(!tile.isConverged())
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	// Average number of samples per pixel over the whole film.
+	public float calcAverageSpp()
+	{
+		long numSamples = 0;
+		for(FilmTile tile : m_tiles)
+		{
+			numSamples += tile.getNumTileSamples();
+		}
+		
+		return (float)((double)numSamples / ((long)m_widthPx * m_heightPx));
+	}
+	
+	public int getGeneration()
+	{
+		return m_generation;
+	}
+	
+	public List<FilmTile> getTiles()
+	{
+		return m_tiles;
+	}
+	
+	public int getWidthPx()
+	{
+		return m_widthPx;
+	}
+	
+	public int getHeightPx()
+	{
+		return m_heightPx;
+	}
+}
@@ -0,0 +1,349 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+import java.util.Arrays;
+
+import math.Vector3f;
+
+// Accumulated radiance of one tile of the film. Sums and sample counts are kept in double precision 
+// per pixel, and only a single thread adds samples to a tile at any time (the one tracing it), so no 
+// locking is needed. Finished passes are published through a volatile pass counter; readers may 
+// resolve the tile at any moment and will see at least everything up to the last published pass.
+//
+// For adaptive sampling, the second moment of each pixel's luminance is tracked as well. When the 
+// film has a target relative error, every finished pass re-estimates the error of each pixel's mean; 
+// pixels whose whole 3x3 neighbourhood (within the tile) is below the target are marked converged 
+// and receive no further samples until the film is cleared.
+//
+// Features of the first visible surface (see FeatureFrame) are accumulated alongside the radiance.
+
+public class FilmTile
+{
+	// a pixel's error estimate is not trusted before it has this many samples
+	private static final int MIN_ADAPTIVE_SAMPLES = 16;
+	
+	// added to the mean before dividing, so nearly black pixels are not sampled forever
+	private static final double DARK_LUMINANCE = 0.05;
+	
+	private Film       m_film;
+	private RenderTile m_region;
+	
+	private double[]  m_sumRgb;
+	private double[]  m_sumSqrLum;
+	private double[]  m_sumAlbedo;
+	private double[]  m_sumNormal;
+	private double[]  m_sumDepth;
+	private int[]     m_numSamples;
+	private boolean[] m_isPixelConverged;
+	private float[]   m_relativeErrors;
+	private int       m_numConvergedPixels;
+	
+	private volatile int m_generation;
+	private volatile int m_numPasses;
+	
+	public FilmTile(Film film, RenderTile region)
+	{
+		m_film       = film;
+		m_region     = region;
+		m_sumRgb     = new double[region.getNumPixels() * 3];
+		m_sumSqrLum  = new double[region.getNumPixels()];
+		m_sumAlbedo  = new double[region.getNumPixels() * 3];
+		m_sumNormal  = new double[region.getNumPixels() * 3];
+		m_sumDepth   = new double[region.getNumPixels()];
+		m_numSamples = new int[region.getNumPixels()];
+		m_generation = film.getGeneration();
+		m_numPasses  = 0;
+		
+		m_isPixelConverged   = new boolean[region.getNumPixels()];
+		m_relativeErrors     = new float[region.getNumPixels()];
+		m_numConvergedPixels = 0;
+	}
+	
+	// Must be called by the tracing thread before adding samples of a new pass. Stale data left 
+	// from before the last Film.clear() is discarded here rather than by the clearing thread.
+	public void beginPass()
+	{
+		int filmGeneration = m_film.getGeneration();
+		
+		if(m_generation != filmGeneration)
+		{
+			Arrays.fill(m_sumRgb, 0.0);
+			Arrays.fill(m_sumSqrLum, 0.0);
+			Arrays.fill(m_sumAlbedo, 0.0);
+			Arrays.fill(m_sumNormal, 0.0);
+			Arrays.fill(m_sumDepth, 0.0);
+			Arrays.fill(m_numSamples, 0);
+			Arrays.fill(m_isPixelConverged, false);
+			
+			m_numConvergedPixels = 0;
+			m_numPasses          = 0;
+			m_generation         = filmGeneration;
+		}
+	}
+	
+	public void endPass()
+	{
+		float targetRelativeError = m_film.getTargetRelativeError();
+		
+		if(targetRelativeError > 0.0f && m_numConvergedPixels != m_region.getNumPixels())
+		{
+			updateConvergence(targetRelativeError);
+		}
+		
+		m_numPasses++;
+	}
+	
+	// (x, y) is in frame coordinates and must lie inside the tile.
+	public void addSample(int x, int y, float r, float g, float b)
+	{
+		int index = (y - m_region.getYPx()) * m_region.getWidthPx() + (x - m_region.getXPx());
+		
+		m_sumRgb[index * 3 + 0] += r;
+		m_sumRgb[index * 3 + 1] += g;
+		m_sumRgb[index * 3 + 2] += b;
+		m_numSamples[index]++;
+		
+		double luminance = calcLuminance(r, g, b);
+		m_sumSqrLum[index] += luminance * luminance;
+	}
+	
+	// Features of the first surface the sample's camera ray hits; to be added along with each sample. 
+	// Samples that hit nothing need not add any.
+	public void addFeatureSample(int x, int y, Vector3f albedo, Vector3f normal, float depth)
+	{
+		int index = (y - m_region.getYPx()) * m_region.getWidthPx() + (x - m_region.getXPx());
+		
+		m_sumAlbedo[index * 3 + 0] += albedo.x;
+		m_sumAlbedo[index * 3 + 1] += albedo.y;
+		m_sumAlbedo[index * 3 + 2] += albedo.z;
+		m_sumNormal[index * 3 + 0] += normal.x;
+		m_sumNormal[index * 3 + 1] += normal.y;
+		m_sumNormal[index * 3 + 2] += normal.z;
+		m_sumDepth[index]          += depth;
+	}
+	
+	// Converged pixels are skipped by the tracer; (x, y) is in frame coordinates.
+	public boolean isPixelConverged(int x, int y)
+	{
+		return m_isPixelConverged[(y - m_region.getYPx()) * m_region.getWidthPx() + (x - m_region.getXPx())];
+	}
+	
+	// True if every pixel of the tile has reached the film's target relative error.
+	// Like resolve(), reads the pass counter first so the convergence state of the last published pass 
+	// is visible to threads other than the tracing one.
+	public boolean isConverged()
+	{
+		int numPasses = m_numPasses;
+		
+		return m_generation == m_film.getGeneration() && numPasses != 0 && 
+		       m_numConvergedPixels == m_region.getNumPixels();
+	}
+	
+	public int getNumActivePixels()
+	{
+		int numPasses = m_numPasses;
+		
+		if(m_generation != m_film.getGeneration() || numPasses == 0)
+		{
+			return m_region.getNumPixels();
+		}
+		
+		return m_region.getNumPixels() - m_numConvergedPixels;
+	}
+	
+	// Total number of samples of all pixels in the tile.
+	public long getNumTileSamples()
+	{
+		if(m_generation != m_film.getGeneration())
+		{
+			return 0;
+		}
+		
+		long numTileSamples = 0;
+		for(int numSamples : m_numSamples)
+		{
+			numTileSamples += numSamples;
+		}
+		
+		return numTileSamples;
+	}
+	
+	// Number of samples the pixel has received so far; (x, y) is in frame coordinates.
+	public int getNumSamples(int x, int y)
+	{
+		return m_numSamples[(y - m_region.getYPx()) * m_region.getWidthPx() + (x - m_region.getXPx())];
+	}
+	
+	// Writes the averaged radiance of this tile into the corresponding region of the result frame. 
+	// Returns the number of passes the written data is made of (0 if the tile is stale); passes that 
+	// found the tile converged count as well.
+	public int resolve(HdrFrame result)
+	{
+		int numPasses = m_numPasses;
+		
+		if(m_generation != m_film.getGeneration())
+		{
+			numPasses = 0;
+		}
+		
+		float[] resultRgb = result.getPixelData();
+		
+		for(int y = 0; y < m_region.getHeightPx(); y++)
+		{
+			int dstIndex = result.calcIndex(m_region.getXPx(), m_region.getYPx() + y);
+			
+			for(int x = 0; x < m_region.getWidthPx(); x++)
+			{
+				int    index          = y * m_region.getWidthPx() + x;
+				int    numSamples     = m_numSamples[index];
+				double reciNumSamples = numPasses == 0 || numSamples == 0 ? 0.0 : 1.0 / numSamples;
+				
+				resultRgb[dstIndex + 0] = (float)(m_sumRgb[index * 3 + 0] * reciNumSamples);
+				resultRgb[dstIndex + 1] = (float)(m_sumRgb[index * 3 + 1] * reciNumSamples);
+				resultRgb[dstIndex + 2] = (float)(m_sumRgb[index * 3 + 2] * reciNumSamples);
+				
+				dstIndex += 3;
+			}
+		}
+		
+		return numPasses;
+	}
+	
+	// Writes the averaged features of this tile into the corresponding region of the result; zero if 
+	// the tile is stale.
+	public void resolveFeatures(FeatureFrame result)
+	{
+		boolean isStale = m_generation != m_film.getGeneration();
+		
+		float[] albedoRgb = result.getAlbedo().getPixelData();
+		float[] normalXyz = result.getNormal().getPixelData();
+		float[] depths    = result.getDepthData();
+		float[] variances = result.getVarianceData();
+		
+		for(int y = 0; y < m_region.getHeightPx(); y++)
+		{
+			int dstIndex = (m_region.getYPx() + y) * result.getWidthPx() + m_region.getXPx();
+			
+			for(int x = 0; x < m_region.getWidthPx(); x++)
+			{
+				int    index          = y * m_region.getWidthPx() + x;
+				int    numSamples     = m_numSamples[index];
+				double reciNumSamples = isStale || numSamples == 0 ? 0.0 : 1.0 / numSamples;
+				
+				for(int i = 0; i < 3; i++)
+				{
+					albedoRgb[dstIndex * 3 + i] = (float)(m_sumAlbedo[index * 3 + i] * reciNumSamples);
+					normalXyz[dstIndex * 3 + i] = (float)(m_sumNormal[index * 3 + i] * reciNumSamples);
+				}
+				
+				depths[dstIndex]    = (float)(m_sumDepth[index] * reciNumSamples);
+				variances[dstIndex] = isStale || numSamples < 2 ? 0.0f : (float)calcVarianceOfMean(index);
+				
+				dstIndex++;
+			}
+		}
+	}
+	
+	private void updateConvergence(float targetRelativeError)
+	{
+		int widthPx  = m_region.getWidthPx();
+		int heightPx = m_region.getHeightPx();
+		
+		for(int i = 0; i < m_numSamples.length; i++)
+		{
+			m_relativeErrors[i] = calcRelativeError(i);
+		}
+		
+		for(int y = 0; y < heightPx; y++)
+		{
+			for(int x = 0; x < widthPx; x++)
+			{
+				int index = y * widthPx + x;
+				
+				if(m_isPixelConverged[index])
+				{
+					continue;
+				}
+				
+				// a lone pixel may look converged by chance (e.g., none of its samples found a small 
+				// light yet), its neighbours are much less likely to all agree
+				float maxError = 0.0f;
+				for(int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, heightPx - 1); ny++)
+				{
+					for(int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, widthPx - 1); nx++)
+					{
+						maxError = Math.max(maxError, m_relativeErrors[ny * widthPx + nx]);
+					}
+				}
+				
+				if(maxError <= targetRelativeError)
+				{
+					m_isPixelConverged[index] = true;
+					m_numConvergedPixels++;
+				}
+			}
+		}
+	}
+	
+	// Standard error of the pixel's mean luminance relative to the mean itself.
+	private float calcRelativeError(int index)
+	{
+		int numSamples = m_numSamples[index];
+		
+		if(numSamples < MIN_ADAPTIVE_SAMPLES)
+		{
+			return Float.POSITIVE_INFINITY;
+		}
+		
+		double mean = calcLuminance(m_sumRgb[index * 3 + 0], m_sumRgb[index * 3 + 1], m_sumRgb[index * 3 + 2]) / numSamples;
+		
+		return (float)(Math.sqrt(calcVarianceOfMean(index)) / (Math.abs(mean) + DARK_LUMINANCE));
+	}
+	
+	// Estimated variance of the pixel's mean luminance; needs at least 2 samples.
+	private double calcVarianceOfMean(int index)
+	{
+		int    numSamples = m_numSamples[index];
+		double mean       = calcLuminance(m_sumRgb[index * 3 + 0], m_sumRgb[index * 3 + 1], m_sumRgb[index * 3 + 2]) / numSamples;
+		double variance   = Math.max(m_sumSqrLum[index] / numSamples - mean * mean, 0.0) * numSamples / (numSamples - 1);
+		
+		return variance / numSamples;
+	}
+	
+	private static double calcLuminance(double r, double g, double b)
+	{
+		return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+	}
+	
+	public RenderTile getRegion()
+	{
+		return m_region;
+	}
+	
+	public int getNumPasses()
+	{
+		return m_generation == m_film.getGeneration() ? m_numPasses : 0;
+	}
+}
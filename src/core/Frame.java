@@ -47,6 +47,11 @@ public abstract class Frame
 		return m_heightPx;
 	}
 	
+	public boolean hasSameDimensions(Frame other)
+	{
+		return m_widthPx == other.m_widthPx && m_heightPx == other.m_heightPx;
+	}
+	
 	public abstract float getPixelR(int x, int y);
 	public abstract float getPixelG(int x, int y);
 	public abstract float getPixelB(int x, int y);
@@ -20,56 +20,143 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
+
 package core;
 
+// Pixels are stored in a single row-major array, three floats (RGB) per pixel, with the first row 
+// being the bottom one (y = 0). Bulk operations work on the whole array in one flat loop.
+
 public class HdrFrame extends Frame
 {
-	private float[][][] m_pixelRgb;
+	private float[] m_pixelRgb;
 	
 	public HdrFrame(int widthPx, int heightPx)
 	{
 		super(widthPx, heightPx);
 		
-		m_pixelRgb = new float[widthPx][heightPx][3];
+		m_pixelRgb = new float[widthPx * heightPx * 3];
 	}
 	
 	@Override
 	public float getPixelR(int x, int y)
 	{
-		return m_pixelRgb[x][y][R];
+		return m_pixelRgb[calcIndex(x, y) + R];
 	}
 	
 	@Override
 	public float getPixelG(int x, int y)
 	{
-		return m_pixelRgb[x][y][G];
+		return m_pixelRgb[calcIndex(x, y) + G];
 	}
 	
 	@Override
 	public float getPixelB(int x, int y)
 	{
-		return m_pixelRgb[x][y][B];
+		return m_pixelRgb[calcIndex(x, y) + B];
 	}
 	
 	@Override
 	public void setPixelRgb(int x, int y, float r, float g, float b)
 	{
-		m_pixelRgb[x][y][R] = r;
-		m_pixelRgb[x][y][G] = g;
-		m_pixelRgb[x][y][B] = b;
+		int index = calcIndex(x, y);
+		
+		m_pixelRgb[index + R] = r;
+		m_pixelRgb[index + G] = g;
+		m_pixelRgb[index + B] = b;
 	}
 	
 	@Override
 	public void set(Frame other)
 	{
-		for(int x = 0; x < getWidthPx(); x++)
+		if(other instanceof HdrFrame && hasSameDimensions(other))
+		{
+			System.arraycopy(((HdrFrame)other).m_pixelRgb, 0, m_pixelRgb, 0, m_pixelRgb.length);
+			return;
+		}
+		
+		for(int y = 0; y < getHeightPx(); y++)
 		{
-			for(int y = 0; y < getHeightPx(); y++)
+			for(int x = 0; x < getWidthPx(); x++)
 			{
-				m_pixelRgb[x][y][R] = other.getPixelR(x, y);
-				m_pixelRgb[x][y][G] = other.getPixelG(x, y);
-				m_pixelRgb[x][y][B] = other.getPixelB(x, y);
+				setPixelRgb(x, y, other.getPixelR(x, y), other.getPixelG(x, y), other.getPixelB(x, y));
 			}
 		}
 	}
+	
+	// this = this * thisWeight + other * otherWeight
+	public void blend(HdrFrame other, float thisWeight, float otherWeight)
+	{
+		float[] otherPixelRgb = other.m_pixelRgb;
+		
+		for(int i = 0; i < m_pixelRgb.length; i++)
+		{
+			m_pixelRgb[i] = m_pixelRgb[i] * thisWeight + otherPixelRgb[i] * otherWeight;
+		}
+	}
+	
+	public void scale(float factor)
+	{
+		for(int i = 0; i < m_pixelRgb.length; i++)
+		{
+			m_pixelRgb[i] *= factor;
+		}
+	}
+	
+	// Maps the frame to displayable 0xRRGGBB values, using the curve by Jim Hejl and Richard 
+	// Burgess-Dawson (GDC), which has gamma built in already. The result is ordered top row first, 
+	// i.e., the way images are usually stored, and must hold at least width * height values.
+	public void toneMapToRgbInts(int[] result)
+	{
+		int widthPx  = getWidthPx();
+		int heightPx = getHeightPx();
+		
+		for(int y = 0; y < heightPx; y++)
+		{
+			int srcIndex = y * widthPx * 3;
+			int dstIndex = (heightPx - y - 1) * widthPx;
+			
+			for(int x = 0; x < widthPx; x++)
+			{
+				int r255 = toneMapTo255(m_pixelRgb[srcIndex + R]);
+				int g255 = toneMapTo255(m_pixelRgb[srcIndex + G]);
+				int b255 = toneMapTo255(m_pixelRgb[srcIndex + B]);
+				
+				result[dstIndex + x] = (r255 << 16) | (g255 << 8) | b255;
+				
+				srcIndex += 3;
+			}
+		}
+	}
+	
+	public boolean containsNaN()
+	{
+		for(int i = 0; i < m_pixelRgb.length; i++)
+		{
+			if(m_pixelRgb[i] != m_pixelRgb[i])
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	// Direct access to the underlying row-major RGB array, see calcIndex().
+	public float[] getPixelData()
+	{
+		return m_pixelRgb;
+	}
+	
+	public int calcIndex(int x, int y)
+	{
+		return (y * getWidthPx() + x) * 3;
+	}
+	
+	private static int toneMapTo255(float value)
+	{
+		float v = Math.max(value - 0.004f, 0.0f);
+		float mapped = (v * (6.2f * v + 0.5f)) / (v * (6.2f * v + 1.7f) + 0.06f);
+		
+		return (int)(mapped * 255.0f + 0.5f);
+	}
 }
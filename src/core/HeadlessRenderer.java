@@ -0,0 +1,376 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+import java.io.File;
+
+import image.FrameWriter;
+import image.ImageManager;
+import image.ImageSavingException;
+import math.sampler.BlueNoiseSampler;
+import model.obj.MeshFile;
+import math.sampler.HaltonSampler;
+import math.sampler.RandomSampler;
+import math.sampler.Sampler;
+import math.sampler.SobolSampler;
+import scene.ClassicMaterialScene;
+import scene.FiveBallsScene;
+import scene.LamborghiniScene;
+import scene.Scene;
+import scene.SponzaScene;
+import scene.partition.BruteForce;
+import scene.partition.PartitionStrategy;
+import scene.partition.bvh.Bvh;
+import scene.partition.bvh.TwoLevelBvh;
+import scene.partition.kdtree.Kdtree;
+import util.Logger;
+import util.SystemInfo;
+import util.Time;
+
+// Batch rendering without any UI, for machines without a display. Renders the scene until the 
+// stop condition is met and writes the result to disk (.pfm for raw radiance, .png tone mapped). 
+// With -error, sampling is adaptive: pixels stop being sampled once their estimated relative error 
+// is below the given value, and the render ends early when all of them are; -spp then caps the 
+// number of samples any pixel can receive. With -denoise on, the result is filtered by Denoiser, 
+// which gives usable previews at a few dozen samples per pixel. With -cache, converted OBJ meshes 
+// and built k-d trees are kept in the given directory (at most 1 GiB of each, least recently used 
+// files are deleted first) and loaded instead of parsed or built again on the next run. With -packets, 
+// camera rays of 4, 8 or 16 neighbouring pixels are traced as one SIMD packet through k-d trees (other 
+// structures trace them one by one); this uses the incubating Vector API, so the sources have to be 
+// compiled and the JVM started with --add-modules jdk.incubator.vector.
+//
+// usage: HeadlessRenderer <scene> <output file (.pfm/.png)> [-width <px>] [-height <px>] 
+//                         [-threads <n>] [-spp <n>] [-time <seconds>] 
+//                         [-accel <kdtree|bvh|two-level-bvh|brute-force>] 
+//                         [-sampler <sobol|halton|blue-noise|random>] [-error <relative error>] 
+//                         [-denoise <on|off>] [-cache <directory>] [-packets <off|4|8|16>]
+// scenes: five-balls, classic-material, lamborghini, sponza
+
+public class HeadlessRenderer
+{
+	private static final int DEFAULT_WIDTH_PX  = 400;
+	private static final int DEFAULT_HEIGHT_PX = 250;
+	private static final int DEFAULT_SPP       = 64;
+	
+	// cap on samples per pixel for adaptive renders without -spp or -time
+	private static final int DEFAULT_ADAPTIVE_MAX_SPP = 1024;
+	
+	private Scene               m_scene;
+	private Film                m_film;
+	private TileScheduler       m_tileScheduler;
+	private RenderStopCondition m_stopCondition;
+	private boolean             m_isDenoisingEnabled;
+	
+	private Logger m_logger;
+	
+	public HeadlessRenderer(Scene scene, int widthPx, int heightPx, int numThreads, RenderStopCondition stopCondition)
+	{
+		m_logger = new Logger("Headless Renderer");
+		
+		m_scene         = scene;
+		m_film          = new Film(widthPx, heightPx);
+		m_tileScheduler = new TileScheduler(scene, m_film, numThreads);
+		m_stopCondition = stopCondition;
+		
+		m_isDenoisingEnabled = false;
+	}
+	
+	public void setSampler(Sampler sampler)
+	{
+		m_tileScheduler.setSampler(sampler);
+	}
+	
+	// see PathTracer.setPacketSize()
+	public void setPacketSize(int numRays)
+	{
+		m_tileScheduler.setPacketSize(numRays);
+	}
+	
+	public void setDenoisingEnabled(boolean isEnabled)
+	{
+		m_isDenoisingEnabled = isEnabled;
+	}
+	
+	// Enables adaptive sampling if positive.
+	public void setTargetRelativeError(float targetRelativeError)
+	{
+		m_film.setTargetRelativeError(targetRelativeError);
+	}
+	
+	// Blocks until the stop condition is met. Tiles check the condition before each of their passes, 
+	// so a time budget may be exceeded by at most one pass of a tile.
+	public HdrFrame render()
+	{
+		m_logger.printMsg("rendering (" + m_stopCondition + ")...");
+		
+		m_scene.cookScene();
+		
+		long startMs = Time.getMilliTime();
+		
+		m_tileScheduler.render(m_stopCondition);
+		m_tileScheduler.shutdown();
+		
+		// with a time budget, tiles may have stopped a pass apart
+		HdrFrame result    = new HdrFrame(m_film.getWidthPx(), m_film.getHeightPx());
+		int      numPasses = m_film.resolve(result);
+		
+		if(m_film.getTargetRelativeError() > 0.0f)
+		{
+			m_logger.printMsg("rendered " + numPasses + " passes (" + m_film.calcAverageSpp() + " spp on average) in " + 
+			                  (Time.getMilliTime() - startMs) + " ms");
+		}
+		else
+		{
+			m_logger.printMsg("rendered " + numPasses + " spp in " + (Time.getMilliTime() - startMs) + " ms");
+		}
+		
+		if(m_isDenoisingEnabled)
+		{
+			long denoiseStartMs = Time.getMilliTime();
+			
+			FeatureFrame features = new FeatureFrame(m_film.getWidthPx(), m_film.getHeightPx());
+			m_film.resolveFeatures(features);
+			
+			Denoiser denoiser = new Denoiser(m_tileScheduler.getNumThreads());
+			denoiser.denoise(result, features, result);
+			denoiser.shutdown();
+			
+			m_logger.printMsg("denoised in " + (Time.getMilliTime() - denoiseStartMs) + " ms");
+		}
+		
+		return result;
+	}
+	
+	public static void main(String[] args)
+	{
+		// image I/O still goes through java.awt.image; make sure no display is ever looked for
+		System.setProperty("java.awt.headless", "true");
+		
+		Logger logger = new Logger("Headless Renderer");
+		
+		if(args.length < 2)
+		{
+			printUsage(logger);
+			System.exit(1);
+		}
+		
+		String sceneName      = args[0];
+		String outputFilename = args[1];
+		int    widthPx        = DEFAULT_WIDTH_PX;
+		int    heightPx       = DEFAULT_HEIGHT_PX;
+		int    numThreads     = Runtime.getRuntime().availableProcessors();
+		int    targetSpp      = 0;
+		long   timeBudgetMs   = 0;
+		String accelName      = null;
+		String samplerName    = null;
+		float  targetError    = 0.0f;
+		String denoiseMode    = "off";
+		String cacheDirectory = null;
+		String packetMode     = "off";
+		
+		try
+		{
+			for(int i = 2; i < args.length; i += 2)
+			{
+				if(i + 1 >= args.length)
+				{
+					throw new IllegalArgumentException("missing value for option " + args[i]);
+				}
+				
+				switch(args[i])
+				{
+				case "-width":   widthPx      = Integer.parseInt(args[i + 1]);                          break;
+				case "-height":  heightPx     = Integer.parseInt(args[i + 1]);                          break;
+				case "-threads": numThreads   = Integer.parseInt(args[i + 1]);                          break;
+				case "-spp":     targetSpp    = Integer.parseInt(args[i + 1]);                          break;
+				case "-time":    timeBudgetMs = (long)(Double.parseDouble(args[i + 1]) * 1000.0);       break;
+				case "-accel":   accelName    = args[i + 1];                                            break;
+				case "-sampler": samplerName  = args[i + 1];                                            break;
+				case "-error":   targetError  = Float.parseFloat(args[i + 1]);                          break;
+				case "-denoise": denoiseMode  = args[i + 1];                                            break;
+				case "-cache":   cacheDirectory = args[i + 1];                                          break;
+				case "-packets": packetMode   = args[i + 1];                                            break;
+				default:
+					throw new IllegalArgumentException("unknown option " + args[i]);
+				}
+			}
+			
+			if(!denoiseMode.equals("on") && !denoiseMode.equals("off"))
+			{
+				throw new IllegalArgumentException("denoise mode must be on or off");
+			}
+			
+			if(!packetMode.equals("off") && !packetMode.equals("4") && !packetMode.equals("8") && !packetMode.equals("16"))
+			{
+				throw new IllegalArgumentException("packet size must be off, 4, 8 or 16");
+			}
+			
+			if(!packetMode.equals("off") && !RayPacket.isVectorApiAvailable())
+			{
+				throw new IllegalArgumentException("-packets needs the JVM option --add-modules jdk.incubator.vector");
+			}
+			
+			if(targetError < 0.0f)
+			{
+				throw new IllegalArgumentException("target relative error must not be negative");
+			}
+			
+			if(targetSpp <= 0 && timeBudgetMs <= 0)
+			{
+				targetSpp = targetError > 0.0f ? DEFAULT_ADAPTIVE_MAX_SPP : DEFAULT_SPP;
+			}
+		}
+		catch(IllegalArgumentException e)
+		{
+			logger.printErr(e.getMessage());
+			printUsage(logger);
+			System.exit(1);
+		}
+		
+		ImageManager.init(SystemInfo.retrieveOsType());
+		
+		// scenes load their meshes on construction
+		if(cacheDirectory != null)
+		{
+			MeshFile.setCacheDirectory(new File(cacheDirectory));
+		}
+		
+		Scene scene = createScene(sceneName);
+		if(scene == null)
+		{
+			logger.printErr("unknown scene <" + sceneName + ">");
+			printUsage(logger);
+			System.exit(1);
+		}
+		
+		if(accelName != null || cacheDirectory != null)
+		{
+			// scenes default to a k-d tree
+			PartitionStrategy partitionStrategy = createPartitionStrategy(accelName != null ? accelName : "kdtree");
+			if(partitionStrategy == null)
+			{
+				logger.printErr("unknown acceleration structure <" + accelName + ">");
+				printUsage(logger);
+				System.exit(1);
+			}
+			
+			if(cacheDirectory != null)
+			{
+				if(partitionStrategy instanceof Kdtree)
+				{
+					((Kdtree)partitionStrategy).setCacheDirectory(new File(cacheDirectory));
+				}
+				else
+				{
+					logger.printWrn("-cache only caches meshes for acceleration structures other than k-d trees");
+				}
+			}
+			
+			scene.setPartitionStrategy(partitionStrategy);
+		}
+		
+		Sampler sampler = null;
+		if(samplerName != null)
+		{
+			sampler = createSampler(samplerName);
+			if(sampler == null)
+			{
+				logger.printErr("unknown sampler <" + samplerName + ">");
+				printUsage(logger);
+				System.exit(1);
+			}
+		}
+		
+		RenderStopCondition stopCondition = new RenderStopCondition(targetSpp, timeBudgetMs);
+		HeadlessRenderer    renderer      = new HeadlessRenderer(scene, widthPx, heightPx, numThreads, stopCondition);
+		
+		renderer.setTargetRelativeError(targetError);
+		renderer.setDenoisingEnabled(denoiseMode.equals("on"));
+		renderer.setPacketSize(packetMode.equals("off") ? 0 : Integer.parseInt(packetMode));
+		
+		if(sampler != null)
+		{
+			renderer.setSampler(sampler);
+		}
+		
+		HdrFrame result = renderer.render();
+		
+		try
+		{
+			FrameWriter.save(result, outputFilename);
+			logger.printMsg("result saved to <" + outputFilename + ">");
+		}
+		catch(ImageSavingException e)
+		{
+			logger.printErr(e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	private static Scene createScene(String sceneName)
+	{
+		switch(sceneName)
+		{
+		case "five-balls":       return new FiveBallsScene();
+		case "classic-material": return new ClassicMaterialScene();
+		case "lamborghini":      return new LamborghiniScene();
+		case "sponza":           return new SponzaScene();
+		default:                 return null;
+		}
+	}
+	
+	private static PartitionStrategy createPartitionStrategy(String accelName)
+	{
+		switch(accelName)
+		{
+		case "kdtree":        return new Kdtree();
+		case "bvh":           return new Bvh();
+		case "two-level-bvh": return new TwoLevelBvh();
+		case "brute-force":   return new BruteForce();
+		default:              return null;
+		}
+	}
+	
+	private static Sampler createSampler(String samplerName)
+	{
+		switch(samplerName)
+		{
+		case "sobol":      return new SobolSampler();
+		case "halton":     return new HaltonSampler();
+		case "blue-noise": return new BlueNoiseSampler();
+		case "random":     return new RandomSampler();
+		default:           return null;
+		}
+	}
+	
+	// keep in sync with the usage in the class comment
+	private static void printUsage(Logger logger)
+	{
+		logger.printMsg("usage: HeadlessRenderer <scene> <output file (.pfm/.png)> [-width <px>] [-height <px>] " + 
+		                "[-threads <n>] [-spp <n>] [-time <seconds>] [-accel <kdtree|bvh|two-level-bvh|brute-force>] " + 
+		                "[-sampler <sobol|halton|blue-noise|random>] [-error <relative error>] " + 
+		                "[-denoise <on|off>] [-cache <directory>] [-packets <off|4|8|16>]");
+		logger.printMsg("scenes: five-balls, classic-material, lamborghini, sponza");
+	}
+}
@@ -20,56 +20,87 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
+
 package core;
 
 import util.Color;
 
+// Pixels are stored as 0xRRGGBB values in a single row-major array, bottom row first.
+
 public class LdrFrame extends Frame
 {
-	private int[][] m_pixels;
+	private int[] m_pixels;
 	
 	public LdrFrame(int widthPx, int heightPx)
 	{
 		super(widthPx, heightPx);
 		
-		m_pixels = new int[widthPx][heightPx];
+		m_pixels = new int[widthPx * heightPx];
 	}
 	
 	@Override
 	public float getPixelR(int x, int y)
 	{
-		return Color.getRedNormalized(m_pixels[x][y]);
+		return Color.getRedNormalized(m_pixels[calcIndex(x, y)]);
 	}
 	
 	@Override
 	public float getPixelG(int x, int y)
 	{
-		return Color.getRedNormalized(m_pixels[x][y]);
+		return Color.getGreenNormalized(m_pixels[calcIndex(x, y)]);
 	}
 	
 	@Override
 	public float getPixelB(int x, int y)
 	{
-		return Color.getRedNormalized(m_pixels[x][y]);
+		return Color.getBlueNormalized(m_pixels[calcIndex(x, y)]);
 	}
 	
 	@Override
 	public void setPixelRgb(int x, int y, float r, float g, float b)
 	{
-		m_pixels[x][y] = Color.toRGBInt(r, g, b);
+		m_pixels[calcIndex(x, y)] = Color.toRGBInt(r, g, b);
 	}
 	
 	@Override
 	public void set(Frame other)
 	{
-		for(int x = 0; x < getWidthPx(); x++)
+		if(other instanceof LdrFrame && hasSameDimensions(other))
+		{
+			System.arraycopy(((LdrFrame)other).m_pixels, 0, m_pixels, 0, m_pixels.length);
+		}
+		else if(other instanceof HdrFrame && hasSameDimensions(other))
+		{
+			float[] otherPixelRgb = ((HdrFrame)other).getPixelData();
+			
+			for(int i = 0; i < m_pixels.length; i++)
+			{
+				m_pixels[i] = Color.toRGBInt(otherPixelRgb[i * 3 + R], 
+				                             otherPixelRgb[i * 3 + G], 
+				                             otherPixelRgb[i * 3 + B]);
+			}
+		}
+		else
 		{
 			for(int y = 0; y < getHeightPx(); y++)
 			{
-				m_pixels[x][y] = Color.toRGBInt(other.getPixelR(x, y), 
-						                        other.getPixelG(x, y), 
-						                        other.getPixelB(x, y));
+				for(int x = 0; x < getWidthPx(); x++)
+				{
+					m_pixels[calcIndex(x, y)] = Color.toRGBInt(other.getPixelR(x, y), 
+					                                           other.getPixelG(x, y), 
+					                                           other.getPixelB(x, y));
+				}
 			}
 		}
 	}
+	
+	public int[] getPixelData()
+	{
+		return m_pixels;
+	}
+	
+	public int calcIndex(int x, int y)
+	{
+		return y * getWidthPx() + x;
+	}
 }
@@ -23,28 +23,73 @@
 package core;
 
 import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
 import math.material.BRDF;
 import math.material.Material;
+import math.sampler.Sampler;
+import math.sampler.SobolSampler;
 import model.primitive.Intersection;
 import scene.Scene;
+import scene.light.LightList;
+import scene.light.LightSample;
 import util.Debug;
 import util.Func;
 
 public class PathTracer
 {
+	// Sample dimensions of a path: the camera draws from the first CAMERA_DIMENSIONS ones, then every 
+	// bounce starts at a fixed dimension, so the same decision of different samples of a pixel draws 
+	// from the same dimension. A bounce samples a light first, then the material; materials needing more 
+	// just spill over into the next bounce's budget.
+	private static final int CAMERA_DIMENSIONS     = 2;
+	private static final int LIGHT_DIMENSIONS      = 6;
+	private static final int DIMENSIONS_PER_BOUNCE = LIGHT_DIMENSIONS + 8;
+	
+	// offset of shadow ray origins, as for the continuing ray (see pathTraceIterative())
+	private static final float SHADOW_RAY_EPSILON = 0.001f;
+	
+	private Sampler m_sampler;
+	private int     m_packetSize;
+	
 	public PathTracer()
 	{
+		m_sampler    = new SobolSampler();
+		m_packetSize = 0;
+	}
+	
+	// Each call to trace() works with a copy of the sampler.
+	public void setSampler(Sampler sampler)
+	{
+		m_sampler = sampler;
+	}
+	
+	// With a packet size of 4, 8 or 16, camera rays of 2x2, 4x2 or 4x4 neighbouring pixels are 
+	// intersected with the scene as one RayPacket (which needs the Vector API module, see there); the 
+	// rest of each path is traced ray by ray. 0 (the default) traces camera rays one by one too.
+	public void setPacketSize(int numRays)
+	{
+		if(numRays != 0)
+		{
+			// fails early for unsupported sizes
+			new RayPacket(numRays);
+		}
 		
+		m_packetSize = numRays;
 	}
 	
-	public void trace(Scene scene, HdrFrame sampleResult)
+	// Adds one sample for each pixel inside the tile, except for pixels the tile reports as converged, 
+	// together with the features of the first surface hit (see FeatureFrame). Only the tile is written 
+	// to, so several threads can trace disjoint tiles of the same film concurrently.
+	public void trace(Scene scene, Film film, FilmTile tile)
 	{
-		int widthPx  = sampleResult.getWidthPx();
-		int heightPx = sampleResult.getHeightPx();
+		int widthPx  = film.getWidthPx();
+		int heightPx = film.getHeightPx();
 		
 		Ray          ray          = new Ray();
 		Intersection intersection = new Intersection();
+		Sampler      sampler      = m_sampler.copy();
+		Vector3f     albedo       = new Vector3f();
 		Camera       camera;
 		
 		synchronized(scene.getCamera())
@@ -52,31 +97,187 @@ public class PathTracer
 			camera = scene.getCamera();
 		}
 		
-		for(int x = 0; x < widthPx; x++)
+		if(m_packetSize != 0)
+		{
+			tracePackets(scene, camera, film, tile, sampler);
+			return;
+		}
+		
+		RenderTile region = tile.getRegion();
+		int xEndPx = region.getXPx() + region.getWidthPx();
+		int yEndPx = region.getYPx() + region.getHeightPx();
+		
+		for(int x = region.getXPx(); x < xEndPx; x++)
 		{
-			for(int y = 0; y < heightPx; y++)
+			for(int y = region.getYPx(); y < yEndPx; y++)
 			{
+				if(tile.isPixelConverged(x, y))
+				{
+					continue;
+				}
+				
 				ray.reset();
-				camera.calcRayThroughPixelDistributed(ray, widthPx, heightPx, x, y);
+				sampler.start(x, y, tile.getNumSamples(x, y));
+				camera.calcRayThroughPixelDistributed(ray, widthPx, heightPx, x, y, sampler);
+				
+				intersection.clear();
+				boolean isHit = scene.findClosestIntersection(ray, intersection);
+				
+				if(isHit)
+				{
+					addFeatureSample(tile, x, y, ray, intersection, albedo);
+				}
 				
-//				pathTraceIterative(scene, ray, intersection, 3);
-				pathTraceIterative(scene, ray, intersection, Integer.MAX_VALUE);
-				sampleResult.setPixelRgb(x, y, ray.getRadiance().x, ray.getRadiance().y, ray.getRadiance().z);
+//				pathTraceIterative(scene, ray, intersection, isHit, sampler, 3);
+				pathTraceIterative(scene, ray, intersection, isHit, sampler, Integer.MAX_VALUE);
+				tile.addSample(x, y, ray.getRadiance().x, ray.getRadiance().y, ray.getRadiance().z);
 			}
 		}
+	}
+	
+	// Same as trace(), with the camera rays of each pixel block gathered into a packet. Converged pixels 
+	// are left out of the packet rather than given an idle lane.
+	private void tracePackets(Scene scene, Camera camera, Film film, FilmTile tile, Sampler sampler)
+	{
+		int widthPx  = film.getWidthPx();
+		int heightPx = film.getHeightPx();
+		
+		int blockWidthPx  = m_packetSize >= 8 ? 4 : 2;
+		int blockHeightPx = m_packetSize / blockWidthPx;
+		
+		RayPacket packet = new RayPacket(m_packetSize);
+		int[]     laneXs = new int[m_packetSize];
+		int[]     laneYs = new int[m_packetSize];
+		Vector3f  albedo = new Vector3f();
 		
-		Statistics.addNumRays(widthPx * heightPx);
+		RenderTile region = tile.getRegion();
+		int xEndPx = region.getXPx() + region.getWidthPx();
+		int yEndPx = region.getYPx() + region.getHeightPx();
+		
+		for(int blockX = region.getXPx(); blockX < xEndPx; blockX += blockWidthPx)
+		{
+			for(int blockY = region.getYPx(); blockY < yEndPx; blockY += blockHeightPx)
+			{
+				int blockXEndPx = Math.min(blockX + blockWidthPx,  xEndPx);
+				int blockYEndPx = Math.min(blockY + blockHeightPx, yEndPx);
+				int numRays     = 0;
+				
+				for(int x = blockX; x < blockXEndPx; x++)
+				{
+					for(int y = blockY; y < blockYEndPx; y++)
+					{
+						if(tile.isPixelConverged(x, y))
+						{
+							continue;
+						}
+						
+						Ray ray = packet.getRay(numRays);
+						ray.reset();
+						sampler.start(x, y, tile.getNumSamples(x, y));
+						camera.calcRayThroughPixelDistributed(ray, widthPx, heightPx, x, y, sampler);
+						
+						laneXs[numRays] = x;
+						laneYs[numRays] = y;
+						numRays++;
+					}
+				}
+				
+				if(numRays == 0)
+				{
+					continue;
+				}
+				
+				packet.gatherLanes(numRays);
+				scene.findClosestIntersections(packet);
+				
+				for(int lane = 0; lane < numRays; lane++)
+				{
+					int          x            = laneXs[lane];
+					int          y            = laneYs[lane];
+					Ray          ray          = packet.getRay(lane);
+					Intersection intersection = packet.getIntersection(lane);
+					boolean      isHit        = packet.isHit(lane);
+					
+					// the other lanes' camera rays used the sampler meanwhile, so the sample starts over; 
+					// pathTraceIterative() sets the dimension of each bounce itself
+					sampler.start(x, y, tile.getNumSamples(x, y));
+					
+					if(isHit)
+					{
+						addFeatureSample(tile, x, y, ray, intersection, albedo);
+					}
+					
+					pathTraceIterative(scene, ray, intersection, isHit, sampler, Integer.MAX_VALUE);
+					tile.addSample(x, y, ray.getRadiance().x, ray.getRadiance().y, ray.getRadiance().z);
+				}
+			}
+		}
 	}
 	
-	private void pathTraceIterative(Scene scene, Ray ray, Intersection intersection, int numBounces)
+	// must be called before the ray is traced further
+	private static void addFeatureSample(FilmTile tile, int x, int y, Ray ray, Intersection intersection, Vector3f albedo)
 	{
+		Material material = intersection.getHitModel().getMaterial();
+		Vector3f normal   = intersection.genInterpolator().getSmoothNormal();
+		float    depth    = intersection.getHitPoint().sub(ray.getOrigin()).length();
+		
+		material.calcAlbedo(intersection, ray.getDir().mul(-1.0f), albedo);
+		tile.addFeatureSample(x, y, albedo, normal, depth);
+	}
+	
+	// The first intersection is already known (see trace()); isHit tells whether there is one. The 
+	// sampler must have been started for the path's pixel sample.
+	// 
+	// Light reaches the path in two ways: by sampling a point on a light at every bounce (next event 
+	// estimation), and by the path itself hitting an emitter. Where both can find the same light, their 
+	// contributions are weighted by multiple importance sampling (power heuristic), so small emitters 
+	// are found by light sampling while large or glossy reflected ones are still found by the path.
+	private void pathTraceIterative(Scene scene, Ray ray, Intersection intersection, boolean isHit, Sampler sampler, int numBounces)
+	{
+		LightList   lights       = scene.getLights();
+		LightSample lightSample  = new LightSample();
+		Ray         shadowRay    = new Ray();
+		Vector2f    pointSample  = new Vector2f();
+		Vector3f    V            = new Vector3f();
+		Vector3f    lastHitPoint = new Vector3f();
+		
 		for(int nBounce = 0; nBounce <= numBounces; nBounce++)
 		{
-			intersection.clear();
+			if(nBounce != 0)
+			{
+				intersection.clear();
+				isHit = scene.findClosestIntersection(ray, intersection);
+			}
 			
-			if(scene.findClosestIntersection(ray, intersection))
+			if(isHit)
 			{
-				if(!intersection.interact(ray))
+				Material material   = intersection.getHitModel().getMaterial();
+				Vector3f emissivity = material.getEmissivity();
+				
+				if(emissivity != null)
+				{
+					float misWeight = 1.0f;
+					
+					if(ray.getDirPdf() > 0.0f)
+					{
+						misWeight = calcMisWeight(ray.getDirPdf(), lights.calcPdf(lastHitPoint, intersection));
+					}
+					
+					ray.getRadiance().addLocal(ray.getWeight().mul(emissivity).mulLocal(misWeight));
+					
+					return;
+				}
+				
+				int dimension = CAMERA_DIMENSIONS + nBounce * DIMENSIONS_PER_BOUNCE;
+				
+				sampler.setDimension(dimension);
+				sampleLight(scene, lights, ray, intersection, material, sampler, lightSample, shadowRay, pointSample, V);
+				
+				sampler.setDimension(dimension + LIGHT_DIMENSIONS);
+				lastHitPoint.set(intersection.getHitPoint());
+				ray.setDirPdf(0.0f);
+				
+				if(!intersection.interact(ray, sampler))
 					return;
 				
 				// offset a little to prevent self intersection artefact
@@ -88,4 +289,74 @@ public class PathTracer
 			}
 		}
 	}
+	
+	// Adds the light arriving at the intersection directly from a sampled point on a light, leaving 
+	// toward the ray's origin. All temporaries live in the per-path scratch objects passed in: the 
+	// direction toward the light is the shadow ray's direction and the light it carries is its radiance.
+	private static void sampleLight(Scene scene, LightList lights, Ray ray, Intersection intersection, Material material, 
+	                                Sampler sampler, LightSample lightSample, Ray shadowRay, Vector2f pointSample, Vector3f V)
+	{
+		if(lights.isEmpty())
+		{
+			return;
+		}
+		
+		float    lightSelection = sampler.get1D();
+		Vector3f hitPoint       = intersection.getHitPoint();
+		
+		sampler.get2D(pointSample);
+		
+		if(!lights.sample(hitPoint, lightSelection, pointSample.x, pointSample.y, lightSample))
+		{
+			return;
+		}
+		
+		Vector3f L    = lightSample.getPoint().sub(hitPoint, shadowRay.getDir());
+		float    dist = L.length();
+		
+		if(!(dist > SHADOW_RAY_EPSILON * 2.0f))
+		{
+			return;
+		}
+		
+		L.divLocal(dist);
+		ray.getDir().mul(-1.0f, V);
+		
+		Vector3f f = shadowRay.getRadiance();
+		material.eval(intersection, V, L, sampler, f);
+		
+		if(f.squareLength() == 0.0f)
+		{
+			return;
+		}
+		
+		// stop a little short of the light so it does not shadow itself
+		L.mul(SHADOW_RAY_EPSILON, shadowRay.getOrigin()).addLocal(hitPoint);
+		
+		if(scene.isOccluded(shadowRay, (dist - SHADOW_RAY_EPSILON) * 0.999f))
+		{
+			return;
+		}
+		
+		float lightPdf  = lightSample.getPdf();
+		float misWeight = calcMisWeight(lightPdf, material.pdf(intersection, V, L));
+		
+		f.mulLocal(lightSample.getEmissivity()).mulLocal(misWeight / lightPdf).mulLocal(ray.getWeight());
+		ray.getRadiance().addLocal(f);
+	}
+	
+	// power heuristic (beta = 2) for the strategy that picked the sample
+	private static float calcMisWeight(float pickedPdf, float otherPdf)
+	{
+		float picked = pickedPdf * pickedPdf;
+		float other  = otherPdf  * otherPdf;
+		
+		// both densities may be huge for tiny lights
+		if(Float.isInfinite(picked) || Float.isInfinite(other))
+		{
+			return pickedPdf >= otherPdf ? 1.0f : 0.0f;
+		}
+		
+		return picked / (picked + other);
+	}
 }
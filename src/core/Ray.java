@@ -30,6 +30,7 @@ public class Ray
 	private Vector3f m_dir;
 	private Vector3f m_radiance;
 	private Vector3f m_weight;
+	private float    m_dirPdf;
 	
 	public Ray(Vector3f origin, Vector3f dir)
 	{
@@ -37,6 +38,7 @@ public class Ray
 		m_dir      = new Vector3f(dir);
 		m_radiance = new Vector3f(0.0f, 0.0f, 0.0f);
 		m_weight   = new Vector3f(1.0f, 1.0f, 1.0f);
+		m_dirPdf   = 0.0f;
 	}
 	
 	public Ray()
@@ -55,6 +57,8 @@ public class Ray
 		m_dir.     set( 0.0f,  0.0f, -1.0f);
 		m_radiance.set( 0.0f,  0.0f,  0.0f);
 		m_weight.  set( 1.0f,  1.0f,  1.0f);
+		
+		m_dirPdf = 0.0f;
 	}
 	
 	public Vector3f getOrigin()
@@ -77,6 +81,19 @@ public class Ray
 		return m_weight;
 	}
 	
+	// Solid angle density the last bounce picked the direction with, if light sampling covers that 
+	// choice as well (see Material.sample()); 0 otherwise, e.g. for camera rays and specular 
+	// reflections, in which case emitters hit by the ray count fully.
+	public float getDirPdf()
+	{
+		return m_dirPdf;
+	}
+	
+	public void setDirPdf(float dirPdf)
+	{
+		m_dirPdf = dirPdf;
+	}
+	
 	@Override
 	public String toString()
 	{
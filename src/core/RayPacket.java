@@ -0,0 +1,184 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+import model.primitive.Intersection;
+import scene.partition.PartitionStrategy;
+
+// A small group of rays (camera rays through neighbouring pixels) that is intersected with the scene in 
+// one go. Besides the rays themselves, origins, directions and reciprocal directions are kept in 
+// per-component arrays of capacity elements (one per lane), the layout vector loads expect. Lanes beyond the packet's 
+// size repeat the first ray so every lane holds valid numbers; their results are ignored. Each lane 
+// has its own Intersection for the result.
+//
+// Packet traversal runs on the incubating Java Vector API, so the module jdk.incubator.vector has to be 
+// added (--add-modules jdk.incubator.vector) when compiling and when running with packets.
+
+public class RayPacket
+{
+	private Ray[]          m_rays;
+	private Intersection[] m_intersections;
+	private boolean[]      m_isHits;
+	private int            m_size;
+	
+	private float[] m_originXs;
+	private float[] m_originYs;
+	private float[] m_originZs;
+	private float[] m_dirXs;
+	private float[] m_dirYs;
+	private float[] m_dirZs;
+	private float[] m_reciDirXs;
+	private float[] m_reciDirYs;
+	private float[] m_reciDirZs;
+	
+	// capacity must be a number of lanes the vector hardware can be asked for (4, 8 or 16 floats)
+	public RayPacket(int capacity)
+	{
+		if(capacity != 4 && capacity != 8 && capacity != 16)
+		{
+			throw new IllegalArgumentException("packet capacity must be 4, 8 or 16 rays");
+		}
+		
+		m_rays          = new Ray[capacity];
+		m_intersections = new Intersection[capacity];
+		m_isHits        = new boolean[capacity];
+		m_size          = 0;
+		
+		for(int i = 0; i < capacity; i++)
+		{
+			m_rays[i]          = new Ray();
+			m_intersections[i] = new Intersection();
+		}
+		
+		m_originXs  = new float[capacity];
+		m_originYs  = new float[capacity];
+		m_originZs  = new float[capacity];
+		m_dirXs     = new float[capacity];
+		m_dirYs     = new float[capacity];
+		m_dirZs     = new float[capacity];
+		m_reciDirXs = new float[capacity];
+		m_reciDirYs = new float[capacity];
+		m_reciDirZs = new float[capacity];
+	}
+	
+	// Whether the Vector API module was added to the running JVM.
+	public static boolean isVectorApiAvailable()
+	{
+		return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	}
+	
+	// Copies origins, directions and reciprocal directions of the first numRays rays into the lane arrays; call 
+	// this once the rays are set up and before intersecting the packet.
+	public void gatherLanes(int numRays)
+	{
+		m_size = numRays;
+		
+		for(int i = 0; i < m_rays.length; i++)
+		{
+			Ray ray = m_rays[i < numRays ? i : 0];
+			
+			m_originXs[i]  = ray.getOrigin().x;
+			m_originYs[i]  = ray.getOrigin().y;
+			m_originZs[i]  = ray.getOrigin().z;
+			m_dirXs[i]     = ray.getDir().x;
+			m_dirYs[i]     = ray.getDir().y;
+			m_dirZs[i]     = ray.getDir().z;
+			m_reciDirXs[i] = 1.0f / ray.getDir().x;
+			m_reciDirYs[i] = 1.0f / ray.getDir().y;
+			m_reciDirZs[i] = 1.0f / ray.getDir().z;
+			
+			m_isHits[i] = false;
+		}
+	}
+	
+	// Whether the reciprocal directions of all lanes have the same sign per axis, i.e. all rays visit the 
+	// two sides of any axis-aligned plane in the same order. Packet traversal of k-d trees relies on it.
+	public boolean hasCoherentDirs()
+	{
+		boolean isNegX = m_reciDirXs[0] < 0.0f;
+		boolean isNegY = m_reciDirYs[0] < 0.0f;
+		boolean isNegZ = m_reciDirZs[0] < 0.0f;
+		
+		for(int i = 1; i < m_size; i++)
+		{
+			if((m_reciDirXs[i] < 0.0f) != isNegX || 
+			   (m_reciDirYs[i] < 0.0f) != isNegY || 
+			   (m_reciDirZs[i] < 0.0f) != isNegZ)
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	// Traces the rays one by one, for structures without a packet traversal.
+	public void findClosestIntersectionsOneByOne(PartitionStrategy strategy)
+	{
+		for(int i = 0; i < m_size; i++)
+		{
+			m_isHits[i] = strategy.findClosestIntersection(m_rays[i], m_intersections[i]);
+		}
+	}
+	
+	public int getCapacity()
+	{
+		return m_rays.length;
+	}
+	
+	public int getSize()
+	{
+		return m_size;
+	}
+	
+	public Ray getRay(int lane)
+	{
+		return m_rays[lane];
+	}
+	
+	public Intersection getIntersection(int lane)
+	{
+		return m_intersections[lane];
+	}
+	
+	public boolean isHit(int lane)
+	{
+		return m_isHits[lane];
+	}
+	
+	public void setHit(int lane, boolean isHit)
+	{
+		m_isHits[lane] = isHit;
+	}
+	
+	public float[] getOriginXs()  { return m_originXs;  }
+	public float[] getOriginYs()  { return m_originYs;  }
+	public float[] getOriginZs()  { return m_originZs;  }
+	public float[] getDirXs()     { return m_dirXs;     }
+	public float[] getDirYs()     { return m_dirYs;     }
+	public float[] getDirZs()     { return m_dirZs;     }
+	public float[] getReciDirXs() { return m_reciDirXs; }
+	public float[] getReciDirYs() { return m_reciDirYs; }
+	public float[] getReciDirZs() { return m_reciDirZs; }
+}
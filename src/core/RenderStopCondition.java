@@ -0,0 +1,71 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+// Decides when a batch render is done. A target of 0 samples per pixel or a budget of 0 ms means 
+// that criterion is unused; if both are given, whichever is reached first stops the render.
+
+public class RenderStopCondition
+{
+	private int  m_targetSpp;
+	private long m_timeBudgetMs;
+	
+	public RenderStopCondition(int targetSpp, long timeBudgetMs)
+	{
+		if(targetSpp <= 0 && timeBudgetMs <= 0)
+		{
+			throw new IllegalArgumentException("at least one of target spp and time budget must be positive");
+		}
+		
+		m_targetSpp    = Math.max(targetSpp, 0);
+		m_timeBudgetMs = Math.max(timeBudgetMs, 0);
+	}
+	
+	public boolean isMet(int numSpp, long elapsedMs)
+	{
+		boolean isSppReached  = m_targetSpp    > 0 && numSpp    >= m_targetSpp;
+		boolean isTimeReached = m_timeBudgetMs > 0 && elapsedMs >= m_timeBudgetMs;
+		
+		return isSppReached || isTimeReached;
+	}
+	
+	public int getTargetSpp()
+	{
+		return m_targetSpp;
+	}
+	
+	public long getTimeBudgetMs()
+	{
+		return m_timeBudgetMs;
+	}
+	
+	@Override
+	public String toString()
+	{
+		String targetSpp  = m_targetSpp    > 0 ? m_targetSpp + " spp"   : "no spp target";
+		String timeBudget = m_timeBudgetMs > 0 ? m_timeBudgetMs + " ms" : "no time budget";
+		
+		return targetSpp + ", " + timeBudget;
+	}
+}
@@ -20,46 +20,54 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
-package model.obj;
 
-public class ObjIndex
-{
-	public int positionIndex;
-	public int texCoordIndex;
-	public int normalIndex;
+package core;
 
-	@Override
-	public boolean equals(Object obj)
-	{
-		ObjIndex index = (ObjIndex)obj;
+// A rectangular region of the frame, in pixels. The lower-left corner is (xPx, yPx).
 
-		return positionIndex == index.positionIndex &&
-			   texCoordIndex == index.texCoordIndex &&
-			   normalIndex   == index.normalIndex;
+public class RenderTile
+{
+	private int m_xPx;
+	private int m_yPx;
+	private int m_widthPx;
+	private int m_heightPx;
+	
+	public RenderTile(int xPx, int yPx, int widthPx, int heightPx)
+	{
+		m_xPx      = xPx;
+		m_yPx      = yPx;
+		m_widthPx  = widthPx;
+		m_heightPx = heightPx;
 	}
 	
-	private static final int BASE       = 17;
-	private static final int MULTIPLIER = 31;
-
-	@Override
-	public int hashCode()
+	public int getXPx()
 	{
-		int result = BASE;
-
-		result = MULTIPLIER * result + positionIndex;
-		result = MULTIPLIER * result + texCoordIndex;
-		result = MULTIPLIER * result + normalIndex;
-
-		return result;
+		return m_xPx;
+	}
+	
+	public int getYPx()
+	{
+		return m_yPx;
+	}
+	
+	public int getWidthPx()
+	{
+		return m_widthPx;
+	}
+	
+	public int getHeightPx()
+	{
+		return m_heightPx;
+	}
+	
+	public int getNumPixels()
+	{
+		return m_widthPx * m_heightPx;
 	}
 	
 	@Override
 	public String toString()
 	{
-		return "[" + 
-	                 positionIndex + "," + 
-				     texCoordIndex + "," + 
-				     normalIndex + 
-			   "]";
+		return "tile (" + m_xPx + ", " + m_yPx + "), " + m_widthPx + "x" + m_heightPx + " px";
 	}
 }
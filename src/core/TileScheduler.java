@@ -0,0 +1,214 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package core;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import math.sampler.Sampler;
+import scene.Scene;
+import util.Debug;
+import util.Logger;
+import util.Time;
+
+// Traces the tiles of a film on a fork-join pool. The tiles wait in one shared FIFO queue; every 
+// worker repeatedly takes the tile at its head, traces one sample per pixel of it (a pass) and puts 
+// it back at the tail. There is no barrier between passes: while the last expensive tiles (glass, 
+// dense geometry) of one pass are still being traced, the other workers already go on with the next 
+// pass of the remaining tiles. As the queue is strictly round-robin, a tile only falls behind the 
+// others while one of its own passes is being traced. Tiles accumulate into the film on their own, 
+// so no lock is taken while tracing.
+//
+// Each tile checks the stop condition against its own pass count before every pass. With adaptive 
+// sampling (see Film), converged pixels are left out of a pass; fully converged tiles are not traced 
+// but keep counting passes, and rendering stops once the whole film has converged.
+public class TileScheduler
+{
+	private Scene          m_scene;
+	private Film           m_film;
+	private PathTracer     m_pathTracer;
+	private ForkJoinPool   m_pool;
+	private List<FilmTile> m_tiles;
+	
+	// state of the current render, see render()
+	private ConcurrentLinkedQueue<FilmTile> m_tileQueue;
+	private RenderStopCondition             m_stopCondition;
+	private long                            m_startMs;
+	private volatile boolean                m_isAborted;
+	
+	private Logger m_logger;
+	
+	public TileScheduler(Scene scene, Film film)
+	{
+		this(scene, film, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public TileScheduler(Scene scene, Film film, int numThreads)
+	{
+		m_logger = new Logger("Tile Scheduler");
+		
+		m_scene      = scene;
+		m_film       = film;
+		m_pathTracer = new PathTracer();
+		m_pool       = new ForkJoinPool(numThreads);
+		m_tiles      = film.getTiles();
+		m_tileQueue  = new ConcurrentLinkedQueue<>();
+		
+		m_logger.printMsg(m_tiles.size() + " tiles, " + numThreads + " threads");
+	}
+	
+	// Not to be called while rendering.
+	public void setSampler(Sampler sampler)
+	{
+		m_pathTracer.setSampler(sampler);
+	}
+	
+	// Not to be called while rendering; see PathTracer.setPacketSize().
+	public void setPacketSize(int numRays)
+	{
+		m_pathTracer.setPacketSize(numRays);
+	}
+	
+	// Renders passes of every tile until the stop condition is met for it (or, with adaptive sampling, 
+	// the film has converged) and blocks until all tiles have stopped. A null condition is never met. 
+	// The condition's time budget counts from this call and may be exceeded by at most one tile pass. 
+	// An exception thrown while tracing stops all workers and is rethrown here.
+	public void render(RenderStopCondition stopCondition)
+	{
+		m_stopCondition = stopCondition;
+		m_startMs       = Time.getMilliTime();
+		m_isAborted     = false;
+		
+		m_tileQueue.clear();
+		m_tileQueue.addAll(m_tiles);
+		
+		m_pool.invoke(new RenderTask());
+	}
+	
+	// Keeps rendering on a background thread.
+	public void start()
+	{
+		Thread driverThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					render(null);
+				}
+				catch(Exception e)
+				{
+					Debug.printErr("tile scheduler stopped unexpectedly");
+					Debug.printErr(e.getMessage());
+					e.printStackTrace();
+					Debug.exit();
+				}
+			}
+		}, "Tile Scheduler");
+		
+		driverThread.start();
+	}
+	
+	public void shutdown()
+	{
+		m_pool.shutdown();
+	}
+	
+	public int getNumThreads()
+	{
+		return m_pool.getParallelism();
+	}
+	
+	private boolean isTileDone(FilmTile tile)
+	{
+		if(m_isAborted || m_film.isConverged())
+		{
+			return true;
+		}
+		
+		return m_stopCondition != null && m_stopCondition.isMet(tile.getNumPasses(), Time.getMilliTime() - m_startMs);
+	}
+	
+	// Runs one worker loop per thread and waits for all of them.
+	@SuppressWarnings("serial")
+	private class RenderTask extends RecursiveAction
+	{
+		@Override
+		protected void compute()
+		{
+			int              numWorkers = getNumThreads();
+			WorkerLoopTask[] workers    = new WorkerLoopTask[numWorkers];
+			
+			for(int i = 0; i < numWorkers; i++)
+			{
+				workers[i] = new WorkerLoopTask();
+			}
+			
+			invokeAll(workers);
+		}
+	}
+	
+	// Traces passes of tiles taken from the queue until it runs empty, i.e., all tiles are done or 
+	// being traced by other workers.
+	@SuppressWarnings("serial")
+	private class WorkerLoopTask extends RecursiveAction
+	{
+		@Override
+		protected void compute()
+		{
+			try
+			{
+				FilmTile tile;
+				while((tile = m_tileQueue.poll()) != null)
+				{
+					if(isTileDone(tile))
+					{
+						continue;
+					}
+					
+					tile.beginPass();
+					
+					if(!tile.isConverged())
+					{
+						Statistics.addNumRays(tile.getNumActivePixels());
+						
+						m_pathTracer.trace(m_scene, m_film, tile);
+					}
+					
+					tile.endPass();
+					
+					m_tileQueue.offer(tile);
+				}
+			}
+			catch(RuntimeException | Error e)
+			{
+				m_isAborted = true;
+				throw e;
+			}
+		}
+	}
+}
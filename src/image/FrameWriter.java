@@ -0,0 +1,114 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package image;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import core.HdrFrame;
+import util.IOUtil;
+
+// Writes rendered frames to disk. PFM keeps the full floating point radiance, PNG is tone mapped 
+// the same way the display does.
+
+public final class FrameWriter
+{
+	public static void save(HdrFrame frame, String fullFilename) throws ImageSavingException
+	{
+		String imageType = IOUtil.getFilenameExtension(fullFilename).toLowerCase(Locale.ROOT);
+		
+		if(imageType.equals("pfm"))
+		{
+			savePfm(frame, fullFilename);
+		}
+		else if(imageType.equals("png"))
+		{
+			savePng(frame, fullFilename);
+		}
+		else
+		{
+			ImageSavingException exception = new ImageSavingException();
+			exception.setMessage("image type <" + imageType + "> is unsupported");
+			throw exception;
+		}
+	}
+	
+	// Portable float map: a small text header followed by little-endian RGB floats, bottom row 
+	// first, which is exactly how HdrFrame stores its pixels.
+	public static void savePfm(HdrFrame frame, String fullFilename) throws ImageSavingException
+	{
+		String  header   = "PF\n" + frame.getWidthPx() + " " + frame.getHeightPx() + "\n-1.0\n";
+		float[] pixelRgb = frame.getPixelData();
+		
+		ByteBuffer buffer = ByteBuffer.allocate(pixelRgb.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asFloatBuffer().put(pixelRgb);
+		
+		try(OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(fullFilename)))
+		{
+			outputStream.write(header.getBytes(StandardCharsets.US_ASCII));
+			outputStream.write(buffer.array());
+		}
+		catch(IOException e)
+		{
+			ImageSavingException exception = new ImageSavingException();
+			exception.setMessage("couldn't save <" + fullFilename + ">, info: " + e.getMessage());
+			throw exception;
+		}
+	}
+	
+	public static void savePng(HdrFrame frame, String fullFilename) throws ImageSavingException
+	{
+		int   widthPx  = frame.getWidthPx();
+		int   heightPx = frame.getHeightPx();
+		int[] pixels   = new int[widthPx * heightPx];
+		
+		frame.toneMapToRgbInts(pixels);
+		
+		BufferedImage bufferedImage = new BufferedImage(widthPx, heightPx, BufferedImage.TYPE_INT_RGB);
+		bufferedImage.setRGB(0, 0, widthPx, heightPx, pixels, 0, widthPx);
+		
+		try
+		{
+			ImageIO.write(bufferedImage, "png", new File(fullFilename));
+		}
+		catch(IOException e)
+		{
+			ImageSavingException exception = new ImageSavingException();
+			exception.setMessage("couldn't save <" + fullFilename + ">, info: " + e.getMessage());
+			throw exception;
+		}
+	}
+	
+	private FrameWriter() {}
+}
@@ -22,18 +22,20 @@
 
 package image;
 
-import core.Engine;
 import image.intrinsic.IntrinsicImageLoader;
 import util.Logger;
+import util.SystemInfo.OsType;
 
 public final class ImageManager
 {
 	private static ImageLoader imageLoader = null;
 	private static final Logger logger = new Logger(ImageManager.class.getSimpleName());
 	
-	public static boolean init(Engine engine)
+	public static boolean init(OsType osType)
 	{
-		if(engine.getOsType() == Engine.OsType.WINDOWS)
+		// the intrinsic loader only relies on javax.imageio, which is available on every platform 
+		// we run on
+		if(osType == OsType.WINDOWS || osType == OsType.LINUX)
 		{
 			imageLoader = new IntrinsicImageLoader();
 			
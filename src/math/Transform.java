@@ -31,6 +31,8 @@ public class Transform
 	private Matrix4f m_rotationMatrix;
 	private Matrix4f m_scaleMatrix;
 	
+	private boolean m_isIdentity;
+	
 	public Transform()
 	{
 		m_modelMatrix        = new Matrix4f().initIdentity();
@@ -39,6 +41,8 @@ public class Transform
 		m_translationMatrix = new Matrix4f().initIdentity();
 		m_rotationMatrix    = new Matrix4f().initIdentity();
 		m_scaleMatrix       = new Matrix4f().initIdentity();
+		
+		m_isIdentity = true;
 	}
 	
 	public void update()
@@ -46,6 +50,8 @@ public class Transform
 		m_translationMatrix.mul(m_rotationMatrix.mul(m_scaleMatrix), m_modelMatrix);
 		m_modelMatrix.inverse(m_inverseModelMatrix);
 		
+		m_isIdentity = m_modelMatrix.isIdentity();
+		
 //		Debug.print(m_inverseModelMatrix);
 	}
 	
@@ -85,6 +91,21 @@ public class Transform
 		update();
 	}
 	
+	// Back to the identity transform (model space equals world space).
+	public void reset()
+	{
+		m_translationMatrix.initIdentity();
+		m_rotationMatrix.initIdentity();
+		m_scaleMatrix.initIdentity();
+		update();
+	}
+	
+	// Primitives skip transforming rays and hits altogether if this is true.
+	public boolean isIdentity()
+	{
+		return m_isIdentity;
+	}
+	
 	public Matrix4f getModelMatrix()
 	{
 		return m_modelMatrix;
@@ -24,8 +24,9 @@ package math.material;
 
 import core.Ray;
 import image.Texture;
-import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
+import math.sampler.Sampler;
 import model.primitive.Interpolator;
 import model.primitive.Intersection;
 import util.Debug;
@@ -44,6 +45,8 @@ public final class AbradedOpaque implements Material
 	// F0: reflectivity at normal incidence
 	// o:  vector dot
 	
+	private static final float MIN_LIGHT_SAMPLED_ROUGHNESS = 0.001f;
+	
 	private float    m_roughness;
 	private float    m_metalness;
 	private Vector3f m_f0;
@@ -64,10 +67,12 @@ public final class AbradedOpaque implements Material
 		m_emissivity = new Vector3f(0.0f, 0.0f, 0.0f);
 	}
 	
-	private Vector3f genDiffuseSampleDirIS(Vector3f N, Vector3f V)
+	private Vector3f genDiffuseSampleDirIS(Vector3f N, Vector3f V, Sampler sampler)
 	{
-		float phi       = Rand.getFloat0_1() * 2.0f * 3.14159265f;
-		float elevation = (float)Math.sqrt(Rand.getFloat0_1());
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float phi       = sample.x * 2.0f * 3.14159265f;
+		float elevation = (float)Math.sqrt(sample.y);
 		float planeR    = (float)Math.sqrt(1.0f - elevation*elevation);
 		
 		Vector3f u = new Vector3f();
@@ -81,16 +86,16 @@ public final class AbradedOpaque implements Material
 			add(v.mulLocal(elevation)).normalizeLocal();
 	}
 
-	private Vector3f genMicrofacetNormalIS(Vector3f N, Vector3f V)
+	private Vector3f genMicrofacetNormalIS(Vector3f N, Vector3f V, Sampler sampler)
 	{
-		float rand1 = Rand.getFloat0_1();
-		float rand2 = Rand.getFloat0_1();
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float rand1 = sample.x;
+		float rand2 = sample.y;
 		float phi      = rand1 * 2.0f * 3.14159265f;
 //		float theta    = (float)Math.atan(Math.sqrt(-Math.pow(m_roughness, 2.0f) * Math.log(1.0f - rand2)));
 		
-		// slightly widened Beckmann distribution to avoid extremely large weight (worst when retroreflection ray is at
-		// (grazing angles, reflectance should be very small in such situation)
-		float roughness = (1.2f - 0.2f * (float)Math.sqrt(V.absDot(N))) * m_roughness;
+		float roughness = calcSampledRoughness(N, V);
 		float theta    = (float)Math.atan(Math.sqrt(-(roughness*roughness) * Math.log(1.0f - rand2)));
 		
 		
@@ -118,13 +123,14 @@ public final class AbradedOpaque implements Material
 		return sampleDirGlobal.normalizeLocal();
 	}
 	
+	// Both lobes are lit by light sampling as well (see eval() and pdf()), except for nearly mirror-like 
+	// specular ones.
 	@Override
-	public boolean sample(Intersection intersection, Ray ray)
+	public boolean sample(Intersection intersection, Ray ray, Sampler sampler)
 	{
+		// light is emitted only, see getEmissivity()
 		if(m_emissivity.squareLength() != 0.0f)
 		{
-			ray.getRadiance().addLocal(ray.getWeight().mul(m_emissivity));
-			
 			return false;
 		}
 		
@@ -135,7 +141,7 @@ public final class AbradedOpaque implements Material
 		Vector3f N = interpolator.getSmoothNormal();
 //		Vector3f N = intersection.genInterpolator().getFlatNormal();
 		Vector3f V = ray.getDir().mul(-1.0f);
-		Vector3f H = genMicrofacetNormalIS(N, V);
+		Vector3f H = genMicrofacetNormalIS(N, V, sampler);
 		Vector3f L = V.mul(-1.0f).reflectLocal(H).normalizeLocal();
 		
 		float NoV = Func.clamp(N.dot(V), 0.0f, 1.0f);
@@ -145,8 +151,8 @@ public final class AbradedOpaque implements Material
 		float HoL = Func.clamp(H.dot(L), 0.0f, 1.0f);
 		
 		// Fresnel: Schlick approximated
-		Vector3f F = m_f0.complement().mulLocal((float)Math.pow(1.0f - VoH, 5)).addLocal(m_f0);
-		float pathProb = Rand.getFloat0_1();
+		Vector3f F = calcFresnel(VoH);
+		float pathProb = sampler.get1D();
 		float reflectionProb = F.avg() + 0.00001f;
 		
 		// as specular (Ks)
@@ -155,45 +161,24 @@ public final class AbradedOpaque implements Material
 			// account for probability
 			F.divLocal(reflectionProb);
 			
-			// Geometry Shadowing: Cook-Torrance
-			float g1 = 2.0f * HoN * NoV / (VoH);
-			float g2 = 2.0f * HoN * NoL / (VoH);
-			float G = Math.min(1.0f, Math.min(g1, g2));
-			
-			float denominator = NoV * HoN;
-			float constTerm = G * HoL / denominator;
+			reflectance.set(F.mul(calcSpecularTerm(NoV, NoL, VoH, HoN, HoL)));
 			
-			// check for NaN and assume no crazy sample weight 
-			if(constTerm < 100.0f)
-			{
-				reflectance.set(F.mul(constTerm));
-			}
+			ray.setDirPdf(isSpecularLightSampled(N, V) ? calcPdf(N, V, L) : 0.0f);
 		}
 		// since the object is opaque, assume the resting energy is diffused (Kd)
 		else
 		{
-			L = genDiffuseSampleDirIS(N, V);
-			
-			Vector3f diffuseReflectivity = F.complement();
-			diffuseReflectivity.mulLocal(1.0f - m_metalness);
+			L = genDiffuseSampleDirIS(N, V, sampler);
 			
 			// account for probability
-			diffuseReflectivity.divLocal(1.0f - reflectionProb);
-			
-			Vector3f albedo = new Vector3f(m_constAlbedo);
-			
-			if(m_textureAlbedo != null)
-			{
-//				Debug.print("LLL");
-				m_textureAlbedo.sample(interpolator.getSmoothTexCoord(), albedo);
-			}
+			reflectance.set(calcDiffuseReflectivity(interpolator, F).divLocal(1.0f - reflectionProb));
 			
-			reflectance.set(diffuseReflectivity.mulLocal(albedo));
+			ray.setDirPdf(calcPdf(N, V, L));
 		}
 		
 		float rrSurviveProb = Func.clamp(reflectance.avg(), 0.0f, 1.0f);
 		float rrScale = 1.0f / (rrSurviveProb + 0.00001f);
-		float rrSpin = Rand.getFloat0_1();
+		float rrSpin = sampler.get1D();
 		
 		// russian roulette >> dead
 		if(rrSpin > rrSurviveProb)
@@ -211,6 +196,169 @@ public final class AbradedOpaque implements Material
 		}
 	}
 	
+	// What sample() does is evaluated here: the specular lobe reflecting through the microfacet 
+	// normal H = normalize(V + L) with the weight sample() gives it, times the density of sampling that 
+	// normal; and the diffuse lobe, which is scaled by the part of the energy a sampled microfacet does 
+	// not reflect specularly. As the latter is only known as an average over microfacets, an unbiased 
+	// estimate of it is written, with a microfacet drawn the same way sample() draws one.
+	@Override
+	public void eval(Intersection intersection, Vector3f V, Vector3f L, Sampler sampler, Vector3f result)
+	{
+		Interpolator interpolator = intersection.genInterpolator();
+		
+		Vector3f N = interpolator.getSmoothNormal();
+		Vector3f H = genMicrofacetNormalIS(N, V, sampler);
+		
+		float NoL = Func.clamp(N.dot(L), 0.0f, 1.0f);
+		float VoH = Func.clamp(V.dot(H), 0.0f, 1.0f);
+		
+		if(m_emissivity.squareLength() != 0.0f || NoL == 0.0f)
+		{
+			result.set(0.0f, 0.0f, 0.0f);
+			return;
+		}
+		
+		// Lambertian
+		result.set(calcDiffuseReflectivity(interpolator, calcFresnel(VoH)).mulLocal(NoL / 3.14159265f));
+		
+		if(isSpecularLightSampled(N, V))
+		{
+			H = V.add(L).normalizeLocal();
+			
+			float NoV = Func.clamp(N.dot(V), 0.0f, 1.0f);
+			float HoN = Func.clamp(H.dot(N), 0.0f, 1.0f);
+			
+			VoH = Func.clamp(V.dot(H), 0.0f, 1.0f);
+			
+			if(VoH > 0.0f)
+			{
+				float specularTerm = calcSpecularTerm(NoV, NoL, VoH, HoN, VoH);
+				float reflectedPdf = calcMicrofacetNormalPdf(HoN, calcSampledRoughness(N, V)) / (4.0f * VoH);
+				
+				result.addLocal(calcFresnel(VoH).mulLocal(specularTerm * reflectedPdf));
+			}
+		}
+	}
+	
+	@Override
+	public float pdf(Intersection intersection, Vector3f V, Vector3f L)
+	{
+		return calcPdf(intersection.genInterpolator().getSmoothNormal(), V, L);
+	}
+	
+	// Density of sample() picking L through the lobes eval() covers. The chance of picking the diffuse 
+	// lobe depends on the sampled microfacet; the Fresnel reflectance at the viewing angle stands in 
+	// for its average.
+	private float calcPdf(Vector3f N, Vector3f V, Vector3f L)
+	{
+		float NoV = Func.clamp(N.dot(V), 0.0f, 1.0f);
+		float NoL = Func.clamp(N.dot(L), 0.0f, 1.0f);
+		
+		float diffuseProb = Math.max(0.0f, 1.0f - calcFresnel(NoV).avg());
+		float pdf         = diffuseProb * NoL / 3.14159265f;
+		
+		if(isSpecularLightSampled(N, V))
+		{
+			Vector3f H = V.add(L).normalizeLocal();
+			
+			float VoH = Func.clamp(V.dot(H), 0.0f, 1.0f);
+			float HoN = Func.clamp(H.dot(N), 0.0f, 1.0f);
+			
+			if(VoH > 0.0f)
+			{
+				float reflectionProb = calcFresnel(VoH).avg() + 0.00001f;
+				
+				pdf += reflectionProb * calcMicrofacetNormalPdf(HoN, calcSampledRoughness(N, V)) / (4.0f * VoH);
+			}
+		}
+		
+		return pdf;
+	}
+	
+	// Geometry Shadowing: Cook-Torrance. This is the specular weight of a sampled microfacet apart from 
+	// Fresnel, 0 for NaN and crazy sample weights.
+	private static float calcSpecularTerm(float NoV, float NoL, float VoH, float HoN, float HoL)
+	{
+		float g1 = 2.0f * HoN * NoV / (VoH);
+		float g2 = 2.0f * HoN * NoL / (VoH);
+		float G = Math.min(1.0f, Math.min(g1, g2));
+		
+		float denominator = NoV * HoN;
+		float constTerm = G * HoL / denominator;
+		
+		// check for NaN and assume no crazy sample weight 
+		return constTerm < 100.0f ? constTerm : 0.0f;
+	}
+	
+	// Slightly widened Beckmann distribution to avoid extremely large weight (worst when retroreflection ray is at
+	// (grazing angles, reflectance should be very small in such situation)
+	private float calcSampledRoughness(Vector3f N, Vector3f V)
+	{
+		return (1.2f - 0.2f * (float)Math.sqrt(V.absDot(N))) * m_roughness;
+	}
+	
+	// Solid angle density of genMicrofacetNormalIS() picking a microfacet normal: the Beckmann 
+	// distribution times HoN.
+	private static float calcMicrofacetNormalPdf(float HoN, float roughness)
+	{
+		if(HoN <= 0.0f)
+		{
+			return 0.0f;
+		}
+		
+		float cos2Theta = HoN * HoN;
+		float tan2Theta = (1.0f - cos2Theta) / cos2Theta;
+		float roughness2 = roughness * roughness;
+		
+		return (float)Math.exp(-tan2Theta / roughness2) / (3.14159265f * roughness2 * cos2Theta * HoN);
+	}
+	
+	// Nearly mirror-like lobes are left to BSDF sampling, light samples would hardly ever fall into them.
+	private boolean isSpecularLightSampled(Vector3f N, Vector3f V)
+	{
+		return calcSampledRoughness(N, V) >= MIN_LIGHT_SAMPLED_ROUGHNESS;
+	}
+	
+	// Fresnel: Schlick approximated
+	private Vector3f calcFresnel(float cosTheta)
+	{
+		return m_f0.complement().mulLocal((float)Math.pow(1.0f - cosTheta, 5)).addLocal(m_f0);
+	}
+	
+	// since the object is opaque, assume the resting energy is diffused (Kd)
+	private Vector3f calcDiffuseReflectivity(Interpolator interpolator, Vector3f fresnel)
+	{
+		Vector3f diffuseReflectivity = fresnel.complement();
+		diffuseReflectivity.mulLocal(1.0f - m_metalness);
+		
+		Vector3f albedo = new Vector3f(m_constAlbedo);
+		
+		if(m_textureAlbedo != null)
+		{
+			m_textureAlbedo.sample(interpolator.getSmoothTexCoord(), albedo);
+		}
+		
+		return diffuseReflectivity.mulLocal(albedo);
+	}
+	
+	// diffuse and specular reflectance at the viewing angle
+	@Override
+	public void calcAlbedo(Intersection intersection, Vector3f V, Vector3f result)
+	{
+		if(m_emissivity.squareLength() != 0.0f)
+		{
+			result.set(1.0f, 1.0f, 1.0f);
+			return;
+		}
+		
+		Interpolator interpolator = intersection.genInterpolator();
+		
+		float    NoV = Func.clamp(interpolator.getSmoothNormal().dot(V), 0.0f, 1.0f);
+		Vector3f F   = calcFresnel(NoV);
+		
+		result.set(calcDiffuseReflectivity(interpolator, F).addLocal(F));
+	}
+	
 	public Vector3f getAlbedo()
 	{
 		return m_constAlbedo;
@@ -221,9 +369,10 @@ public final class AbradedOpaque implements Material
 		m_constAlbedo.set(r, g, b);
 	}
 	
+	@Override
 	public Vector3f getEmissivity()
 	{
-		return m_emissivity;
+		return m_emissivity.squareLength() != 0.0f ? m_emissivity : null;
 	}
 	
 	public void setEmissivity(float r, float g, float b)
@@ -23,8 +23,9 @@
 package math.material;
 
 import core.Ray;
-import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
+import math.sampler.Sampler;
 import model.primitive.Intersection;
 import util.Func;
 
@@ -57,10 +58,12 @@ public final class AbradedTranslucent implements Material
 		m_ior = 1.0f;
 	}
 
-	private Vector3f genMicrofacetNormalIS(Vector3f N, Vector3f V)
+	private Vector3f genMicrofacetNormalIS(Vector3f N, Vector3f V, Sampler sampler)
 	{
-		float rand1 = Rand.getFloat0_1();
-		float rand2 = Rand.getFloat0_1();
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float rand1 = sample.x;
+		float rand2 = sample.y;
 		float phi      = rand1 * 2.0f * 3.14159265f;
 //		float theta    = (float)Math.atan(Math.sqrt(-Math.pow(m_roughness, 2.0f) * Math.log(1.0f - rand2)));
 		
@@ -92,12 +95,12 @@ public final class AbradedTranslucent implements Material
 	}
 	
 	@Override
-	public boolean sample(Intersection intersection, Ray ray)
+	public boolean sample(Intersection intersection, Ray ray, Sampler sampler)
 	{
 		Vector3f N = intersection.genInterpolator().getSmoothNormal();
 //		Vector3f N = intersection.genInterpolator().getFlatNormal();
 		Vector3f V = ray.getDir().mul(-1.0f);
-		Vector3f H = genMicrofacetNormalIS(N, V);
+		Vector3f H = genMicrofacetNormalIS(N, V, sampler);
 		Vector3f L = new Vector3f();
 		
 		float VoH = V.dot(H);
@@ -106,7 +109,7 @@ public final class AbradedTranslucent implements Material
 		
 		// Fresnel: Schlick approximated
 		Vector3f reflectivity = m_f0.complement().mulLocal((float)Math.pow(1.0f - Math.abs(VoH), 5)).addLocal(m_f0);
-		float pathProb = Rand.getFloat0_1();
+		float pathProb = sampler.get1D();
 		float reflectionProb = reflectivity.avg() + 0.00001f;
 		
 		Vector3f BSDF;
@@ -179,7 +182,7 @@ public final class AbradedTranslucent implements Material
 		
 		float rrSurviveProb = Func.clamp(BSDF.avg(), 0.0f, 1.0f);
 		float rrScale = 1.0f / (rrSurviveProb + 0.00001f);
-		float rrSpin = Rand.getFloat0_1();
+		float rrSpin = sampler.get1D();
 		
 		// russian roulette >> dead
 		if(rrSpin > rrSurviveProb)
@@ -231,4 +234,29 @@ public final class AbradedTranslucent implements Material
 	{
 		m_ior = ior;
 	}
+	
+	// not lit by light sampling
+	@Override
+	public void eval(Intersection intersection, Vector3f V, Vector3f L, Sampler sampler, Vector3f result)
+	{
+		result.set(0.0f, 0.0f, 0.0f);
+	}
+	
+	@Override
+	public float pdf(Intersection intersection, Vector3f V, Vector3f L)
+	{
+		return 0.0f;
+	}
+	
+	@Override
+	public Vector3f getEmissivity()
+	{
+		return null;
+	}
+	
+	@Override
+	public void calcAlbedo(Intersection intersection, Vector3f V, Vector3f result)
+	{
+		result.set(1.0f, 1.0f, 1.0f);
+	}
 }
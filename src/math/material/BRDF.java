@@ -22,8 +22,9 @@
 
 package math.material;
 
-import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
+import math.sampler.Sampler;
 import util.Func;
 
 public final class BRDF
@@ -43,10 +44,12 @@ public final class BRDF
 		return albedo.mul(inRadiance);
 	}
 	
-	public static Vector3f lambertDiffuseISdir(Vector3f N)
+	public static Vector3f lambertDiffuseISdir(Vector3f N, Sampler sampler)
 	{
-		float phi       = Rand.getFloat0_1() * 2.0f * 3.14159265f;
-		float elevation = (float)Math.sqrt(Rand.getFloat0_1());
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float phi       = sample.x * 2.0f * 3.14159265f;
+		float elevation = (float)Math.sqrt(sample.y);
 		float planeR    = (float)Math.sqrt(1.0f - elevation*elevation);
 		
 		Vector3f u = new Vector3f();
@@ -106,7 +109,7 @@ public final class BRDF
 		
 		// Fresnel: Schlick approximated
 //		Vector3f F = m_f0.complement().mulLocal((float)Math.pow(1.0f - VoH, 5)).addLocal(m_f0);
-		float randomProb = Rand.getFloat0_1();
+//		float randomProb = sampler.get1D();
 //		float Ks = F.avg();
 		
 		// as specular lighting (reflected)
@@ -197,7 +200,7 @@ public final class BRDF
 		return outRadiance;
 	}
 	
-	public static Vector3f cookTorranceSpecularISdir(Vector3f N, Vector3f V, float roughness)
+	public static Vector3f cookTorranceSpecularISdir(Vector3f N, Vector3f V, float roughness, Sampler sampler)
 	{
 //		Vector3f reflectionDir = V.mul(-1.0f).reflectLocal(N).normalizeLocal();
 		
@@ -207,8 +210,10 @@ public final class BRDF
 //		float cosTheta = (float)Math.sqrt((1.0f - rand2) / (1.0f + (roughness*roughness - 1) * rand2 + 0.0001f));
 //		float sinTheta = (float)Math.sqrt(1.0f - cosTheta*cosTheta);
 		
-		float rand1 = Rand.getFloat0_1();
-		float rand2 = Rand.getFloat0_1();
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float rand1 = sample.x;
+		float rand2 = sample.y;
 		float phi      = rand1 * 2.0f * 3.14159265f;
 //		float theta    = (float)Math.atan(-Math.pow(roughness, 2.0f) * Math.log(1.0f - rand2));
 		float theta    = (float)Math.atan(Math.sqrt(-Math.pow(roughness, 2.0f) * Math.log(1.0f - rand2)));
@@ -23,9 +23,31 @@
 package math.material;
 
 import core.Ray;
+import math.Vector3f;
+import math.sampler.Sampler;
 import model.primitive.Intersection;
 
 public interface Material
 {
-	public abstract boolean sample(Intersection intersection, Ray ray);
+	// All random decisions are made with values drawn from the sampler. If the new direction was picked 
+	// from a part of the BSDF that eval() covers, its solid angle density is recorded with 
+	// Ray.setDirPdf() (the same value pdf() gives), so light found along it can be weighted against 
+	// light sampling.
+	public abstract boolean sample(Intersection intersection, Ray ray, Sampler sampler);
+	
+	// For light sampling (see PathTracer). V points toward the viewer and L toward the light, both away 
+	// from the surface. eval() writes BSDF * cos(N, L) of the parts of the BSDF light sampling takes care 
+	// of; BSDFs only known as an average may write an unbiased estimate, drawing from the sampler. pdf() 
+	// gives the density of sample() picking L through those parts; it only serves as a weight and may 
+	// be approximate. Materials without such parts write zero and return 0.
+	public abstract void  eval(Intersection intersection, Vector3f V, Vector3f L, Sampler sampler, Vector3f result);
+	public abstract float pdf(Intersection intersection, Vector3f V, Vector3f L);
+	
+	// Radiance emitted by the surface, null if it does not emit. Paths end on emitters.
+	public abstract Vector3f getEmissivity();
+	
+	// Fraction of light the surface reflects toward V, roughly averaged over incoming directions. It 
+	// only guides the denoiser (see Denoiser), so a plausible estimate will do; surfaces without a 
+	// meaningful color of their own (emitters, glass, measured data) write white.
+	public abstract void calcAlbedo(Intersection intersection, Vector3f V, Vector3f result);
 }
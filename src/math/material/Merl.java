@@ -29,8 +29,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import core.Ray;
-import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
+import math.sampler.Sampler;
 import model.primitive.Interpolator;
 import model.primitive.Intersection;
 import util.Debug;
@@ -91,7 +92,7 @@ public class Merl implements Material
 	}
 	
 	@Override
-	public boolean sample(Intersection intersection, Ray ray)
+	public boolean sample(Intersection intersection, Ray ray, Sampler sampler)
 	{
 		Interpolator interpolator = intersection.genInterpolator();
 		
@@ -101,8 +102,8 @@ public class Merl implements Material
 		if(N.dot(V) < 0.0f)
 			N.mulLocal(-1.0f);
 		
-//		Vector3f L = genRandomUniformHemisphereDir(N);
-		Vector3f L = genCosineWeightedSampleDir(N);
+//		Vector3f L = genRandomUniformHemisphereDir(N, sampler);
+		Vector3f L = genCosineWeightedSampleDir(N, sampler);
 		Vector3f H = V.add(L).normalizeLocal();
 		
 		Vector3f Hv = N.cross(H).normalizeLocal();
@@ -133,7 +134,7 @@ public class Merl implements Material
 		
 		float rrSurviveProb = Func.clamp(brdf.avg(), 0.0f, 1.0f);
 		float rrScale = 1.0f / (rrSurviveProb + 0.00001f);
-		float rrSpin = Rand.getFloat0_1();
+		float rrSpin = sampler.get1D();
 		
 		// russian roulette >> dead
 		if(rrSpin > rrSurviveProb)
@@ -198,10 +199,12 @@ public class Merl implements Material
 		return index;
 	}
 	
-	private Vector3f genRandomUniformHemisphereDir(Vector3f N)
+	private Vector3f genRandomUniformHemisphereDir(Vector3f N, Sampler sampler)
 	{
-		float phi       = Rand.getFloat0_1() * 2.0f * 3.14159265f;
-		float elevation = Rand.getFloat0_1();
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float phi       = sample.x * 2.0f * 3.14159265f;
+		float elevation = sample.y;
 		float planeR    = (float)Math.sqrt(1.0f - elevation*elevation);
 		
 		Vector3f u = new Vector3f();
@@ -216,10 +219,12 @@ public class Merl implements Material
 	}
 	
 	// weighted by NoL
-	private Vector3f genCosineWeightedSampleDir(Vector3f N)
+	private Vector3f genCosineWeightedSampleDir(Vector3f N, Sampler sampler)
 	{
-		float phi       = Rand.getFloat0_1() * 2.0f * 3.14159265f;
-		float elevation = (float)Math.sqrt(Rand.getFloat0_1());
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float phi       = sample.x * 2.0f * 3.14159265f;
+		float elevation = (float)Math.sqrt(sample.y);
 		float planeR    = (float)Math.sqrt(1.0f - elevation*elevation);
 		
 		Vector3f u = new Vector3f();
@@ -232,4 +237,29 @@ public class Merl implements Material
 			add(w.mulLocal((float)Math.sin(phi) * planeR)).
 			add(v.mulLocal(elevation)).normalizeLocal();
 	}
+	
+	// not lit by light sampling
+	@Override
+	public void eval(Intersection intersection, Vector3f V, Vector3f L, Sampler sampler, Vector3f result)
+	{
+		result.set(0.0f, 0.0f, 0.0f);
+	}
+	
+	@Override
+	public float pdf(Intersection intersection, Vector3f V, Vector3f L)
+	{
+		return 0.0f;
+	}
+	
+	@Override
+	public Vector3f getEmissivity()
+	{
+		return null;
+	}
+	
+	@Override
+	public void calcAlbedo(Intersection intersection, Vector3f V, Vector3f result)
+	{
+		result.set(1.0f, 1.0f, 1.0f);
+	}
 }
@@ -29,8 +29,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import core.Ray;
-import math.Rand;
 import math.Vector3f;
+import math.sampler.Sampler;
 import model.primitive.Interpolator;
 import model.primitive.Intersection;
 import util.Debug;
@@ -47,7 +47,7 @@ public class NoBounceVertexColor implements Material
 	}
 	
 	@Override
-	public boolean sample(Intersection intersection, Ray ray)
+	public boolean sample(Intersection intersection, Ray ray, Sampler sampler)
 	{
 		Interpolator interpolator = intersection.genInterpolator();
 		
@@ -55,4 +55,29 @@ public class NoBounceVertexColor implements Material
 		
 		return false;
 	}
+	
+	// not lit by light sampling
+	@Override
+	public void eval(Intersection intersection, Vector3f V, Vector3f L, Sampler sampler, Vector3f result)
+	{
+		result.set(0.0f, 0.0f, 0.0f);
+	}
+	
+	@Override
+	public float pdf(Intersection intersection, Vector3f V, Vector3f L)
+	{
+		return 0.0f;
+	}
+	
+	@Override
+	public Vector3f getEmissivity()
+	{
+		return null;
+	}
+	
+	@Override
+	public void calcAlbedo(Intersection intersection, Vector3f V, Vector3f result)
+	{
+		result.set(intersection.genInterpolator().getSmoothColor());
+	}
 }
@@ -23,8 +23,9 @@
 package math.material;
 
 import core.Ray;
-import math.Rand;
+import math.Vector2f;
 import math.Vector3f;
+import math.sampler.Sampler;
 import model.primitive.Intersection;
 
 public class PureDiffusion implements Material
@@ -41,10 +42,12 @@ public class PureDiffusion implements Material
 		this(albedo.x, albedo.y, albedo.z);
 	}
 	
-	private Vector3f genLambertDiffuseSampleDirIS(Vector3f N)
+	private Vector3f genLambertDiffuseSampleDirIS(Vector3f N, Sampler sampler)
 	{
-		float phi       = Rand.getFloat0_1() * 2.0f * 3.14159265f;
-		float elevation = (float)Math.sqrt(Rand.getFloat0_1());
+		Vector2f sample = sampler.get2D(new Vector2f());
+		
+		float phi       = sample.x * 2.0f * 3.14159265f;
+		float elevation = (float)Math.sqrt(sample.y);
 		float planeR    = (float)Math.sqrt(1.0f - elevation*elevation);
 		
 		Vector3f u = new Vector3f();
@@ -59,7 +62,7 @@ public class PureDiffusion implements Material
 	}
 	
 	@Override
-	public boolean sample(Intersection intersection, Ray ray)
+	public boolean sample(Intersection intersection, Ray ray, Sampler sampler)
 	{
 		Vector3f N = intersection.genInterpolator().getSmoothNormal();
 //		Vector3f N = intersection.getHitNormal();
@@ -67,7 +70,7 @@ public class PureDiffusion implements Material
 		
 		float rrSurviveProb = m_albedo.avg();
 		float rrScale = 1.0f / (rrSurviveProb + 0.00001f);
-		float rrSpin = Rand.getFloat0_1();
+		float rrSpin = sampler.get1D();
 		
 		// russian roulette >> dead
 		if(rrSpin > rrSurviveProb)
@@ -82,13 +85,44 @@ public class PureDiffusion implements Material
 			// account for probability
 			diffuseReflectivity.mulLocal(rrScale);
 			
+			Vector3f L = genLambertDiffuseSampleDirIS(N, sampler);
+			
 			ray.getWeight().mulLocal(diffuseReflectivity);
-			ray.getDir().set(genLambertDiffuseSampleDirIS(N));
+			ray.getDir().set(L);
+			ray.setDirPdf(Math.max(0.0f, N.dot(L)) / 3.14159265f);
 			
 			return true;
 		}
 	}
 	
+	@Override
+	public void eval(Intersection intersection, Vector3f V, Vector3f L, Sampler sampler, Vector3f result)
+	{
+		Vector3f N = intersection.genInterpolator().getSmoothNormal();
+		
+		result.set(m_albedo).mulLocal(Math.max(0.0f, N.dot(L)) / 3.14159265f);
+	}
+	
+	@Override
+	public float pdf(Intersection intersection, Vector3f V, Vector3f L)
+	{
+		Vector3f N = intersection.genInterpolator().getSmoothNormal();
+		
+		return Math.max(0.0f, N.dot(L)) / 3.14159265f;
+	}
+	
+	@Override
+	public Vector3f getEmissivity()
+	{
+		return null;
+	}
+	
+	@Override
+	public void calcAlbedo(Intersection intersection, Vector3f V, Vector3f result)
+	{
+		result.set(m_albedo);
+	}
+	
 	public Vector3f getAlbedo()
 	{
 		return m_albedo;
@@ -0,0 +1,187 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package math.sampler;
+
+import java.util.Random;
+
+// A tileable SIZE x SIZE threshold map whose values are blue noise: neighbouring values differ as 
+// much as possible. Generated once with Ulichney's void-and-cluster method, where the energy of a 
+// pixel is the sum of toroidal Gaussians centered at the pixels of a binary pattern.
+final class BlueNoiseMask
+{
+	public static final int SIZE = 64;
+	
+	private static final float SIGMA = 1.5f;
+	
+	private static final float[] VALUES = generate(new Random(1));
+	
+	// value in [0, 1) at the given pixel, wrapped around
+	public static float get(int x, int y)
+	{
+		return VALUES[(y & (SIZE - 1)) * SIZE + (x & (SIZE - 1))];
+	}
+	
+	private static float[] generate(Random random)
+	{
+		int numPixels = SIZE * SIZE;
+		
+		float[] kernel = new float[numPixels];
+		for(int y = 0; y < SIZE; y++)
+		{
+			for(int x = 0; x < SIZE; x++)
+			{
+				int dx = Math.min(x, SIZE - x);
+				int dy = Math.min(y, SIZE - y);
+				
+				kernel[y * SIZE + x] = (float)Math.exp(-(dx * dx + dy * dy) / (2.0f * SIGMA * SIGMA));
+			}
+		}
+		
+		// initial binary pattern: a tenth of the pixels, spread out evenly by repeatedly moving the 
+		// tightest cluster into the largest void
+		boolean[] pattern = new boolean[numPixels];
+		float[]   energy  = new float[numPixels];
+		int       numOnes = numPixels / 10;
+		
+		for(int i = 0; i < numOnes; i++)
+		{
+			int pixel;
+			do
+			{
+				pixel = random.nextInt(numPixels);
+			}
+			while(pattern[pixel]);
+			
+			pattern[pixel] = true;
+			splat(energy, kernel, pixel, 1.0f);
+		}
+		
+		while(true)
+		{
+			int cluster = findExtremum(energy, pattern, true, true);
+			pattern[cluster] = false;
+			splat(energy, kernel, cluster, -1.0f);
+			
+			int voidPixel = findExtremum(energy, pattern, false, false);
+			pattern[voidPixel] = true;
+			splat(energy, kernel, voidPixel, 1.0f);
+			
+			if(voidPixel == cluster)
+			{
+				break;
+			}
+		}
+		
+		int[] ranks = new int[numPixels];
+		
+		// phase 1: ones of the initial pattern, ranked by removing tightest clusters first
+		boolean[] phasePattern = pattern.clone();
+		float[]   phaseEnergy  = energy.clone();
+		
+		for(int rank = numOnes - 1; rank >= 0; rank--)
+		{
+			int cluster = findExtremum(phaseEnergy, phasePattern, true, true);
+			phasePattern[cluster] = false;
+			splat(phaseEnergy, kernel, cluster, -1.0f);
+			ranks[cluster] = rank;
+		}
+		
+		// phase 2: filling the largest voids up to half of the pixels
+		int rank = numOnes;
+		
+		for(; rank < numPixels / 2; rank++)
+		{
+			int voidPixel = findExtremum(energy, pattern, false, false);
+			pattern[voidPixel] = true;
+			splat(energy, kernel, voidPixel, 1.0f);
+			ranks[voidPixel] = rank;
+		}
+		
+		// phase 3: zeros are the minority now, so the tightest clusters of zeros are filled first
+		float[] zeroEnergy = new float[numPixels];
+		for(int pixel = 0; pixel < numPixels; pixel++)
+		{
+			if(!pattern[pixel])
+			{
+				splat(zeroEnergy, kernel, pixel, 1.0f);
+			}
+		}
+		
+		for(; rank < numPixels; rank++)
+		{
+			int cluster = findExtremum(zeroEnergy, pattern, false, true);
+			pattern[cluster] = true;
+			splat(zeroEnergy, kernel, cluster, -1.0f);
+			ranks[cluster] = rank;
+		}
+		
+		float[] values = new float[numPixels];
+		for(int pixel = 0; pixel < numPixels; pixel++)
+		{
+			values[pixel] = (ranks[pixel] + 0.5f) / numPixels;
+		}
+		
+		return values;
+	}
+	
+	// adds the kernel centered at the pixel, multiplied by weight, to the energy of every pixel
+	private static void splat(float[] energy, float[] kernel, int pixel, float weight)
+	{
+		int px = pixel % SIZE;
+		int py = pixel / SIZE;
+		
+		for(int y = 0; y < SIZE; y++)
+		{
+			int kernelRow = ((y - py) & (SIZE - 1)) * SIZE;
+			
+			for(int x = 0; x < SIZE; x++)
+			{
+				energy[y * SIZE + x] += weight * kernel[kernelRow + ((x - px) & (SIZE - 1))];
+			}
+		}
+	}
+	
+	// pixel of highest (or lowest) energy among the pixels whose pattern value is the given one
+	private static int findExtremum(float[] energy, boolean[] pattern, boolean patternValue, boolean isMaximum)
+	{
+		int   result     = -1;
+		float bestEnergy = 0.0f;
+		
+		for(int pixel = 0; pixel < energy.length; pixel++)
+		{
+			if(pattern[pixel] != patternValue)
+			{
+				continue;
+			}
+			
+			if(result == -1 || (isMaximum ? energy[pixel] > bestEnergy : energy[pixel] < bestEnergy))
+			{
+				result     = pixel;
+				bestEnergy = energy[pixel];
+			}
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,88 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package math.sampler;
+
+// Halton points, dimension i being the radical inverse in the i-th prime base. Every pixel shifts 
+// each dimension by a random offset of its own (Cranley-Patterson rotation) so neighbouring pixels 
+// don't share their errors. Dimensions beyond the prime table are plain random values.
+public class HaltonSampler extends Sampler
+{
+	private static final int[] PRIMES = { 2,   3,   5,   7,  11,  13,  17,  19,  23,  29,  31,  37,  41,  43,  47,  53, 
+	                                     59,  61,  67,  71,  73,  79,  83,  89,  97, 101, 103, 107, 109, 113, 127, 131};
+	
+	private int m_seed;
+	private int m_pixelSeed;
+	
+	public HaltonSampler()
+	{
+		this(0);
+	}
+	
+	public HaltonSampler(int seed)
+	{
+		m_seed = seed;
+	}
+	
+	@Override
+	public Sampler copy()
+	{
+		return new HaltonSampler(m_seed);
+	}
+	
+	@Override
+	protected void startSample(int xPx, int yPx, int sampleIndex)
+	{
+		m_pixelSeed = hash(hash(m_seed, xPx), yPx);
+	}
+	
+	@Override
+	protected float calcSample(int dimension)
+	{
+		if(dimension >= PRIMES.length)
+		{
+			return toUnitFloat(hash(hash(m_pixelSeed, getSampleIndex()), dimension));
+		}
+		
+		float offset = toUnitFloat(hash(m_pixelSeed, dimension));
+		float value  = calcRadicalInverse(PRIMES[dimension], getSampleIndex()) + offset;
+		
+		return Math.min(value < 1.0f ? value : value - 1.0f, ONE_MINUS_EPSILON);
+	}
+	
+	// the digits of index in the given base, mirrored at the decimal point
+	private static float calcRadicalInverse(int base, int index)
+	{
+		double reciBase = 1.0 / base;
+		double scale    = 1.0;
+		long   reversed = 0;
+		
+		for(long rest = index & 0xFFFFFFFFL; rest != 0; rest /= base)
+		{
+			reversed = reversed * base + rest % base;
+			scale   *= reciBase;
+		}
+		
+		return Math.min((float)(reversed * scale), ONE_MINUS_EPSILON);
+	}
+}
@@ -0,0 +1,127 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package math.sampler;
+
+import math.Vector2f;
+
+// Hands out the sample values in [0, 1) a path needs for its decisions (pixel jitter, scattering 
+// directions, russian roulette and so on). Before tracing a path, start() selects the pixel and the 
+// index of the sample within that pixel; each request then draws from the next dimension of the 
+// underlying sequence. Values of the same dimension are well distributed over the samples of a pixel 
+// as long as the same decision always draws from the same dimension, see setDimension().
+//
+// Samplers are stateful and must not be shared between threads; copy() gives another instance 
+// of the same kind.
+public abstract class Sampler
+{
+	// largest float below 1
+	protected static final float ONE_MINUS_EPSILON = 0x1.fffffep-1f;
+	
+	private int m_xPx;
+	private int m_yPx;
+	private int m_sampleIndex;
+	private int m_dimension;
+	
+	public void start(int xPx, int yPx, int sampleIndex)
+	{
+		m_xPx         = xPx;
+		m_yPx         = yPx;
+		m_sampleIndex = sampleIndex;
+		m_dimension   = 0;
+		
+		startSample(xPx, yPx, sampleIndex);
+	}
+	
+	public float get1D()
+	{
+		return calcSample(m_dimension++);
+	}
+	
+	// Both values come from one pair of dimensions, which start at an even dimension.
+	public Vector2f get2D(Vector2f result)
+	{
+		m_dimension += m_dimension & 1;
+		
+		calcSample2D(m_dimension, result);
+		m_dimension += 2;
+		
+		return result;
+	}
+	
+	// Continues drawing from the given dimension on.
+	public void setDimension(int dimension)
+	{
+		m_dimension = dimension;
+	}
+	
+	public int getDimension()
+	{
+		return m_dimension;
+	}
+	
+	public abstract Sampler copy();
+	
+	// Value of the given dimension for the current sample.
+	protected abstract float calcSample(int dimension);
+	
+	// Values of the given (even) dimension and the one after it for the current sample.
+	protected void calcSample2D(int dimension, Vector2f result)
+	{
+		result.x = calcSample(dimension);
+		result.y = calcSample(dimension + 1);
+	}
+	
+	// Called whenever a new sample is started, for per-pixel precomputations.
+	protected void startSample(int xPx, int yPx, int sampleIndex)
+	{
+		
+	}
+	
+	protected int getXPx()         { return m_xPx;         }
+	protected int getYPx()         { return m_yPx;         }
+	protected int getSampleIndex() { return m_sampleIndex; }
+	
+	// Integer hash with good avalanche behaviour (Chris Wellons' lowbias32).
+	protected static int hash(int x)
+	{
+		x ^= x >>> 16;
+		x *= 0x7feb352d;
+		x ^= x >>> 15;
+		x *= 0x846ca68b;
+		x ^= x >>> 16;
+		
+		return x;
+	}
+	
+	protected static int hash(int a, int b)
+	{
+		return hash(a ^ hash(b) + 0x9e3779b9 + (a << 6) + (a >>> 2));
+	}
+	
+	// Maps the bits of x to [0, 1); only 24 bits fit into a float's mantissa.
+	protected static float toUnitFloat(int x)
+	{
+		return (x >>> 8) * 0x1p-24f;
+	}
+}
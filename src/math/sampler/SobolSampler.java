@@ -0,0 +1,138 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package math.sampler;
+
+import math.Vector2f;
+
+// Owen-scrambled Sobol points, following Burley's "Practical Hash-based Owen Scrambling" (JCGT 2020). 
+// Dimensions are taken in pairs, each pair being the first two Sobol dimensions, which form a 
+// (0, 2)-sequence: any power of two samples are perfectly stratified in both 1D and 2D. Each pair of 
+// each pixel shuffles the sample index and scrambles the result with hash-based nested uniform 
+// scrambling of its own, so any number of dimensions is available and different pairs and pixels 
+// are decorrelated.
+public class SobolSampler extends Sampler
+{
+	private static final int GROUP_DIMENSIONS = 2;
+	
+	// direction numbers; the first dimension is the van der Corput sequence, the second one comes 
+	// from the primitive polynomial x + 1 (each direction number is the previous one xor itself 
+	// shifted by one)
+	private static final int[][] DIRECTIONS = new int[GROUP_DIMENSIONS][32];
+	
+	static
+	{
+		for(int i = 0; i < 32; i++)
+		{
+			DIRECTIONS[0][i] = 1 << (31 - i);
+			DIRECTIONS[1][i] = i == 0 ? 1 << 31 : DIRECTIONS[1][i - 1] ^ (DIRECTIONS[1][i - 1] >>> 1);
+		}
+	}
+	
+	private int m_seed;
+	private int m_pixelSeed;
+	
+	public SobolSampler()
+	{
+		this(0);
+	}
+	
+	public SobolSampler(int seed)
+	{
+		m_seed = seed;
+	}
+	
+	@Override
+	public Sampler copy()
+	{
+		return new SobolSampler(m_seed);
+	}
+	
+	@Override
+	protected void startSample(int xPx, int yPx, int sampleIndex)
+	{
+		m_pixelSeed = hash(hash(m_seed, xPx), yPx);
+	}
+	
+	@Override
+	protected float calcSample(int dimension)
+	{
+		return toUnitFloat(calcScrambledSobol(getSampleIndex(), dimension, m_pixelSeed));
+	}
+	
+	@Override
+	protected void calcSample2D(int dimension, Vector2f result)
+	{
+		int groupSeed     = hash(m_pixelSeed, dimension / GROUP_DIMENSIONS);
+		int shuffledIndex = scramble(getSampleIndex(), groupSeed);
+		
+		result.x = toUnitFloat(scramble(calcSobol(shuffledIndex, 0), hash(groupSeed, 0)));
+		result.y = toUnitFloat(scramble(calcSobol(shuffledIndex, 1), hash(groupSeed, 1)));
+	}
+	
+	// 32 bits of the given dimension of the index-th point of the sequence scrambled with the seed.
+	static int calcScrambledSobol(int index, int dimension, int seed)
+	{
+		int groupSeed = hash(seed, dimension / GROUP_DIMENSIONS);
+		int component = dimension % GROUP_DIMENSIONS;
+		
+		int shuffledIndex = scramble(index, groupSeed);
+		
+		return scramble(calcSobol(shuffledIndex, component), hash(groupSeed, component));
+	}
+	
+	private static int calcSobol(int index, int dimension)
+	{
+		// van der Corput
+		if(dimension == 0)
+		{
+			return Integer.reverse(index);
+		}
+		
+		int[] v      = DIRECTIONS[dimension];
+		int   result = 0;
+		
+		// shuffled indices have random bits, so this is branchless
+		for(int bit = 0; index != 0; bit++, index >>>= 1)
+		{
+			result ^= v[bit] & -(index & 1);
+		}
+		
+		return result;
+	}
+	
+	// Nested uniform (Owen) scrambling: each bit is flipped depending on all the bits above it.
+	private static int scramble(int x, int seed)
+	{
+		x = Integer.reverse(x);
+		
+		// Laine-Karras style permutation, where a bit only affects the bits above it
+		x += seed;
+		x ^= x * 0x6c50b47c;
+		x ^= x * 0xb82f1e52;
+		x ^= x * 0xc7afe638;
+		x ^= x * 0x8d22f6e6;
+		
+		return Integer.reverse(x);
+	}
+}
@@ -24,5 +24,17 @@ package model;
 
 public enum VertexAttribute
 {
-	POSITION3D, TEXCOORD2D, NORMAL3D
+	POSITION3D(3), TEXCOORD2D(2), NORMAL3D(3), COLOR3D(3);
+	
+	private final int m_numComponents;
+	
+	private VertexAttribute(int numComponents)
+	{
+		m_numComponents = numComponents;
+	}
+	
+	public int getNumComponents()
+	{
+		return m_numComponents;
+	}
 }
@@ -20,16 +20,76 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
+
 package model;
 
+import math.Vector2f;
+import math.Vector3f;
+
+// Tightly packed data of one vertex attribute, e.g. x, y, z of the first vertex's position followed 
+// by those of the second one. Vertices are referred to by index, so triangles can share them.
 public class VertexBuffer
 {
-	private float[] m_buffer;
+	private VertexAttribute m_attribute;
+	private float[]         m_buffer;
+	
+	public VertexBuffer(VertexAttribute attribute, int numVertices)
+	{
+		m_attribute = attribute;
+		m_buffer    = new float[numVertices * attribute.getNumComponents()];
+	}
+	
+	// Uses the given array as storage, without copying it.
+	public VertexBuffer(VertexAttribute attribute, float[] data)
+	{
+		m_attribute = attribute;
+		m_buffer    = data;
+	}
+	
+	public void set(int vertexIndex, Vector3f value)
+	{
+		int offset = vertexIndex * 3;
+		
+		m_buffer[offset]     = value.x;
+		m_buffer[offset + 1] = value.y;
+		m_buffer[offset + 2] = value.z;
+	}
+	
+	public void set(int vertexIndex, Vector2f value)
+	{
+		int offset = vertexIndex * 2;
+		
+		m_buffer[offset]     = value.x;
+		m_buffer[offset + 1] = value.y;
+	}
+	
+	public Vector3f get(int vertexIndex, Vector3f result)
+	{
+		int offset = vertexIndex * 3;
+		
+		return result.set(m_buffer[offset], m_buffer[offset + 1], m_buffer[offset + 2]);
+	}
+	
+	public Vector2f get(int vertexIndex, Vector2f result)
+	{
+		int offset = vertexIndex * 2;
+		
+		return result.set(m_buffer[offset], m_buffer[offset + 1]);
+	}
 	
-	public VertexBuffer(int numFloats)
+	// The backing array itself, for loops that cannot afford a call per component.
+	public float[] getData()
 	{
-		m_buffer = new float[numFloats];
+		return m_buffer;
 	}
 	
+	public int getNumVertices()
+	{
+		return m_buffer.length / m_attribute.getNumComponents();
+	}
 	
+	public VertexAttribute getAttribute()
+	{
+		return m_attribute;
+	}
 }
@@ -20,12 +20,54 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
+
 package model;
 
+// Tells where the vertex attributes of a mesh are stored. Triangles sharing a locator refer to their 
+// vertices by index into its buffers. Normals, texture coordinates and colors are optional (null if 
+// absent).
 public class VertexDataLocator
 {
-//	public VertexDataLocator(int numOffsetFloatsFromBase, int num)
-//	{
-//		
-//	}
+	private VertexBuffer m_positions;
+	private VertexBuffer m_normals;
+	private VertexBuffer m_texCoords;
+	private VertexBuffer m_colors;
+	
+	public VertexDataLocator(VertexBuffer positions, VertexBuffer normals, VertexBuffer texCoords)
+	{
+		this(positions, normals, texCoords, null);
+	}
+	
+	public VertexDataLocator(VertexBuffer positions, VertexBuffer normals, VertexBuffer texCoords, VertexBuffer colors)
+	{
+		m_positions = positions;
+		m_normals   = normals;
+		m_texCoords = texCoords;
+		m_colors    = colors;
+	}
+	
+	public VertexBuffer getPositions()
+	{
+		return m_positions;
+	}
+	
+	public VertexBuffer getNormals()
+	{
+		return m_normals;
+	}
+	
+	public VertexBuffer getTexCoords()
+	{
+		return m_texCoords;
+	}
+	
+	public VertexBuffer getColors()
+	{
+		return m_colors;
+	}
+	
+	public int getNumVertices()
+	{
+		return m_positions.getNumVertices();
+	}
 }
@@ -20,204 +20,373 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
-package model.obj;
 
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.List;
+package model.obj;
 
-import math.Vector2f;
-import math.Vector3f;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+// Vertex data in flat arrays: 3 floats per position, normal, tangent and color and 2 floats per 
+// texture coordinate, all indexed by vertex. Every three consecutive indices form a triangle. Only 
+// positions are mandatory, other attributes are null if absent; normals and tangents are allocated 
+// when calculated.
+//
+// Normals and tangents are sums of per-face contributions. Faces are split into chunks that are 
+// processed in parallel, each chunk adding into a partial buffer of its own that only covers the 
+// vertices its faces refer to. The partial buffers are then summed per vertex range, always in chunk 
+// order, so the results don't depend on thread scheduling and no locking is needed.
 public class IndexedMesh
 {
-	private ArrayList<Vector3f> positions;
-	private ArrayList<Vector2f> texCoords;
-	private ArrayList<Vector3f> normals;
-	private ArrayList<Vector3f> tangents;
-	private ArrayList<Integer>  indices;
+	// how much each adjacent face contributes to a vertex normal
+	public static enum NormalWeighting
+	{
+		EQUAL, 
+		AREA, 
+		ANGLE;
+	}
+	
+	// smaller chunks are not worth a task of their own
+	private static final int MIN_CHUNK_FACES    = 1 << 14;
+	private static final int MIN_CHUNK_VERTICES = 1 << 14;
+	
+	private float[] positions;
+	private float[] texCoords;
+	private float[] normals;
+	private float[] tangents;
+	private float[] colors;
+	private int[]   indices;
 
-	public IndexedMesh()
+	public IndexedMesh(float[] positions, float[] texCoords, float[] normals, int[] indices)
+	{
+		this(positions, texCoords, normals, null, indices);
+	}
+	
+	public IndexedMesh(float[] positions, float[] texCoords, float[] normals, float[] tangents, int[] indices)
 	{
-		positions = new ArrayList<>();
-		texCoords = new ArrayList<>();
-		normals   = new ArrayList<>();
-		tangents  = new ArrayList<>();
-		indices   = new ArrayList<>();
+		this.positions = positions;
+		this.texCoords = texCoords;
+		this.normals   = normals;
+		this.tangents  = tangents;
+		this.indices   = indices;
 	}
 
+	// Average of the adjacent faces' normals.
 	public void calcNormals()
 	{
-		for(int i = 0; i < indices.size(); i += 3)
+		calcNormals(NormalWeighting.EQUAL);
+	}
+	
+	public void calcNormals(final NormalWeighting weighting)
+	{
+		if(normals == null)
 		{
-			int i0 = indices.get(i);
-			int i1 = indices.get(i + 1);
-			int i2 = indices.get(i + 2);
-
-			Vector3f v1 = positions.get(i1).sub(positions.get(i0));
-			Vector3f v2 = positions.get(i2).sub(positions.get(i0));
-
-			Vector3f normal = v1.cross(v2).normalize();
-
-			normals.get(i0).set(normals.get(i0).add(normal));
-			normals.get(i1).set(normals.get(i1).add(normal));
-			normals.get(i2).set(normals.get(i2).add(normal));
+			normals = new float[positions.length];
 		}
-
-		for(int i = 0; i < normals.size(); i++)
-			normals.get(i).normalizeLocal();
+		
+		accumulate(normals, new FaceContribution()
+		{
+			@Override
+			public void add(int face, float[] result, int firstVertex)
+			{
+				int i0 = indices[face * 3]     * 3;
+				int i1 = indices[face * 3 + 1] * 3;
+				int i2 = indices[face * 3 + 2] * 3;
+				
+				float e1x = positions[i1]     - positions[i0];
+				float e1y = positions[i1 + 1] - positions[i0 + 1];
+				float e1z = positions[i1 + 2] - positions[i0 + 2];
+				float e2x = positions[i2]     - positions[i0];
+				float e2y = positions[i2 + 1] - positions[i0 + 1];
+				float e2z = positions[i2 + 2] - positions[i0 + 2];
+				
+				// length of the cross product is twice the face's area
+				float nx = e1y * e2z - e1z * e2y;
+				float ny = e1z * e2x - e1x * e2z;
+				float nz = e1x * e2y - e1y * e2x;
+				
+				int offset = firstVertex * 3;
+				
+				if(weighting == NormalWeighting.AREA)
+				{
+					addToVertex(result, i0 - offset, nx, ny, nz);
+					addToVertex(result, i1 - offset, nx, ny, nz);
+					addToVertex(result, i2 - offset, nx, ny, nz);
+					return;
+				}
+				
+				float length = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+				
+				// degenerate faces contribute nothing
+				if(length == 0.0f)
+					return;
+				
+				nx /= length;
+				ny /= length;
+				nz /= length;
+				
+				if(weighting == NormalWeighting.EQUAL)
+				{
+					addToVertex(result, i0 - offset, nx, ny, nz);
+					addToVertex(result, i1 - offset, nx, ny, nz);
+					addToVertex(result, i2 - offset, nx, ny, nz);
+					return;
+				}
+				
+				// interior angles at the first two corners, the third one makes up the rest
+				float e3x = positions[i2]     - positions[i1];
+				float e3y = positions[i2 + 1] - positions[i1 + 1];
+				float e3z = positions[i2 + 2] - positions[i1 + 2];
+				
+				float length1 = (float)Math.sqrt(e1x * e1x + e1y * e1y + e1z * e1z);
+				float length2 = (float)Math.sqrt(e2x * e2x + e2y * e2y + e2z * e2z);
+				float length3 = (float)Math.sqrt(e3x * e3x + e3y * e3y + e3z * e3z);
+				
+				float angle0 = calcAngle( e1x * e2x + e1y * e2y + e1z * e2z, length1 * length2);
+				float angle1 = calcAngle(-e1x * e3x - e1y * e3y - e1z * e3z, length1 * length3);
+				float angle2 = Math.max((float)Math.PI - angle0 - angle1, 0.0f);
+				
+				addToVertex(result, i0 - offset, nx * angle0, ny * angle0, nz * angle0);
+				addToVertex(result, i1 - offset, nx * angle1, ny * angle1, nz * angle1);
+				addToVertex(result, i2 - offset, nx * angle2, ny * angle2, nz * angle2);
+			}
+		});
 	}
 
+	// Requires texture coordinates.
 	public void calcTangents()
 	{
-		for(int i = 0; i < indices.size(); i += 3)
+		if(tangents == null)
 		{
-			int i0 = indices.get(i);
-			int i1 = indices.get(i + 1);
-			int i2 = indices.get(i + 2);
-
-			Vector3f edge1 = positions.get(i1).sub(positions.get(i0));// actual edge vectors
-			Vector3f edge2 = positions.get(i2).sub(positions.get(i0));//
-
-			float deltaU1 = texCoords.get(i1).getX() - texCoords.get(i0).getX();// the corresponding ratios
-			float deltaV1 = texCoords.get(i1).getY() - texCoords.get(i0).getY();//
-			float deltaU2 = texCoords.get(i2).getX() - texCoords.get(i0).getX();//
-			float deltaV2 = texCoords.get(i2).getY() - texCoords.get(i0).getY();//
+			tangents = new float[positions.length];
+		}
+		
+		accumulate(tangents, new FaceContribution()
+		{
+			@Override
+			public void add(int face, float[] result, int firstVertex)
+			{
+				int i0 = indices[face * 3];
+				int i1 = indices[face * 3 + 1];
+				int i2 = indices[face * 3 + 2];
+				
+				// actual edge vectors
+				float e1x = positions[i1 * 3]     - positions[i0 * 3];
+				float e1y = positions[i1 * 3 + 1] - positions[i0 * 3 + 1];
+				float e1z = positions[i1 * 3 + 2] - positions[i0 * 3 + 2];
+				float e2x = positions[i2 * 3]     - positions[i0 * 3];
+				float e2y = positions[i2 * 3 + 1] - positions[i0 * 3 + 1];
+				float e2z = positions[i2 * 3 + 2] - positions[i0 * 3 + 2];
+				
+				// the corresponding ratios
+				float deltaU1 = texCoords[i1 * 2]     - texCoords[i0 * 2];
+				float deltaV1 = texCoords[i1 * 2 + 1] - texCoords[i0 * 2 + 1];
+				float deltaU2 = texCoords[i2 * 2]     - texCoords[i0 * 2];
+				float deltaV2 = texCoords[i2 * 2 + 1] - texCoords[i0 * 2 + 1];
+				
+				float determinant = (deltaU1*deltaV2 - deltaU2*deltaV1);
+				//TODO: The first 1.0f may need to be changed to 0.0f here.
+				float f = determinant == 0 ? 1.0f : 1.0f/determinant;
+				
+				float tx = f * (deltaV2 * e1x - deltaV1 * e2x);
+				float ty = f * (deltaV2 * e1y - deltaV1 * e2y);
+				float tz = f * (deltaV2 * e1z - deltaV1 * e2z);
+				
+				addToVertex(result, (i0 - firstVertex) * 3, tx, ty, tz);
+				addToVertex(result, (i1 - firstVertex) * 3, tx, ty, tz);
+				addToVertex(result, (i2 - firstVertex) * 3, tx, ty, tz);
+			}
+		});
+	}
+	
+	// Overwrites vectors (3 floats per vertex) with the normalized sums of all face contributions.
+	private void accumulate(float[] vectors, FaceContribution contribution)
+	{
+		int numFaces  = indices.length / 3;
+		int maxChunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+		int numChunks = Math.max(1, Math.min(numFaces / MIN_CHUNK_FACES, maxChunks));
+		
+		int[]     firstVertices = new int[numChunks];
+		float[][] partials      = new float[numChunks][];
+		
+		ForkJoinPool.commonPool().invoke(new FaceTask(contribution, firstVertices, partials, 0, numChunks));
+		ForkJoinPool.commonPool().invoke(new ReduceTask(vectors, firstVertices, partials, 0, getNumVertices()));
+	}
+	
+	private static void addToVertex(float[] vectors, int offset, float x, float y, float z)
+	{
+		vectors[offset]     += x;
+		vectors[offset + 1] += y;
+		vectors[offset + 2] += z;
+	}
+	
+	// angle between two vectors from their dot product and the product of their lengths
+	private static float calcAngle(float dot, float lengthProduct)
+	{
+		if(lengthProduct == 0.0f)
+			return 0.0f;
+		
+		return (float)Math.acos(Math.max(-1.0f, Math.min(dot / lengthProduct, 1.0f)));
+	}
 
-			float determinant = (deltaU1*deltaV2 - deltaU2*deltaV1);
-			//TODO: The first 1.0f may need to be changed to 0.0f here.
-			float f = determinant == 0 ? 1.0f : 1.0f/determinant;
-//			if(determinant == 0)
-//			Debug.print("LOL" + determinant);
+	public float[] getPositions() { return positions; }
+	public float[] getTexCoords() { return texCoords; }
+	public float[] getNormals()   { return normals; }
+	public float[] getTangents()  { return tangents; }
+	public float[] getColors()    { return colors; }
+	public int[]   getIndices()   { return indices; }
+	
+	public void setColors(float[] colors)
+	{
+		this.colors = colors;
+	}
+	
+	public int getNumVertices()
+	{
+		return positions.length / 3;
+	}
+	
+	public void negativeTexCoordY()
+	{
+		for(int i = 1; i < texCoords.length; i += 2)
+		{
+			texCoords[i] *= -1;
+		}
+	}
+	
+	private static interface FaceContribution
+	{
+		// Adds the face's contribution to its vertices; the vector of vertex v is stored at 
+		// result[(v - firstVertex) * 3].
+		public void add(int face, float[] result, int firstVertex);
+	}
+	
+	// Adds the contributions of each chunk's faces into a partial buffer spanning the lowest to the 
+	// highest vertex index used by the chunk.
+	private class FaceTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private FaceContribution m_contribution;
+		private int[]            m_firstVertices;
+		private float[][]        m_partials;
+		private int              m_beginChunk;
+		private int              m_endChunk;
+		
+		public FaceTask(FaceContribution contribution, int[] firstVertices, float[][] partials, int beginChunk, int endChunk)
+		{
+			m_contribution  = contribution;
+			m_firstVertices = firstVertices;
+			m_partials      = partials;
+			m_beginChunk    = beginChunk;
+			m_endChunk      = endChunk;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(m_endChunk - m_beginChunk > 1)
+			{
+				int midChunk = (m_beginChunk + m_endChunk) / 2;
+				invokeAll(new FaceTask(m_contribution, m_firstVertices, m_partials, m_beginChunk, midChunk), 
+				          new FaceTask(m_contribution, m_firstVertices, m_partials, midChunk, m_endChunk));
+				return;
+			}
 			
-			Vector3f tangent = new Vector3f(0,0,0);
-			tangent.setX(f * (deltaV2 * edge1.getX() - deltaV1 * edge2.getX()));
-			tangent.setY(f * (deltaV2 * edge1.getY() - deltaV1 * edge2.getY()));
-			tangent.setZ(f * (deltaV2 * edge1.getZ() - deltaV1 * edge2.getZ()));
+			int numFaces  = indices.length / 3;
+			int numChunks = m_partials.length;
+			int beginFace = (int)((long)numFaces * m_beginChunk / numChunks);
+			int endFace   = (int)((long)numFaces * m_endChunk   / numChunks);
 			
-			// test code start
+			int minVertex = Integer.MAX_VALUE;
+			int maxVertex = -1;
 			
-//			Vector3f normal = normals.get(i0);
-//			Vector3f biTangent = new Vector3f(0, 0, 0);
-//			biTangent.setX(f * (deltaU1 * edge2.getX() - deltaU2 * edge1.getX()));
-//			biTangent.setY(f * (deltaU1 * edge2.getY() - deltaU2 * edge1.getY()));
-//			biTangent.setZ(f * (deltaU1 * edge2.getZ() - deltaU2 * edge1.getZ()));
-//			
-//			if(normal.cross(tangent).dot(biTangent) < 0.0f)
-//			{
-//				tangent.mulLocal(-1.0f);
-//				Debug.print("LOL");
-//			}
-//
-//			tangents.get(i0).set(tangent);
-//			tangents.get(i1).set(tangent);
-//			tangents.get(i2).set(tangent);
+			for(int i = beginFace * 3; i < endFace * 3; i++)
+			{
+				minVertex = Math.min(minVertex, indices[i]);
+				maxVertex = Math.max(maxVertex, indices[i]);
+			}
 			
-			// test code end
-//			tangent.normalizeLocal();
+			if(maxVertex < 0)
+			{
+				m_partials[m_beginChunk] = new float[0];
+				return;
+			}
 			
-			tangents.get(i0).set(tangents.get(i0).add(tangent));
-			tangents.get(i1).set(tangents.get(i1).add(tangent));
-			tangents.get(i2).set(tangents.get(i2).add(tangent));
-		}// end for
-
-		for(int i = 0; i < tangents.size(); i++)
-		{
-//			tangents.get(i).set(tangents.get(i).normalize());
-			tangents.get(i).normalizeLocal();
+			float[] partial = new float[(maxVertex - minVertex + 1) * 3];
+			
+			for(int face = beginFace; face < endFace; face++)
+			{
+				m_contribution.add(face, partial, minVertex);
+			}
+			
+			m_firstVertices[m_beginChunk] = minVertex;
+			m_partials[m_beginChunk]      = partial;
 		}
 	}
-
-	public ArrayList<Vector3f> getPositions() { return positions; }
-	public ArrayList<Vector2f> getTexCoords() { return texCoords; }
-	public ArrayList<Vector3f> getNormals()   { return normals; }
-	public ArrayList<Vector3f> getTangents()  { return tangents; }
-	public ArrayList<Integer>  getIndices()   { return indices; }
 	
-	public void negativeTexCoordY()
+	// Sums the partial buffers into the vectors of a vertex range and normalizes them; vectors of zero 
+	// length are left as they are.
+	private static class ReduceTask extends RecursiveAction
 	{
-		for(Vector2f texCoord : texCoords)
+		private static final long serialVersionUID = 1L;
+		
+		private float[]   m_vectors;
+		private int[]     m_firstVertices;
+		private float[][] m_partials;
+		private int       m_beginVertex;
+		private int       m_endVertex;
+		
+		public ReduceTask(float[] vectors, int[] firstVertices, float[][] partials, int beginVertex, int endVertex)
 		{
-			texCoord.y *= -1;
+			m_vectors       = vectors;
+			m_firstVertices = firstVertices;
+			m_partials      = partials;
+			m_beginVertex   = beginVertex;
+			m_endVertex     = endVertex;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(m_endVertex - m_beginVertex > MIN_CHUNK_VERTICES)
+			{
+				int midVertex = (m_beginVertex + m_endVertex) / 2;
+				invokeAll(new ReduceTask(m_vectors, m_firstVertices, m_partials, m_beginVertex, midVertex), 
+				          new ReduceTask(m_vectors, m_firstVertices, m_partials, midVertex, m_endVertex));
+				return;
+			}
+			
+			for(int i = m_beginVertex * 3; i < m_endVertex * 3; i++)
+			{
+				m_vectors[i] = 0.0f;
+			}
+			
+			for(int c = 0; c < m_partials.length; c++)
+			{
+				float[] partial     = m_partials[c];
+				int     firstVertex = m_firstVertices[c];
+				int     beginVertex = Math.max(m_beginVertex, firstVertex);
+				int     endVertex   = Math.min(m_endVertex,   firstVertex + partial.length / 3);
+				
+				for(int v = beginVertex; v < endVertex; v++)
+				{
+					addToVertex(m_vectors, v * 3, partial[(v - firstVertex) * 3], 
+					                              partial[(v - firstVertex) * 3 + 1], 
+					                              partial[(v - firstVertex) * 3 + 2]);
+				}
+			}
+			
+			for(int i = m_beginVertex * 3; i < m_endVertex * 3; i += 3)
+			{
+				float length = (float)Math.sqrt(m_vectors[i] * m_vectors[i] + m_vectors[i + 1] * m_vectors[i + 1] + m_vectors[i + 2] * m_vectors[i + 2]);
+				
+				if(length != 0.0f)
+				{
+					m_vectors[i]     /= length;
+					m_vectors[i + 1] /= length;
+					m_vectors[i + 2] /= length;
+				}
+			}
 		}
 	}
-	
-//	public AABBMinMaxVertex findAABB()
-//	{
-//		// min, max value of the mesh's position components
-//		float m_minX = 0, m_maxX = 0,
-//			  m_minY = 0, m_maxY = 0,
-//			  m_minZ = 0, m_maxZ = 0;
-//		
-//		for(Vector3f position : positions)
-//		{
-//			     if(position.x > m_maxX) m_maxX = position.x;
-//			else if(position.x < m_minX) m_minX = position.x;
-//			     
-//			     if(position.y > m_maxY) m_maxY = position.y;
-//			else if(position.y < m_minY) m_minY = position.y;
-//			     
-//			     if(position.z > m_maxZ) m_maxZ = position.z;
-//			else if(position.z < m_minZ) m_minZ = position.z;
-//		}
-//		
-//		return new AABBMinMaxVertex(new Vector3f(m_minX, m_minY, m_minZ),
-//				                    new Vector3f(m_maxX, m_maxY, m_maxZ));
-//	}
-//	
-//	public AABBMinMaxVertex findAABB(List<Vector2i> indexPairs)
-//	{
-//		// min, max value of the mesh's position components
-//		float m_minX = 0, m_maxX = 0,
-//			  m_minY = 0, m_maxY = 0,
-//			  m_minZ = 0, m_maxZ = 0;
-//		
-//		for(Vector2i indexPair : indexPairs)
-//		{
-//			for(int i = indexPair.x; i <= indexPair.y; i++)
-//			{
-//				Vector3f position = positions.get(indices.get(i));
-//				
-//				     if(position.x > m_maxX) m_maxX = position.x;
-//				else if(position.x < m_minX) m_minX = position.x;
-//				     
-//				     if(position.y > m_maxY) m_maxY = position.y;
-//				else if(position.y < m_minY) m_minY = position.y;
-//				     
-//				     if(position.z > m_maxZ) m_maxZ = position.z;
-//				else if(position.z < m_minZ) m_minZ = position.z;
-//			}
-//		}
-//
-//		return new AABBMinMaxVertex(new Vector3f(m_minX, m_minY, m_minZ),
-//                                    new Vector3f(m_maxX, m_maxY, m_maxZ));
-//	}
-//	
-//	public AABBMinMaxVertex findAABB(Vector2i indexPair)
-//	{
-//		// min, max value of the mesh's position components
-//		float m_minX = 0, m_maxX = 0,
-//			  m_minY = 0, m_maxY = 0,
-//			  m_minZ = 0, m_maxZ = 0;
-//		
-//		for(int i = indexPair.x; i <= indexPair.y; i++)
-//		{
-//			Vector3f position = positions.get(indices.get(i));
-//			
-//			     if(position.x > m_maxX) m_maxX = position.x;
-//			else if(position.x < m_minX) m_minX = position.x;
-//			     
-//			     if(position.y > m_maxY) m_maxY = position.y;
-//			else if(position.y < m_minY) m_minY = position.y;
-//			     
-//			     if(position.z > m_maxZ) m_maxZ = position.z;
-//			else if(position.z < m_minZ) m_minZ = position.z;
-//		}
-//
-//		return new AABBMinMaxVertex(new Vector3f(m_minX, m_minY, m_minZ),
-//                                    new Vector3f(m_maxX, m_maxY, m_maxZ));
-//	}
 }
@@ -0,0 +1,282 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package model.obj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import util.IOUtil;
+import util.Logger;
+
+// Binary form of an IndexedMesh, cached under the name of the file it was converted from and a hash of 
+// that file's path (e.g. model.obj-1a2b3c4d.pmesh). Caching is off unless a directory is set (see 
+// setCacheDirectory()), and it is managed like the k-d tree cache: files are readable by everyone and 
+// the least recently used ones are deleted once the directory holds more than the size limit of them. 
+// The header records length and modification time of the source file; a mesh file whose source has 
+// changed since is stale and ignored.
+//
+// Files are written in native byte order and memory mapped on load. Each array is a single bulk copy 
+// from the mapping into the mesh's arrays, there is no per-vertex decoding. Layout (all values 4 bytes):
+//
+// [magic][version][attribute flags][number of vertices][number of indices][padding : 3]
+// [source length : 8][source modification time : 8][padding : 4 x 4]
+// [positions ...][texture coordinates ...][normals ...][tangents ...][colors ...][indices ...]
+//
+// where the optional attributes (all but positions) are only present if flagged.
+
+public class MeshFile
+{
+	public static final String FILE_EXTENSION = ".pmesh";
+	
+	private static final Logger logger = new Logger("Mesh File");
+	
+	private static final int MAGIC        = 0x504D5348;
+	private static final int VERSION      = 2;
+	private static final int HEADER_BYTES = 64;
+	
+	private static final int FLAG_HAS_TEXCOORDS = 1;
+	private static final int FLAG_HAS_NORMALS   = 1 << 1;
+	private static final int FLAG_HAS_TANGENTS  = 1 << 2;
+	private static final int FLAG_HAS_COLORS    = 1 << 3;
+	
+	public static final long DEFAULT_SIZE_LIMIT = 1L << 30;
+	
+	// process wide since models load their meshes on construction, long before any renderer is set up
+	private static volatile File cacheDirectory = null;
+	private static volatile long cacheSizeLimit = DEFAULT_SIZE_LIMIT;
+	
+	// Mesh files are stored in and loaded from this directory; null (the default) disables caching.
+	public static void setCacheDirectory(File directory)
+	{
+		cacheDirectory = directory;
+	}
+	
+	// Least recently used mesh files are deleted from the cache directory once they take up more than 
+	// this many bytes.
+	public static void setCacheSizeLimit(long numBytes)
+	{
+		cacheSizeLimit = numBytes;
+	}
+	
+	// Returns the source file's mesh, from its mesh file if that one is up to date, otherwise parsed 
+	// from the OBJ file; with caching enabled, a fresh mesh file is then written for the next run.
+	public static IndexedMesh loadObj(String fullFilename)
+	{
+		File sourceFile = new File(fullFilename);
+		
+		IndexedMesh indexedMesh = load(sourceFile);
+		
+		if(indexedMesh == null)
+		{
+			indexedMesh = new ObjParser(fullFilename).toIndexedMesh();
+			save(indexedMesh, sourceFile);
+		}
+		
+		return indexedMesh;
+	}
+	
+	// Returns null if caching is disabled or there is no usable mesh file for the source file.
+	public static IndexedMesh load(File sourceFile)
+	{
+		File directory = cacheDirectory;
+		
+		if(directory == null)
+		{
+			return null;
+		}
+		
+		File file = getFile(directory, sourceFile);
+		
+		if(!file.isFile())
+		{
+			return null;
+		}
+		
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.nativeOrder());
+			
+			if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			{
+				logger.printWrn("ignoring foreign mesh file <" + file + ">");
+				return null;
+			}
+			
+			if(buffer.getLong(32) != sourceFile.length() || buffer.getLong(40) != sourceFile.lastModified())
+			{
+				logger.printWrn("ignoring stale mesh file <" + file + ">");
+				return null;
+			}
+			
+			int flags       = buffer.getInt(8);
+			int numVertices = buffer.getInt(12);
+			int numIndices  = buffer.getInt(16);
+			
+			if(numVertices < 0 || numIndices < 0 || 
+			   HEADER_BYTES + 4L * numVertices * calcNumVertexFloats(flags) + 4L * numIndices != buffer.capacity())
+			{
+				logger.printWrn("ignoring truncated mesh file <" + file + ">");
+				return null;
+			}
+			
+			buffer.position(HEADER_BYTES);
+			
+			float[] positions = getFloats(buffer, numVertices * 3);
+			float[] texCoords = (flags & FLAG_HAS_TEXCOORDS) != 0 ? getFloats(buffer, numVertices * 2) : null;
+			float[] normals   = (flags & FLAG_HAS_NORMALS)   != 0 ? getFloats(buffer, numVertices * 3) : null;
+			float[] tangents  = (flags & FLAG_HAS_TANGENTS)  != 0 ? getFloats(buffer, numVertices * 3) : null;
+			float[] colors    = (flags & FLAG_HAS_COLORS)    != 0 ? getFloats(buffer, numVertices * 3) : null;
+			int[]   indices   = new int[numIndices];
+			
+			buffer.asIntBuffer().get(indices);
+			
+			IndexedMesh indexedMesh = new IndexedMesh(positions, texCoords, normals, tangents, indices);
+			indexedMesh.setColors(colors);
+			
+			// keeps the file from being evicted; failing to update the time is harmless
+			file.setLastModified(System.currentTimeMillis());
+			
+			logger.printMsg("loaded <" + file + ">");
+			
+			return indexedMesh;
+		}
+		catch(IOException e)
+		{
+			logger.printWrn("couldn't load <" + file + ">, info: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	// Does nothing if caching is disabled. Failing to save is not fatal, the source file is simply parsed 
+	// again next time.
+	public static void save(IndexedMesh mesh, File sourceFile)
+	{
+		File directory = cacheDirectory;
+		
+		if(directory == null)
+		{
+			return;
+		}
+		
+		File file = getFile(directory, sourceFile);
+		
+		int flags = 0;
+		flags |= mesh.getTexCoords() != null ? FLAG_HAS_TEXCOORDS : 0;
+		flags |= mesh.getNormals()   != null ? FLAG_HAS_NORMALS   : 0;
+		flags |= mesh.getTangents()  != null ? FLAG_HAS_TANGENTS  : 0;
+		flags |= mesh.getColors()    != null ? FLAG_HAS_COLORS    : 0;
+		
+		int numVertices = mesh.getNumVertices();
+		int numIndices  = mesh.getIndices().length;
+		
+		// mesh files are mapped on load, which is limited to 2 GB (see ByteScanner.mapFile())
+		long numBytes = HEADER_BYTES + 4L * numVertices * calcNumVertexFloats(flags) + 4L * numIndices;
+		if(numBytes > Integer.MAX_VALUE)
+		{
+			logger.printWrn("mesh of <" + sourceFile + "> is too large to be cached (" + numBytes + " bytes)");
+			return;
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate((int)numBytes);
+		buffer.order(ByteOrder.nativeOrder());
+		
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, flags);
+		buffer.putInt(12, numVertices);
+		buffer.putInt(16, numIndices);
+		buffer.putLong(32, sourceFile.length());
+		buffer.putLong(40, sourceFile.lastModified());
+		
+		buffer.position(HEADER_BYTES);
+		putFloats(buffer, mesh.getPositions());
+		putFloats(buffer, mesh.getTexCoords());
+		putFloats(buffer, mesh.getNormals());
+		putFloats(buffer, mesh.getTangents());
+		putFloats(buffer, mesh.getColors());
+		buffer.asIntBuffer().put(mesh.getIndices());
+		buffer.position(0);
+		
+		try
+		{
+			IOUtil.writeFileAtomically(file, buffer);
+		}
+		catch(IOException e)
+		{
+			logger.printWrn("couldn't save <" + file + ">, info: " + e.getMessage());
+			return;
+		}
+		
+		for(File evictedFile : IOUtil.deleteLeastRecentlyModified(directory, FILE_EXTENSION, cacheSizeLimit, file))
+		{
+			logger.printMsg("evicted <" + evictedFile + ">");
+		}
+	}
+	
+	// the mesh file belonging to a source file, named after it so the cache directory stays readable
+	private static File getFile(File directory, File sourceFile)
+	{
+		String sourcePath = sourceFile.getAbsoluteFile().toPath().normalize().toString();
+		
+		return new File(directory, String.format("%s-%08x%s", sourceFile.getName(), sourcePath.hashCode(), FILE_EXTENSION));
+	}
+	
+	private static int calcNumVertexFloats(int flags)
+	{
+		int numFloats = 3;
+		numFloats += (flags & FLAG_HAS_TEXCOORDS) != 0 ? 2 : 0;
+		numFloats += (flags & FLAG_HAS_NORMALS)   != 0 ? 3 : 0;
+		numFloats += (flags & FLAG_HAS_TANGENTS)  != 0 ? 3 : 0;
+		numFloats += (flags & FLAG_HAS_COLORS)    != 0 ? 3 : 0;
+		
+		return numFloats;
+	}
+	
+	// reads the next numFloats floats and advances the buffer past them
+	private static float[] getFloats(ByteBuffer buffer, int numFloats)
+	{
+		float[] result = new float[numFloats];
+		
+		buffer.asFloatBuffer().get(result);
+		buffer.position(buffer.position() + numFloats * 4);
+		
+		return result;
+	}
+	
+	// writes the floats, if any, and advances the buffer past them
+	private static void putFloats(ByteBuffer buffer, float[] floats)
+	{
+		if(floats != null)
+		{
+			buffer.asFloatBuffer().put(floats);
+			buffer.position(buffer.position() + floats.length * 4);
+		}
+	}
+}
@@ -23,32 +23,29 @@
 package model.obj;
 
 import math.Transform;
-import math.Vector2f;
-import math.Vector3f;
 import math.material.AbradedOpaque;
 import math.material.AbradedTranslucent;
 import math.material.Material;
 import math.material.PureDiffusion;
 import model.Model;
+import model.VertexAttribute;
+import model.VertexBuffer;
+import model.VertexDataLocator;
 import model.boundingVolume.AABB;
 import model.primitive.Primitive;
-import model.primitive.Triangle;
-import model.primitive.TriangleMesh;
+import model.primitive.VbTriangleMesh;
 
 public class ObjModel implements Model
 {
-	private TriangleMesh m_triangleMesh;
-	private Material     m_defaultMaterial;
-	private AABB         m_aabb;
-	private Transform    m_transform;
+	private VbTriangleMesh m_triangleMesh;
+	private Material       m_defaultMaterial;
+	private AABB           m_aabb;
+	private Transform      m_transform;
 	
 	public ObjModel(String fullFilename)
 	{
 		m_transform = new Transform();
 		
-		m_triangleMesh = new TriangleMesh();
-		m_triangleMesh.setModel(this);
-		
 
 //		AbradedTranslucent matl = new AbradedTranslucent();
 //		m_defaultMaterial = matl;
@@ -70,27 +67,15 @@ public class ObjModel implements Model
 //		PureDiffusion matl = new PureDiffusion(0.9f, 0.9f, 0.9f);
 //		m_defaultMaterial = matl;
 		
-		IndexedMesh indexedMesh = new ObjParser(fullFilename).toIndexedMesh();
+		IndexedMesh indexedMesh = MeshFile.loadObj(fullFilename);
 		
-		for(int i = 0; i < indexedMesh.getIndices().size(); i += 3)
-		{
-			Vector3f positionA = indexedMesh.getPositions().get(indexedMesh.getIndices().get(i));
-			Vector3f positionB = indexedMesh.getPositions().get(indexedMesh.getIndices().get(i + 1));
-			Vector3f positionC = indexedMesh.getPositions().get(indexedMesh.getIndices().get(i + 2));
-			
-			Vector3f normalA = indexedMesh.getNormals().get(indexedMesh.getIndices().get(i));
-			Vector3f normalB = indexedMesh.getNormals().get(indexedMesh.getIndices().get(i + 1));
-			Vector3f normalC = indexedMesh.getNormals().get(indexedMesh.getIndices().get(i + 2));
-			
-			Vector2f texCoordA = indexedMesh.getTexCoords().get(indexedMesh.getIndices().get(i));
-			Vector2f texCoordB = indexedMesh.getTexCoords().get(indexedMesh.getIndices().get(i + 1));
-			Vector2f texCoordC = indexedMesh.getTexCoords().get(indexedMesh.getIndices().get(i + 2));
-			
-			Triangle triangle = new Triangle(positionA, positionB, positionC);
-			triangle.setNormals(normalA, normalB, normalC);
-			triangle.setTexCoords(texCoordA, texCoordB, texCoordC);
-			m_triangleMesh.addTriangle(triangle);
-		}
+		// triangles only keep vertex indices, vertex data stays in the mesh's arrays and is shared
+		VertexBuffer positions = new VertexBuffer(VertexAttribute.POSITION3D, indexedMesh.getPositions());
+		VertexBuffer normals   = new VertexBuffer(VertexAttribute.NORMAL3D,   indexedMesh.getNormals());
+		VertexBuffer texCoords = new VertexBuffer(VertexAttribute.TEXCOORD2D, indexedMesh.getTexCoords());
+		
+		m_triangleMesh = new VbTriangleMesh(new VertexDataLocator(positions, normals, texCoords), indexedMesh.getIndices());
+		m_triangleMesh.setModel(this);
 	}
 	
 	@Override
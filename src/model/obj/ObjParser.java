@@ -22,34 +22,31 @@
 
 package model.obj;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import math.Vector2f;
-import math.Vector3f;
-import util.IOUtil;
+import util.ByteScanner;
+import util.Debug;
+import util.FloatArrayList;
+import util.IntArrayList;
 import util.Logger;
-import util.StringUtil;
 
+// Reads positions, texture coordinates, normals and convex faces from a Wavefront OBJ file, anything 
+// else is skipped. The file is memory mapped and split into line aligned chunks, which are parsed in 
+// parallel straight into primitive arrays; no Strings or boxed numbers are created on the way.
 public class ObjParser 
 {
-	private String m_fullFileName;
-	
-	private List<Vector3f> positions;
-	private List<Vector2f> texCoords;
-	private List<Vector3f> normals;
-	private List<ObjIndex> objIndices;
-	
-//	private List<List<Vector2i>> m_mtlIndexPairs;
-//	private List<Vector2i>       m_currentIndexPairs;
+	// smaller chunks are not worth a task of their own
+	private static final int MIN_CHUNK_BYTES = 1 << 20;
 	
-//	private MTLParser      m_mtlParser;
-//	private List<Material> m_materials;
+	private String m_fullFileName;
 	
-	private boolean hasTexCoord;
-	private boolean hasNormal;
+	// parse results in file order
+	private ObjChunk[] m_chunks;
 	
 	private Logger m_logger;
 	
@@ -59,285 +56,234 @@ public class ObjParser
 		
 		m_fullFileName = fullFileName;
 		
-		positions  = new ArrayList<>();
-		texCoords  = new ArrayList<>();
-		normals    = new ArrayList<>();
-		objIndices = new ArrayList<>();
+		ByteBuffer buffer = null;
 		
-		hasTexCoord = false;
-		hasNormal   = false;
+		try
+		{
+			buffer = ByteScanner.mapFile(fullFileName);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			m_logger.printErr("file loading failed");
+			Debug.exitErr();
+		}
 		
-		String   loadedString = IOUtil.loadTextFile(fullFileName, " ");
-		String[] dataSegments = StringUtil.removeEmptyStringsAndTrim(loadedString.split(" "));
+		int   maxNumChunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+		int   numChunks    = Math.max(1, Math.min(buffer.limit() / MIN_CHUNK_BYTES, maxNumChunks));
+		int[] chunkBounds  = ByteScanner.splitAtLines(buffer, numChunks);
 		
-		loadVertexData(dataSegments);
+		m_chunks = new ObjChunk[chunkBounds.length - 1];
+		ForkJoinPool.commonPool().invoke(new ParseTask(buffer, chunkBounds, 0, m_chunks.length));
 		
 		m_logger.printMsg("loaded successfully");
 	}
 	
-	private static final Map<String, Integer> tokensMap = new HashMap<>();
-	
-	private static final int POSITION      = 1;
-	private static final int TEXCOORD      = 2;
-	private static final int NORMAL        = 3;
-	private static final int FACE          = 4;
-	private static final int SMOOTHSHADING = 5;
-	private static final int POUNDSIGN     = 6;
-	private static final int USEMTL        = 7;
-	private static final int MTLLIB        = 8;
-	private static final int OBJECT        = 9;
-	
-	static
-	{
-		tokensMap.put("v",       POSITION);
-		tokensMap.put("vt",      TEXCOORD);
-		tokensMap.put("vn",      NORMAL);
-		tokensMap.put("f",       FACE);
-		tokensMap.put("s",       SMOOTHSHADING);
-		tokensMap.put("#",       POUNDSIGN);
-		tokensMap.put("usemtl",  USEMTL);
-		tokensMap.put("mtllib",  MTLLIB);
-		tokensMap.put("o",       OBJECT);
-	}
-	
-	private void loadVertexData(String[] dataSegments)
+	private static ObjChunk parseChunk(ByteScanner scanner)
 	{
-		final int dataSegmentsLength = dataSegments.length;
+		ObjChunk     chunk       = new ObjChunk();
+		IntArrayList faceCorners = new IntArrayList();
 		
-		int currentIndex = 0;
-		
-		while(currentIndex < dataSegmentsLength)
+		while(scanner.hasRemaining())
 		{
-			switch(tokensMap.getOrDefault(dataSegments[currentIndex], 0))
+			scanner.skipSpaces();
+			
+			int c0 = scanner.peek(0);
+			int c1 = scanner.peek(1);
+			int c2 = scanner.peek(2);
+			
+			if(c0 == 'v' && isSpace(c1))
 			{
-				case POSITION:
-					addPosition(dataSegments[currentIndex + 1],
-							    dataSegments[currentIndex + 2],
-							    dataSegments[currentIndex + 3]);
-					currentIndex += 4;
-					break;
-					
-				case TEXCOORD:
-					addTexCoord(dataSegments[currentIndex + 1],
-					            dataSegments[currentIndex + 2]);
-					currentIndex += 3;
-					break;
-					
-				case NORMAL:
-					addNormal(dataSegments[currentIndex + 1],
-					          dataSegments[currentIndex + 2],
-					          dataSegments[currentIndex + 3]);
-					currentIndex += 4;
-					break;
-					
-				// support convex face only
-				case FACE:
-					int triangleFanCenterIndex = currentIndex + 1;
-					currentIndex = triangleFanCenterIndex + 2;
-					
-					do
-					{
-						objIndices.add(parseOBJIndex(dataSegments[triangleFanCenterIndex]));
-						objIndices.add(parseOBJIndex(dataSegments[currentIndex - 1]));
-						objIndices.add(parseOBJIndex(dataSegments[currentIndex]));
-						
-						currentIndex++;
-						
-						if(currentIndex >= dataSegmentsLength) break;
-					} 
-					while(!isToken(dataSegments[currentIndex]));
-					
-					break;
-					
-//				case MTLLIB:
-//					parseMtllib(dataSegments[currentIndex + 1]);
-//					currentIndex += 2;
-//					break;
-//					
-//				case USEMTL:
-//					parseUsemtl(dataSegments[currentIndex + 1]);
-//					currentIndex += 2;
-//					break;
-					
-				default:
-					// skip any unsupported features
-					currentIndex++;
-					break;
-			}// end switch
-		}// end while
-		
-		// don't forget to set the index bounds of the last index pairs!
-//		if(hasMtl())
-//		{
-//			m_currentIndexPairs.get(m_currentIndexPairs.size() - 1).y = objIndices.size() - 1;
-//		}
-	}// end loadVertexData
-	
-	private void addPosition(String rawX, String rawY, String rawZ)
-	{
-		positions.add(new Vector3f(Float.valueOf(rawX),
-				                   Float.valueOf(rawY),
-				                   Float.valueOf(rawZ)));
-	}
-	
-	private void addTexCoord(String rawU, String rawV)
-	{
-		texCoords.add(new Vector2f(Float.valueOf(rawU),
-				                   Float.valueOf(rawV)));
-	}
-	
-	private void addNormal(String rawX, String rawY, String rawZ)
-	{
-		normals.add(new Vector3f(Float.valueOf(rawX),
-				                 Float.valueOf(rawY),
-				                 Float.valueOf(rawZ)));
+				scanner.skip(1);
+				chunk.positions.add(scanner.nextFloat());
+				chunk.positions.add(scanner.nextFloat());
+				chunk.positions.add(scanner.nextFloat());
+			}
+			else if(c0 == 'v' && c1 == 't' && isSpace(c2))
+			{
+				scanner.skip(2);
+				chunk.texCoords.add(scanner.nextFloat());
+				chunk.texCoords.add(scanner.nextFloat());
+			}
+			else if(c0 == 'v' && c1 == 'n' && isSpace(c2))
+			{
+				scanner.skip(2);
+				chunk.normals.add(scanner.nextFloat());
+				chunk.normals.add(scanner.nextFloat());
+				chunk.normals.add(scanner.nextFloat());
+			}
+			else if(c0 == 'f' && isSpace(c1))
+			{
+				scanner.skip(1);
+				parseFace(scanner, chunk, faceCorners);
+			}
+			
+			// skip the rest of the line, including any unsupported features
+			scanner.nextLine();
+		}
+		
+		return chunk;
 	}
 	
-	private ObjIndex parseOBJIndex(String rawVertexIndices)
+	// Corners are "p", "p/t", "p//n" or "p/t/n" with 1-based indices; 0 marks a missing one. Faces are 
+	// triangulated as fans, so they need to be convex.
+	private static void parseFace(ByteScanner scanner, ObjChunk chunk, IntArrayList faceCorners)
 	{
-		String[] indicesData = rawVertexIndices.split("/");
-		ObjIndex result      = new ObjIndex();
-		
-		// OpenGL starts counting from 0 while obj is from 1, so we subtract it by 1
-		result.positionIndex = Integer.parseInt(indicesData[0]) - 1;
+		faceCorners.clear();
 		
-		if(indicesData.length > 1)
+		while(!scanner.isAtLineEnd())
 		{
-			if(!indicesData[1].equals(""))
+			int positionIndex = scanner.nextInt();
+			int texCoordIndex = 0;
+			int normalIndex   = 0;
+			
+			// not a vertex index, ignore the rest of the face
+			if(positionIndex == 0)
 			{
-				hasTexCoord = true;
-				result.texCoordIndex = Integer.parseInt(indicesData[1]) - 1;
+				break;
 			}
 			
-			if(indicesData.length > 2)
+			if(scanner.peek() == '/')
 			{
-				if(!indicesData[2].equals(""))
+				scanner.skip(1);
+				
+				if(scanner.peek() != '/')
 				{
-					hasNormal = true;
-					result.normalIndex = Integer.parseInt(indicesData[2]) - 1;
+					texCoordIndex = scanner.nextInt();
+				}
+				
+				if(scanner.peek() == '/')
+				{
+					scanner.skip(1);
+					normalIndex = scanner.nextInt();
 				}
 			}
+			
+			faceCorners.add(positionIndex);
+			faceCorners.add(texCoordIndex);
+			faceCorners.add(normalIndex);
 		}
 		
-		return result;
+		for(int i = 6; i + 3 <= faceCorners.size(); i += 3)
+		{
+			addCorner(chunk, faceCorners, 0);
+			addCorner(chunk, faceCorners, i - 3);
+			addCorner(chunk, faceCorners, i);
+		}
 	}
 	
-//	private void parseUsemtl(String mtlName)
-//	{
-//		// check existence
-//		if(!hasMtl())
-//		{
-//			return;
-//		}
-//		
-//		Material material = m_mtlParser.getMaterial(mtlName);
-//		
-//		if(material == null)
-//		{
-//			m_logger.printErr("can't find material \"" + mtlName + "\" from " + m_mtlParser.getFullFileName());
-//			return;
-//		}
-//		
-//		// save previous index pair
-//		if(m_currentIndexPairs != null)
-//		{
-//			m_currentIndexPairs.get(m_currentIndexPairs.size() - 1).y = objIndices.size() - 1;
-//		}
-//		
-//		// before starting a new index pair, check if we have already allocated the index pairs' storage
-//		// for this material
-//		int index = m_materials.indexOf(material);
-//		
-//		if(index != -1)
-//		{
-//			m_currentIndexPairs = m_mtlIndexPairs.get(index);
-//		}
-//		else
-//		{
-//			m_materials.add(material);
-//			
-//			m_currentIndexPairs = new ArrayList<>();
-//			m_mtlIndexPairs.add(m_currentIndexPairs);
-//		}
-//		
-//		int startIndex = objIndices.isEmpty() ? 0 : objIndices.size();
-//		m_currentIndexPairs.add(new Vector2i(startIndex, startIndex));
-//	}
-	
-//	private void parseMtllib(String mtlFile)
-//	{
-//		String fileDirectory = m_fullFileName.substring(0, m_fullFileName.lastIndexOf("/") + 1);
-//		
-//		m_mtlParser = new MTLParser(fileDirectory + mtlFile);
-//		m_materials = new ArrayList<>();
-//		
-//		m_mtlIndexPairs = new ArrayList<>();
-//	}
+	private static void addCorner(ObjChunk chunk, IntArrayList faceCorners, int offset)
+	{
+		int normalIndex = faceCorners.get(offset + 2);
+		
+		chunk.corners.add(faceCorners.get(offset));
+		chunk.corners.add(faceCorners.get(offset + 1));
+		chunk.corners.add(normalIndex);
+		
+		chunk.numNormalCorners += normalIndex != 0 ? 1 : 0;
+	}
 	
-	private boolean isToken(String data)
+	private static boolean isSpace(int character)
 	{
-		return tokensMap.get(data) != null;
+		return character == ' ' || character == '\t';
 	}
 	
+	// OBJ indexes each attribute separately, a mesh vertex is a distinct combination of them. Without 
+	// normals in the file, corners at equal positions share a vertex so the calculated normals are 
+	// smooth across faces. Tangents are always calculated, from zero texture coordinates if there are 
+	// none.
 	public IndexedMesh toIndexedMesh()
 	{
-		IndexedMesh indexedMesh = new IndexedMesh();
+		float[] positions = concat(m_chunks, 0);
+		float[] texCoords = concat(m_chunks, 1);
+		float[] normals   = concat(m_chunks, 2);
+		
+		int numCorners       = 0;
+		int numNormalCorners = 0;
+		
+		for(ObjChunk chunk : m_chunks)
+		{
+			numCorners       += chunk.corners.size() / 3;
+			numNormalCorners += chunk.numNormalCorners;
+		}
+		
+		// as soon as any corner has a normal, vertices are told apart by their normals as well
+		boolean hasNormal = numNormalCorners != 0;
 		
-		Map<ObjIndex, Integer> objIndexMap      = new HashMap<>();
-		Map<Vector3f, Integer> positionIndexMap = new HashMap<>();
+		FloatArrayList meshPositions = new FloatArrayList(positions.length);
+		FloatArrayList meshTexCoords = new FloatArrayList(positions.length / 3 * 2);
+		FloatArrayList meshNormals   = new FloatArrayList(positions.length);
+		BitSet         isNormalGiven = new BitSet();
+		int[]          meshIndices   = new int[numCorners];
 		
-		int objIndicesSize = objIndices.size();
+		VertexMap vertexMap   = new VertexMap(positions.length / 3);
+		int       cornerIndex = 0;
 		
-		for(int i = 0; i < objIndicesSize; i++)
+		for(ObjChunk chunk : m_chunks)
 		{
-			ObjIndex currentOBJIndex = objIndices.get(i);
-			
-			Vector3f currentPosition = positions.get(currentOBJIndex.positionIndex);
-			Vector2f currentTexCoord;
-			
-			currentTexCoord = hasTexCoord ? texCoords.get(currentOBJIndex.texCoordIndex)
-                                          : new Vector2f(0, 0);
-			
-			Integer meshIndex;
-			
-			if(hasNormal)
+			for(int i = 0; i < chunk.corners.size(); i += 3)
 			{
-				meshIndex = objIndexMap.get(currentOBJIndex);
+				// OBJ starts counting from 1
+				int p = chunk.corners.get(i)     - 1;
+				int t = chunk.corners.get(i + 1) - 1;
+				int n = chunk.corners.get(i + 2) - 1;
 				
-				if(meshIndex == null)
+				if(p < 0 || p * 3 >= positions.length || t * 2 >= texCoords.length || n * 3 >= normals.length)
 				{
-					meshIndex = indexedMesh.getPositions().size();
-					objIndexMap.put(currentOBJIndex, meshIndex);
-					
-					indexedMesh.getPositions().add(currentPosition);
-					indexedMesh.getTexCoords().add(currentTexCoord);
-					indexedMesh.getNormals().add(normals.get(currentOBJIndex.normalIndex));
+					m_logger.printErr("face refers to missing vertex data (relative indices are not supported)");
+					Debug.exitErr();
 				}
-			}
-			else
-			{
-				meshIndex = positionIndexMap.get(currentPosition);
 				
-				if(meshIndex == null)
+				int numVertices = meshPositions.size() / 3;
+				int vertexIndex;
+				
+				if(hasNormal)
+				{
+					vertexIndex = vertexMap.putIfAbsent(p, t, n, numVertices);
+				}
+				else
 				{
-					meshIndex = indexedMesh.getPositions().size();
-					positionIndexMap.put(currentPosition, meshIndex);
+					// adding 0 turns -0 into 0
+					vertexIndex = vertexMap.putIfAbsent(Float.floatToIntBits(positions[p * 3]     + 0.0f), 
+					                                    Float.floatToIntBits(positions[p * 3 + 1] + 0.0f), 
+					                                    Float.floatToIntBits(positions[p * 3 + 2] + 0.0f), numVertices);
+				}
+				
+				if(vertexIndex == numVertices)
+				{
+					meshPositions.add(positions[p * 3]);
+					meshPositions.add(positions[p * 3 + 1]);
+					meshPositions.add(positions[p * 3 + 2]);
+					
+					meshTexCoords.add(t >= 0 ? texCoords[t * 2]     : 0.0f);
+					meshTexCoords.add(t >= 0 ? texCoords[t * 2 + 1] : 0.0f);
 					
-					indexedMesh.getPositions().add(currentPosition);
-					indexedMesh.getTexCoords().add(currentTexCoord);
-					indexedMesh.getNormals().add(new Vector3f(0, 0, 0));
+					meshNormals.add(n >= 0 ? normals[n * 3]     : 0.0f);
+					meshNormals.add(n >= 0 ? normals[n * 3 + 1] : 0.0f);
+					meshNormals.add(n >= 0 ? normals[n * 3 + 2] : 0.0f);
+					
+					isNormalGiven.set(numVertices, n >= 0);
 				}
+				
+				meshIndices[cornerIndex++] = vertexIndex;
 			}
-			
-			indexedMesh.getIndices().add(meshIndex);
-			indexedMesh.getTangents().add(new Vector3f(0, 0, 0));
-		}// end for each OBJIndex
+		}
 		
-//		Debug.print(m_fullFileName + "  after processing: " + indexedMesh.getPositions().size() + " positions " + indexedMesh.getIndices().size() + "   "+ hasNormal + "NEW!!!!!!!!!");
+		IndexedMesh indexedMesh = new IndexedMesh(meshPositions.toArray(), meshTexCoords.toArray(), 
+		                                          meshNormals.toArray(), meshIndices);
 		
-		if(!hasNormal)
+		// vertices without a normal in the file get one calculated from their faces
+		if(numNormalCorners != numCorners)
 		{
+			float[] givenNormals = indexedMesh.getNormals().clone();
+			
 			indexedMesh.calcNormals();
+			
+			float[] normalsResult = indexedMesh.getNormals();
+			for(int v = isNormalGiven.nextSetBit(0); v >= 0; v = isNormalGiven.nextSetBit(v + 1))
+			{
+				System.arraycopy(givenNormals, v * 3, normalsResult, v * 3, 3);
+			}
 		}
 		
 		indexedMesh.calcTangents();
@@ -345,23 +291,162 @@ public class ObjParser
 		return indexedMesh;
 	}
 	
-//	public boolean hasMtl()
-//	{
-//		return m_mtlParser != null;
-//	}
+	// attribute: 0 for positions, 1 for texture coordinates and 2 for normals
+	private static float[] concat(ObjChunk[] chunks, int attribute)
+	{
+		int totalSize = 0;
+		
+		for(ObjChunk chunk : chunks)
+		{
+			totalSize += chunk.getAttribute(attribute).size();
+		}
+		
+		float[] result = new float[totalSize];
+		int     offset = 0;
+		
+		for(ObjChunk chunk : chunks)
+		{
+			FloatArrayList data = chunk.getAttribute(attribute);
+			
+			for(int i = 0; i < data.size(); i++)
+			{
+				result[offset++] = data.get(i);
+			}
+		}
+		
+		return result;
+	}
 	
 	public String getFullFileName()
 	{
 		return m_fullFileName;
 	}
 	
-//	public List<Material> getMaterials()
-//	{
-//		return m_materials;
-//	}
-//	
-//	public List<List<Vector2i>> getMtlIndexPairs()
-//	{
-//		return m_mtlIndexPairs;
-//	}
+	// What a single chunk of the file contains. Indices are as in the file (1-based, 0 if missing).
+	private static class ObjChunk
+	{
+		public FloatArrayList positions = new FloatArrayList();
+		public FloatArrayList texCoords = new FloatArrayList();
+		public FloatArrayList normals   = new FloatArrayList();
+		
+		// position, texture coordinate and normal index for each triangle corner
+		public IntArrayList corners = new IntArrayList();
+		
+		public int numNormalCorners = 0;
+		
+		public FloatArrayList getAttribute(int attribute)
+		{
+			return attribute == 0 ? positions : attribute == 1 ? texCoords : normals;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private class ParseTask extends RecursiveAction
+	{
+		private ByteBuffer m_buffer;
+		private int[]      m_chunkBounds;
+		private int        m_beginChunk;
+		private int        m_endChunk;
+		
+		public ParseTask(ByteBuffer buffer, int[] chunkBounds, int beginChunk, int endChunk)
+		{
+			m_buffer      = buffer;
+			m_chunkBounds = chunkBounds;
+			m_beginChunk  = beginChunk;
+			m_endChunk    = endChunk;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(m_endChunk - m_beginChunk > 1)
+			{
+				int midChunk = (m_beginChunk + m_endChunk) / 2;
+				invokeAll(new ParseTask(m_buffer, m_chunkBounds, m_beginChunk, midChunk), 
+				          new ParseTask(m_buffer, m_chunkBounds, midChunk, m_endChunk));
+				return;
+			}
+			
+			ByteScanner scanner = new ByteScanner(m_buffer, m_chunkBounds[m_beginChunk], m_chunkBounds[m_endChunk]);
+			
+			m_chunks[m_beginChunk] = parseChunk(scanner);
+		}
+	}
+	
+	// Open addressing hash map from three ints to a vertex index, so vertices can be deduplicated 
+	// without boxing.
+	private static class VertexMap
+	{
+		private int[] m_keys;
+		private int[] m_values;
+		private int   m_size;
+		
+		public VertexMap(int expectedSize)
+		{
+			int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2) * 2;
+			
+			m_keys   = new int[capacity * 3];
+			m_values = new int[capacity];
+			m_size   = 0;
+			
+			Arrays.fill(m_values, -1);
+		}
+		
+		// Returns the value already stored for the key, or stores and returns the given one.
+		public int putIfAbsent(int key0, int key1, int key2, int value)
+		{
+			int mask = m_values.length - 1;
+			int slot = hash(key0, key1, key2) & mask;
+			
+			while(m_values[slot] != -1)
+			{
+				if(m_keys[slot * 3] == key0 && m_keys[slot * 3 + 1] == key1 && m_keys[slot * 3 + 2] == key2)
+				{
+					return m_values[slot];
+				}
+				
+				slot = (slot + 1) & mask;
+			}
+			
+			m_keys[slot * 3]     = key0;
+			m_keys[slot * 3 + 1] = key1;
+			m_keys[slot * 3 + 2] = key2;
+			m_values[slot]       = value;
+			
+			// keep at least half of the slots empty
+			if(++m_size * 2 > m_values.length)
+			{
+				grow();
+			}
+			
+			return value;
+		}
+		
+		private void grow()
+		{
+			int[] keys   = m_keys;
+			int[] values = m_values;
+			
+			m_keys   = new int[keys.length * 2];
+			m_values = new int[values.length * 2];
+			m_size   = 0;
+			
+			Arrays.fill(m_values, -1);
+			
+			for(int i = 0; i < values.length; i++)
+			{
+				if(values[i] != -1)
+				{
+					putIfAbsent(keys[i * 3], keys[i * 3 + 1], keys[i * 3 + 2], values[i]);
+				}
+			}
+		}
+		
+		private static int hash(int key0, int key1, int key2)
+		{
+			int hash = key0 * 0x9E3779B1 + key1 * 0x85EBCA77 + key2 * 0xC2B2AE3D;
+			
+			return hash ^ (hash >>> 15);
+		}
+	}
 }
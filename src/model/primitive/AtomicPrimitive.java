@@ -22,6 +22,10 @@
 
 package model.primitive;
 
+import core.Ray;
+import math.Vector3f;
+import model.Model;
+
 public abstract class AtomicPrimitive extends Primitive
 {
 	protected AtomicPrimitive()
@@ -31,5 +35,124 @@ public abstract class AtomicPrimitive extends Primitive
 	
 	public abstract Interpolator genInterpolator(Intersection intersection);
 	
+	// Fills in hit point, hit normal, this primitive and its model for a hit at the given parametric 
+	// distance, which is expected to come from calcIntersectDist().
+	public void calcIntersectionDetail(Ray ray, float dist, Intersection intersection)
+	{
+		calcIntersectionDetail(ray, dist, getModel(), intersection);
+	}
+	
+	// Same as above, but the primitive was reached through the given model, whose transform may differ 
+	// from getModel()'s if the geometry is instanced. The ray is in world space.
+	public abstract void calcIntersectionDetail(Ray ray, float dist, Model model, Intersection intersection);
+	
 	public abstract boolean hasTexCoord();
+	
+	// Writes the world space vertices and returns true if this primitive is a triangle, other primitives 
+	// return false. Acceleration structures use this to store triangles in their own compact form.
+	public boolean getTransformedVertices(Vector3f vA, Vector3f vB, Vector3f vC)
+	{
+		return false;
+	}
+	
+	// Same as above, but in model space.
+	public boolean getLocalVertices(Vector3f vA, Vector3f vB, Vector3f vC)
+	{
+		return false;
+	}
+	
+	// World space surface area, 0 if this primitive cannot be sampled as a light (see scene.light).
+	public float calcArea()
+	{
+		Vector3f vA = new Vector3f();
+		Vector3f vB = new Vector3f();
+		Vector3f vC = new Vector3f();
+		
+		if(!getTransformedVertices(vA, vB, vC))
+		{
+			return 0.0f;
+		}
+		
+		return vB.subLocal(vA).cross(vC.subLocal(vA)).length() * 0.5f;
+	}
+	
+	// Picks a point on the surface, as seen from the world space position "from", with the sample 
+	// (u, v) in [0, 1)^2. Writes the point and its surface normal, and returns the solid angle density 
+	// (with respect to the direction from "from" to the point) of having picked it, 0 if no point was 
+	// picked. Triangles are sampled uniformly by area; other primitives override this.
+	public float genDirectSample(Vector3f from, float u, float v, Vector3f point, Vector3f normal)
+	{
+		Vector3f vA = new Vector3f();
+		Vector3f vB = new Vector3f();
+		Vector3f vC = new Vector3f();
+		
+		if(!getTransformedVertices(vA, vB, vC))
+		{
+			return 0.0f;
+		}
+		
+		// uniformly distributed barycentric coordinates
+		float sqrtU = (float)Math.sqrt(u);
+		float baryA = 1.0f - sqrtU;
+		float baryB = v * sqrtU;
+		float baryC = 1.0f - baryA - baryB;
+		
+		point.set(vA.mul(baryA).addLocal(vB.mul(baryB)).addLocal(vC.mul(baryC)));
+		normal.set(vB.subLocal(vA).cross(vC.subLocal(vA)));
+		
+		float area = normal.length() * 0.5f;
+		
+		if(area == 0.0f)
+		{
+			return 0.0f;
+		}
+		
+		normal.divLocal(area * 2.0f);
+		
+		return calcAreaToSolidAnglePdf(1.0f / area, from, point, normal);
+	}
+	
+	// Density genDirectSample() has for the given point on the surface, which is usually one a ray 
+	// starting at "from" has hit.
+	public float calcDirectSamplePdf(Vector3f from, Vector3f point)
+	{
+		Vector3f vA = new Vector3f();
+		Vector3f vB = new Vector3f();
+		Vector3f vC = new Vector3f();
+		
+		if(!getTransformedVertices(vA, vB, vC))
+		{
+			return 0.0f;
+		}
+		
+		// geometric normal, as in genDirectSample()
+		Vector3f normal = vB.subLocal(vA).cross(vC.subLocal(vA));
+		float    area   = normal.length() * 0.5f;
+		
+		if(area == 0.0f)
+		{
+			return 0.0f;
+		}
+		
+		normal.divLocal(area * 2.0f);
+		
+		return calcAreaToSolidAnglePdf(1.0f / area, from, point, normal);
+	}
+	
+	// Converts a density over surface area into one over the solid angle seen from "from". Surfaces are 
+	// taken as two sided.
+	protected static float calcAreaToSolidAnglePdf(float areaPdf, Vector3f from, Vector3f point, Vector3f normal)
+	{
+		Vector3f toFrom = from.sub(point);
+		
+		float distSquared = toFrom.squareLength();
+		float cosTheta    = Math.abs(normal.dot(toFrom)) / (float)Math.sqrt(distSquared);
+		
+		if(cosTheta == 0.0f || distSquared == 0.0f)
+		{
+			return 0.0f;
+		}
+		
+		return areaPdf * distSquared / cosTheta;
+	}
 }
@@ -22,6 +22,7 @@
 
 package model.primitive;
 
+import math.Transform;
 import math.Vector3f;
 
 public class ColoredTriangle extends Triangle
@@ -58,7 +59,9 @@ public class ColoredTriangle extends Triangle
 	@Override
 	public Interpolator genInterpolator(Intersection intersection)
 	{
-		Vector3f localHitPoint = getModel().getTransform().getInverseModelMatrix().mul(intersection.getHitPoint(), 1.0f);
+		Transform transform     = intersection.getHitModel().getTransform();
+		Vector3f  localHitPoint = transform.isIdentity() ? intersection.getHitPoint() : 
+		                          transform.getInverseModelMatrix().mul(intersection.getHitPoint(), 1.0f);
 		
 		// projected hit point
 		float hitPu, hitPv;
@@ -120,6 +123,6 @@ public class ColoredTriangle extends Triangle
 		// barycentric coordinate of vertex C in the projected plane
 		float baryC = (hitPv*abPu - hitPu*abPv) * multiplier;
 		
-		return new ColoredTriangleInterpolator(this, 1.0f - baryB - baryC, baryB, baryC);
+		return new ColoredTriangleInterpolator(this, transform.getModelMatrix(), 1.0f - baryB - baryC, baryB, baryC);
 	}
 }
@@ -29,14 +29,16 @@ import math.Vector3f;
 public class ColoredTriangleInterpolator implements Interpolator
 {
 	private ColoredTriangle m_coloredTriangle;
+	private Matrix4f        m_modelMatrix;
 	
 	private float m_baryA;
 	private float m_baryB;
 	private float m_baryC;
 	
-	public ColoredTriangleInterpolator(ColoredTriangle coloredTriangle, float baryA, float baryB, float baryC)
+	public ColoredTriangleInterpolator(ColoredTriangle coloredTriangle, Matrix4f modelMatrix, float baryA, float baryB, float baryC)
 	{
 		m_coloredTriangle = coloredTriangle;
+		m_modelMatrix     = modelMatrix;
 		
 		m_baryA = baryA;
 		m_baryB = baryB;
@@ -46,16 +48,12 @@ public class ColoredTriangleInterpolator implements Interpolator
 	@Override
 	public Vector3f getFlatNormal()
 	{
-		Matrix4f modelMatrix = m_coloredTriangle.getModel().getTransform().getModelMatrix();
-		
-		return modelMatrix.mul(m_coloredTriangle.getNormal(), 0.0f).normalizeLocal();
+		return m_modelMatrix.mul(m_coloredTriangle.getNormal(), 0.0f).normalizeLocal();
 	}
 
 	@Override
 	public Vector3f getSmoothNormal()
 	{
-		Matrix4f modelMatrix = m_coloredTriangle.getModel().getTransform().getModelMatrix();
-		
 		Vector3f nA = m_coloredTriangle.getNa();
 		Vector3f nB = m_coloredTriangle.getNb();
 		Vector3f nC = m_coloredTriangle.getNc();
@@ -64,7 +62,7 @@ public class ColoredTriangleInterpolator implements Interpolator
 				                        nA.y * m_baryA + nB.y * m_baryB + nC.y * m_baryC,
 				                        nA.z * m_baryA + nB.z * m_baryB + nC.z * m_baryC);
 		
-		return modelMatrix.mul(smoothN, 0.0f).normalizeLocal();
+		return m_modelMatrix.mul(smoothN, 0.0f).normalizeLocal();
 	}
 
 	@Override
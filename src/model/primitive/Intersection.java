@@ -24,11 +24,13 @@ package model.primitive;
 
 import core.Ray;
 import math.Vector3f;
+import math.sampler.Sampler;
 import model.Model;
 
 public class Intersection
 {
 	private AtomicPrimitive m_hitAtomicPrimitive;
+	private Model           m_hitModel;
 	private Vector3f        m_hitPoint;
 	private Vector3f        m_hitNormal;
 	
@@ -42,9 +44,9 @@ public class Intersection
 		set(other);
 	}
 	
-	public boolean interact(Ray ray)
+	public boolean interact(Ray ray, Sampler sampler)
 	{
-		boolean keepSampling = m_hitAtomicPrimitive.getModel().getMaterial().sample(this, ray);
+		boolean keepSampling = m_hitModel.getMaterial().sample(this, ray, sampler);
 		
 		return keepSampling;
 	}
@@ -55,6 +57,7 @@ public class Intersection
 		m_hitNormal = null;
 		
 		m_hitAtomicPrimitive = null;
+		m_hitModel           = null;
 	}
 	
 	public void setHitPoint(Vector3f point)   { m_hitPoint = point;   }
@@ -68,16 +71,28 @@ public class Intersection
 		m_hitAtomicPrimitive = atomicPrimitive;
 	}
 	
-//	public AtomicPrimitive getHitAtomicPrimitive()
-//	{
-//		return m_hitAtomicPrimitive;
-//	}
+	// the model (or model instance) the primitive was hit through; it provides material and transform
+	public void setHitModel(Model model)
+	{
+		m_hitModel = model;
+	}
+	
+	public Model getHitModel()
+	{
+		return m_hitModel;
+	}
+	
+	public AtomicPrimitive getHitAtomicPrimitive()
+	{
+		return m_hitAtomicPrimitive;
+	}
 	
 	public void set(Intersection other)
 	{
 		m_hitPoint           = other.m_hitPoint;
 		m_hitNormal          = other.m_hitNormal;
 		m_hitAtomicPrimitive = other.m_hitAtomicPrimitive;
+		m_hitModel           = other.m_hitModel;
 	}
 	
 	public Interpolator genInterpolator()
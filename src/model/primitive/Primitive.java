@@ -25,6 +25,7 @@ package model.primitive;
 import java.util.List;
 
 import core.Ray;
+import math.Matrix4f;
 import math.Vector3f;
 import model.Model;
 import model.boundingVolume.AABB;
@@ -41,9 +42,36 @@ public abstract class Primitive
 	public abstract boolean isIntersect(Ray ray, Intersection intersection);
 	public abstract boolean isIntersect(AABB aabb);
 	
+	// Returns the parametric distance t (hit point = ray origin + t * ray direction) of the closest hit 
+	// nearer than maxDist, or Float.POSITIVE_INFINITY if there is none. Implementations must not 
+	// allocate, this is the innermost loop of every traversal.
+	public abstract float calcIntersectDist(Ray ray, float maxDist);
+	
+	// Model space counterpart of calcIntersectDist(): the ray is already in this primitive's model space 
+	// and no transformation takes place. Structures that keep models apart (see TwoLevelBvh) transform 
+	// the ray once per model instead of once per primitive.
+	public abstract float calcLocalIntersectDist(float rayOx, float rayOy, float rayOz, 
+	                                             float rayDx, float rayDy, float rayDz, float maxDist);
+	
+	// Any-hit query: whether something blocks the ray within (0, maxDist). Nothing about the hit is 
+	// recorded, so implementations are free to stop at the first hit instead of the closest one.
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		return calcIntersectDist(ray, maxDist) < maxDist;
+	}
+	
+	// Transforms the geometry by the given model matrix for good, so the owning model's transform can 
+	// be reset to identity afterwards (see Scene.addStaticModel()). Returns false, leaving the geometry 
+	// untouched, if this primitive cannot be represented in the transformed space.
+	public boolean bakeTransform(Matrix4f modelMatrix)
+	{
+		return false;
+	}
+	
 	public abstract void getAtomicPrimitives(List<AtomicPrimitive> results);
 	
 	public abstract AABB     calcTransformedAABB();
+	public abstract AABB     calcLocalAABB();
 	public abstract Vector3f calcGeometricAveragePos();
 	public abstract long     calcGeometricWeight();
 	
@@ -26,6 +26,7 @@ import java.util.List;
 
 import core.Ray;
 import math.Vector3f;
+import model.Model;
 import model.boundingVolume.AABB;
 import util.Debug;
 import util.Func;
@@ -36,7 +37,8 @@ public class Sphere extends AtomicPrimitive
 	// produce floating point precision artefact on rendered surface.
 	// Radii around 1000 are fine, but no guarantee on higher values.
 	
-	// Sphere stores global coordinates.
+	// Sphere stores global coordinates, its model's transform is expected to be identity. Only 
+	// instances reached through a two-level structure are transformed (see TwoLevelBvh).
 	
 	private static final float EPSILON = 0.0001f;
 	
@@ -110,6 +112,7 @@ public class Sphere extends AtomicPrimitive
 			if(t > 0.0f)
 			{
 				intersection.setHitAtomicPrimitive(this);
+				intersection.setHitModel(getModel());
 				intersection.setHitPoint(ray.getDir().mul(t).addLocal(ray.getOrigin()));
 				intersection.setHitNormal(intersection.getHitPoint().sub(m_center).divLocal(m_radius));
 				
@@ -122,6 +125,55 @@ public class Sphere extends AtomicPrimitive
 		}
 	}
 
+	@Override
+	public float calcIntersectDist(Ray ray, float maxDist)
+	{
+		Vector3f o = ray.getOrigin();
+		Vector3f d = ray.getDir();
+		
+		return calcLocalIntersectDist(o.x, o.y, o.z, d.x, d.y, d.z, maxDist);
+	}
+	
+	@Override
+	public float calcLocalIntersectDist(float rayOx, float rayOy, float rayOz, 
+	                                    float rayDx, float rayDy, float rayDz, float maxDist)
+	{
+		// same equation as in isIntersect(), without assuming a normalized ray direction
+		
+		float ocX = m_center.x - rayOx;
+		float ocY = m_center.y - rayOy;
+		float ocZ = m_center.z - rayOz;
+		
+		float a = rayDx*rayDx + rayDy*rayDy + rayDz*rayDz;
+		float b = rayDx*ocX + rayDy*ocY + rayDz*ocZ;
+		float D = b*b - a * (ocX*ocX + ocY*ocY + ocZ*ocZ - m_radius*m_radius);
+		
+		if(D < 0.0f)
+		{
+			return Float.POSITIVE_INFINITY;
+		}
+		
+		D = (float)Math.sqrt(D);
+		
+		// pick closest point in front of ray origin
+		float t;
+		t = (t = (b - D) / a) > EPSILON ? t : ((t = (b + D) / a) > EPSILON ? t : Float.POSITIVE_INFINITY);
+		
+		return t < maxDist ? t : Float.POSITIVE_INFINITY;
+	}
+	
+	@Override
+	public void calcIntersectionDetail(Ray ray, float dist, Model model, Intersection intersection)
+	{
+		Vector3f hitPoint      = ray.getDir().mul(dist).addLocal(ray.getOrigin());
+		Vector3f localHitPoint = model.getTransform().getInverseModelMatrix().mul(hitPoint, 1.0f);
+		
+		intersection.setHitAtomicPrimitive(this);
+		intersection.setHitModel(model);
+		intersection.setHitPoint(hitPoint);
+		intersection.setHitNormal(model.getTransform().getModelMatrix().mul(localHitPoint.subLocal(m_center), 0.0f).normalizeLocal());
+	}
+	
 	// Reference: Jim Arvo's algorithm in Graphics Gems 2
 	@Override
 	public boolean isIntersect(AABB aabb)
@@ -155,6 +207,12 @@ public class Sphere extends AtomicPrimitive
 		
 		return aabb;
 	}
+	
+	@Override
+	public AABB calcLocalAABB()
+	{
+		return calcTransformedAABB();
+	}
 
 	@Override
 	public void getAtomicPrimitives(List<AtomicPrimitive> results)
@@ -174,10 +232,100 @@ public class Sphere extends AtomicPrimitive
 		return 1L;
 	}
 
+	@Override
+	public float calcArea()
+	{
+		return 4.0f * 3.14159265f * m_radius * m_radius;
+	}
+	
+	// Seen from outside, only the cone of directions the sphere subtends is sampled (uniformly), which 
+	// works for large spheres whose visible part is a small fraction of their area. From inside, points 
+	// are picked uniformly by area. Done in double precision since radii around 1000 are common.
+	@Override
+	public float genDirectSample(Vector3f from, float u, float v, Vector3f point, Vector3f normal)
+	{
+		double ocX = m_center.x - from.x;
+		double ocY = m_center.y - from.y;
+		double ocZ = m_center.z - from.z;
+		double distSquared   = ocX*ocX + ocY*ocY + ocZ*ocZ;
+		double radiusSquared = (double)m_radius * m_radius;
+		
+		if(distSquared <= radiusSquared)
+		{
+			double cosTheta = 1.0 - 2.0 * u;
+			double sinTheta = Math.sqrt(Math.max(0.0, 1.0 - cosTheta*cosTheta));
+			double phi      = 2.0 * Math.PI * v;
+			
+			normal.set((float)(sinTheta * Math.cos(phi)), (float)cosTheta, (float)(sinTheta * Math.sin(phi)));
+			point.set(normal.mul(m_radius).addLocal(m_center));
+			
+			return calcAreaToSolidAnglePdf(1.0f / calcArea(), from, point, normal);
+		}
+		
+		double dist            = Math.sqrt(distSquared);
+		double sinThetaMaxSqr  = radiusSquared / distSquared;
+		double cosThetaMax     = Math.sqrt(1.0 - sinThetaMaxSqr);
+		double oneMinusCosMax  = sinThetaMaxSqr / (1.0 + cosThetaMax);
+		
+		double oneMinusCos = u * oneMinusCosMax;
+		double cosTheta    = 1.0 - oneMinusCos;
+		double sinTheta    = Math.sqrt(Math.max(0.0, oneMinusCos * (2.0 - oneMinusCos)));
+		double phi         = 2.0 * Math.PI * v;
+		
+		// direction in a basis whose y axis points toward the center
+		Vector3f yAxis = new Vector3f((float)(ocX / dist), (float)(ocY / dist), (float)(ocZ / dist));
+		Vector3f xAxis = new Vector3f();
+		Vector3f zAxis = new Vector3f();
+		yAxis.calcOrthBasisAsYaxis(xAxis, zAxis);
+		
+		double dirX = xAxis.x * sinTheta * Math.cos(phi) + yAxis.x * cosTheta + zAxis.x * sinTheta * Math.sin(phi);
+		double dirY = xAxis.y * sinTheta * Math.cos(phi) + yAxis.y * cosTheta + zAxis.y * sinTheta * Math.sin(phi);
+		double dirZ = xAxis.z * sinTheta * Math.cos(phi) + yAxis.z * cosTheta + zAxis.z * sinTheta * Math.sin(phi);
+		
+		// nearest hit along the direction; directions grazing the silhouette may miss by rounding, they 
+		// are snapped onto it
+		double b = dirX*ocX + dirY*ocY + dirZ*ocZ;
+		double D = Math.max(0.0, b*b - distSquared + radiusSquared);
+		double t = b - Math.sqrt(D);
+		
+		double pX = from.x + dirX * t;
+		double pY = from.y + dirY * t;
+		double pZ = from.z + dirZ * t;
+		
+		point.set((float)pX, (float)pY, (float)pZ);
+		normal.set((float)((pX - m_center.x) / m_radius), 
+		           (float)((pY - m_center.y) / m_radius), 
+		           (float)((pZ - m_center.z) / m_radius));
+		
+		return (float)(1.0 / (2.0 * Math.PI * oneMinusCosMax));
+	}
+	
+	@Override
+	public float calcDirectSamplePdf(Vector3f from, Vector3f point)
+	{
+		double ocX = m_center.x - from.x;
+		double ocY = m_center.y - from.y;
+		double ocZ = m_center.z - from.z;
+		double distSquared   = ocX*ocX + ocY*ocY + ocZ*ocZ;
+		double radiusSquared = (double)m_radius * m_radius;
+		
+		if(distSquared <= radiusSquared)
+		{
+			Vector3f normal = point.sub(m_center).divLocal(m_radius);
+			
+			return calcAreaToSolidAnglePdf(1.0f / calcArea(), from, point, normal);
+		}
+		
+		double sinThetaMaxSqr = radiusSquared / distSquared;
+		double oneMinusCosMax = sinThetaMaxSqr / (1.0 + Math.sqrt(1.0 - sinThetaMaxSqr));
+		
+		return (float)(1.0 / (2.0 * Math.PI * oneMinusCosMax));
+	}
+	
 	@Override
 	public Interpolator genInterpolator(Intersection intersection)
 	{
-		return new SphereInterpolator(intersection.getHitPoint().sub(m_center).divLocal(m_radius));
+		return new SphereInterpolator(new Vector3f(intersection.getHitNormal()));
 	}
 
 	@Override
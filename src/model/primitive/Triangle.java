@@ -27,7 +27,9 @@ import java.util.List;
 import core.Ray;
 import math.Matrix4f;
 import math.Vector2f;
+import math.Transform;
 import math.Vector3f;
+import model.Model;
 import model.boundingVolume.AABB;
 import util.Debug;
 
@@ -87,16 +89,34 @@ public class Triangle extends AtomicPrimitive
 	@Override
 	public boolean isIntersect(Ray ray, Intersection intersection)
 	{
+		Transform transform = getModel().getTransform();
+		
+		// baked geometry (see bakeTransform()) is in world space already
+		if(transform.isIdentity())
+		{
+			if(rayTriangleIntersection(ray.getOrigin(), ray.getDir(), intersection, m_vA, m_vB, m_vC, m_normal, m_eAB, m_eAC))
+			{
+				intersection.setHitAtomicPrimitive(this);
+				intersection.setHitModel(getModel());
+				intersection.setHitNormal(new Vector3f(m_normal));
+				
+				return true;
+			}
+			
+			return false;
+		}
+		
 		// test intersection in model space
-		Vector3f localRayOrigin = getModel().getTransform().getInverseModelMatrix().mul(ray.getOrigin(), 1.0f);
-		Vector3f localRayDir    = getModel().getTransform().getInverseModelMatrix().mul(ray.getDir(), 0.0f).normalizeLocal();
+		Vector3f localRayOrigin = transform.getInverseModelMatrix().mul(ray.getOrigin(), 1.0f);
+		Vector3f localRayDir    = transform.getInverseModelMatrix().mul(ray.getDir(), 0.0f).normalizeLocal();
 		
 		if(rayTriangleIntersection(localRayOrigin, localRayDir, intersection, m_vA, m_vB, m_vC, m_normal, m_eAB, m_eAC))
 		{
 			// transform back to world space
 			intersection.setHitAtomicPrimitive(this);
-			intersection.setHitPoint(getModel().getTransform().getModelMatrix().mul(intersection.getHitPoint(), 1.0f));
-			intersection.setHitNormal(getModel().getTransform().getModelMatrix().mul(intersection.getHitNormal(), 0.0f).normalizeLocal());
+			intersection.setHitModel(getModel());
+			intersection.setHitPoint(transform.getModelMatrix().mul(intersection.getHitPoint(), 1.0f));
+			intersection.setHitNormal(transform.getModelMatrix().mul(intersection.getHitNormal(), 0.0f).normalizeLocal());
 			
 			return true;
 		}
@@ -104,7 +124,58 @@ public class Triangle extends AtomicPrimitive
 		return false;
 	}
 	
-	// TODO: make local & global intersect method
+	// The ray is brought into model space without normalizing its direction, so the parametric 
+	// distance is the same in both spaces.
+	@Override
+	public float calcIntersectDist(Ray ray, float maxDist)
+	{
+		Transform transform = getModel().getTransform();
+		Vector3f  o         = ray.getOrigin();
+		Vector3f  d         = ray.getDir();
+		
+		if(transform.isIdentity())
+		{
+			return calcLocalIntersectDist(o.x, o.y, o.z, d.x, d.y, d.z, maxDist);
+		}
+		
+		float[][] m = transform.getInverseModelMatrix().m;
+		
+		float localOx = m[0][0] * o.x + m[0][1] * o.y + m[0][2] * o.z + m[0][3];
+		float localOy = m[1][0] * o.x + m[1][1] * o.y + m[1][2] * o.z + m[1][3];
+		float localOz = m[2][0] * o.x + m[2][1] * o.y + m[2][2] * o.z + m[2][3];
+		float localDx = m[0][0] * d.x + m[0][1] * d.y + m[0][2] * d.z;
+		float localDy = m[1][0] * d.x + m[1][1] * d.y + m[1][2] * d.z;
+		float localDz = m[2][0] * d.x + m[2][1] * d.y + m[2][2] * d.z;
+		
+		return calcLocalIntersectDist(localOx, localOy, localOz, localDx, localDy, localDz, maxDist);
+	}
+	
+	@Override
+	public float calcLocalIntersectDist(float rayOx, float rayOy, float rayOz, 
+	                                    float rayDx, float rayDy, float rayDz, float maxDist)
+	{
+		return Triangle.calcRayTriangleDist(rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist, 
+		                                    m_vA, m_normal, m_eAB, m_eAC);
+	}
+	
+	@Override
+	public void calcIntersectionDetail(Ray ray, float dist, Model model, Intersection intersection)
+	{
+		intersection.setHitAtomicPrimitive(this);
+		intersection.setHitModel(model);
+		intersection.setHitPoint(ray.getDir().mul(dist).addLocal(ray.getOrigin()));
+		
+		Transform transform = model.getTransform();
+		
+		if(transform.isIdentity())
+		{
+			intersection.setHitNormal(new Vector3f(m_normal));
+		}
+		else
+		{
+			intersection.setHitNormal(transform.getModelMatrix().mul(m_normal, 0.0f).normalizeLocal());
+		}
+	}
 	
 	// Reference: Ingo Wald's PhD paper "Real Time Ray Tracing and Interactive Global Illumination", P.89.
 	// This implementation is twice as fast as Moeller-Trumbore's method (stated by others, haven't profiled
@@ -189,6 +260,83 @@ public class Triangle extends AtomicPrimitive
 		return true;
 	}
 
+	// Same test as rayTriangleIntersection(), on plain floats and without producing the hit point.
+	// Returns Float.POSITIVE_INFINITY if there is no hit nearer than maxDist.
+	public static float calcRayTriangleDist(float rayOx, float rayOy, float rayOz, float rayDx, float rayDy, float rayDz, float maxDist, 
+	                                        Vector3f vA, Vector3f faceNormal, Vector3f eAB, Vector3f eAC)
+	{
+		return calcRayTriangleDist(rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist, 
+		                           vA.x, vA.y, vA.z, faceNormal.x, faceNormal.y, faceNormal.z, 
+		                           eAB.x, eAB.y, eAB.z, eAC.x, eAC.y, eAC.z);
+	}
+	
+	// Same as above with the triangle given as plain floats. The face normal does not need to be 
+	// normalized, neither the distance nor the dominant axis depend on its length.
+	public static float calcRayTriangleDist(float rayOx, float rayOy, float rayOz, float rayDx, float rayDy, float rayDz, float maxDist, 
+	                                        float vAx, float vAy, float vAz, float nx, float ny, float nz, 
+	                                        float eABx, float eABy, float eABz, float eACx, float eACy, float eACz)
+	{
+		float dist = ((vAx - rayOx) * nx + (vAy - rayOy) * ny + (vAz - rayOz) * nz) / 
+		             (rayDx * nx + rayDy * ny + rayDz * nz);
+		
+		// reject by distance (also rejects NaN)
+		if(!(dist >= EPSILON && dist < maxDist))
+			return Float.POSITIVE_INFINITY;
+		
+		// projected hit point
+		float hitPu, hitPv;
+		
+		// projected side vector AB and AC
+		float abPu, abPv, acPu, acPv;
+		
+		float absNx = Math.abs(nx);
+		float absNy = Math.abs(ny);
+		float absNz = Math.abs(nz);
+		
+		// X dominant, projection plane is YZ
+		if(absNx > absNy && absNx > absNz)
+		{
+			hitPu = dist * rayDy + rayOy - vAy;
+			hitPv = dist * rayDz + rayOz - vAz;
+			abPu  = eABy;
+			abPv  = eABz;
+			acPu  = eACy;
+			acPv  = eACz;
+		}
+		// Y dominant, projection plane is ZX
+		else if(absNx <= absNy && absNy > absNz)
+		{
+			hitPu = dist * rayDz + rayOz - vAz;
+			hitPv = dist * rayDx + rayOx - vAx;
+			abPu  = eABz;
+			abPv  = eABx;
+			acPu  = eACz;
+			acPv  = eACx;
+		}
+		// Z dominant, projection plane is XY
+		else
+		{
+			hitPu = dist * rayDx + rayOx - vAx;
+			hitPv = dist * rayDy + rayOy - vAy;
+			abPu  = eABx;
+			abPv  = eABy;
+			acPu  = eACx;
+			acPv  = eACy;
+		}
+		
+		// barycentric coordinate of vertex B in the projected plane
+		float baryB = (hitPu*acPv - hitPv*acPu) / (abPu*acPv - abPv*acPu);
+		if(baryB < 0.0f) return Float.POSITIVE_INFINITY;
+		
+		// barycentric coordinate of vertex C in the projected plane
+		float baryC = (hitPu*abPv - hitPv*abPu) / (acPu*abPv - abPu*acPv);
+		if(baryC < 0.0f) return Float.POSITIVE_INFINITY;
+		
+		if(baryB + baryC > 1.0f) return Float.POSITIVE_INFINITY;
+		
+		return dist;
+	}
+	
 	// Reference: Tomas Akenine-Moeller's "Fast 3D Triangle-Box Overlap Testing", which
 	// is based on SAT but faster.
 	@Override
@@ -204,6 +352,16 @@ public class Triangle extends AtomicPrimitive
 		getModel().getTransform().getModelMatrix().mul(m_vB, 1.0f, tvB);
 		getModel().getTransform().getModelMatrix().mul(m_vC, 1.0f, tvC);
 		
+		Vector3f tNormal = new Vector3f();
+		getModel().getTransform().getModelMatrix().mul(m_normal, 0.0f, tNormal);
+		tNormal.normalizeLocal();
+		
+		return isTriangleAabbIntersect(tvA, tvB, tvC, tNormal, aabb);
+	}
+	
+	// Works on world space vertices and face normal; the vertices are modified.
+	static boolean isTriangleAabbIntersect(Vector3f tvA, Vector3f tvB, Vector3f tvC, Vector3f tNormal, AABB aabb)
+	{
 		// move the origin to the AABB's center
 		tvA.subLocal(aabb.getCenter());
 		tvB.subLocal(aabb.getCenter());
@@ -229,10 +387,6 @@ public class Triangle extends AtomicPrimitive
 		if(sortedProjection.z < -aabbHalfExtents.z || sortedProjection.x > aabbHalfExtents.z)
 			return false;
 		
-		Vector3f tNormal = new Vector3f();
-		getModel().getTransform().getModelMatrix().mul(m_normal, 0.0f, tNormal);
-		tNormal.normalizeLocal();
-		
 		// test triangle's face normal
 		float trigOffset = tvA.dot(tNormal);
 		sortedProjection.z = Math.abs(aabbHalfExtents.x * tNormal.x)
@@ -327,11 +481,58 @@ public class Triangle extends AtomicPrimitive
 	
 	public void getVerticesABC(Vector3f vA, Vector3f vB, Vector3f vC)
 	{
-		vA.set(vA);
+		vA.set(m_vA);
 		vB.set(m_vB);
 		vC.set(m_vC);
 	}
 	
+	@Override
+	public boolean getTransformedVertices(Vector3f vA, Vector3f vB, Vector3f vC)
+	{
+		getModel().getTransform().getModelMatrix().mul(m_vA, 1.0f, vA);
+		getModel().getTransform().getModelMatrix().mul(m_vB, 1.0f, vB);
+		getModel().getTransform().getModelMatrix().mul(m_vC, 1.0f, vC);
+		
+		return true;
+	}
+	
+	// Vertex normals are transformed like the interpolators do; the face normal is recomputed from the 
+	// transformed edges so it stays perpendicular to the triangle under non-uniform scaling.
+	@Override
+	public boolean bakeTransform(Matrix4f modelMatrix)
+	{
+		Vector3f temp = new Vector3f();
+		
+		m_vA.set(modelMatrix.mul(m_vA, 1.0f, temp));
+		m_vB.set(modelMatrix.mul(m_vB, 1.0f, temp));
+		m_vC.set(modelMatrix.mul(m_vC, 1.0f, temp));
+		
+		m_nA.set(modelMatrix.mul(m_nA, 0.0f, temp).normalizeLocal());
+		m_nB.set(modelMatrix.mul(m_nB, 0.0f, temp).normalizeLocal());
+		m_nC.set(modelMatrix.mul(m_nC, 0.0f, temp).normalizeLocal());
+		
+		m_eAB.set(m_vB.sub(m_vA));
+		m_eAC.set(m_vC.sub(m_vA));
+		
+		m_normal.set(m_eAB.cross(m_eAC).normalizeLocal());
+		
+		// a mirroring transform flips the vertex order, keep the face normal on its original side
+		if(modelMatrix.determinant() < 0.0f)
+		{
+			m_normal.mulLocal(-1.0f);
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public boolean getLocalVertices(Vector3f vA, Vector3f vB, Vector3f vC)
+	{
+		getVerticesABC(vA, vB, vC);
+		
+		return true;
+	}
+	
 	public void getNormal(Vector3f normal)
 	{
 		normal.set(m_normal);
@@ -360,25 +561,25 @@ public class Triangle extends AtomicPrimitive
 		modelMatrix.mul(m_vC, 1.0f, tvC);
 		
 		     if(tvA.x > maxX) maxX = tvA.x;
-		else if(tvA.x < minX) minX = tvA.x;
+		     if(tvA.x < minX) minX = tvA.x;
 		     if(tvA.y > maxY) maxY = tvA.y;
-		else if(tvA.y < minY) minY = tvA.y;
+		     if(tvA.y < minY) minY = tvA.y;
 		     if(tvA.z > maxZ) maxZ = tvA.z;
-		else if(tvA.z < minZ) minZ = tvA.z;
+		     if(tvA.z < minZ) minZ = tvA.z;
 		     
 		     if(tvB.x > maxX) maxX = tvB.x;
-		else if(tvB.x < minX) minX = tvB.x;
+		     if(tvB.x < minX) minX = tvB.x;
 		     if(tvB.y > maxY) maxY = tvB.y;
-		else if(tvB.y < minY) minY = tvB.y;
+		     if(tvB.y < minY) minY = tvB.y;
 		     if(tvB.z > maxZ) maxZ = tvB.z;
-		else if(tvB.z < minZ) minZ = tvB.z;
+		     if(tvB.z < minZ) minZ = tvB.z;
 				     
 		     if(tvC.x > maxX) maxX = tvC.x;
-		else if(tvC.x < minX) minX = tvC.x;
+		     if(tvC.x < minX) minX = tvC.x;
 		     if(tvC.y > maxY) maxY = tvC.y;
-		else if(tvC.y < minY) minY = tvC.y;
+		     if(tvC.y < minY) minY = tvC.y;
 		     if(tvC.z > maxZ) maxZ = tvC.z;
-		else if(tvC.z < minZ) minZ = tvC.z;
+		     if(tvC.z < minZ) minZ = tvC.z;
 		     
 		AABB aabb = new AABB(new Vector3f(minX, minY, minZ),
 				             new Vector3f(maxX, maxY, maxZ));
@@ -387,6 +588,20 @@ public class Triangle extends AtomicPrimitive
 		return aabb;
 	}
 	
+	@Override
+	public AABB calcLocalAABB()
+	{
+		AABB aabb = new AABB(new Vector3f(Math.min(m_vA.x, Math.min(m_vB.x, m_vC.x)), 
+		                                  Math.min(m_vA.y, Math.min(m_vB.y, m_vC.y)), 
+		                                  Math.min(m_vA.z, Math.min(m_vB.z, m_vC.z))), 
+		                     new Vector3f(Math.max(m_vA.x, Math.max(m_vB.x, m_vC.x)), 
+		                                  Math.max(m_vA.y, Math.max(m_vB.y, m_vC.y)), 
+		                                  Math.max(m_vA.z, Math.max(m_vB.z, m_vC.z))));
+		aabb.relax();
+		
+		return aabb;
+	}
+	
 	@Override
 	public void getAtomicPrimitives(List<AtomicPrimitive> results)
 	{
@@ -421,9 +636,14 @@ public class Triangle extends AtomicPrimitive
 	
 	public void setVertices(Vector3f vA, Vector3f vB, Vector3f vC)
 	{
-		vA.set(vA);
+		m_vA.set(vA);
 		m_vB.set(vB);
 		m_vC.set(vC);
+		
+		m_eAB.set(m_vB.sub(m_vA));
+		m_eAC.set(m_vC.sub(m_vA));
+		
+		m_normal.set(m_eAB.cross(m_eAC).normalizeLocal());
 	}
 	
 	public void setNormals(Vector3f nA, Vector3f nB, Vector3f nC)
@@ -475,7 +695,9 @@ public class Triangle extends AtomicPrimitive
 	@Override
 	public Interpolator genInterpolator(Intersection intersection)
 	{
-		Vector3f localHitPoint = getModel().getTransform().getInverseModelMatrix().mul(intersection.getHitPoint(), 1.0f);
+		Transform transform     = intersection.getHitModel().getTransform();
+		Vector3f  localHitPoint = transform.isIdentity() ? intersection.getHitPoint() : 
+		                          transform.getInverseModelMatrix().mul(intersection.getHitPoint(), 1.0f);
 		
 		// projected hit point
 		float hitPu, hitPv;
@@ -537,7 +759,7 @@ public class Triangle extends AtomicPrimitive
 		// barycentric coordinate of vertex C in the projected plane
 		float baryC = (hitPv*abPu - hitPu*abPv) * multiplier;
 		
-		return new TriangleInterpolator(this, 1.0f - baryB - baryC, baryB, baryC);
+		return new TriangleInterpolator(this, transform.getModelMatrix(), 1.0f - baryB - baryC, baryB, baryC);
 	}
 
 	@Override
@@ -29,14 +29,16 @@ import math.Vector3f;
 public class TriangleInterpolator implements Interpolator
 {
 	private Triangle m_triangle;
+	private Matrix4f m_modelMatrix;
 	
 	private float m_baryA;
 	private float m_baryB;
 	private float m_baryC;
 	
-	public TriangleInterpolator(Triangle triangle, float baryA, float baryB, float baryC)
+	public TriangleInterpolator(Triangle triangle, Matrix4f modelMatrix, float baryA, float baryB, float baryC)
 	{
-		m_triangle = triangle;
+		m_triangle    = triangle;
+		m_modelMatrix = modelMatrix;
 		
 		m_baryA = baryA;
 		m_baryB = baryB;
@@ -46,16 +48,12 @@ public class TriangleInterpolator implements Interpolator
 	@Override
 	public Vector3f getFlatNormal()
 	{
-		Matrix4f modelMatrix = m_triangle.getModel().getTransform().getModelMatrix();
-		
-		return modelMatrix.mul(m_triangle.getNormal(), 0.0f).normalizeLocal();
+		return m_modelMatrix.mul(m_triangle.getNormal(), 0.0f).normalizeLocal();
 	}
 
 	@Override
 	public Vector3f getSmoothNormal()
 	{
-		Matrix4f modelMatrix = m_triangle.getModel().getTransform().getModelMatrix();
-		
 		Vector3f nA = m_triangle.getNa();
 		Vector3f nB = m_triangle.getNb();
 		Vector3f nC = m_triangle.getNc();
@@ -64,7 +62,7 @@ public class TriangleInterpolator implements Interpolator
 				                        nA.y * m_baryA + nB.y * m_baryB + nC.y * m_baryC,
 				                        nA.z * m_baryA + nB.z * m_baryB + nC.z * m_baryC);
 		
-		return modelMatrix.mul(smoothN, 0.0f).normalizeLocal();
+		return m_modelMatrix.mul(smoothN, 0.0f).normalizeLocal();
 	}
 
 	@Override
@@ -87,6 +87,59 @@ public class TriangleMesh extends Primitive
 		return false;
 	}
 	
+	@Override
+	public float calcIntersectDist(Ray ray, float maxDist)
+	{
+		float closestDist = Float.POSITIVE_INFINITY;
+		
+		for(Triangle triangle : m_triangles)
+		{
+			float dist = triangle.calcIntersectDist(ray, maxDist);
+			
+			if(dist < closestDist)
+			{
+				closestDist = dist;
+				maxDist     = dist;
+			}
+		}
+		
+		return closestDist;
+	}
+	
+	@Override
+	public float calcLocalIntersectDist(float rayOx, float rayOy, float rayOz, 
+	                                    float rayDx, float rayDy, float rayDz, float maxDist)
+	{
+		float closestDist = Float.POSITIVE_INFINITY;
+		
+		for(Triangle triangle : m_triangles)
+		{
+			float dist = triangle.calcLocalIntersectDist(rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist);
+			
+			if(dist < closestDist)
+			{
+				closestDist = dist;
+				maxDist     = dist;
+			}
+		}
+		
+		return closestDist;
+	}
+	
+	@Override
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		for(Triangle triangle : m_triangles)
+		{
+			if(triangle.calcIntersectDist(ray, maxDist) < maxDist)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	public void addTriangle(Triangle triangle)
 	{
 		m_triangles.add(triangle);
@@ -101,6 +154,17 @@ public class TriangleMesh extends Primitive
 		return false;
 	}
 	
+	@Override
+	public boolean bakeTransform(Matrix4f modelMatrix)
+	{
+		for(Triangle triangle : m_triangles)
+		{
+			triangle.bakeTransform(modelMatrix);
+		}
+		
+		return true;
+	}
+	
 	@Override
 	public AABB calcTransformedAABB()
 	{
@@ -127,25 +191,25 @@ public class TriangleMesh extends Primitive
 			modelMatrix.mul(vC, 1.0f, tvC);
 			
 			     if(tvA.x > maxX) maxX = tvA.x;
-			else if(tvA.x < minX) minX = tvA.x;
+			     if(tvA.x < minX) minX = tvA.x;
 			     if(tvA.y > maxY) maxY = tvA.y;
-			else if(tvA.y < minY) minY = tvA.y;
+			     if(tvA.y < minY) minY = tvA.y;
 			     if(tvA.z > maxZ) maxZ = tvA.z;
-			else if(tvA.z < minZ) minZ = tvA.z;
+			     if(tvA.z < minZ) minZ = tvA.z;
 			     
 			     if(tvB.x > maxX) maxX = tvB.x;
-			else if(tvB.x < minX) minX = tvB.x;
+			     if(tvB.x < minX) minX = tvB.x;
 			     if(tvB.y > maxY) maxY = tvB.y;
-			else if(tvB.y < minY) minY = tvB.y;
+			     if(tvB.y < minY) minY = tvB.y;
 			     if(tvB.z > maxZ) maxZ = tvB.z;
-			else if(tvB.z < minZ) minZ = tvB.z;
+			     if(tvB.z < minZ) minZ = tvB.z;
 					     
 			     if(tvC.x > maxX) maxX = tvC.x;
-			else if(tvC.x < minX) minX = tvC.x;
+			     if(tvC.x < minX) minX = tvC.x;
 			     if(tvC.y > maxY) maxY = tvC.y;
-			else if(tvC.y < minY) minY = tvC.y;
+			     if(tvC.y < minY) minY = tvC.y;
 			     if(tvC.z > maxZ) maxZ = tvC.z;
-			else if(tvC.z < minZ) minZ = tvC.z;
+			     if(tvC.z < minZ) minZ = tvC.z;
 		}
 		
 		AABB aabb = new AABB(new Vector3f(minX, minY, minZ),
@@ -155,6 +219,29 @@ public class TriangleMesh extends Primitive
 		return aabb;
 	}
 	
+	@Override
+	public AABB calcLocalAABB()
+	{
+		float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY,
+		      minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY,
+		      minZ = Float.POSITIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		
+		for(Triangle triangle : m_triangles)
+		{
+			AABB triangleAABB = triangle.calcLocalAABB();
+			
+			minX = Math.min(minX, triangleAABB.getMinVertex().x);
+			minY = Math.min(minY, triangleAABB.getMinVertex().y);
+			minZ = Math.min(minZ, triangleAABB.getMinVertex().z);
+			maxX = Math.max(maxX, triangleAABB.getMaxVertex().x);
+			maxY = Math.max(maxY, triangleAABB.getMaxVertex().y);
+			maxZ = Math.max(maxZ, triangleAABB.getMaxVertex().z);
+		}
+		
+		return new AABB(new Vector3f(minX, minY, minZ), 
+		                new Vector3f(maxX, maxY, maxZ));
+	}
+	
 	@Override
 	public void getAtomicPrimitives(List<AtomicPrimitive> results)
 	{
@@ -26,66 +26,44 @@ import java.util.List;
 
 import core.Ray;
 import math.Matrix4f;
+import math.Transform;
 import math.Vector3f;
+import model.Model;
 import model.VertexBuffer;
+import model.VertexDataLocator;
 import model.boundingVolume.AABB;
-import util.Debug;
 
+// A triangle of an indexed mesh (see VbTriangleMesh): only the indices of its three vertices are 
+// stored, positions, normals and texture coordinates live in buffers shared by the whole mesh. Edges 
+// and face normal are derived from the positions when needed.
 public class VbTriangle extends AtomicPrimitive
 {
-	private static final float EPSILON = 0.0001f;
+	private VertexDataLocator m_vertexData;
 	
-	private VertexBuffer m_vertexBuffer;
+	// vertex indices, front facing: CCW vertex order
+	private int m_iA;
+	private int m_iB;
+	private int m_iC;
 	
-	// vertex position
-	protected Vector3f m_vA;
-	protected Vector3f m_vB;
-	protected Vector3f m_vC;
-	
-	// vertex normal
-	protected Vector3f m_nA;
-	protected Vector3f m_nB;
-	protected Vector3f m_nC;
-	
-	// edge vector
-	protected Vector3f m_eAB;
-	protected Vector3f m_eAC;
-	
-	// surface normal
-	protected Vector3f m_normal;
-	
-	// front facing: CCW vertex order
-	public VbTriangle(Vector3f vA, Vector3f vB, Vector3f vC)
+	public VbTriangle(VertexDataLocator vertexData, int iA, int iB, int iC)
 	{
 		super();
 		
-		m_eAB = vB.sub(vA);
-		m_eAC = vC.sub(vA);
+		m_vertexData = vertexData;
 		
-		m_normal = m_eAB.cross(m_eAC).normalizeLocal();
-		
-		m_vA = new Vector3f(vA);
-		m_vB = new Vector3f(vB);
-		m_vC = new Vector3f(vC);
-		
-		m_nA = new Vector3f(m_normal);
-		m_nB = new Vector3f(m_normal);
-		m_nC = new Vector3f(m_normal);
+		m_iA = iA;
+		m_iB = iB;
+		m_iC = iC;
 	}
 	
 	@Override
 	public boolean isIntersect(Ray ray, Intersection intersection)
 	{
-		// test intersection in model space
-		Vector3f localRayOrigin = getModel().getTransform().getInverseModelMatrix().mul(ray.getOrigin(), 1.0f);
-		Vector3f localRayDir    = getModel().getTransform().getInverseModelMatrix().mul(ray.getDir(), 0.0f).normalizeLocal();
+		float dist = calcIntersectDist(ray, Float.POSITIVE_INFINITY);
 		
-		if(rayTriangleIntersection(localRayOrigin, localRayDir, intersection, m_vA, m_vB, m_vC, m_normal, m_eAB, m_eAC))
+		if(dist < Float.POSITIVE_INFINITY)
 		{
-			// transform back to world space
-			intersection.setHitAtomicPrimitive(this);
-			intersection.setHitPoint(getModel().getTransform().getModelMatrix().mul(intersection.getHitPoint(), 1.0f));
-			intersection.setHitNormal(getModel().getTransform().getModelMatrix().mul(intersection.getHitNormal(), 0.0f).normalizeLocal());
+			calcIntersectionDetail(ray, dist, intersection);
 			
 			return true;
 		}
@@ -93,284 +71,177 @@ public class VbTriangle extends AtomicPrimitive
 		return false;
 	}
 	
-	// TODO: make local & global intersect method
-	
-	// Reference: Ingo Wald's PhD paper "Real Time Ray Tracing and Interactive Global Illumination", P.89.
-	// This implementation is twice as fast as Moeller-Trumbore's method (stated by others, haven't profiled
-	// that myself).
-	// FIXME: implement the 2x faster algorithm!
-	public static boolean rayTriangleIntersection(Vector3f rayOrigin, Vector3f rayDir, Intersection intersection, Vector3f vA, Vector3f vB, Vector3f vC, Vector3f faceNormal, Vector3f eAB, Vector3f eAC)
+	// The ray is brought into model space without normalizing its direction, so the parametric 
+	// distance is the same in both spaces.
+	@Override
+	public float calcIntersectDist(Ray ray, float maxDist)
 	{
-		float dist = rayOrigin.sub(vA).dot(faceNormal) / (-rayDir.dot(faceNormal));
-		
-		// reject by distance
-		if(dist < EPSILON || dist > Float.MAX_VALUE || dist != dist) 
-			return false;
+		Transform transform = getModel().getTransform();
+		Vector3f  o         = ray.getOrigin();
+		Vector3f  d         = ray.getDir();
 		
-		// projected hit point
-		float hitPu, hitPv;
-		
-		// projected side vector AB and AC
-		float abPu, abPv, acPu, acPv;
-					
-		// find dominant axis
-		if(Math.abs(faceNormal.x) > Math.abs(faceNormal.y))
+		// baked geometry (see VbTriangleMesh.bakeTransform()) is in world space already
+		if(transform.isIdentity())
 		{
-			// X dominant, projection plane is YZ
-			if(Math.abs(faceNormal.x) > Math.abs(faceNormal.z))
-			{
-				hitPu = dist * rayDir.y + rayOrigin.y - vA.y;
-				hitPv = dist * rayDir.z + rayOrigin.z - vA.z;
-				abPu  = eAB.y;
-				abPv  = eAB.z;
-				acPu  = eAC.y;
-				acPv  = eAC.z;
-			}
-			// Z dominant, projection plane is XY
-			else
-			{
-				hitPu = dist * rayDir.x + rayOrigin.x - vA.x;
-				hitPv = dist * rayDir.y + rayOrigin.y - vA.y;
-				abPu  = eAB.x;
-				abPv  = eAB.y;
-				acPu  = eAC.x;
-				acPv  = eAC.y;
-			}
+			return calcLocalIntersectDist(o.x, o.y, o.z, d.x, d.y, d.z, maxDist);
 		}
-		// Y dominant, projection plane is ZX
-		else if(Math.abs(faceNormal.y) > Math.abs(faceNormal.z))
+		
+		float[][] m = transform.getInverseModelMatrix().m;
+		
+		float localOx = m[0][0] * o.x + m[0][1] * o.y + m[0][2] * o.z + m[0][3];
+		float localOy = m[1][0] * o.x + m[1][1] * o.y + m[1][2] * o.z + m[1][3];
+		float localOz = m[2][0] * o.x + m[2][1] * o.y + m[2][2] * o.z + m[2][3];
+		float localDx = m[0][0] * d.x + m[0][1] * d.y + m[0][2] * d.z;
+		float localDy = m[1][0] * d.x + m[1][1] * d.y + m[1][2] * d.z;
+		float localDz = m[2][0] * d.x + m[2][1] * d.y + m[2][2] * d.z;
+		
+		return calcLocalIntersectDist(localOx, localOy, localOz, localDx, localDy, localDz, maxDist);
+	}
+	
+	@Override
+	public float calcLocalIntersectDist(float rayOx, float rayOy, float rayOz, 
+	                                    float rayDx, float rayDy, float rayDz, float maxDist)
+	{
+		float[] p = m_vertexData.getPositions().getData();
+		int     a = m_iA * 3;
+		int     b = m_iB * 3;
+		int     c = m_iC * 3;
+		
+		float eABx = p[b]     - p[a];
+		float eABy = p[b + 1] - p[a + 1];
+		float eABz = p[b + 2] - p[a + 2];
+		float eACx = p[c]     - p[a];
+		float eACy = p[c + 1] - p[a + 1];
+		float eACz = p[c + 2] - p[a + 2];
+		
+		return Triangle.calcRayTriangleDist(rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist, 
+		                                    p[a], p[a + 1], p[a + 2], 
+		                                    eABy * eACz - eABz * eACy, eABz * eACx - eABx * eACz, eABx * eACy - eABy * eACx, 
+		                                    eABx, eABy, eABz, eACx, eACy, eACz);
+	}
+	
+	@Override
+	public void calcIntersectionDetail(Ray ray, float dist, Model model, Intersection intersection)
+	{
+		Transform transform = model.getTransform();
+		Vector3f  normal    = calcFaceNormal(new Vector3f());
+		
+		intersection.setHitAtomicPrimitive(this);
+		intersection.setHitModel(model);
+		intersection.setHitPoint(ray.getDir().mul(dist).addLocal(ray.getOrigin()));
+		
+		if(transform.isIdentity())
 		{
-			hitPu = dist * rayDir.z + rayOrigin.z - vA.z;
-			hitPv = dist * rayDir.x + rayOrigin.x - vA.x;
-			abPu  = eAB.z;
-			abPv  = eAB.x;
-			acPu  = eAC.z;
-			acPv  = eAC.x;
+			intersection.setHitNormal(normal);
 		}
-		// Z dominant, projection plane is XY
 		else
 		{
-			hitPu = dist * rayDir.x + rayOrigin.x - vA.x;
-			hitPv = dist * rayDir.y + rayOrigin.y - vA.y;
-			abPu  = eAB.x;
-			abPv  = eAB.y;
-			acPu  = eAC.x;
-			acPv  = eAC.y;
+			intersection.setHitNormal(transform.getModelMatrix().mul(normal, 0.0f).normalizeLocal());
 		}
+	}
+	
+	@Override
+	public boolean isIntersect(AABB aabb)
+	{
+		Vector3f tvA = new Vector3f();
+		Vector3f tvB = new Vector3f();
+		Vector3f tvC = new Vector3f();
 		
-		// TODO: check if these operations are possible of producing NaNs
-		
-		// barycentric coordinate of vertex B in the projected plane
-		float baryB = (hitPu*acPv - hitPv*acPu) / (abPu*acPv - abPv*acPu);
-		if(baryB < 0.0f) return false;
-		
-		// barycentric coordinate of vertex C in the projected plane
-		float baryC = (hitPu*abPv - hitPv*abPu) / (acPu*abPv - abPu*acPv);
-		if(baryC < 0.0f) return false;
-		
-		if(baryB + baryC > 1.0f) return false;
+		getTransformedVertices(tvA, tvB, tvC);
 		
-		// so the ray intersects the triangle (TODO: reuse calculated results!)
+		Vector3f tNormal = tvB.sub(tvA).cross(tvC.sub(tvA)).normalizeLocal();
 		
-		intersection.setHitPoint(rayDir.mul(dist).addLocal(rayOrigin));
-		intersection.setHitNormal(faceNormal);
+		return Triangle.isTriangleAabbIntersect(tvA, tvB, tvC, tNormal, aabb);
+	}
+	
+	public void getVerticesABC(Vector3f vA, Vector3f vB, Vector3f vC)
+	{
+		VertexBuffer positions = m_vertexData.getPositions();
 		
-		return true;
+		positions.get(m_iA, vA);
+		positions.get(m_iB, vB);
+		positions.get(m_iC, vC);
 	}
-
-	// Reference: Tomas Akenine-Moeller's "Fast 3D Triangle-Box Overlap Testing", which
-	// is based on SAT but faster.
+	
 	@Override
-	public boolean isIntersect(AABB aabb)
+	public boolean getTransformedVertices(Vector3f vA, Vector3f vB, Vector3f vC)
 	{
-		// TODO: transform aabb to local space may be faster
+		VertexBuffer positions   = m_vertexData.getPositions();
+		Matrix4f     modelMatrix = getModel().getTransform().getModelMatrix();
+		Vector3f     vertex      = new Vector3f();
 		
-		Vector3f tvA = new Vector3f();
-		Vector3f tvB = new Vector3f();
-		Vector3f tvC = new Vector3f();
+		modelMatrix.mul(positions.get(m_iA, vertex), 1.0f, vA);
+		modelMatrix.mul(positions.get(m_iB, vertex), 1.0f, vB);
+		modelMatrix.mul(positions.get(m_iC, vertex), 1.0f, vC);
 		
-		getModel().getTransform().getModelMatrix().mul(m_vA, 1.0f, tvA);
-		getModel().getTransform().getModelMatrix().mul(m_vB, 1.0f, tvB);
-		getModel().getTransform().getModelMatrix().mul(m_vC, 1.0f, tvC);
-		
-		// move the origin to the AABB's center
-		tvA.subLocal(aabb.getCenter());
-		tvB.subLocal(aabb.getCenter());
-		tvC.subLocal(aabb.getCenter());
-		
-		Vector3f aabbHalfExtents  = aabb.getMaxVertex().sub(aabb.getCenter());
-		Vector3f projection       = new Vector3f();
-		Vector3f sortedProjection = new Vector3f();// (min, mid, max)
-		
-		// test AABB face normals (x-, y- and z-axes)
-		projection.set(tvA.x, tvB.x, tvC.x);
-		projection.sort(sortedProjection);
-		if(sortedProjection.z < -aabbHalfExtents.x || sortedProjection.x > aabbHalfExtents.x)
-			return false;
-		
-		projection.set(tvA.y, tvB.y, tvC.y);
-		projection.sort(sortedProjection);
-		if(sortedProjection.z < -aabbHalfExtents.y || sortedProjection.x > aabbHalfExtents.y)
-			return false;
-		
-		projection.set(tvA.z, tvB.z, tvC.z);
-		projection.sort(sortedProjection);
-		if(sortedProjection.z < -aabbHalfExtents.z || sortedProjection.x > aabbHalfExtents.z)
-			return false;
-		
-		Vector3f tNormal = new Vector3f();
-		getModel().getTransform().getModelMatrix().mul(m_normal, 0.0f, tNormal);
-		tNormal.normalizeLocal();
-		
-		// test triangle's face normal
-		float trigOffset = tvA.dot(tNormal);
-		sortedProjection.z = Math.abs(aabbHalfExtents.x * tNormal.x)
-				           + Math.abs(aabbHalfExtents.y * tNormal.y)
-				           + Math.abs(aabbHalfExtents.z * tNormal.z);
-		sortedProjection.x = -sortedProjection.z;
-		if(sortedProjection.z < trigOffset || sortedProjection.x > trigOffset)
-			return false;
-		
-		// test 9 edge cross-products (saves in projection)
-		float aabbR;
-		float trigE;// projected coordinate of a triangle's edge
-		float trigV;// the remaining vertex's projected coordinate
-		
-		// TODO: precompute triangle edges
-		
-		// (1, 0, 0) cross (edge AB)
-		projection.set(0.0f, tvA.z - tvB.z, tvB.y - tvA.y);
-		aabbR = aabbHalfExtents.y * Math.abs(projection.y) + aabbHalfExtents.z * Math.abs(projection.z);
-		trigE = projection.y*tvA.y + projection.z*tvA.z;
-		trigV = projection.y*tvC.y + projection.z*tvC.z;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (0, 1, 0) cross (edge AB)
-		projection.set(tvB.z - tvA.z, 0.0f, tvA.x - tvB.x);
-		aabbR = aabbHalfExtents.x * Math.abs(projection.x) + aabbHalfExtents.z * Math.abs(projection.z);
-		trigE = projection.x*tvA.x + projection.z*tvA.z;
-		trigV = projection.x*tvC.x + projection.z*tvC.z;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (0, 0, 1) cross (edge AB)
-		projection.set(tvA.y - tvB.y, tvB.x - tvA.x, 0.0f);
-		aabbR = aabbHalfExtents.x * Math.abs(projection.x) + aabbHalfExtents.y * Math.abs(projection.y);
-		trigE = projection.x*tvA.x + projection.y*tvA.y;
-		trigV = projection.x*tvC.x + projection.y*tvC.y;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (1, 0, 0) cross (edge BC)
-		projection.set(0.0f, tvB.z - tvC.z, tvC.y - tvB.y);
-		aabbR = aabbHalfExtents.y * Math.abs(projection.y) + aabbHalfExtents.z * Math.abs(projection.z);
-		trigE = projection.y*tvB.y + projection.z*tvB.z;
-		trigV = projection.y*tvA.y + projection.z*tvA.z;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (0, 1, 0) cross (edge BC)
-		projection.set(tvC.z - tvB.z, 0.0f, tvB.x - tvC.x);
-		aabbR = aabbHalfExtents.x * Math.abs(projection.x) + aabbHalfExtents.z * Math.abs(projection.z);
-		trigE = projection.x*tvB.x + projection.z*tvB.z;
-		trigV = projection.x*tvA.x + projection.z*tvA.z;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (0, 0, 1) cross (edge BC)
-		projection.set(tvB.y - tvC.y, tvC.x - tvB.x, 0.0f);
-		aabbR = aabbHalfExtents.x * Math.abs(projection.x) + aabbHalfExtents.y * Math.abs(projection.y);
-		trigE = projection.x*tvB.x + projection.y*tvB.y;
-		trigV = projection.x*tvA.x + projection.y*tvA.y;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (1, 0, 0) cross (edge CA)
-		projection.set(0.0f, tvC.z - tvA.z, tvA.y - tvC.y);
-		aabbR = aabbHalfExtents.y * Math.abs(projection.y) + aabbHalfExtents.z * Math.abs(projection.z);
-		trigE = projection.y*tvC.y + projection.z*tvC.z;
-		trigV = projection.y*tvB.y + projection.z*tvB.z;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (0, 1, 0) cross (edge CA)
-		projection.set(tvA.z - tvC.z, 0.0f, tvC.x - tvA.x);
-		aabbR = aabbHalfExtents.x * Math.abs(projection.x) + aabbHalfExtents.z * Math.abs(projection.z);
-		trigE = projection.x*tvC.x + projection.z*tvC.z;
-		trigV = projection.x*tvB.x + projection.z*tvB.z;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// (0, 0, 1) cross (edge CA)
-		projection.set(tvC.y - tvA.y, tvA.x - tvC.x, 0.0f);
-		aabbR = aabbHalfExtents.x * Math.abs(projection.x) + aabbHalfExtents.y * Math.abs(projection.y);
-		trigE = projection.x*tvC.x + projection.y*tvC.y;
-		trigV = projection.x*tvB.x + projection.y*tvB.y;
-		if(trigE < trigV) { if(trigE > aabbR || trigV < -aabbR) return false; }
-		else              { if(trigV > aabbR || trigE < -aabbR) return false; }
-		
-		// no separating axis found
 		return true;
 	}
 	
-	public void getVerticesABC(Vector3f vA, Vector3f vB, Vector3f vC)
+	@Override
+	public boolean getLocalVertices(Vector3f vA, Vector3f vB, Vector3f vC)
 	{
-		vA.set(vA);
-		vB.set(m_vB);
-		vC.set(m_vC);
+		getVerticesABC(vA, vB, vC);
+		
+		return true;
 	}
 	
-	public void getNormal(Vector3f normal)
+	// Vertices are shared with the rest of the mesh, which bakes them all at once.
+	@Override
+	public boolean bakeTransform(Matrix4f modelMatrix)
 	{
-		normal.set(m_normal);
+		return false;
 	}
 	
-	public Vector3f getNormal()
+	// Normalized, in model space.
+	public Vector3f calcFaceNormal(Vector3f result)
 	{
-		return m_normal;
+		float[] p = m_vertexData.getPositions().getData();
+		int     a = m_iA * 3;
+		int     b = m_iB * 3;
+		int     c = m_iC * 3;
+		
+		float eABx = p[b]     - p[a];
+		float eABy = p[b + 1] - p[a + 1];
+		float eABz = p[b + 2] - p[a + 2];
+		float eACx = p[c]     - p[a];
+		float eACy = p[c + 1] - p[a + 1];
+		float eACz = p[c + 2] - p[a + 2];
+		
+		return result.set(eABy * eACz - eABz * eACy, eABz * eACx - eABx * eACz, eABx * eACy - eABy * eACx).normalizeLocal();
 	}
 	
 	@Override
 	public AABB calcTransformedAABB()
 	{
-		float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY,
-			  minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY,
-			  minZ = Float.POSITIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
-		
 		Vector3f tvA = new Vector3f();
 		Vector3f tvB = new Vector3f();
 		Vector3f tvC = new Vector3f();
 		
-		Matrix4f modelMatrix = getModel().getTransform().getModelMatrix();
-		
-		modelMatrix.mul(m_vA, 1.0f, tvA);
-		modelMatrix.mul(m_vB, 1.0f, tvB);
-		modelMatrix.mul(m_vC, 1.0f, tvC);
-		
-		     if(tvA.x > maxX) maxX = tvA.x;
-		else if(tvA.x < minX) minX = tvA.x;
-		     if(tvA.y > maxY) maxY = tvA.y;
-		else if(tvA.y < minY) minY = tvA.y;
-		     if(tvA.z > maxZ) maxZ = tvA.z;
-		else if(tvA.z < minZ) minZ = tvA.z;
-		     
-		     if(tvB.x > maxX) maxX = tvB.x;
-		else if(tvB.x < minX) minX = tvB.x;
-		     if(tvB.y > maxY) maxY = tvB.y;
-		else if(tvB.y < minY) minY = tvB.y;
-		     if(tvB.z > maxZ) maxZ = tvB.z;
-		else if(tvB.z < minZ) minZ = tvB.z;
-				     
-		     if(tvC.x > maxX) maxX = tvC.x;
-		else if(tvC.x < minX) minX = tvC.x;
-		     if(tvC.y > maxY) maxY = tvC.y;
-		else if(tvC.y < minY) minY = tvC.y;
-		     if(tvC.z > maxZ) maxZ = tvC.z;
-		else if(tvC.z < minZ) minZ = tvC.z;
-		     
-		AABB aabb = new AABB(new Vector3f(minX, minY, minZ),
-				             new Vector3f(maxX, maxY, maxZ));
+		getTransformedVertices(tvA, tvB, tvC);
+		
+		return calcAABB(tvA, tvB, tvC);
+	}
+	
+	@Override
+	public AABB calcLocalAABB()
+	{
+		Vector3f vA = new Vector3f();
+		Vector3f vB = new Vector3f();
+		Vector3f vC = new Vector3f();
+		
+		getVerticesABC(vA, vB, vC);
+		
+		return calcAABB(vA, vB, vC);
+	}
+	
+	private static AABB calcAABB(Vector3f vA, Vector3f vB, Vector3f vC)
+	{
+		AABB aabb = new AABB(new Vector3f(Math.min(vA.x, Math.min(vB.x, vC.x)), 
+		                                  Math.min(vA.y, Math.min(vB.y, vC.y)), 
+		                                  Math.min(vA.z, Math.min(vB.z, vC.z))), 
+		                     new Vector3f(Math.max(vA.x, Math.max(vB.x, vC.x)), 
+		                                  Math.max(vA.y, Math.max(vB.y, vC.y)), 
+		                                  Math.max(vA.z, Math.max(vB.z, vC.z))));
 		aabb.relax();
 		
 		return aabb;
@@ -381,20 +252,19 @@ public class VbTriangle extends AtomicPrimitive
 	{
 		results.add(this);
 	}
-
+	
 	@Override
 	public Vector3f calcGeometricAveragePos()
 	{
-		Vector3f result = new Vector3f(0, 0, 0);
+		Vector3f vA = new Vector3f();
+		Vector3f vB = new Vector3f();
+		Vector3f vC = new Vector3f();
 		
-		result.addLocal(m_vA);
-		result.addLocal(m_vB);
-		result.addLocal(m_vC);
-		result.divLocal(3.0f);
+		getVerticesABC(vA, vB, vC);
 		
-		return result;
+		return vA.addLocal(vB).addLocal(vC).divLocal(3.0f);
 	}
-
+	
 	@Override
 	public long calcGeometricWeight()
 	{
@@ -405,95 +275,69 @@ public class VbTriangle extends AtomicPrimitive
 	public String toString()
 	{
 		return super.toString() + "\n"
-	         + "A" + m_vA + ", B" + m_vB + ", C" + m_vC + ", N" + m_normal;
-	}
-	
-	public void setVertices(Vector3f vA, Vector3f vB, Vector3f vC)
-	{
-		vA.set(vA);
-		m_vB.set(vB);
-		m_vC.set(vC);
-	}
-	
-	public void setNormals(Vector3f nA, Vector3f nB, Vector3f nC)
-	{
-		m_nA.set(nA);
-		m_nB.set(nB);
-		m_nC.set(nC);
-	}
-	
-	public Vector3f getNa()
-	{
-		return m_nA;
-	}
-	
-	public Vector3f getNb()
-	{
-		return m_nB;
+	         + "indices A: " + m_iA + ", B: " + m_iB + ", C: " + m_iC;
 	}
 	
-	public Vector3f getNc()
-	{
-		return m_nC;
-	}
-
 	@Override
 	public Interpolator genInterpolator(Intersection intersection)
 	{
-		Vector3f localHitPoint = getModel().getTransform().getInverseModelMatrix().mul(intersection.getHitPoint(), 1.0f);
+		Transform transform     = intersection.getHitModel().getTransform();
+		Vector3f  localHitPoint = transform.isIdentity() ? intersection.getHitPoint() : 
+		                          transform.getInverseModelMatrix().mul(intersection.getHitPoint(), 1.0f);
+		
+		float[] p = m_vertexData.getPositions().getData();
+		int     a = m_iA * 3;
+		int     b = m_iB * 3;
+		int     c = m_iC * 3;
+		
+		float eABx = p[b]     - p[a];
+		float eABy = p[b + 1] - p[a + 1];
+		float eABz = p[b + 2] - p[a + 2];
+		float eACx = p[c]     - p[a];
+		float eACy = p[c + 1] - p[a + 1];
+		float eACz = p[c + 2] - p[a + 2];
+		
+		float absNx = Math.abs(eABy * eACz - eABz * eACy);
+		float absNy = Math.abs(eABz * eACx - eABx * eACz);
+		float absNz = Math.abs(eABx * eACy - eABy * eACx);
 		
 		// projected hit point
 		float hitPu, hitPv;
 		
 		// projected side vector AB and AC
 		float abPu, abPv, acPu, acPv;
-					
-		// find dominant axis
-		if(Math.abs(m_normal.x) > Math.abs(m_normal.y))
+		
+		// X dominant, projection plane is YZ
+		if(absNx > absNy && absNx > absNz)
 		{
-			// X dominant, projection plane is YZ
-			if(Math.abs(m_normal.x) > Math.abs(m_normal.z))
-			{
-				hitPu = localHitPoint.y - m_vA.y;
-				hitPv = localHitPoint.z - m_vA.z;
-				abPu  = m_eAB.y;
-				abPv  = m_eAB.z;
-				acPu  = m_eAC.y;
-				acPv  = m_eAC.z;
-			}
-			// Z dominant, projection plane is XY
-			else
-			{
-				hitPu = localHitPoint.x - m_vA.x;
-				hitPv = localHitPoint.y - m_vA.y;
-				abPu  = m_eAB.x;
-				abPv  = m_eAB.y;
-				acPu  = m_eAC.x;
-				acPv  = m_eAC.y;
-			}
+			hitPu = localHitPoint.y - p[a + 1];
+			hitPv = localHitPoint.z - p[a + 2];
+			abPu  = eABy;
+			abPv  = eABz;
+			acPu  = eACy;
+			acPv  = eACz;
 		}
 		// Y dominant, projection plane is ZX
-		else if(Math.abs(m_normal.y) > Math.abs(m_normal.z))
+		else if(absNx <= absNy && absNy > absNz)
 		{
-			hitPu = localHitPoint.z - m_vA.z;
-			hitPv = localHitPoint.x - m_vA.x;
-			abPu  = m_eAB.z;
-			abPv  = m_eAB.x;
-			acPu  = m_eAC.z;
-			acPv  = m_eAC.x;
+			hitPu = localHitPoint.z - p[a + 2];
+			hitPv = localHitPoint.x - p[a];
+			abPu  = eABz;
+			abPv  = eABx;
+			acPu  = eACz;
+			acPv  = eACx;
 		}
 		// Z dominant, projection plane is XY
 		else
 		{
-			hitPu = localHitPoint.x - m_vA.x;
-			hitPv = localHitPoint.y - m_vA.y;
-			abPu  = m_eAB.x;
-			abPv  = m_eAB.y;
-			acPu  = m_eAC.x;
-			acPv  = m_eAC.y;
+			hitPu = localHitPoint.x - p[a];
+			hitPv = localHitPoint.y - p[a + 1];
+			abPu  = eABx;
+			abPv  = eABy;
+			acPu  = eACx;
+			acPv  = eACy;
 		}
 		
-		// TODO: check if this operation is possible of producing a NaN
 		float multiplier = 1.0f / (abPu*acPv - abPv*acPu);
 		
 		// barycentric coordinate of vertex B in the projected plane
@@ -502,13 +346,41 @@ public class VbTriangle extends AtomicPrimitive
 		// barycentric coordinate of vertex C in the projected plane
 		float baryC = (hitPv*abPu - hitPu*abPv) * multiplier;
 		
-		return new VbTriangleInterpolator(this, 1.0f - baryB - baryC, baryB, baryC);
+		return new VbTriangleInterpolator(this, transform.getModelMatrix(), 1.0f - baryB - baryC, baryB, baryC);
 	}
-
+	
 	@Override
 	public boolean hasTexCoord()
 	{
-		// TODO Auto-generated method stub
-		return false;
+		return m_vertexData.getTexCoords() != null;
+	}
+	
+	// Swaps vertices B and C, which turns the face around.
+	void flipWinding()
+	{
+		int iB = m_iB;
+		
+		m_iB = m_iC;
+		m_iC = iB;
+	}
+	
+	public VertexDataLocator getVertexData()
+	{
+		return m_vertexData;
+	}
+	
+	public int getIndexA()
+	{
+		return m_iA;
+	}
+	
+	public int getIndexB()
+	{
+		return m_iB;
+	}
+	
+	public int getIndexC()
+	{
+		return m_iC;
 	}
 }
@@ -25,18 +25,21 @@ package model.primitive;
 import math.Matrix4f;
 import math.Vector2f;
 import math.Vector3f;
+import model.VertexBuffer;
 
 public class VbTriangleInterpolator implements Interpolator
 {
 	private VbTriangle m_triangle;
+	private Matrix4f   m_modelMatrix;
 	
 	private float m_baryA;
 	private float m_baryB;
 	private float m_baryC;
 	
-	public VbTriangleInterpolator(VbTriangle triangle, float baryA, float baryB, float baryC)
+	public VbTriangleInterpolator(VbTriangle triangle, Matrix4f modelMatrix, float baryA, float baryB, float baryC)
 	{
-		m_triangle = triangle;
+		m_triangle    = triangle;
+		m_modelMatrix = modelMatrix;
 		
 		m_baryA = baryA;
 		m_baryB = baryB;
@@ -46,37 +49,67 @@ public class VbTriangleInterpolator implements Interpolator
 	@Override
 	public Vector3f getFlatNormal()
 	{
-		Matrix4f modelMatrix = m_triangle.getModel().getTransform().getModelMatrix();
-		
-		return modelMatrix.mul(m_triangle.getNormal(), 0.0f).normalizeLocal();
+		return m_modelMatrix.mul(m_triangle.calcFaceNormal(new Vector3f()), 0.0f).normalizeLocal();
 	}
 
 	@Override
 	public Vector3f getSmoothNormal()
 	{
-		Matrix4f modelMatrix = m_triangle.getModel().getTransform().getModelMatrix();
+		VertexBuffer normals = m_triangle.getVertexData().getNormals();
+		
+		if(normals == null)
+		{
+			return getFlatNormal();
+		}
 		
-		Vector3f nA = m_triangle.getNa();
-		Vector3f nB = m_triangle.getNb();
-		Vector3f nC = m_triangle.getNc();
+		float[] n = normals.getData();
+		int     a = m_triangle.getIndexA() * 3;
+		int     b = m_triangle.getIndexB() * 3;
+		int     c = m_triangle.getIndexC() * 3;
 		
-		Vector3f smoothN = new Vector3f(nA.x * m_baryA + nB.x * m_baryB + nC.x * m_baryC,
-				                        nA.y * m_baryA + nB.y * m_baryB + nC.y * m_baryC,
-				                        nA.z * m_baryA + nB.z * m_baryB + nC.z * m_baryC);
+		Vector3f smoothN = new Vector3f(n[a]     * m_baryA + n[b]     * m_baryB + n[c]     * m_baryC,
+		                                n[a + 1] * m_baryA + n[b + 1] * m_baryB + n[c + 1] * m_baryC,
+		                                n[a + 2] * m_baryA + n[b + 2] * m_baryB + n[c + 2] * m_baryC);
 		
-		return modelMatrix.mul(smoothN, 0.0f).normalizeLocal();
+		return m_modelMatrix.mul(smoothN, 0.0f).normalizeLocal();
 	}
 
 	@Override
 	public Vector3f getSmoothColor()
 	{
-		return new Vector3f(0, 0, 0);
+		VertexBuffer colors = m_triangle.getVertexData().getColors();
+		
+		if(colors == null)
+		{
+			return new Vector3f(0, 0, 0);
+		}
+		
+		float[] cl = colors.getData();
+		int     a  = m_triangle.getIndexA() * 3;
+		int     b  = m_triangle.getIndexB() * 3;
+		int     c  = m_triangle.getIndexC() * 3;
+		
+		return new Vector3f(cl[a]     * m_baryA + cl[b]     * m_baryB + cl[c]     * m_baryC,
+		                    cl[a + 1] * m_baryA + cl[b + 1] * m_baryB + cl[c + 1] * m_baryC,
+		                    cl[a + 2] * m_baryA + cl[b + 2] * m_baryB + cl[c + 2] * m_baryC);
 	}
 
 	@Override
 	public Vector2f getSmoothTexCoord()
 	{
-		// TODO Auto-generated method stub
-		return null;
+		VertexBuffer texCoords = m_triangle.getVertexData().getTexCoords();
+		
+		if(texCoords == null)
+		{
+			return new Vector2f(0, 0);
+		}
+		
+		float[] tx = texCoords.getData();
+		int     a  = m_triangle.getIndexA() * 2;
+		int     b  = m_triangle.getIndexB() * 2;
+		int     c  = m_triangle.getIndexC() * 2;
+		
+		return new Vector2f(tx[a]     * m_baryA + tx[b]     * m_baryB + tx[c]     * m_baryC,
+		                    tx[a + 1] * m_baryA + tx[b + 1] * m_baryB + tx[c + 1] * m_baryC);
 	}
 }
@@ -0,0 +1,283 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+package model.primitive;
+
+import java.util.List;
+
+import core.Ray;
+import math.Matrix4f;
+import math.Vector3f;
+import model.Model;
+import model.VertexBuffer;
+import model.VertexDataLocator;
+import model.boundingVolume.AABB;
+
+// Triangles sharing their vertices: every triangle is just three indices into the mesh's vertex 
+// buffers, which takes a fraction of the memory of individual Triangles with their own vertex data.
+public class VbTriangleMesh extends Primitive
+{
+	private VertexDataLocator m_vertexData;
+	private VbTriangle[]      m_triangles;
+	
+	// Every three consecutive indices form a triangle.
+	public VbTriangleMesh(VertexDataLocator vertexData, int[] indices)
+	{
+		super();
+		
+		m_vertexData = vertexData;
+		m_triangles  = new VbTriangle[indices.length / 3];
+		
+		for(int i = 0; i < m_triangles.length; i++)
+		{
+			m_triangles[i] = new VbTriangle(vertexData, indices[i * 3], indices[i * 3 + 1], indices[i * 3 + 2]);
+		}
+	}
+	
+	@Override
+	public boolean isIntersect(Ray ray, Intersection intersection)
+	{
+		VbTriangle closestTriangle = null;
+		float      closestDist     = Float.POSITIVE_INFINITY;
+		
+		for(VbTriangle triangle : m_triangles)
+		{
+			float dist = triangle.calcIntersectDist(ray, closestDist);
+			
+			if(dist < closestDist)
+			{
+				closestTriangle = triangle;
+				closestDist     = dist;
+			}
+		}
+		
+		if(closestTriangle != null)
+		{
+			closestTriangle.calcIntersectionDetail(ray, closestDist, intersection);
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public float calcIntersectDist(Ray ray, float maxDist)
+	{
+		float closestDist = Float.POSITIVE_INFINITY;
+		
+		for(VbTriangle triangle : m_triangles)
+		{
+			float dist = triangle.calcIntersectDist(ray, maxDist);
+			
+			if(dist < closestDist)
+			{
+				closestDist = dist;
+				maxDist     = dist;
+			}
+		}
+		
+		return closestDist;
+	}
+	
+	@Override
+	public float calcLocalIntersectDist(float rayOx, float rayOy, float rayOz, 
+	                                    float rayDx, float rayDy, float rayDz, float maxDist)
+	{
+		float closestDist = Float.POSITIVE_INFINITY;
+		
+		for(VbTriangle triangle : m_triangles)
+		{
+			float dist = triangle.calcLocalIntersectDist(rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist);
+			
+			if(dist < closestDist)
+			{
+				closestDist = dist;
+				maxDist     = dist;
+			}
+		}
+		
+		return closestDist;
+	}
+	
+	@Override
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		for(VbTriangle triangle : m_triangles)
+		{
+			if(triangle.calcIntersectDist(ray, maxDist) < maxDist)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean isIntersect(AABB aabb)
+	{
+		for(VbTriangle triangle : m_triangles)
+		{
+			if(triangle.isIntersect(aabb))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	// The shared buffers are transformed once for all triangles; vertex normals are transformed the 
+	// same way the interpolators do.
+	@Override
+	public boolean bakeTransform(Matrix4f modelMatrix)
+	{
+		Vector3f vertex      = new Vector3f();
+		Vector3f transformed = new Vector3f();
+		
+		VertexBuffer positions = m_vertexData.getPositions();
+		VertexBuffer normals   = m_vertexData.getNormals();
+		
+		for(int i = 0; i < positions.getNumVertices(); i++)
+		{
+			positions.set(i, modelMatrix.mul(positions.get(i, vertex), 1.0f, transformed));
+		}
+		
+		if(normals != null)
+		{
+			for(int i = 0; i < normals.getNumVertices(); i++)
+			{
+				normals.set(i, modelMatrix.mul(normals.get(i, vertex), 0.0f, transformed).normalizeLocal());
+			}
+		}
+		
+		// a mirroring transform flips the vertex order, keep the faces on their original side
+		if(modelMatrix.determinant() < 0.0f)
+		{
+			for(VbTriangle triangle : m_triangles)
+			{
+				triangle.flipWinding();
+			}
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public AABB calcTransformedAABB()
+	{
+		Matrix4f modelMatrix = getModel().getTransform().getModelMatrix();
+		
+		AABB aabb = calcAABB(modelMatrix);
+		aabb.relax();
+		
+		return aabb;
+	}
+	
+	@Override
+	public AABB calcLocalAABB()
+	{
+		return calcAABB(null);
+	}
+	
+	// Bounds of all vertices, transformed by the given matrix unless it is null.
+	private AABB calcAABB(Matrix4f matrix)
+	{
+		float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY,
+		      minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY,
+		      minZ = Float.POSITIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		
+		VertexBuffer positions   = m_vertexData.getPositions();
+		Vector3f     vertex      = new Vector3f();
+		Vector3f     transformed = new Vector3f();
+		
+		for(int i = 0; i < positions.getNumVertices(); i++)
+		{
+			Vector3f v = positions.get(i, vertex);
+			
+			if(matrix != null)
+			{
+				v = matrix.mul(v, 1.0f, transformed);
+			}
+			
+			minX = Math.min(minX, v.x);
+			minY = Math.min(minY, v.y);
+			minZ = Math.min(minZ, v.z);
+			maxX = Math.max(maxX, v.x);
+			maxY = Math.max(maxY, v.y);
+			maxZ = Math.max(maxZ, v.z);
+		}
+		
+		return new AABB(new Vector3f(minX, minY, minZ), 
+		                new Vector3f(maxX, maxY, maxZ));
+	}
+	
+	@Override
+	public void getAtomicPrimitives(List<AtomicPrimitive> results)
+	{
+		for(VbTriangle triangle : m_triangles)
+		{
+			results.add(triangle);
+		}
+	}
+	
+	@Override
+	public Vector3f calcGeometricAveragePos()
+	{
+		Vector3f result = new Vector3f(0, 0, 0);
+		
+		for(VbTriangle triangle : m_triangles)
+		{
+			result.addLocal(triangle.calcGeometricAveragePos().divLocal(m_triangles.length));
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public long calcGeometricWeight()
+	{
+		return m_triangles.length * 3L;
+	}
+	
+	@Override
+	public void setModel(Model model)
+	{
+		super.setModel(model);
+		
+		for(VbTriangle triangle : m_triangles)
+		{
+			triangle.setModel(model);
+		}
+	}
+	
+	public VertexDataLocator getVertexData()
+	{
+		return m_vertexData;
+	}
+	
+	public int getNumTriangles()
+	{
+		return m_triangles.length;
+	}
+}
@@ -1,218 +1,270 @@
 package radiosity;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import math.Vector3f;
 import math.material.AbradedOpaque;
 import math.material.AbradedTranslucent;
-import math.material.Merl;
 import math.material.NoBounceVertexColor;
-import math.material.PureDiffusion;
-import model.Model;
 import model.RawModel;
+import model.VertexAttribute;
+import model.VertexBuffer;
+import model.VertexDataLocator;
+import model.obj.IndexedMesh;
+import model.obj.MeshFile;
 import model.obj.ObjModel;
-import model.primitive.ColoredTriangle;
 import model.primitive.Sphere;
-import model.primitive.Triangle;
-import model.primitive.TriangleMesh;
+import model.primitive.VbTriangleMesh;
 import scene.Scene;
+import util.ByteScanner;
 import util.Debug;
-import util.StringUtil;
+import util.FloatArrayList;
+import util.Logger;
 
+// Reads radiosity solutions in .tri format: a "Triangle" line followed by one line per vertex, each 
+// starting with position and 8-bit RGB color. Vertices are not shared between triangles. The parsed 
+// mesh is cached as a mesh file (see MeshFile) next to the .tri file unless disabled.
 public class RadiosityDatReader
 {
-	private String m_fullFilename;
+	private String  m_fullFilename;
+	private boolean m_isMeshCacheEnabled;
+	
+	private Logger m_logger;
 	
 	public RadiosityDatReader(String fullFilename)
 	{
-		m_fullFilename = fullFilename;
+		m_logger = new Logger("Radiosity Data Loading: " + fullFilename);
+		
+		m_fullFilename       = fullFilename;
+		m_isMeshCacheEnabled = true;
+	}
+	
+	public void setMeshCacheEnabled(boolean isEnabled)
+	{
+		m_isMeshCacheEnabled = isEnabled;
 	}
 	
 	public Scene parse()
 	{
+		IndexedMesh indexedMesh = loadMesh();
+		
+		VertexBuffer positions = new VertexBuffer(VertexAttribute.POSITION3D, indexedMesh.getPositions());
+		VertexBuffer colors    = new VertexBuffer(VertexAttribute.COLOR3D,    indexedMesh.getColors());
+		
+		VbTriangleMesh triangleMesh = new VbTriangleMesh(new VertexDataLocator(positions, null, null, colors), indexedMesh.getIndices());
+		
+		NoBounceVertexColor matl = new NoBounceVertexColor();
+//		PureDiffusion matl = new PureDiffusion(1, 1, 1);
+		RawModel model = new RawModel(triangleMesh, matl);
+		
 		Scene scene = new Scene();
 		
-		try 
+		setUpScene(scene, model);
+		
+		model.getTransform().setScale(0.01f);
+		scene.addStaticModel(model);
+		
+//		Sphere sphere = new Sphere(0, 0, -3, 1.7f);
+////		AbradedOpaque sphereMatl = new AbradedOpaque();
+//		AbradedTranslucent sphereMatl = new AbradedTranslucent();
+//		sphereMatl.setAlbedo(1.0f, 1.0f, 1.0f);
+//		sphereMatl.setF0(0.1f, 0.1f, 0.1f);
+//		sphereMatl.setRoughness(0.0f);
+//		sphereMatl.setIor(1.5f);
+////		sphereMatl.setMetalness(1.0f);
+////		sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
+//		RawModel sphereLightModel = new RawModel(sphere, sphereMatl);
+//		scene.addModel(sphereLightModel);
+		
+//		Sphere sphereWall = new Sphere(0, 0, 1000.0f, 1000.0f);
+//		AbradedOpaque sphereWallMatl = new AbradedOpaque();
+//		sphereWallMatl.setAlbedo(1.0f, 1.0f, 1.0f);
+//		sphereWallMatl.setF0(1.0f, 1.0f, 1.0f);
+//		sphereWallMatl.setRoughness(0.0f);
+//		sphereWallMatl.setMetalness(1.0f);
+////		sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
+//		RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
+//		scene.addModel(sphereWallModel);
+		
+//		Model dragonModel = new ObjModel("./resource/model/dragon.obj");
+//		dragonModel.getTransform().setScale(3.0f);
+//		scene.addModel(dragonModel);
+		
+//		scene.getCamera().setPos(3.3163042f, 1.4020933f, -4.2036543f);
+//		scene.getCamera().setDir(-0.85528207f, -0.31938317f, 0.40798423f);
+		
+//		scene.getCamera().setPos(0, 0, 12);
+//		scene.getCamera().setDir(0, 0, -1);
+		
+		return scene;
+	}
+	
+	private IndexedMesh loadMesh()
+	{
+		File sourceFile = new File(m_fullFilename);
+		
+		// only cached if MeshFile has a cache directory
+		IndexedMesh indexedMesh = m_isMeshCacheEnabled ? MeshFile.load(sourceFile) : null;
+		
+		if(indexedMesh == null)
 		{
-			BufferedReader fileReader = new BufferedReader(new FileReader(m_fullFilename));
-			
-			String currentLine;
-			
-			Vector3f posA = new Vector3f();
-			Vector3f posB = new Vector3f();
-			Vector3f posC = new Vector3f();
-			Vector3f colorA = new Vector3f();
-			Vector3f colorB = new Vector3f();
-			Vector3f colorC = new Vector3f();
-			
-			NoBounceVertexColor matl = new NoBounceVertexColor();
-//			PureDiffusion matl = new PureDiffusion(1, 1, 1);
-			TriangleMesh triangleMesh = new TriangleMesh();
-			RawModel model = new RawModel(triangleMesh, matl);
-			
-			if(m_fullFilename.equals("./resource/radiosity/church.tri.9300"))
+			try
 			{
-				model.getTransform().setRotDeg(new Vector3f(1, 0, 0), -90);
-				model.getTransform().setPos(0.0f, -5.0f, 0.0f);
-				
-				ObjModel carModel = new ObjModel("./resource/model/lamborghini_aventador.obj");
-				carModel.getTransform().setPos(2.5f, -3.5f, 1.0f);
-				carModel.getTransform().setScale(1.0f);
-				scene.addModel(carModel);
-				
-				Sphere sphereWall = new Sphere(0, -1003.75f, 0.0f, 1000.0f);
-				AbradedOpaque sphereWallMatl = new AbradedOpaque();
-				sphereWallMatl.setConstAlbedo(0.9f, 0.9f, 0.9f);
-				sphereWallMatl.setRoughness(0.5f);
-//				sphereWallMatl.setEmissivity(1, 0, 0);
-				RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
-				scene.addModel(sphereWallModel);
-				
-				scene.getCamera().setDir(-0.7916469f, -0.41420883f, -0.4491308f);
-				scene.getCamera().setPos(4.319907f, -2.0722241f, 2.7602394f);
+				indexedMesh = readTriangles();
 			}
-			else if(m_fullFilename.equals("./resource/radiosity/hall.tri.4500"))
+			catch(IOException e)
 			{
-				model.getTransform().setRotDeg(new Vector3f(1, 0, 0), -90);
-//				model.getTransform().setPos(0.0f, -5.0f, 0.0f);
-				
-				Sphere sphereWall = new Sphere(0, -1002.0f, 0.0f, 1000.0f);
-				AbradedOpaque sphereWallMatl = new AbradedOpaque();
-				sphereWallMatl.setConstAlbedo(0.95f, 0.95f, 0.95f);
-				sphereWallMatl.setRoughness(0.5f);
-//				sphereWallMatl.setEmissivity(1, 0, 0);
-				RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
-				scene.addModel(sphereWallModel);
-				
-				ObjModel teapotModel = new ObjModel("./resource/model/teapot_hires.obj");
-				teapotModel.getTransform().setPos(0, -2, 1.0f);
-				teapotModel.getTransform().setScale(0.8f);
-				teapotModel.getTransform().setRotDeg(new Vector3f(0, 1, 0), -30);
-				scene.addModel(teapotModel);
-				
-				ObjModel monkeyModel = new ObjModel("./resource/model/monkey.obj");
-				monkeyModel.getTransform().setPos(0, -1.1f, -5.0f);
-				monkeyModel.getTransform().setScale(1.0f);
-				scene.addModel(monkeyModel);
-				
-				ObjModel playerModel = new ObjModel("./resource/model/player.obj");
-				playerModel.getTransform().setPos(0, -1.5f, -10.0f);
-				playerModel.getTransform().setScale(1.0f);
-				scene.addModel(playerModel);
-				
-				scene.getCamera().setDir(-0.3243841f, -0.07832131f, -0.94266045f);
-				scene.getCamera().setPos(1.499391f, -0.5754583f, 4.013812f);
+				e.printStackTrace();
+				m_logger.printErr("file loading failed");
+				Debug.exitErr();
 			}
-			else if(m_fullFilename.equals("./resource/radiosity/room.tri.12100"))
+			
+			if(m_isMeshCacheEnabled)
 			{
-				model.getTransform().setRotDeg(new Vector3f(1, 0, 0), -180);
+				MeshFile.save(indexedMesh, sourceFile);
 			}
-			else if(m_fullFilename.equals("./resource/radiosity/blocks.tri.7000"))
+		}
+		
+		m_logger.printMsg("loaded " + indexedMesh.getIndices().length / 3 + " triangles");
+		
+		return indexedMesh;
+	}
+	
+	private IndexedMesh readTriangles() throws IOException
+	{
+		ByteBuffer  buffer  = ByteScanner.mapFile(m_fullFilename);
+		ByteScanner scanner = new ByteScanner(buffer, 0, buffer.limit());
+		
+		// a triangle takes about 150 bytes
+		FloatArrayList positions = new FloatArrayList(buffer.limit() / 150 * 9);
+		FloatArrayList colors    = new FloatArrayList(buffer.limit() / 150 * 9);
+		
+		while(scanner.hasRemaining())
+		{
+			scanner.skipSpaces();
+			
+			// "Triangle"
+			boolean isTriangle = scanner.peek() == 'T';
+			
+			scanner.nextLine();
+			
+			if(!isTriangle)
 			{
-				Sphere sphereWall = new Sphere(0, 0, 1000.0f, 1000.0f);
-				AbradedOpaque sphereWallMatl = new AbradedOpaque();
-				sphereWallMatl.setConstAlbedo(1.0f, 1.0f, 1.0f);
-				sphereWallMatl.setF0(1.0f, 1.0f, 1.0f);
-				sphereWallMatl.setRoughness(0.0f);
-				sphereWallMatl.setMetalness(1.0f);
-//				sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
-				RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
-				scene.addModel(sphereWallModel);
-				
-				Sphere sphere = new Sphere(1, 0, -3, 1.2f);
-	//			AbradedOpaque sphereMatl kk= new AbradedOpaque();
-				AbradedTranslucent sphereMatl = new AbradedTranslucent();
-				sphereMatl.setAlbedo(1.0f, 1.0f, 1.0f);
-//				sphereMatl.setF0(0.1f, 0.1f, 0.1f);
-				sphereMatl.setRoughness(0.0f);
-				sphereMatl.setIor(1.5f);
-//				sphereMatl.setMetalness(1.0f);
-//				sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
-//				Merl sphereMatl = new Merl("chrome");
-				RawModel sphereLightModel = new RawModel(sphere, sphereMatl);
-				scene.addModel(sphereLightModel);
+				continue;
 			}
 			
-			
-			while((currentLine = fileReader.readLine()) != null)
+			for(int i = 0; i < 3; i++)
 			{
-				if(currentLine.trim().equals("Triangle"))
-				{
-					currentLine = fileReader.readLine();
-					parsePosAndColor(currentLine, posA, colorA);
-					currentLine = fileReader.readLine();
-					parsePosAndColor(currentLine, posB, colorB);
-					currentLine = fileReader.readLine();
-					parsePosAndColor(currentLine, posC, colorC);
-					
-					Debug.print(posA);
-					Debug.print(posB);
-					Debug.print(posC);
-					
-					ColoredTriangle triangle = new ColoredTriangle(posA, posB, posC,
-						                      	                   colorA, colorB, colorC);
-					triangleMesh.addTriangle(triangle);
-				}
+				positions.add(scanner.nextFloat());
+				positions.add(-scanner.nextFloat());// flip y
+				positions.add(scanner.nextFloat());
+				
+				colors.add(scanner.nextFloat() / 255.0f);
+				colors.add(scanner.nextFloat() / 255.0f);
+				colors.add(scanner.nextFloat() / 255.0f);
+				
+				scanner.nextLine();
 			}
+		}
+		
+		int[] indices = new int[positions.size() / 3];
+		for(int i = 0; i < indices.length; i++)
+		{
+			indices[i] = i;
+		}
+		
+		IndexedMesh indexedMesh = new IndexedMesh(positions.toArray(), null, null, indices);
+		indexedMesh.setColors(colors.toArray());
+		
+		return indexedMesh;
+	}
+	
+	// extra models and camera poses for the known data sets
+	private void setUpScene(Scene scene, RawModel model)
+	{
+		if(m_fullFilename.equals("./resource/radiosity/church.tri.9300"))
+		{
+			model.getTransform().setRotDeg(new Vector3f(1, 0, 0), -90);
+			model.getTransform().setPos(0.0f, -5.0f, 0.0f);
 			
-			model.getTransform().setScale(0.01f);
-			scene.addModel(model);
+			ObjModel carModel = new ObjModel("./resource/model/lamborghini_aventador.obj");
+			carModel.getTransform().setPos(2.5f, -3.5f, 1.0f);
+			carModel.getTransform().setScale(1.0f);
+			scene.addModel(carModel);
 			
-//			Sphere sphere = new Sphere(0, 0, -3, 1.7f);
-////			AbradedOpaque sphereMatl = new AbradedOpaque();
-//			AbradedTranslucent sphereMatl = new AbradedTranslucent();
-//			sphereMatl.setAlbedo(1.0f, 1.0f, 1.0f);
-//			sphereMatl.setF0(0.1f, 0.1f, 0.1f);
-//			sphereMatl.setRoughness(0.0f);
-//			sphereMatl.setIor(1.5f);
-////			sphereMatl.setMetalness(1.0f);
-////			sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
-//			RawModel sphereLightModel = new RawModel(sphere, sphereMatl);
-//			scene.addModel(sphereLightModel);
+			Sphere sphereWall = new Sphere(0, -1003.75f, 0.0f, 1000.0f);
+			AbradedOpaque sphereWallMatl = new AbradedOpaque();
+			sphereWallMatl.setConstAlbedo(0.9f, 0.9f, 0.9f);
+			sphereWallMatl.setRoughness(0.5f);
+//				sphereWallMatl.setEmissivity(1, 0, 0);
+			RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
+			scene.addModel(sphereWallModel);
+			
+			scene.getCamera().setDir(-0.7916469f, -0.41420883f, -0.4491308f);
+			scene.getCamera().setPos(4.319907f, -2.0722241f, 2.7602394f);
+		}
+		else if(m_fullFilename.equals("./resource/radiosity/hall.tri.4500"))
+		{
+			model.getTransform().setRotDeg(new Vector3f(1, 0, 0), -90);
+//				model.getTransform().setPos(0.0f, -5.0f, 0.0f);
 			
-//			Sphere sphereWall = new Sphere(0, 0, 1000.0f, 1000.0f);
-//			AbradedOpaque sphereWallMatl = new AbradedOpaque();
-//			sphereWallMatl.setAlbedo(1.0f, 1.0f, 1.0f);
-//			sphereWallMatl.setF0(1.0f, 1.0f, 1.0f);
-//			sphereWallMatl.setRoughness(0.0f);
-//			sphereWallMatl.setMetalness(1.0f);
-////			sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
-//			RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
-//			scene.addModel(sphereWallModel);
+			Sphere sphereWall = new Sphere(0, -1002.0f, 0.0f, 1000.0f);
+			AbradedOpaque sphereWallMatl = new AbradedOpaque();
+			sphereWallMatl.setConstAlbedo(0.95f, 0.95f, 0.95f);
+			sphereWallMatl.setRoughness(0.5f);
+//				sphereWallMatl.setEmissivity(1, 0, 0);
+			RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
+			scene.addModel(sphereWallModel);
 			
-//			Model dragonModel = new ObjModel("./resource/model/dragon.obj");
-//			dragonModel.getTransform().setScale(3.0f);
-//			scene.addModel(dragonModel);
+			ObjModel teapotModel = new ObjModel("./resource/model/teapot_hires.obj");
+			teapotModel.getTransform().setPos(0, -2, 1.0f);
+			teapotModel.getTransform().setScale(0.8f);
+			teapotModel.getTransform().setRotDeg(new Vector3f(0, 1, 0), -30);
+			scene.addModel(teapotModel);
 			
-//			scene.getCamera().setPos(3.3163042f, 1.4020933f, -4.2036543f);
-//			scene.getCamera().setDir(-0.85528207f, -0.31938317f, 0.40798423f);
+			ObjModel monkeyModel = new ObjModel("./resource/model/monkey.obj");
+			monkeyModel.getTransform().setPos(0, -1.1f, -5.0f);
+			monkeyModel.getTransform().setScale(1.0f);
+			scene.addModel(monkeyModel);
 			
-//			scene.getCamera().setPos(0, 0, 12);
-//			scene.getCamera().setDir(0, 0, -1);
+			ObjModel playerModel = new ObjModel("./resource/model/player.obj");
+			playerModel.getTransform().setPos(0, -1.5f, -10.0f);
+			playerModel.getTransform().setScale(1.0f);
+			scene.addModel(playerModel);
 			
-			fileReader.close();
-		} 
-		catch(Exception e)
+			scene.getCamera().setDir(-0.3243841f, -0.07832131f, -0.94266045f);
+			scene.getCamera().setPos(1.499391f, -0.5754583f, 4.013812f);
+		}
+		else if(m_fullFilename.equals("./resource/radiosity/room.tri.12100"))
 		{
-			e.printStackTrace();
-			Debug.printErr("error: file " + m_fullFilename + " loading failed");
-			System.exit(1);
+			model.getTransform().setRotDeg(new Vector3f(1, 0, 0), -180);
+		}
+		else if(m_fullFilename.equals("./resource/radiosity/blocks.tri.7000"))
+		{
+			Sphere sphereWall = new Sphere(0, 0, 1000.0f, 1000.0f);
+			AbradedOpaque sphereWallMatl = new AbradedOpaque();
+			sphereWallMatl.setConstAlbedo(1.0f, 1.0f, 1.0f);
+			sphereWallMatl.setF0(1.0f, 1.0f, 1.0f);
+			sphereWallMatl.setRoughness(0.0f);
+			sphereWallMatl.setMetalness(1.0f);
+//				sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
+			RawModel sphereWallModel = new RawModel(sphereWall, sphereWallMatl);
+			scene.addModel(sphereWallModel);
+			
+			Sphere sphere = new Sphere(1, 0, -3, 1.2f);
+//			AbradedOpaque sphereMatl kk= new AbradedOpaque();
+			AbradedTranslucent sphereMatl = new AbradedTranslucent();
+			sphereMatl.setAlbedo(1.0f, 1.0f, 1.0f);
+//				sphereMatl.setF0(0.1f, 0.1f, 0.1f);
+			sphereMatl.setRoughness(0.0f);
+			sphereMatl.setIor(1.5f);
+//				sphereMatl.setMetalness(1.0f);
+//				sphereLightMatl.setEmissivity(5.0f, 5.0f, 5.0f);
+//				Merl sphereMatl = new Merl("chrome");
+			RawModel sphereLightModel = new RawModel(sphere, sphereMatl);
+			scene.addModel(sphereLightModel);
 		}
-		
-		return scene;
-	}
-	
-	private static void parsePosAndColor(String line, Vector3f posResult, Vector3f colorResult)
-	{
-		String[] dataSegments = StringUtil.getDataSegments(line);
-		
-		posResult.x = Float.valueOf(dataSegments[0]);
-		posResult.y = -Float.valueOf(dataSegments[1]);// flip y
-		posResult.z = Float.valueOf(dataSegments[2]);
-		
-		colorResult.x = Float.valueOf(dataSegments[3]) / 255.0f;
-		colorResult.y = Float.valueOf(dataSegments[4]) / 255.0f;
-		colorResult.z = Float.valueOf(dataSegments[5]) / 255.0f;
 	}
 }
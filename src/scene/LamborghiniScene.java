@@ -48,7 +48,7 @@ public class LamborghiniScene extends Scene
 		carModel.getTransform().setPos(-0.5f, -5.0f, -2.0f);
 		carModel.getTransform().setScale(3.5f);
 		carModel.getTransform().setRotDeg(new Vector3f(0, 1, 0), 120);
-		addModel(carModel);
+		addStaticModel(carModel);
 		
 		AbradedOpaque sphereLightMatl = new AbradedOpaque();
 		RawModel sphereLight = new RawModel(new Sphere(-4.0f, -3.3f, -3.0f, 0.5f), sphereLightMatl);
@@ -71,7 +71,7 @@ public class LamborghiniScene extends Scene
 		cylinderLightMatl.setEmissivity(10.0f, 20.0f, 20.0f);
 //		cylinderLightMatl.setIor(1.5f);
 //		cylinderLightMatl.setRoughness(0.0f);
-		addModel(cylinderLightModel);
+		addStaticModel(cylinderLightModel);
 		
 		// temp hack
 		ObjModel cubeModel = new ObjModel("./resource/model/cube.obj");
@@ -80,7 +80,7 @@ public class LamborghiniScene extends Scene
 		cubeRawModel.getTransform().setPos(3.4f, -4.4f, -0.2f);
 		cubeRawModel.getTransform().setScale(0.6f);
 		cubeMatl.setEmissivity(20.0f, 20.0f, 10.0f);
-		addModel(cubeRawModel);
+		addStaticModel(cubeRawModel);
 		
 		// temp hack
 		ObjModel textModel = new ObjModel("./resource/model/lambo_text.obj");
@@ -92,7 +92,7 @@ public class LamborghiniScene extends Scene
 //		textMatl.setEmissivity(20.0f, 20.0f, 10.0f);
 		textMatl.setIor(1.5f);
 		textMatl.setRoughness(0.01f);
-		addModel(textRawModel);
+		addStaticModel(textRawModel);
 		
 		
 		AbradedOpaque leftWallMatl = new AbradedOpaque();
@@ -27,23 +27,33 @@ import java.util.List;
 
 import core.Camera;
 import core.Ray;
+import core.RayPacket;
 import math.Vector3f;
 import model.Model;
+import model.ModelInstance;
 import model.primitive.Intersection;
 import scene.partition.BruteForce;
 import scene.partition.PartitionStrategy;
 import scene.partition.kdtree.Kdtree;
+import scene.light.LightList;
+import util.Logger;
 
 public class Scene
 {
+	private static final Logger logger = new Logger("Scene");
+	
 	private List<Model> m_models;
+	private List<Model> m_staticModels;
 	private Camera      m_camera;
 	private PartitionStrategy m_partitioinStrategy;
+	private LightList   m_lights;
 	
 	public Scene()
 	{
-		m_models = new ArrayList<>();
+		m_models       = new ArrayList<>();
+		m_staticModels = new ArrayList<>();
 		m_camera = new Camera();
+		m_lights = new LightList();
 		
 //		m_partitioinStrategy = new BruteForce();
 		m_partitioinStrategy = new Kdtree();
@@ -52,7 +62,35 @@ public class Scene
 	public void addModel(Model model)
 	{
 		m_models.add(model);
-		m_partitioinStrategy.addPrimitive(model.getPrimitive());
+		m_partitioinStrategy.addModel(model);
+	}
+	
+	// Static models must not be moved once cookScene() was called: their geometry is baked into world 
+	// space there and their transform reset to identity, so intersecting them needs no transformation. 
+	// Models whose geometry is shared with instances, and primitives that cannot be baked (e.g. 
+	// spheres), stay as they are.
+	public void addStaticModel(Model model)
+	{
+		addModel(model);
+		m_staticModels.add(model);
+	}
+	
+	public void removeModel(Model model)
+	{
+		m_models.remove(model);
+		m_staticModels.remove(model);
+		m_partitioinStrategy.removeModel(model);
+	}
+	
+	// Models already added are handed over to the new strategy; call cookScene() afterwards.
+	public void setPartitionStrategy(PartitionStrategy partitionStrategy)
+	{
+		m_partitioinStrategy = partitionStrategy;
+		
+		for(Model model : m_models)
+		{
+			m_partitioinStrategy.addModel(model);
+		}
 	}
 	
 	public boolean findClosestIntersection(Ray ray, Intersection intersection)
@@ -60,13 +98,111 @@ public class Scene
 		return m_partitioinStrategy.findClosestIntersection(ray, intersection);
 	}
 	
+	public void findClosestIntersections(RayPacket packet)
+	{
+		m_partitioinStrategy.findClosestIntersections(packet);
+	}
+	
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		return m_partitioinStrategy.isOccluded(ray, maxDist);
+	}
+	
 	public Camera getCamera()
 	{
 		return m_camera;
 	}
 	
+	// Emitters found by the last cookScene() or updateScene().
+	public LightList getLights()
+	{
+		return m_lights;
+	}
+	
 	public void cookScene()
 	{
+		bakeStaticModels();
+		
 		m_partitioinStrategy.processData();
+		
+		collectLights();
+	}
+	
+	// Call instead of cookScene() after models were moved, added or removed; strategies that support it 
+	// (see TwoLevelBvh) only redo the affected parts. Whether rendering may go on meanwhile depends on 
+	// the partition strategy (see PartitionStrategy.updateData()).
+	public void updateScene()
+	{
+		m_partitioinStrategy.updateData();
+		
+		collectLights();
+	}
+	
+	// After baking, so light geometry is sampled in world space without transforming it. The list is 
+	// replaced rather than refilled, tracers still holding the old one are unaffected.
+	private void collectLights()
+	{
+		LightList lights = new LightList();
+		
+		for(Model model : m_models)
+		{
+			lights.addModel(model);
+		}
+		
+		if(!lights.isEmpty())
+		{
+			logger.printMsg(lights.numLights() + " emissive models sampled as lights");
+		}
+		
+		m_lights = lights;
+	}
+	
+	private void bakeStaticModels()
+	{
+		int numBakedModels = 0;
+		
+		for(Model model : m_staticModels)
+		{
+			// already in world space, or baked by an earlier cookScene()
+			if(model.getTransform().isIdentity())
+			{
+				continue;
+			}
+			
+			if(isGeometryShared(model))
+			{
+				logger.printWrn("static model shares its geometry with other models, not baked");
+				continue;
+			}
+			
+			if(model.getPrimitive().bakeTransform(model.getTransform().getModelMatrix()))
+			{
+				model.getTransform().reset();
+				numBakedModels++;
+			}
+		}
+		
+		if(numBakedModels != 0)
+		{
+			logger.printMsg(numBakedModels + " static models baked into world space");
+		}
+	}
+	
+	private boolean isGeometryShared(Model model)
+	{
+		if(model instanceof ModelInstance || model.getPrimitive().getModel() != model)
+		{
+			return true;
+		}
+		
+		for(Model otherModel : m_models)
+		{
+			if(otherModel != model && otherModel.getPrimitive() == model.getPrimitive())
+			{
+				return true;
+			}
+		}
+		
+		return false;
 	}
 }
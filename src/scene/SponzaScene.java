@@ -53,7 +53,7 @@ public class SponzaScene extends Scene
 		ObjModel sponzaModel = new ObjModel("./resource/model/dabrovic_sponza.obj");
 //		ObjModel sponzaModel = new ObjModel("./resource/model/sponza_partial.obj");
 		sponzaModel.getTransform().setRotDeg(new Vector3f(0, 1, 0), 90);
-		addModel(sponzaModel);
+		addStaticModel(sponzaModel);
 		
 		AbradedOpaque topWallMatl = new AbradedOpaque();
 		RawModel topWall = new RawModel(new Sphere(0.0f, wallR + 50.0f, 0.0f, wallR), topWallMatl);
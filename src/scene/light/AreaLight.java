@@ -0,0 +1,163 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.light;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import math.Vector3f;
+import model.Model;
+import model.primitive.AtomicPrimitive;
+
+// The emitting primitives of one model. A primitive is picked with probability proportional to its 
+// area, then a point on it is picked by the primitive itself (see AtomicPrimitive.genDirectSample()).
+public class AreaLight
+{
+	private Model                         m_model;
+	private Vector3f                      m_emissivity;
+	private AtomicPrimitive[]             m_primitives;
+	private float[]                       m_areaCdf;
+	private Map<AtomicPrimitive, Integer> m_primitiveIndices;
+	
+	// Returns null if the model has nothing to sample.
+	public static AreaLight create(Model model, Vector3f emissivity)
+	{
+		List<AtomicPrimitive> primitives = new ArrayList<>();
+		model.getPrimitive().getAtomicPrimitives(primitives);
+		
+		AreaLight light = new AreaLight(model, emissivity, primitives);
+		
+		return light.m_primitives.length != 0 ? light : null;
+	}
+	
+	private AreaLight(Model model, Vector3f emissivity, List<AtomicPrimitive> primitives)
+	{
+		m_model            = model;
+		m_emissivity       = emissivity;
+		m_primitiveIndices = new IdentityHashMap<>();
+		
+		List<AtomicPrimitive> sampledPrimitives = new ArrayList<>();
+		List<Float>           areas             = new ArrayList<>();
+		
+		for(AtomicPrimitive primitive : primitives)
+		{
+			float area = primitive.calcArea();
+			
+			if(area > 0.0f)
+			{
+				sampledPrimitives.add(primitive);
+				areas.add(area);
+			}
+		}
+		
+		m_primitives = sampledPrimitives.toArray(new AtomicPrimitive[sampledPrimitives.size()]);
+		m_areaCdf    = new float[m_primitives.length];
+		
+		double areaSum = 0.0;
+		
+		for(int i = 0; i < m_primitives.length; i++)
+		{
+			areaSum += areas.get(i);
+			m_areaCdf[i] = (float)areaSum;
+			m_primitiveIndices.put(m_primitives[i], i);
+		}
+		
+		for(int i = 0; i < m_primitives.length; i++)
+		{
+			m_areaCdf[i] /= (float)areaSum;
+		}
+		
+		if(m_primitives.length != 0)
+		{
+			m_areaCdf[m_primitives.length - 1] = 1.0f;
+		}
+	}
+	
+	// The sample (s, u, v) is in [0, 1)^3. The density written into the result includes picking the 
+	// primitive.
+	public boolean sample(Vector3f from, float s, float u, float v, LightSample result)
+	{
+		int index = findPrimitiveIndex(s);
+		
+		float pdf = m_primitives[index].genDirectSample(from, u, v, result.getPoint(), result.getNormal());
+		
+		if(!(pdf > 0.0f) || Float.isInfinite(pdf))
+		{
+			return false;
+		}
+		
+		result.setEmissivity(m_emissivity);
+		result.setPdf(pdf * calcPrimitiveProb(index));
+		
+		return true;
+	}
+	
+	// Density of sample() picking the given point on the given primitive, 0 if the primitive is not part 
+	// of this light.
+	public float calcPdf(Vector3f from, AtomicPrimitive primitive, Vector3f point)
+	{
+		Integer index = m_primitiveIndices.get(primitive);
+		
+		if(index == null)
+		{
+			return 0.0f;
+		}
+		
+		return primitive.calcDirectSamplePdf(from, point) * calcPrimitiveProb(index);
+	}
+	
+	public Model getModel()
+	{
+		return m_model;
+	}
+	
+	private int findPrimitiveIndex(float s)
+	{
+		int lower = 0;
+		int upper = m_areaCdf.length - 1;
+		
+		while(lower < upper)
+		{
+			int middle = (lower + upper) >>> 1;
+			
+			if(s < m_areaCdf[middle])
+			{
+				upper = middle;
+			}
+			else
+			{
+				lower = middle + 1;
+			}
+		}
+		
+		return lower;
+	}
+	
+	private float calcPrimitiveProb(int index)
+	{
+		return index == 0 ? m_areaCdf[0] : m_areaCdf[index] - m_areaCdf[index - 1];
+	}
+}
@@ -0,0 +1,125 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.light;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import math.Vector3f;
+import model.Model;
+import model.ModelInstance;
+import model.primitive.Intersection;
+
+// Emitters of a scene that can be sampled directly (next event estimation, see PathTracer). Every model 
+// whose material emits light becomes one AreaLight, and lights are picked with equal probability: 
+// weighting them by power would hand nearly all samples to the huge emissive spheres the scenes use as 
+// sky. Instanced emitters are not collected; they are still found by rays hitting them.
+public class LightList
+{
+	private List<AreaLight> m_lights;
+	
+	public LightList()
+	{
+		m_lights = new ArrayList<>();
+	}
+	
+	public void addModel(Model model)
+	{
+		Vector3f emissivity = model.getMaterial().getEmissivity();
+		
+		if(emissivity == null)
+		{
+			return;
+		}
+		
+		// a primitive stores its geometry relative to the model it belongs to, which is the prototype for 
+		// instances
+		if(model instanceof ModelInstance || model.getPrimitive().getModel() != model)
+		{
+			return;
+		}
+		
+		AreaLight light = AreaLight.create(model, emissivity);
+		
+		if(light != null)
+		{
+			m_lights.add(light);
+		}
+	}
+	
+	public boolean isEmpty()
+	{
+		return m_lights.isEmpty();
+	}
+	
+	public int numLights()
+	{
+		return m_lights.size();
+	}
+	
+	// Picks a light and a point on it as seen from the given position; (s, u, v) is in [0, 1)^3. The 
+	// density written into the result includes picking the light.
+	public boolean sample(Vector3f from, float s, float u, float v, LightSample result)
+	{
+		if(m_lights.isEmpty())
+		{
+			return false;
+		}
+		
+		int   numLights = m_lights.size();
+		float scaledS   = s * numLights;
+		int   index     = Math.min((int)scaledS, numLights - 1);
+		
+		// the remainder of s picks the primitive
+		float remainder = Math.min(scaledS - index, 1.0f - Math.ulp(1.0f));
+		
+		if(!m_lights.get(index).sample(from, remainder, u, v, result))
+		{
+			return false;
+		}
+		
+		result.setPdf(result.getPdf() / numLights);
+		
+		return true;
+	}
+	
+	// Density of sample() picking the point a ray starting at "from" has hit, 0 for points on anything 
+	// other than the collected lights.
+	public float calcPdf(Vector3f from, Intersection intersection)
+	{
+		Model model = intersection.getHitModel();
+		
+		for(AreaLight light : m_lights)
+		{
+			if(light.getModel() == model)
+			{
+				float pdf = light.calcPdf(from, intersection.getHitAtomicPrimitive(), intersection.getHitPoint());
+				
+				return pdf / m_lights.size();
+			}
+		}
+		
+		return 0.0f;
+	}
+}
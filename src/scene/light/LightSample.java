@@ -0,0 +1,74 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.light;
+
+import math.Vector3f;
+
+public class LightSample
+{
+	private Vector3f m_point;
+	private Vector3f m_normal;
+	private Vector3f m_emissivity;
+	private float    m_pdf;
+	
+	public LightSample()
+	{
+		m_point      = new Vector3f();
+		m_normal     = new Vector3f();
+		m_emissivity = null;
+		m_pdf        = 0.0f;
+	}
+	
+	public Vector3f getPoint()
+	{
+		return m_point;
+	}
+	
+	public Vector3f getNormal()
+	{
+		return m_normal;
+	}
+	
+	// radiance emitted from the point
+	public Vector3f getEmissivity()
+	{
+		return m_emissivity;
+	}
+	
+	public void setEmissivity(Vector3f emissivity)
+	{
+		m_emissivity = emissivity;
+	}
+	
+	// solid angle density of having picked the point, seen from where it was picked
+	public float getPdf()
+	{
+		return m_pdf;
+	}
+	
+	public void setPdf(float pdf)
+	{
+		m_pdf = pdf;
+	}
+}
@@ -26,14 +26,15 @@ import java.util.ArrayList;
 import java.util.List;
 
 import core.Ray;
-import math.Vector3f;
+import core.RayPacket;
 import model.Model;
+import model.primitive.AtomicPrimitive;
 import model.primitive.Intersection;
-import model.primitive.Primitive;
+import util.Debug;
 
 public class BruteForce implements PartitionStrategy
 {
-	private List<Primitive> m_primitives;
+	private List<AtomicPrimitive> m_primitives;
 	
 	public BruteForce()
 	{
@@ -41,43 +42,92 @@ public class BruteForce implements PartitionStrategy
 	}
 	
 	@Override
-	public void addPrimitive(Primitive primitive)
+	public void addModel(Model model)
 	{
-		m_primitives.add(primitive);
+		// world space primitives get their transform from Primitive.getModel(), which is the 
+		// prototype's for a model instance
+		if(model.getPrimitive().getModel() != model)
+		{
+			Debug.printWrn("instanced model ignored, instancing requires a two-level structure");
+			return;
+		}
+		
+		model.getPrimitive().getAtomicPrimitives(m_primitives);
+	}
+	
+	@Override
+	public void removeModel(Model model)
+	{
+		List<AtomicPrimitive> remainingPrimitives = new ArrayList<>(m_primitives.size());
+		
+		for(AtomicPrimitive primitive : m_primitives)
+		{
+			if(primitive.getModel() != model)
+			{
+				remainingPrimitives.add(primitive);
+			}
+		}
+		
+		m_primitives = remainingPrimitives;
+	}
+	
+	// Nothing to update, but models added or removed change the list that is traced, so no rays may be 
+	// traced meanwhile.
+	@Override
+	public void updateData()
+	{
+		// do nothing
 	}
 
 	@Override
 	public boolean findClosestIntersection(Ray ray, Intersection intersection)
 	{
-		float    squareDist      = Float.MAX_VALUE;
-		Vector3f intersectPoint  = null;
-		Vector3f intersectNormal = null;
+		AtomicPrimitive closestPrimitive = null;
+		float           closestHitDist   = Float.POSITIVE_INFINITY;
 		
-		for(Primitive currentPrimitive : m_primitives)
+		for(AtomicPrimitive currentPrimitive : m_primitives)
 		{
-			if(currentPrimitive.isIntersect(ray, intersection))
+			float hitDist = currentPrimitive.calcIntersectDist(ray, closestHitDist);
+			
+			if(hitDist < closestHitDist)
 			{
-				float currentSquareDist = intersection.getHitPoint().sub(ray.getOrigin()).squareLength();
-				
-				if(currentSquareDist < squareDist)
-				{
-					squareDist      = currentSquareDist;
-					intersectPoint  = intersection.getHitPoint();
-					intersectNormal = intersection.getHitNormal();
-				}
+				closestHitDist   = hitDist;
+				closestPrimitive = currentPrimitive;
 			}
 		}
 		
-		if(squareDist != Float.MAX_VALUE)
+		intersection.clear();
+		
+		if(closestPrimitive != null)
 		{
-			intersection.setHitPoint(intersectPoint);
-			intersection.setHitNormal(intersectNormal);
+			closestPrimitive.calcIntersectionDetail(ray, closestHitDist, intersection);
 			
 			return true;
 		}
 		
 		return false;
 	}
+	
+	// rays are traced one by one, there is no traversal to share
+	@Override
+	public void findClosestIntersections(RayPacket packet)
+	{
+		packet.findClosestIntersectionsOneByOne(this);
+	}
+	
+	@Override
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		for(AtomicPrimitive currentPrimitive : m_primitives)
+		{
+			if(currentPrimitive.calcIntersectDist(ray, maxDist) < maxDist)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
 
 	@Override
 	public void processData()
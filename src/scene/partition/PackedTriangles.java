@@ -0,0 +1,185 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition;
+
+import math.Vector3f;
+import model.primitive.AtomicPrimitive;
+
+// Precomputed ray-triangle intersection data for acceleration structures that keep their triangles in 
+// one contiguous float array. Rather than projecting along the dominant normal axis per triangle as in 
+// Ingo Wald's PhD thesis (which needs a branch or a lookup on the axis), the plane and the two 
+// barycentric coordinate functions are stored as three plane equations, following Havel and Herout's 
+// "Yet Faster Ray-Triangle Intersection (Using SSE4)":
+//
+// [NX, NY, NZ, ND]  triangle plane:                       n = eAB x eAC,           ND = n . A
+// [BX, BY, BZ, BD]  barycentric coordinate of vertex B:  b = (eAC x n) / |n|^2,   BD = -(b . A)
+// [CX, CY, CZ, CD]  barycentric coordinate of vertex C:  c = (n x eAB) / |n|^2,   CD = -(c . A)
+//
+// A test is then a few dot products without any data dependent branch, which suits testing several 
+// triangles in one loop. The NUM_FLOATS values of one triangle are stride floats apart: 1 stores 
+// triangles one after another, a block size stores blocks of triangles component by component 
+// (structure of arrays). Code testing several rays at once reads the components directly (NX to CD 
+// give their order) and must treat hits exactly as calcHitDist() does.
+
+public class PackedTriangles
+{
+	public static final int NUM_FLOATS = 12;
+	
+	public static final int NX = 0;
+	public static final int NY = 1;
+	public static final int NZ = 2;
+	public static final int ND = 3;
+	public static final int BX = 4;
+	public static final int BY = 5;
+	public static final int BZ = 6;
+	public static final int BD = 7;
+	public static final int CX = 8;
+	public static final int CY = 9;
+	public static final int CZ = 10;
+	public static final int CD = 11;
+	
+	public static final float EPSILON = 0.0001f;
+	
+	// Packs all primitives one after another (stride 1), in world or model space; primitives that are 
+	// not triangles get empty slots.
+	public static float[] packPrimitives(AtomicPrimitive[] primitives, boolean isLocal)
+	{
+		float[]  data     = new float[primitives.length * NUM_FLOATS];
+		float[]  vertices = new float[9];
+		Vector3f vA       = new Vector3f();
+		Vector3f vB       = new Vector3f();
+		Vector3f vC       = new Vector3f();
+		
+		for(int i = 0; i < primitives.length; i++)
+		{
+			boolean isTriangle = isLocal ? primitives[i].getLocalVertices(vA, vB, vC) : 
+			                               primitives[i].getTransformedVertices(vA, vB, vC);
+			
+			if(isTriangle)
+			{
+				vertices[0] = vA.x; vertices[1] = vA.y; vertices[2] = vA.z;
+				vertices[3] = vB.x; vertices[4] = vB.y; vertices[5] = vB.z;
+				vertices[6] = vC.x; vertices[7] = vC.y; vertices[8] = vC.z;
+				
+				pack(vertices, 0, data, i * NUM_FLOATS, 1);
+			}
+			else
+			{
+				packEmpty(data, i * NUM_FLOATS, 1);
+			}
+		}
+		
+		return data;
+	}
+	
+	// Packs the triangle given by vertices[vertexOffset] (A, B and C, xyz each) into data[offset].
+	public static void pack(float[] vertices, int vertexOffset, float[] data, int offset, int stride)
+	{
+		float[] v = vertices;
+		int     a = vertexOffset;
+		
+		float aX = v[a];
+		float aY = v[a + 1];
+		float aZ = v[a + 2];
+		
+		float eABx = v[a + 3] - aX;
+		float eABy = v[a + 4] - aY;
+		float eABz = v[a + 5] - aZ;
+		float eACx = v[a + 6] - aX;
+		float eACy = v[a + 7] - aY;
+		float eACz = v[a + 8] - aZ;
+		
+		float nx = eABy * eACz - eABz * eACy;
+		float ny = eABz * eACx - eABx * eACz;
+		float nz = eABx * eACy - eABy * eACx;
+		
+		// infinite for a degenerate triangle, the NaNs that follow make every test fail
+		float reciNormalSqr = 1.0f / (nx * nx + ny * ny + nz * nz);
+		
+		float bx = (eACy * nz - eACz * ny) * reciNormalSqr;
+		float by = (eACz * nx - eACx * nz) * reciNormalSqr;
+		float bz = (eACx * ny - eACy * nx) * reciNormalSqr;
+		float cx = (ny * eABz - nz * eABy) * reciNormalSqr;
+		float cy = (nz * eABx - nx * eABz) * reciNormalSqr;
+		float cz = (nx * eABy - ny * eABx) * reciNormalSqr;
+		
+		data[offset + NX * stride] = nx;
+		data[offset + NY * stride] = ny;
+		data[offset + NZ * stride] = nz;
+		data[offset + ND * stride] = nx * aX + ny * aY + nz * aZ;
+		data[offset + BX * stride] = bx;
+		data[offset + BY * stride] = by;
+		data[offset + BZ * stride] = bz;
+		data[offset + BD * stride] = -(bx * aX + by * aY + bz * aZ);
+		data[offset + CX * stride] = cx;
+		data[offset + CY * stride] = cy;
+		data[offset + CZ * stride] = cz;
+		data[offset + CD * stride] = -(cx * aX + cy * aY + cz * aZ);
+	}
+	
+	// Marks data[offset] as a slot that is never hit (e.g. padding, or a primitive that is no triangle).
+	public static void packEmpty(float[] data, int offset, int stride)
+	{
+		for(int i = 0; i < NUM_FLOATS; i++)
+		{
+			data[offset + i * stride] = 0.0f;
+		}
+		
+		data[offset + ND * stride] = Float.NaN;
+	}
+	
+	public static boolean isEmpty(float[] data, int offset, int stride)
+	{
+		float nd = data[offset + ND * stride];
+		
+		return nd != nd;
+	}
+	
+	// Returns the parametric distance to the triangle at data[offset], or NaN if the ray misses it. 
+	// Distances below a small epsilon are reported as misses too; the caller still has to check the 
+	// distance against the ray's range.
+	public static float calcHitDist(float[] data, int offset, int stride, 
+	                                float rayOx, float rayOy, float rayOz, float rayDx, float rayDy, float rayDz)
+	{
+		float nx = data[offset + NX * stride];
+		float ny = data[offset + NY * stride];
+		float nz = data[offset + NZ * stride];
+		
+		float dist = (data[offset + ND * stride] - (nx * rayOx + ny * rayOy + nz * rayOz)) / 
+		             (nx * rayDx + ny * rayDy + nz * rayDz);
+		
+		float hitX = rayOx + dist * rayDx;
+		float hitY = rayOy + dist * rayDy;
+		float hitZ = rayOz + dist * rayDz;
+		
+		float baryB = data[offset + BX * stride] * hitX + data[offset + BY * stride] * hitY + 
+		              data[offset + BZ * stride] * hitZ + data[offset + BD * stride];
+		float baryC = data[offset + CX * stride] * hitX + data[offset + CY * stride] * hitY + 
+		              data[offset + CZ * stride] * hitZ + data[offset + CD * stride];
+		
+		boolean isHit = baryB >= 0.0f & baryC >= 0.0f & baryB + baryC <= 1.0f & dist >= EPSILON;
+		
+		return isHit ? dist : Float.NaN;
+	}
+}
@@ -23,12 +23,25 @@
 package scene.partition;
 
 import core.Ray;
+import core.RayPacket;
+import model.Model;
 import model.primitive.Intersection;
-import model.primitive.Primitive;
 
 public interface PartitionStrategy
 {
-	public abstract void addPrimitive(Primitive primitive);
+	public abstract void addModel(Model model);
+	public abstract void removeModel(Model model);
 	public abstract boolean findClosestIntersection(Ray ray, Intersection intersection);
+	public abstract boolean isOccluded(Ray ray, float maxDist);
+	
+	// Finds the closest intersection of every ray in the packet, storing the results in the packet's 
+	// intersections and hit flags. The packet's lanes must have been gathered beforehand.
+	public abstract void findClosestIntersections(RayPacket packet);
 	public abstract void processData();
+	
+	// Brings the structure up to date after models were added, removed or moved since the last 
+	// processData(). The geometry of models already present is assumed unchanged. Whether rays may be 
+	// traced at the same time depends on the strategy, each one documents it; unless stated otherwise, 
+	// it must not be called while rays are being traced.
+	public abstract void updateData();
 }
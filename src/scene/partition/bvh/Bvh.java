@@ -0,0 +1,363 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.bvh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import core.Ray;
+import core.RayPacket;
+import math.Vector3f;
+import model.Model;
+import model.primitive.AtomicPrimitive;
+import model.primitive.Intersection;
+import scene.partition.PackedTriangles;
+import scene.partition.PartitionStrategy;
+import util.Logger;
+import util.Time;
+
+// A bounding volume hierarchy over atomic primitives. Unlike the k-d tree, every primitive is 
+// referenced by exactly one leaf, so memory is bounded by 2N - 1 nodes. Nodes are stored depth-first 
+// in flat arrays:
+//
+// m_nodeBounds: (minX, minY, minZ, maxX, maxY, maxZ) per node
+// m_nodeData:   leaf     -> (index of first primitive, number of primitives)
+//               interior -> (index of second child, encoded split axis); the first child is always 
+//                           the next node
+//
+// Traversal visits the child on the near side of the split axis first, so closer hits are found 
+// early and used to cull the remaining nodes. Triangles are tested through m_triangleData, their 
+// PackedTriangles data in the same order as m_orderedPrimitives; slots of other primitives are empty.
+
+public class Bvh implements PartitionStrategy
+{
+	private static final Logger logger = new Logger("BVH");
+	
+	private List<AtomicPrimitive> m_atomicPrimitives;
+	
+	private float[]           m_nodeBounds;
+	private int[]             m_nodeData;
+	private AtomicPrimitive[] m_orderedPrimitives;
+	private float[]           m_triangleData;
+	
+	private ThreadLocal<int[]> m_nodeStack;
+	
+	public Bvh()
+	{
+		m_atomicPrimitives = new ArrayList<>();
+		
+		m_nodeBounds        = new float[0];
+		m_nodeData          = new int[0];
+		m_orderedPrimitives = new AtomicPrimitive[0];
+		m_triangleData      = new float[0];
+	}
+	
+	@Override
+	public void addModel(Model model)
+	{
+		// world space primitives get their transform from Primitive.getModel(), which is the 
+		// prototype's for a model instance
+		if(model.getPrimitive().getModel() != model)
+		{
+			logger.printWrn("instanced model ignored, instancing requires a two-level structure");
+			return;
+		}
+		
+		model.getPrimitive().getAtomicPrimitives(m_atomicPrimitives);
+	}
+	
+	@Override
+	public void removeModel(Model model)
+	{
+		List<AtomicPrimitive> remainingPrimitives = new ArrayList<>(m_atomicPrimitives.size());
+		
+		for(AtomicPrimitive primitive : m_atomicPrimitives)
+		{
+			if(primitive.getModel() != model)
+			{
+				remainingPrimitives.add(primitive);
+			}
+		}
+		
+		m_atomicPrimitives = remainingPrimitives;
+	}
+	
+	// Primitives are stored in world space, so any change means a full rebuild. The tree is rebuilt in 
+	// place, so no rays may be traced meanwhile.
+	@Override
+	public void updateData()
+	{
+		processData();
+	}
+	
+	@Override
+	public void processData()
+	{
+		long startMs = Time.getMilliTime();
+		
+		BvhBuilder builder = new BvhBuilder(BvhBuilder.gatherBounds(m_atomicPrimitives, false));
+		builder.build();
+		
+		m_nodeBounds        = builder.getNodeBounds();
+		m_nodeData          = builder.getNodeData();
+		m_orderedPrimitives = new AtomicPrimitive[m_atomicPrimitives.size()];
+		
+		int[] orderedIndices = builder.getOrderedIndices();
+		for(int i = 0; i < orderedIndices.length; i++)
+		{
+			m_orderedPrimitives[i] = m_atomicPrimitives.get(orderedIndices[i]);
+		}
+		
+		m_triangleData = PackedTriangles.packPrimitives(m_orderedPrimitives, false);
+		
+		final int maxDepth = builder.getMaxDepth();
+		m_nodeStack = new ThreadLocal<int[]>()
+		{
+			@Override
+			public int[] initialValue()
+			{
+				return new int[maxDepth + 1];
+			}
+		};
+		
+		logger.printMsg(m_orderedPrimitives.length + " primitives, " + m_nodeData.length / 2 + " nodes, " + 
+		                "depth " + maxDepth + ", built in " + (Time.getMilliTime() - startMs) + " ms");
+	}
+	
+	@Override
+	public boolean findClosestIntersection(Ray ray, Intersection intersection)
+	{
+		if(m_nodeData.length == 0)
+		{
+			return false;
+		}
+		
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		AtomicPrimitive closestPrimitive = null;
+		float           closestHitDist   = Float.POSITIVE_INFINITY;
+		
+		int[] nodeStack = m_nodeStack.get();
+		int   stackSize = 0;
+		int   nodeIndex = 0;
+		
+		while(true)
+		{
+			if(isIntersectingNode(nodeIndex, rayOrigin, reciDirX, reciDirY, reciDirZ, closestHitDist))
+			{
+				int numPrimitives = m_nodeData[nodeIndex * 2 + 1];
+				
+				if(numPrimitives > 0)
+				{
+					int beginIndex = m_nodeData[nodeIndex * 2];
+					
+					for(int i = beginIndex; i < beginIndex + numPrimitives; i++)
+					{
+						float hitDist = calcHitDist(i, ray, closestHitDist);
+						
+						if(hitDist < closestHitDist)
+						{
+							closestHitDist   = hitDist;
+							closestPrimitive = m_orderedPrimitives[i];
+						}
+					}
+				}
+				else
+				{
+					int secondChildIndex = m_nodeData[nodeIndex * 2];
+					int splitAxis        = decodeSplitAxis(numPrimitives);
+					
+					if(getComponent(rayDir, splitAxis) < 0.0f)
+					{
+						nodeStack[stackSize++] = nodeIndex + 1;
+						nodeIndex = secondChildIndex;
+					}
+					else
+					{
+						nodeStack[stackSize++] = secondChildIndex;
+						nodeIndex = nodeIndex + 1;
+					}
+					
+					continue;
+				}
+			}
+			
+			if(stackSize == 0)
+			{
+				break;
+			}
+			
+			nodeIndex = nodeStack[--stackSize];
+		}
+		
+		intersection.clear();
+		
+		if(closestPrimitive != null)
+		{
+			closestPrimitive.calcIntersectionDetail(ray, closestHitDist, intersection);
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	// rays are traced one by one, packets gain nothing from this structure's traversal order
+	@Override
+	public void findClosestIntersections(RayPacket packet)
+	{
+		packet.findClosestIntersectionsOneByOne(this);
+	}
+	
+	// Same traversal as findClosestIntersection(), but the ray's range stays fixed at maxDist and the 
+	// first hit terminates the search, so child ordering does not matter here.
+	@Override
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		if(m_nodeData.length == 0)
+		{
+			return false;
+		}
+		
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		int[] nodeStack = m_nodeStack.get();
+		int   stackSize = 0;
+		int   nodeIndex = 0;
+		
+		while(true)
+		{
+			if(isIntersectingNode(nodeIndex, rayOrigin, reciDirX, reciDirY, reciDirZ, maxDist))
+			{
+				int numPrimitives = m_nodeData[nodeIndex * 2 + 1];
+				
+				if(numPrimitives > 0)
+				{
+					int beginIndex = m_nodeData[nodeIndex * 2];
+					
+					for(int i = beginIndex; i < beginIndex + numPrimitives; i++)
+					{
+						if(calcHitDist(i, ray, maxDist) < maxDist)
+						{
+							return true;
+						}
+					}
+				}
+				else
+				{
+					nodeStack[stackSize++] = m_nodeData[nodeIndex * 2];
+					nodeIndex = nodeIndex + 1;
+					
+					continue;
+				}
+			}
+			
+			if(stackSize == 0)
+			{
+				return false;
+			}
+			
+			nodeIndex = nodeStack[--stackSize];
+		}
+	}
+	
+	// Only the packed data is read for triangles; misses come back as NaN or infinity, both fail any 
+	// distance comparison.
+	private float calcHitDist(int orderedIndex, Ray ray, float maxDist)
+	{
+		int offset = orderedIndex * PackedTriangles.NUM_FLOATS;
+		
+		if(PackedTriangles.isEmpty(m_triangleData, offset, 1))
+		{
+			return m_orderedPrimitives[orderedIndex].calcIntersectDist(ray, maxDist);
+		}
+		
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		return PackedTriangles.calcHitDist(m_triangleData, offset, 1, rayOrigin.x, rayOrigin.y, rayOrigin.z, 
+		                                   rayDir.x, rayDir.y, rayDir.z);
+	}
+	
+	private boolean isIntersectingNode(int nodeIndex, Vector3f rayOrigin, float reciDirX, float reciDirY, float reciDirZ, float maxDist)
+	{
+		return isIntersectingBox(m_nodeBounds, nodeIndex * 6, rayOrigin.x, rayOrigin.y, rayOrigin.z, 
+		                         reciDirX, reciDirY, reciDirZ, maxDist);
+	}
+	
+	// slab test against the box stored at bounds[offset], limited to [0, maxDist]
+	static boolean isIntersectingBox(float[] bounds, int offset, float rayOx, float rayOy, float rayOz, 
+	                                 float reciDirX, float reciDirY, float reciDirZ, float maxDist)
+	{
+		float tMin = 0.0f;
+		float tMax = maxDist;
+		float t0, t1;
+		
+		t0 = (bounds[offset]     - rayOx) * reciDirX;
+		t1 = (bounds[offset + 3] - rayOx) * reciDirX;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		t0 = (bounds[offset + 1] - rayOy) * reciDirY;
+		t1 = (bounds[offset + 4] - rayOy) * reciDirY;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		t0 = (bounds[offset + 2] - rayOz) * reciDirZ;
+		t1 = (bounds[offset + 5] - rayOz) * reciDirZ;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		return tMin <= tMax;
+	}
+	
+	private static float getComponent(Vector3f vector, int axis)
+	{
+		return axis == 0 ? vector.x : (axis == 1 ? vector.y : vector.z);
+	}
+	
+	// split axes are stored as negative numbers so they can't be mistaken for a leaf's primitive count
+	static int encodeSplitAxis(int splitAxis)
+	{
+		return -(splitAxis + 1);
+	}
+	
+	static int decodeSplitAxis(int encodedSplitAxis)
+	{
+		return -encodedSplitAxis - 1;
+	}
+}
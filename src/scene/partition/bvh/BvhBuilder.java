@@ -0,0 +1,448 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.bvh;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import model.boundingVolume.AABB;
+import model.primitive.Primitive;
+
+// Binned SAH construction, after Ingo Wald's "On fast Construction of SAH-based Bounding Volume 
+// Hierarchies" (2007). Primitive bounds and centroids are gathered into flat arrays once, then 
+// every node bins its primitive centroids into a fixed number of buckets per axis and picks the 
+// cheapest bucket boundary, partitioning a single index array in place. Large subtrees are built 
+// in parallel on a fork-join pool. The resulting tree is flattened into depth-first arrays (see Bvh).
+// 
+// The builder only sees boxes, so the same code builds BVHs over world space primitives, over a 
+// model's primitives in model space and over model instances (see TwoLevelBvh).
+
+class BvhBuilder
+{
+	private static final int NUM_BINS            = 16;
+	private static final int MAX_LEAF_PRIMITIVES = 8;
+	private static final int PARALLEL_THRESHOLD  = 4096;
+	
+	private static final float COST_TRAVERSAL    = 1.0f;
+	private static final float COST_INTERSECTION = 1.0f;
+	
+	private float[] m_primBounds;
+	private float[] m_primCentroids;
+	private int[]   m_primIndices;
+	
+	// results
+	private float[] m_nodeBounds;
+	private int[]   m_nodeData;
+	private int     m_maxDepth;
+	
+	// primBounds: (minX, minY, minZ, maxX, maxY, maxZ) of each primitive, see gatherBounds()
+	public BvhBuilder(float[] primBounds)
+	{
+		m_primBounds = primBounds;
+	}
+	
+	public void build()
+	{
+		int numPrimitives = m_primBounds.length / 6;
+		
+		m_primCentroids = new float[numPrimitives * 3];
+		m_primIndices   = new int[numPrimitives];
+		
+		for(int i = 0; i < numPrimitives; i++)
+		{
+			m_primCentroids[i * 3]     = 0.5f * (m_primBounds[i * 6]     + m_primBounds[i * 6 + 3]);
+			m_primCentroids[i * 3 + 1] = 0.5f * (m_primBounds[i * 6 + 1] + m_primBounds[i * 6 + 4]);
+			m_primCentroids[i * 3 + 2] = 0.5f * (m_primBounds[i * 6 + 2] + m_primBounds[i * 6 + 5]);
+			
+			m_primIndices[i] = i;
+		}
+		
+		if(numPrimitives == 0)
+		{
+			m_nodeBounds = new float[0];
+			m_nodeData   = new int[0];
+			m_maxDepth   = 0;
+			return;
+		}
+		
+		BuildNode root = ForkJoinPool.commonPool().invoke(new BuildTask(0, numPrimitives));
+		
+		m_nodeBounds = new float[root.numSubtreeNodes * 6];
+		m_nodeData   = new int[root.numSubtreeNodes * 2];
+		m_maxDepth   = root.subtreeDepth;
+		
+		flatten(root, 0);
+		
+		// only needed during the build
+		m_primBounds    = null;
+		m_primCentroids = null;
+	}
+	
+	// Bounds of the primitives in world space, or in their model space if isLocal is true, laid out as 
+	// expected by the constructor.
+	public static float[] gatherBounds(List<? extends Primitive> primitives, boolean isLocal)
+	{
+		float[] primBounds = new float[primitives.size() * 6];
+		
+		ForkJoinPool.commonPool().invoke(new GatherBoundsTask(primitives, isLocal, primBounds, 0, primitives.size()));
+		
+		return primBounds;
+	}
+	
+	public float[] getNodeBounds()
+	{
+		return m_nodeBounds;
+	}
+	
+	public int[] getNodeData()
+	{
+		return m_nodeData;
+	}
+	
+	// The i-th primitive referenced by the leaves is the orderedIndices[i]-th one given to the builder; 
+	// a leaf's primitives are contiguous in this order.
+	public int[] getOrderedIndices()
+	{
+		return m_primIndices;
+	}
+	
+	public int getMaxDepth()
+	{
+		return m_maxDepth;
+	}
+	
+	// Writes the subtree depth-first starting at nodeIndex; the first child always directly follows 
+	// its parent, so only the second child's index needs to be stored.
+	private void flatten(BuildNode node, int nodeIndex)
+	{
+		System.arraycopy(node.bounds, 0, m_nodeBounds, nodeIndex * 6, 6);
+		
+		if(node.isLeaf())
+		{
+			m_nodeData[nodeIndex * 2]     = node.beginIndex;
+			m_nodeData[nodeIndex * 2 + 1] = node.endIndex - node.beginIndex;
+		}
+		else
+		{
+			int secondChildIndex = nodeIndex + 1 + node.firstChild.numSubtreeNodes;
+			
+			m_nodeData[nodeIndex * 2]     = secondChildIndex;
+			m_nodeData[nodeIndex * 2 + 1] = Bvh.encodeSplitAxis(node.splitAxis);
+			
+			flatten(node.firstChild, nodeIndex + 1);
+			flatten(node.secondChild, secondChildIndex);
+		}
+	}
+	
+	private BuildNode buildNode(int beginIndex, int endIndex, boolean isParallel)
+	{
+		BuildNode node = new BuildNode();
+		int numPrimitives = endIndex - beginIndex;
+		
+		float[] centroidBounds = new float[6];
+		calcBounds(beginIndex, endIndex, node.bounds, centroidBounds);
+		
+		// find the cheapest bin boundary over all three axes
+		
+		int   bestAxis  = -1;
+		int   bestSplit = -1;
+		float bestCost  = Float.POSITIVE_INFINITY;
+		
+		int[]   binCounts = new int[NUM_BINS];
+		float[] binBounds = new float[NUM_BINS * 6];
+		float[] rightArea = new float[NUM_BINS];
+		float[] sweep     = new float[6];
+		
+		float nodeArea = calcSurfaceArea(node.bounds, 0);
+		
+		for(int axis = 0; axis < 3; axis++)
+		{
+			float centroidMin    = centroidBounds[axis];
+			float centroidExtent = centroidBounds[axis + 3] - centroidMin;
+			
+			if(!(centroidExtent > 0.0f))
+			{
+				continue;
+			}
+			
+			for(int b = 0; b < NUM_BINS; b++)
+			{
+				binCounts[b] = 0;
+				setEmptyBounds(binBounds, b * 6);
+			}
+			
+			float binFactor = NUM_BINS / centroidExtent;
+			
+			for(int i = beginIndex; i < endIndex; i++)
+			{
+				int primIndex = m_primIndices[i];
+				int b = calcBinIndex(m_primCentroids[primIndex * 3 + axis], centroidMin, binFactor);
+				
+				binCounts[b]++;
+				unionBounds(binBounds, b * 6, m_primBounds, primIndex * 6);
+			}
+			
+			// sweep from the right to get the area of everything right of each boundary
+			setEmptyBounds(sweep, 0);
+			for(int b = NUM_BINS - 1; b > 0; b--)
+			{
+				unionBounds(sweep, 0, binBounds, b * 6);
+				rightArea[b] = calcSurfaceArea(sweep, 0);
+			}
+			
+			// then from the left, evaluating the boundary between bin b - 1 and bin b
+			setEmptyBounds(sweep, 0);
+			int numLeft = 0;
+			for(int b = 1; b < NUM_BINS; b++)
+			{
+				unionBounds(sweep, 0, binBounds, (b - 1) * 6);
+				numLeft += binCounts[b - 1];
+				
+				int numRight = numPrimitives - numLeft;
+				if(numLeft == 0 || numRight == 0)
+				{
+					continue;
+				}
+				
+				float cost = COST_TRAVERSAL + COST_INTERSECTION * 
+				             (calcSurfaceArea(sweep, 0) * numLeft + rightArea[b] * numRight) / nodeArea;
+				
+				if(cost < bestCost)
+				{
+					bestCost  = cost;
+					bestAxis  = axis;
+					bestSplit = b;
+				}
+			}
+		}
+		
+		float leafCost = COST_INTERSECTION * numPrimitives;
+		
+		if(numPrimitives == 1 || (numPrimitives <= MAX_LEAF_PRIMITIVES && leafCost <= bestCost))
+		{
+			node.beginIndex = beginIndex;
+			node.endIndex   = endIndex;
+			return node;
+		}
+		
+		int midIndex;
+		
+		if(bestAxis != -1)
+		{
+			midIndex = partition(beginIndex, endIndex, bestAxis, bestSplit, centroidBounds);
+			node.splitAxis = bestAxis;
+		}
+		else
+		{
+			// all centroids coincide, there is nothing to bin; just halve the primitives
+			midIndex = beginIndex + numPrimitives / 2;
+			node.splitAxis = 0;
+		}
+		
+		if(isParallel && numPrimitives > PARALLEL_THRESHOLD)
+		{
+			BuildTask secondTask = new BuildTask(midIndex, endIndex);
+			secondTask.fork();
+			
+			node.firstChild  = buildNode(beginIndex, midIndex, true);
+			node.secondChild = secondTask.join();
+		}
+		else
+		{
+			node.firstChild  = buildNode(beginIndex, midIndex, false);
+			node.secondChild = buildNode(midIndex, endIndex, false);
+		}
+		
+		node.numSubtreeNodes = 1 + node.firstChild.numSubtreeNodes + node.secondChild.numSubtreeNodes;
+		node.subtreeDepth    = 1 + Math.max(node.firstChild.subtreeDepth, node.secondChild.subtreeDepth);
+		
+		return node;
+	}
+	
+	// Moves primitives whose centroid falls into a bin left of splitBin to the front of the range, 
+	// returns the index of the first primitive on the right side.
+	private int partition(int beginIndex, int endIndex, int axis, int splitBin, float[] centroidBounds)
+	{
+		float centroidMin = centroidBounds[axis];
+		float binFactor   = NUM_BINS / (centroidBounds[axis + 3] - centroidMin);
+		
+		int left  = beginIndex;
+		int right = endIndex - 1;
+		
+		while(left <= right)
+		{
+			int primIndex = m_primIndices[left];
+			
+			if(calcBinIndex(m_primCentroids[primIndex * 3 + axis], centroidMin, binFactor) < splitBin)
+			{
+				left++;
+			}
+			else
+			{
+				m_primIndices[left]  = m_primIndices[right];
+				m_primIndices[right] = primIndex;
+				right--;
+			}
+		}
+		
+		return left;
+	}
+	
+	private void calcBounds(int beginIndex, int endIndex, float[] bounds, float[] centroidBounds)
+	{
+		setEmptyBounds(bounds, 0);
+		setEmptyBounds(centroidBounds, 0);
+		
+		for(int i = beginIndex; i < endIndex; i++)
+		{
+			int primIndex = m_primIndices[i];
+			
+			unionBounds(bounds, 0, m_primBounds, primIndex * 6);
+			
+			for(int axis = 0; axis < 3; axis++)
+			{
+				float centroid = m_primCentroids[primIndex * 3 + axis];
+				centroidBounds[axis]     = Math.min(centroidBounds[axis], centroid);
+				centroidBounds[axis + 3] = Math.max(centroidBounds[axis + 3], centroid);
+			}
+		}
+	}
+	
+	private static int calcBinIndex(float centroid, float centroidMin, float binFactor)
+	{
+		int binIndex = (int)((centroid - centroidMin) * binFactor);
+		
+		return binIndex < NUM_BINS ? binIndex : NUM_BINS - 1;
+	}
+	
+	static void setEmptyBounds(float[] bounds, int offset)
+	{
+		bounds[offset]     = Float.POSITIVE_INFINITY;
+		bounds[offset + 1] = Float.POSITIVE_INFINITY;
+		bounds[offset + 2] = Float.POSITIVE_INFINITY;
+		bounds[offset + 3] = Float.NEGATIVE_INFINITY;
+		bounds[offset + 4] = Float.NEGATIVE_INFINITY;
+		bounds[offset + 5] = Float.NEGATIVE_INFINITY;
+	}
+	
+	static void unionBounds(float[] bounds, int offset, float[] other, int otherOffset)
+	{
+		for(int i = 0; i < 3; i++)
+		{
+			bounds[offset + i]     = Math.min(bounds[offset + i],     other[otherOffset + i]);
+			bounds[offset + i + 3] = Math.max(bounds[offset + i + 3], other[otherOffset + i + 3]);
+		}
+	}
+	
+	static float calcSurfaceArea(float[] bounds, int offset)
+	{
+		float dx = bounds[offset + 3] - bounds[offset];
+		float dy = bounds[offset + 4] - bounds[offset + 1];
+		float dz = bounds[offset + 5] - bounds[offset + 2];
+		
+		return 2.0f * (dx * dy + dy * dz + dz * dx);
+	}
+	
+	private static class BuildNode
+	{
+		public float[]   bounds = new float[6];
+		public BuildNode firstChild;
+		public BuildNode secondChild;
+		public int       splitAxis;
+		public int       beginIndex;
+		public int       endIndex;
+		public int       numSubtreeNodes = 1;
+		public int       subtreeDepth    = 1;
+		
+		public boolean isLeaf()
+		{
+			return firstChild == null;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private class BuildTask extends RecursiveTask<BuildNode>
+	{
+		private int m_beginIndex;
+		private int m_endIndex;
+		
+		public BuildTask(int beginIndex, int endIndex)
+		{
+			m_beginIndex = beginIndex;
+			m_endIndex   = endIndex;
+		}
+		
+		@Override
+		protected BuildNode compute()
+		{
+			return buildNode(m_beginIndex, m_endIndex, true);
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class GatherBoundsTask extends RecursiveAction
+	{
+		private List<? extends Primitive> m_primitives;
+		private boolean                   m_isLocal;
+		private float[]                   m_primBounds;
+		private int                       m_beginIndex;
+		private int                       m_endIndex;
+		
+		public GatherBoundsTask(List<? extends Primitive> primitives, boolean isLocal, float[] primBounds, int beginIndex, int endIndex)
+		{
+			m_primitives = primitives;
+			m_isLocal    = isLocal;
+			m_primBounds = primBounds;
+			m_beginIndex = beginIndex;
+			m_endIndex   = endIndex;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(m_endIndex - m_beginIndex > PARALLEL_THRESHOLD)
+			{
+				int midIndex = (m_beginIndex + m_endIndex) / 2;
+				invokeAll(new GatherBoundsTask(m_primitives, m_isLocal, m_primBounds, m_beginIndex, midIndex), 
+				          new GatherBoundsTask(m_primitives, m_isLocal, m_primBounds, midIndex, m_endIndex));
+				return;
+			}
+			
+			for(int i = m_beginIndex; i < m_endIndex; i++)
+			{
+				Primitive primitive = m_primitives.get(i);
+				AABB      aabb      = m_isLocal ? primitive.calcLocalAABB() : primitive.calcTransformedAABB();
+				
+				m_primBounds[i * 6]     = aabb.getMinVertex().x;
+				m_primBounds[i * 6 + 1] = aabb.getMinVertex().y;
+				m_primBounds[i * 6 + 2] = aabb.getMinVertex().z;
+				m_primBounds[i * 6 + 3] = aabb.getMaxVertex().x;
+				m_primBounds[i * 6 + 4] = aabb.getMaxVertex().y;
+				m_primBounds[i * 6 + 5] = aabb.getMaxVertex().z;
+			}
+		}
+	}
+}
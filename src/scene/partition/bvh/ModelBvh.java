@@ -0,0 +1,212 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.bvh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.primitive.AtomicPrimitive;
+import model.primitive.Primitive;
+import scene.partition.PackedTriangles;
+
+// The bottom level of TwoLevelBvh: a BVH over the atomic primitives of a single model, built and 
+// traversed in the model's own space. It has the same layout as Bvh and is shared by all instances 
+// of the model. Rays are passed in as plain floats already transformed into model space; since the 
+// direction is not normalized, hit distances are the same as in world space. Triangles are tested 
+// through their model space PackedTriangles data, like in Bvh.
+
+class ModelBvh
+{
+	private float[]           m_nodeBounds;
+	private int[]             m_nodeData;
+	private AtomicPrimitive[] m_orderedPrimitives;
+	private float[]           m_triangleData;
+	private int               m_maxDepth;
+	
+	public ModelBvh(Primitive primitive)
+	{
+		List<AtomicPrimitive> atomicPrimitives = new ArrayList<>();
+		primitive.getAtomicPrimitives(atomicPrimitives);
+		
+		BvhBuilder builder = new BvhBuilder(BvhBuilder.gatherBounds(atomicPrimitives, true));
+		builder.build();
+		
+		m_nodeBounds        = builder.getNodeBounds();
+		m_nodeData          = builder.getNodeData();
+		m_maxDepth          = builder.getMaxDepth();
+		m_orderedPrimitives = new AtomicPrimitive[atomicPrimitives.size()];
+		
+		int[] orderedIndices = builder.getOrderedIndices();
+		for(int i = 0; i < orderedIndices.length; i++)
+		{
+			m_orderedPrimitives[i] = atomicPrimitives.get(orderedIndices[i]);
+		}
+		
+		m_triangleData = PackedTriangles.packPrimitives(m_orderedPrimitives, true);
+	}
+	
+	// Returns the distance of the closest hit nearer than maxDist, or Float.POSITIVE_INFINITY if there 
+	// is none. The hit primitive is stored in state.hitPrimitive.
+	public float findClosestHitDist(float rayOx, float rayOy, float rayOz, float rayDx, float rayDy, float rayDz, 
+	                                float maxDist, TwoLevelBvh.TraversalState state)
+	{
+		float reciDirX = 1.0f / rayDx;
+		float reciDirY = 1.0f / rayDy;
+		float reciDirZ = 1.0f / rayDz;
+		
+		float closestHitDist = Float.POSITIVE_INFINITY;
+		float cullDist       = maxDist;
+		
+		int[] nodeStack = state.modelNodeStack;
+		int   stackSize = 0;
+		int   nodeIndex = 0;
+		
+		while(true)
+		{
+			if(Bvh.isIntersectingBox(m_nodeBounds, nodeIndex * 6, rayOx, rayOy, rayOz, reciDirX, reciDirY, reciDirZ, cullDist))
+			{
+				int numPrimitives = m_nodeData[nodeIndex * 2 + 1];
+				
+				if(numPrimitives > 0)
+				{
+					int beginIndex = m_nodeData[nodeIndex * 2];
+					
+					for(int i = beginIndex; i < beginIndex + numPrimitives; i++)
+					{
+						float hitDist = calcHitDist(i, rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, cullDist);
+						
+						if(hitDist < cullDist)
+						{
+							closestHitDist     = hitDist;
+							cullDist           = hitDist;
+							state.hitPrimitive = m_orderedPrimitives[i];
+						}
+					}
+				}
+				else
+				{
+					int   secondChildIndex = m_nodeData[nodeIndex * 2];
+					int   splitAxis        = Bvh.decodeSplitAxis(numPrimitives);
+					float axisRayDir       = splitAxis == 0 ? rayDx : (splitAxis == 1 ? rayDy : rayDz);
+					
+					if(axisRayDir < 0.0f)
+					{
+						nodeStack[stackSize++] = nodeIndex + 1;
+						nodeIndex = secondChildIndex;
+					}
+					else
+					{
+						nodeStack[stackSize++] = secondChildIndex;
+						nodeIndex = nodeIndex + 1;
+					}
+					
+					continue;
+				}
+			}
+			
+			if(stackSize == 0)
+			{
+				return closestHitDist;
+			}
+			
+			nodeIndex = nodeStack[--stackSize];
+		}
+	}
+	
+	public boolean isOccluded(float rayOx, float rayOy, float rayOz, float rayDx, float rayDy, float rayDz, 
+	                          float maxDist, TwoLevelBvh.TraversalState state)
+	{
+		float reciDirX = 1.0f / rayDx;
+		float reciDirY = 1.0f / rayDy;
+		float reciDirZ = 1.0f / rayDz;
+		
+		int[] nodeStack = state.modelNodeStack;
+		int   stackSize = 0;
+		int   nodeIndex = 0;
+		
+		while(true)
+		{
+			if(Bvh.isIntersectingBox(m_nodeBounds, nodeIndex * 6, rayOx, rayOy, rayOz, reciDirX, reciDirY, reciDirZ, maxDist))
+			{
+				int numPrimitives = m_nodeData[nodeIndex * 2 + 1];
+				
+				if(numPrimitives > 0)
+				{
+					int beginIndex = m_nodeData[nodeIndex * 2];
+					
+					for(int i = beginIndex; i < beginIndex + numPrimitives; i++)
+					{
+						if(calcHitDist(i, rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist) < maxDist)
+						{
+							return true;
+						}
+					}
+				}
+				else
+				{
+					nodeStack[stackSize++] = m_nodeData[nodeIndex * 2];
+					nodeIndex = nodeIndex + 1;
+					
+					continue;
+				}
+			}
+			
+			if(stackSize == 0)
+			{
+				return false;
+			}
+			
+			nodeIndex = nodeStack[--stackSize];
+		}
+	}
+	
+	private float calcHitDist(int orderedIndex, float rayOx, float rayOy, float rayOz, 
+	                          float rayDx, float rayDy, float rayDz, float maxDist)
+	{
+		int offset = orderedIndex * PackedTriangles.NUM_FLOATS;
+		
+		if(PackedTriangles.isEmpty(m_triangleData, offset, 1))
+		{
+			return m_orderedPrimitives[orderedIndex].calcLocalIntersectDist(rayOx, rayOy, rayOz, rayDx, rayDy, rayDz, maxDist);
+		}
+		
+		return PackedTriangles.calcHitDist(m_triangleData, offset, 1, rayOx, rayOy, rayOz, rayDx, rayDy, rayDz);
+	}
+	
+	// bounds of the whole model in model space, (minX, minY, minZ, maxX, maxY, maxZ) from offset 0
+	public float[] getRootBounds()
+	{
+		return m_nodeBounds;
+	}
+	
+	public int getNumPrimitives()
+	{
+		return m_orderedPrimitives.length;
+	}
+	
+	public int getMaxDepth()
+	{
+		return m_maxDepth;
+	}
+}
@@ -0,0 +1,620 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.bvh;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import core.Ray;
+import core.RayPacket;
+import math.Transform;
+import math.Vector3f;
+import model.Model;
+import model.primitive.AtomicPrimitive;
+import model.primitive.Intersection;
+import model.primitive.Primitive;
+import scene.partition.PartitionStrategy;
+import util.Logger;
+import util.Time;
+
+// A two-level BVH. Every distinct primitive (usually a whole mesh) gets its own bottom level BVH 
+// built in model space (see ModelBvh), and a top level BVH is built over the world space bounds of 
+// the models. A ray reaching a model in the top level is transformed into model space once and then 
+// traverses the bottom level untransformed, instead of every triangle test transforming the ray 
+// again. Models sharing a primitive (see ModelInstance) share the bottom level, so a mesh can be 
+// placed many times without copying its geometry.
+//
+// The top level uses the same flat layout as Bvh; its leaves reference models instead of primitives.
+//
+// After the initial processData(), updateData() handles moved, added and removed models: unchanged 
+// geometry is never rebuilt, and pure motion only refits the boxes above the models that moved.
+//
+// updateData() may run while other threads trace rays. The top level is never modified in place; 
+// every build or refit fills new arrays and publishes them together as one TopLevel through a volatile 
+// field, and each traversal reads that field once, so rays in flight finish on the version they 
+// started with.
+
+public class TwoLevelBvh implements PartitionStrategy
+{
+	private static final Logger logger = new Logger("Two-level BVH");
+	
+	// refitted trees are rebuilt once their total node area exceeds the freshly built one by this factor
+	private static final float MAX_REFIT_AREA_RATIO = 2.0f;
+	
+	private List<Model>              m_models;
+	private Map<Primitive, ModelBvh> m_modelBvhs;
+	private boolean                  m_isModelSetChanged;
+	
+	private volatile TopLevel m_topLevel;
+	
+	private float m_builtNodeArea;
+	
+	public TwoLevelBvh()
+	{
+		m_models            = new ArrayList<>();
+		m_modelBvhs         = new IdentityHashMap<>();
+		m_isModelSetChanged = true;
+		
+		m_topLevel          = new TopLevel(new float[0], new int[0], new Model[0], new ModelBvh[0], 
+		                                   new float[0], new float[0], 0.0f, null);
+	}
+	
+	@Override
+	public void addModel(Model model)
+	{
+		m_models.add(model);
+		m_isModelSetChanged = true;
+	}
+	
+	@Override
+	public void removeModel(Model model)
+	{
+		if(m_models.remove(model))
+		{
+			m_isModelSetChanged = true;
+		}
+	}
+	
+	@Override
+	public void processData()
+	{
+		m_modelBvhs.clear();
+		
+		long startMs = Time.getMilliTime();
+		
+		int numBuiltModelBvhs = updateModelBvhs();
+		buildTopLevel();
+		
+		logger.printMsg(m_topLevel.orderedModels.length + " models, " + m_modelBvhs.size() + " distinct primitives (" + 
+		                numBuiltModelBvhs + " bottom levels built), top level with " + m_topLevel.nodeData.length / 2 + 
+		                " nodes, built in " + (Time.getMilliTime() - startMs) + " ms");
+	}
+	
+	// Bottom levels are only built for primitives that are new since the last update. If models were 
+	// only moved, the top level is refitted to the new transforms; it is rebuilt if models were added 
+	// or removed, or if refitting has loosened its boxes too much. Safe to call while rendering, but not 
+	// from several threads at once.
+	@Override
+	public void updateData()
+	{
+		long startMs = Time.getMilliTime();
+		
+		if(m_isModelSetChanged || m_topLevel.traversalState == null)
+		{
+			int numBuiltModelBvhs = updateModelBvhs();
+			buildTopLevel();
+			
+			logger.printMsg("top level rebuilt, " + numBuiltModelBvhs + " bottom levels built, in " + 
+			                (Time.getMilliTime() - startMs) + " ms");
+		}
+		else if(refitTopLevel() > MAX_REFIT_AREA_RATIO * m_builtNodeArea)
+		{
+			buildTopLevel();
+			
+			logger.printMsg("top level degraded by refitting, rebuilt in " + (Time.getMilliTime() - startMs) + " ms");
+		}
+	}
+	
+	// Builds the bottom levels of primitives that don't have one yet and drops those that are no longer 
+	// referenced by any model. Returns the number of bottom levels built.
+	private int updateModelBvhs()
+	{
+		Map<Primitive, ModelBvh> modelBvhs = new IdentityHashMap<>();
+		
+		int numBuiltModelBvhs = 0;
+		
+		for(Model model : m_models)
+		{
+			Primitive primitive = model.getPrimitive();
+			
+			if(modelBvhs.containsKey(primitive))
+			{
+				continue;
+			}
+			
+			ModelBvh modelBvh = m_modelBvhs.get(primitive);
+			
+			if(modelBvh == null)
+			{
+				modelBvh = new ModelBvh(primitive);
+				numBuiltModelBvhs++;
+			}
+			
+			modelBvhs.put(primitive, modelBvh);
+		}
+		
+		m_modelBvhs = modelBvhs;
+		
+		return numBuiltModelBvhs;
+	}
+	
+	private void buildTopLevel()
+	{
+		List<Model> models = new ArrayList<>();
+		
+		int maxModelDepth = 0;
+		
+		for(Model model : m_models)
+		{
+			ModelBvh modelBvh = m_modelBvhs.get(model.getPrimitive());
+			
+			if(modelBvh.getNumPrimitives() != 0)
+			{
+				models.add(model);
+				maxModelDepth = Math.max(maxModelDepth, modelBvh.getMaxDepth());
+			}
+		}
+		
+		float[] modelBounds = new float[models.size() * 6];
+		
+		for(int i = 0; i < models.size(); i++)
+		{
+			Model model = models.get(i);
+			calcWorldBounds(m_modelBvhs.get(model.getPrimitive()).getRootBounds(), model.getTransform().getModelMatrix().m, 
+			                modelBounds, i * 6);
+		}
+		
+		BvhBuilder builder = new BvhBuilder(modelBounds);
+		builder.build();
+		
+		float[]    nodeBounds       = builder.getNodeBounds();
+		int[]      nodeData         = builder.getNodeData();
+		Model[]    orderedModels    = new Model[models.size()];
+		ModelBvh[] orderedModelBvhs = new ModelBvh[models.size()];
+		float[]    modelMatrices    = new float[models.size() * 12];
+		float[]    inverseMatrices  = new float[models.size() * 12];
+		
+		int[] orderedIndices = builder.getOrderedIndices();
+		for(int i = 0; i < orderedIndices.length; i++)
+		{
+			orderedModels[i]    = models.get(orderedIndices[i]);
+			orderedModelBvhs[i] = m_modelBvhs.get(orderedModels[i].getPrimitive());
+			copyUpperRows(orderedModels[i].getTransform().getModelMatrix().m,        modelMatrices,   i * 12);
+			copyUpperRows(orderedModels[i].getTransform().getInverseModelMatrix().m, inverseMatrices, i * 12);
+		}
+		
+		final int topStackCapacity   = builder.getMaxDepth() + 1;
+		final int modelStackCapacity = maxModelDepth + 1;
+		ThreadLocal<TraversalState> traversalState = new ThreadLocal<TraversalState>()
+		{
+			@Override
+			public TraversalState initialValue()
+			{
+				return new TraversalState(topStackCapacity, modelStackCapacity);
+			}
+		};
+		
+		float nodeArea = calcTotalNodeArea(nodeBounds, nodeData);
+		
+		m_topLevel = new TopLevel(nodeBounds, nodeData, orderedModels, orderedModelBvhs, 
+		                          modelMatrices, inverseMatrices, nodeArea, traversalState);
+		
+		m_builtNodeArea     = nodeArea;
+		m_isModelSetChanged = false;
+	}
+	
+	// Recomputes the boxes of the nodes above models whose transforms changed since the top level was 
+	// last built or refitted, keeping the tree's topology. Children are always stored after their parent, 
+	// so a single backward pass suffices. Returns the total surface area of the refitted nodes.
+	private float refitTopLevel()
+	{
+		TopLevel topLevel  = m_topLevel;
+		int      numModels = topLevel.orderedModels.length;
+		int      numNodes  = topLevel.nodeData.length / 2;
+		
+		boolean[] isModelChanged = new boolean[numModels];
+		int       numChanged     = 0;
+		
+		for(int i = 0; i < numModels; i++)
+		{
+			float[][] m = topLevel.orderedModels[i].getTransform().getModelMatrix().m;
+			
+			isModelChanged[i] = !isUpperRowsEqual(m, topLevel.modelMatrices, i * 12);
+			numChanged += isModelChanged[i] ? 1 : 0;
+		}
+		
+		if(numChanged == 0)
+		{
+			return topLevel.nodeArea;
+		}
+		
+		float[]   nodeBounds      = topLevel.nodeBounds.clone();
+		float[]   modelMatrices   = topLevel.modelMatrices.clone();
+		float[]   inverseMatrices = topLevel.inverseMatrices.clone();
+		int[]     nodeData        = topLevel.nodeData;
+		boolean[] isNodeChanged   = new boolean[numNodes];
+		float[]   modelBounds     = new float[6];
+		
+		for(int nodeIndex = numNodes - 1; nodeIndex >= 0; nodeIndex--)
+		{
+			int offset = nodeIndex * 6;
+			int count  = nodeData[nodeIndex * 2 + 1];
+			
+			if(count > 0)
+			{
+				int beginIndex = nodeData[nodeIndex * 2];
+				
+				for(int i = beginIndex; i < beginIndex + count; i++)
+				{
+					if(isModelChanged[i])
+					{
+						Transform transform = topLevel.orderedModels[i].getTransform();
+						copyUpperRows(transform.getModelMatrix().m,        modelMatrices,   i * 12);
+						copyUpperRows(transform.getInverseModelMatrix().m, inverseMatrices, i * 12);
+						isNodeChanged[nodeIndex] = true;
+					}
+				}
+				
+				if(!isNodeChanged[nodeIndex])
+				{
+					continue;
+				}
+				
+				BvhBuilder.setEmptyBounds(nodeBounds, offset);
+				
+				for(int i = beginIndex; i < beginIndex + count; i++)
+				{
+					calcWorldBounds(topLevel.orderedModelBvhs[i].getRootBounds(), 
+					                topLevel.orderedModels[i].getTransform().getModelMatrix().m, modelBounds, 0);
+					BvhBuilder.unionBounds(nodeBounds, offset, modelBounds, 0);
+				}
+			}
+			else
+			{
+				int secondChildIndex = nodeData[nodeIndex * 2];
+				
+				if(!isNodeChanged[nodeIndex + 1] && !isNodeChanged[secondChildIndex])
+				{
+					continue;
+				}
+				
+				BvhBuilder.setEmptyBounds(nodeBounds, offset);
+				BvhBuilder.unionBounds(nodeBounds, offset, nodeBounds, (nodeIndex + 1) * 6);
+				BvhBuilder.unionBounds(nodeBounds, offset, nodeBounds, secondChildIndex * 6);
+				isNodeChanged[nodeIndex] = true;
+			}
+		}
+		
+		float nodeArea = calcTotalNodeArea(nodeBounds, nodeData);
+		
+		m_topLevel = new TopLevel(nodeBounds, nodeData, topLevel.orderedModels, topLevel.orderedModelBvhs, 
+		                          modelMatrices, inverseMatrices, nodeArea, topLevel.traversalState);
+		
+		return nodeArea;
+	}
+	
+	// copies the upper 3 rows (12 floats) of a 4x4 matrix to result[offset]
+	private static void copyUpperRows(float[][] m, float[] result, int offset)
+	{
+		for(int row = 0; row < 3; row++)
+		{
+			for(int col = 0; col < 4; col++)
+			{
+				result[offset + row * 4 + col] = m[row][col];
+			}
+		}
+	}
+	
+	private static boolean isUpperRowsEqual(float[][] m, float[] values, int offset)
+	{
+		for(int row = 0; row < 3; row++)
+		{
+			for(int col = 0; col < 4; col++)
+			{
+				if(values[offset + row * 4 + col] != m[row][col])
+				{
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	// sum of all node areas, proportional to the expected traversal cost of a random ray
+	private static float calcTotalNodeArea(float[] nodeBounds, int[] nodeData)
+	{
+		float totalArea = 0.0f;
+		
+		for(int nodeIndex = 0; nodeIndex < nodeData.length / 2; nodeIndex++)
+		{
+			totalArea += BvhBuilder.calcSurfaceArea(nodeBounds, nodeIndex * 6);
+		}
+		
+		return totalArea;
+	}
+	
+	@Override
+	public boolean findClosestIntersection(Ray ray, Intersection intersection)
+	{
+		TopLevel topLevel = m_topLevel;
+		
+		if(topLevel.nodeData.length == 0)
+		{
+			return false;
+		}
+		
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		AtomicPrimitive closestPrimitive = null;
+		Model           closestModel     = null;
+		float           closestHitDist   = Float.POSITIVE_INFINITY;
+		
+		TraversalState state     = topLevel.traversalState.get();
+		int[]          nodeStack = state.topNodeStack;
+		int            stackSize = 0;
+		int            nodeIndex = 0;
+		
+		while(true)
+		{
+			if(Bvh.isIntersectingBox(topLevel.nodeBounds, nodeIndex * 6, rayOrigin.x, rayOrigin.y, rayOrigin.z, 
+			                         reciDirX, reciDirY, reciDirZ, closestHitDist))
+			{
+				int numModels = topLevel.nodeData[nodeIndex * 2 + 1];
+				
+				if(numModels > 0)
+				{
+					int beginIndex = topLevel.nodeData[nodeIndex * 2];
+					
+					for(int i = beginIndex; i < beginIndex + numModels; i++)
+					{
+						float[] m = topLevel.inverseMatrices;
+						int     o = i * 12;
+						
+						float hitDist = topLevel.orderedModelBvhs[i].findClosestHitDist(
+							m[o]     * rayOrigin.x + m[o + 1] * rayOrigin.y + m[o + 2]  * rayOrigin.z + m[o + 3], 
+							m[o + 4] * rayOrigin.x + m[o + 5] * rayOrigin.y + m[o + 6]  * rayOrigin.z + m[o + 7], 
+							m[o + 8] * rayOrigin.x + m[o + 9] * rayOrigin.y + m[o + 10] * rayOrigin.z + m[o + 11], 
+							m[o]     * rayDir.x    + m[o + 1] * rayDir.y    + m[o + 2]  * rayDir.z, 
+							m[o + 4] * rayDir.x    + m[o + 5] * rayDir.y    + m[o + 6]  * rayDir.z, 
+							m[o + 8] * rayDir.x    + m[o + 9] * rayDir.y    + m[o + 10] * rayDir.z, 
+							closestHitDist, state);
+						
+						if(hitDist < closestHitDist)
+						{
+							closestHitDist   = hitDist;
+							closestPrimitive = state.hitPrimitive;
+							closestModel     = topLevel.orderedModels[i];
+						}
+					}
+				}
+				else
+				{
+					int secondChildIndex = topLevel.nodeData[nodeIndex * 2];
+					int splitAxis        = Bvh.decodeSplitAxis(numModels);
+					
+					float axisRayDir = splitAxis == 0 ? rayDir.x : (splitAxis == 1 ? rayDir.y : rayDir.z);
+					
+					if(axisRayDir < 0.0f)
+					{
+						nodeStack[stackSize++] = nodeIndex + 1;
+						nodeIndex = secondChildIndex;
+					}
+					else
+					{
+						nodeStack[stackSize++] = secondChildIndex;
+						nodeIndex = nodeIndex + 1;
+					}
+					
+					continue;
+				}
+			}
+			
+			if(stackSize == 0)
+			{
+				break;
+			}
+			
+			nodeIndex = nodeStack[--stackSize];
+		}
+		
+		intersection.clear();
+		
+		if(closestPrimitive != null)
+		{
+			closestPrimitive.calcIntersectionDetail(ray, closestHitDist, closestModel, intersection);
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	// rays are traced one by one, packets gain nothing from this structure's traversal order
+	@Override
+	public void findClosestIntersections(RayPacket packet)
+	{
+		packet.findClosestIntersectionsOneByOne(this);
+	}
+	
+	@Override
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		TopLevel topLevel = m_topLevel;
+		
+		if(topLevel.nodeData.length == 0)
+		{
+			return false;
+		}
+		
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		TraversalState state     = topLevel.traversalState.get();
+		int[]          nodeStack = state.topNodeStack;
+		int            stackSize = 0;
+		int            nodeIndex = 0;
+		
+		while(true)
+		{
+			if(Bvh.isIntersectingBox(topLevel.nodeBounds, nodeIndex * 6, rayOrigin.x, rayOrigin.y, rayOrigin.z, 
+			                         reciDirX, reciDirY, reciDirZ, maxDist))
+			{
+				int numModels = topLevel.nodeData[nodeIndex * 2 + 1];
+				
+				if(numModels > 0)
+				{
+					int beginIndex = topLevel.nodeData[nodeIndex * 2];
+					
+					for(int i = beginIndex; i < beginIndex + numModels; i++)
+					{
+						float[] m = topLevel.inverseMatrices;
+						int     o = i * 12;
+						
+						boolean isOccluded = topLevel.orderedModelBvhs[i].isOccluded(
+							m[o]     * rayOrigin.x + m[o + 1] * rayOrigin.y + m[o + 2]  * rayOrigin.z + m[o + 3], 
+							m[o + 4] * rayOrigin.x + m[o + 5] * rayOrigin.y + m[o + 6]  * rayOrigin.z + m[o + 7], 
+							m[o + 8] * rayOrigin.x + m[o + 9] * rayOrigin.y + m[o + 10] * rayOrigin.z + m[o + 11], 
+							m[o]     * rayDir.x    + m[o + 1] * rayDir.y    + m[o + 2]  * rayDir.z, 
+							m[o + 4] * rayDir.x    + m[o + 5] * rayDir.y    + m[o + 6]  * rayDir.z, 
+							m[o + 8] * rayDir.x    + m[o + 9] * rayDir.y    + m[o + 10] * rayDir.z, 
+							maxDist, state);
+						
+						if(isOccluded)
+						{
+							return true;
+						}
+					}
+				}
+				else
+				{
+					nodeStack[stackSize++] = topLevel.nodeData[nodeIndex * 2];
+					nodeIndex = nodeIndex + 1;
+					
+					continue;
+				}
+			}
+			
+			if(stackSize == 0)
+			{
+				return false;
+			}
+			
+			nodeIndex = nodeStack[--stackSize];
+		}
+	}
+	
+	// Transforms the 8 corners of a model space box and writes their world space bounds to 
+	// result[offset].
+	private static void calcWorldBounds(float[] localBounds, float[][] modelMatrix, float[] result, int offset)
+	{
+		for(int axis = 0; axis < 3; axis++)
+		{
+			result[offset + axis]     = Float.POSITIVE_INFINITY;
+			result[offset + axis + 3] = Float.NEGATIVE_INFINITY;
+		}
+		
+		for(int corner = 0; corner < 8; corner++)
+		{
+			float x = localBounds[(corner & 1) != 0 ? 3 : 0];
+			float y = localBounds[(corner & 2) != 0 ? 4 : 1];
+			float z = localBounds[(corner & 4) != 0 ? 5 : 2];
+			
+			for(int axis = 0; axis < 3; axis++)
+			{
+				float[] row   = modelMatrix[axis];
+				float   value = row[0] * x + row[1] * y + row[2] * z + row[3];
+				
+				result[offset + axis]     = Math.min(result[offset + axis],     value);
+				result[offset + axis + 3] = Math.max(result[offset + axis + 3], value);
+			}
+		}
+	}
+	
+	// One version of the top level, never modified after construction. refitTopLevel() shares the 
+	// arrays that don't change between versions.
+	private static class TopLevel
+	{
+		public final float[]    nodeBounds;
+		public final int[]      nodeData;
+		public final Model[]    orderedModels;
+		public final ModelBvh[] orderedModelBvhs;
+		
+		// model to world (for detecting changes) and world to model space matrix of each ordered model, 
+		// upper 3 rows (12 floats) only
+		public final float[] modelMatrices;
+		public final float[] inverseMatrices;
+		
+		public final float                       nodeArea;
+		public final ThreadLocal<TraversalState> traversalState;
+		
+		public TopLevel(float[] nodeBounds, int[] nodeData, Model[] orderedModels, ModelBvh[] orderedModelBvhs, 
+		                float[] modelMatrices, float[] inverseMatrices, float nodeArea, 
+		                ThreadLocal<TraversalState> traversalState)
+		{
+			this.nodeBounds       = nodeBounds;
+			this.nodeData         = nodeData;
+			this.orderedModels    = orderedModels;
+			this.orderedModelBvhs = orderedModelBvhs;
+			this.modelMatrices    = modelMatrices;
+			this.inverseMatrices  = inverseMatrices;
+			this.nodeArea         = nodeArea;
+			this.traversalState   = traversalState;
+		}
+	}
+	
+	static class TraversalState
+	{
+		public int[]           topNodeStack;
+		public int[]           modelNodeStack;
+		public AtomicPrimitive hitPrimitive;
+		
+		public TraversalState(int topStackCapacity, int modelStackCapacity)
+		{
+			topNodeStack   = new int[topStackCapacity];
+			modelNodeStack = new int[modelStackCapacity];
+		}
+	}
+}
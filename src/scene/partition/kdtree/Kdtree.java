@@ -20,40 +20,421 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
+
 package scene.partition.kdtree;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 import core.Ray;
-import model.boundingVolume.AABB;
+import core.RayPacket;
+import math.Vector3f;
+import model.Model;
 import model.primitive.AtomicPrimitive;
 import model.primitive.Intersection;
-import model.primitive.Primitive;
 import scene.partition.PartitionStrategy;
 import util.Debug;
+import util.Logger;
+import util.Time;
+
+// The built tree is stored as a flat array of 8-byte nodes (two ints each, depth-first, the negative 
+// child always directly follows its parent):
+//
+// interior node: [0] split position (raw float bits)
+//                [1] (index of positive child << 2) | split axis
+// leaf node:     [0] offset into m_primitiveIndices
+//                [1] (number of primitives << 2) | LEAF_FLAG
+//
+// Both arrays are plain int arrays no matter where they come from, either the builder's own arrays or 
+// a copy of a cache file's contents when the same tree has been built before (see KdtreeCache); the 
+// cache is off unless a directory is set.
+//
+// Traversal is iterative with a fixed size per-thread stack. Leaves are tested through KdtreeLeaves 
+// (triangles packed into small blocks) and only compute hit distances, shrinking the search range as 
+// closer hits are found; hit point and normal are computed once for the closest primitive at the end, 
+// so no memory is allocated while traversing.
+//
+// Packets of rays whose direction signs agree are traversed as a unit by KdtreePacketTraversal, one 
+// SIMD lane per ray; it is only loaded once a packet is traced, so the Vector API module is needed for 
+// packets alone.
 
 public class Kdtree implements PartitionStrategy
 {
+	static final int LEAF_FLAG = 3;
+	
+	private static final Logger logger = new Logger("k-d Tree");
+	
 	private List<AtomicPrimitive> m_atomicPrimitives;
+	private File                  m_cacheDirectory;
+	private long                  m_cacheSizeLimit;
 	
-	private KdtreeNode m_rootKdtreeNode;
+	private int[]             m_nodes;
+	private int[]             m_primitiveIndices;
+	private AtomicPrimitive[] m_primitives;
+	private float[]           m_rootBounds;
+	private KdtreeLeaves      m_leaves;
+	
+	private ThreadLocal<TraversalStack>        m_traversalStack;
+	private ThreadLocal<KdtreePacketTraversal> m_packetTraversal;
+	private int                                m_stackCapacity;
 	
 	public Kdtree()
 	{
 		m_atomicPrimitives = new ArrayList<>();
+		m_cacheDirectory   = null;
+		m_cacheSizeLimit   = KdtreeCache.DEFAULT_SIZE_LIMIT;
+	}
+	
+	// Built trees are stored in and loaded from this directory; null (the default) disables caching.
+	public void setCacheDirectory(File directory)
+	{
+		m_cacheDirectory = directory;
+	}
+	
+	// Least recently used trees are deleted from the cache directory once it grows beyond this many bytes.
+	public void setCacheSizeLimit(long numBytes)
+	{
+		m_cacheSizeLimit = numBytes;
 	}
 	
 	@Override
 	public boolean findClosestIntersection(Ray ray, Intersection intersection)
 	{
-		return m_rootKdtreeNode.findClosestIntersection(ray, intersection);
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		// clip the ray against the root bounds
+		
+		float tMin = 0.0f;
+		float tMax = Float.POSITIVE_INFINITY;
+		float t0, t1;
+		
+		t0 = (m_rootBounds[0] - rayOrigin.x) * reciDirX;
+		t1 = (m_rootBounds[3] - rayOrigin.x) * reciDirX;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		t0 = (m_rootBounds[1] - rayOrigin.y) * reciDirY;
+		t1 = (m_rootBounds[4] - rayOrigin.y) * reciDirY;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		t0 = (m_rootBounds[2] - rayOrigin.z) * reciDirZ;
+		t1 = (m_rootBounds[5] - rayOrigin.z) * reciDirZ;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		if(tMin > tMax)
+		{
+			// ray missed root node's aabb
+			return false;
+		}
+		
+		TraversalStack stack = m_traversalStack.get();
+		stack.closestPrimitives[0] = null;
+		
+		float           closestHitDist   = findClosestHitDist(ray, 0, tMin, tMax, Float.POSITIVE_INFINITY, stack);
+		AtomicPrimitive closestPrimitive = stack.closestPrimitives[0];
+		
+		stack.closestPrimitives[0] = null;
+		intersection.clear();
+		
+		if(closestPrimitive != null)
+		{
+			closestPrimitive.calcIntersectionDetail(ray, closestHitDist, intersection);
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	// Traverses the subtree rooted at nodeIndex with the ray clipped to [tMin, tMax]. Returns the distance 
+	// of the closest hit if it is below closestHitDist, in which case stack.closestPrimitives[0] is set 
+	// to the primitive hit; otherwise closestHitDist is returned and stack.closestPrimitives[0] left 
+	// untouched.
+	private float findClosestHitDist(Ray ray, int nodeIndex, float tMin, float tMax, float closestHitDist, 
+	                                 TraversalStack stack)
+	{
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		int stackSize = 0;
+		
+		while(true)
+		{
+			// the remaining nodes are all further away than the closest hit found so far
+			if(closestHitDist < tMin)
+			{
+				break;
+			}
+			
+			int nodeInfo = m_nodes[nodeIndex * 2 + 1];
+			int flag     = nodeInfo & 3;
+			
+			if(flag != LEAF_FLAG)
+			{
+				float splitPos       = Float.intBitsToFloat(m_nodes[nodeIndex * 2]);
+				int   positiveIndex  = nodeInfo >>> 2;
+				float axisRayOrigin;
+				float axisReciRayDir;
+				
+				switch(flag)
+				{
+				case 0:  axisRayOrigin = rayOrigin.x; axisReciRayDir = reciDirX; break;
+				case 1:  axisRayOrigin = rayOrigin.y; axisReciRayDir = reciDirY; break;
+				default: axisRayOrigin = rayOrigin.z; axisReciRayDir = reciDirZ; break;
+				}
+				
+				int nearIndex;
+				int farIndex;
+				
+				if(splitPos > axisRayOrigin)
+				{
+					nearIndex = nodeIndex + 1;
+					farIndex  = positiveIndex;
+				}
+				else
+				{
+					nearIndex = positiveIndex;
+					farIndex  = nodeIndex + 1;
+				}
+				
+				// The result can be NaN (the ray is lying on the splitting plane). In such case, traverse 
+				// both children (handled in Case III).
+				float raySplitPlaneDist = (splitPos - axisRayOrigin) * axisReciRayDir;
+				
+				// Case I: Split plane is beyond ray's range or behind ray origin, only near node is hit.
+				if(raySplitPlaneDist >= tMax || raySplitPlaneDist < 0.0f)
+				{
+					nodeIndex = nearIndex;
+				}
+				// Case II: Split plane is between ray origin and near intersection point, only far node is hit.
+				else if(raySplitPlaneDist <= tMin && raySplitPlaneDist > 0.0f)
+				{
+					nodeIndex = farIndex;
+				}
+				// Case III: Split plane is within ray's range, and both near and far node are hit.
+				else
+				{
+					stack.nodeIndices[stackSize] = farIndex;
+					stack.tMins[stackSize]       = raySplitPlaneDist;
+					stack.tMaxs[stackSize]       = tMax;
+					stackSize++;
+					
+					nodeIndex = nearIndex;
+					tMax      = raySplitPlaneDist;
+				}
+			}
+			else
+			{
+				closestHitDist = m_leaves.intersectLeaf(nodeIndex, ray, closestHitDist, stack.closestPrimitives, 0);
+				
+				// a hit inside this leaf's range can't be beaten by any node further away
+				if(stackSize == 0 || closestHitDist <= tMax)
+				{
+					break;
+				}
+				
+				stackSize--;
+				nodeIndex = stack.nodeIndices[stackSize];
+				tMin      = stack.tMins[stackSize];
+				tMax      = stack.tMaxs[stackSize];
+			}
+		}
+		
+		return closestHitDist;
+	}
+	
+	@Override
+	public void findClosestIntersections(RayPacket packet)
+	{
+		// rays disagreeing in a direction sign can't share the order children are visited in
+		if(packet.getSize() < 2 || !packet.hasCoherentDirs())
+		{
+			packet.findClosestIntersectionsOneByOne(this);
+			return;
+		}
+		
+		KdtreePacketTraversal traversal = m_packetTraversal.get();
+		
+		if(traversal == null || traversal.getNumLanes() != packet.getCapacity())
+		{
+			traversal = KdtreePacketTraversal.create(packet.getCapacity(), m_nodes, m_rootBounds, m_leaves, m_stackCapacity);
+			m_packetTraversal.set(traversal);
+		}
+		
+		traversal.findClosestIntersections(packet);
+	}
+	
+	// Any-hit variant of findClosestIntersection(). The ray's range is clipped to maxDist up front and 
+	// the first primitive hit inside it ends the traversal; no closest-hit bookkeeping is needed.
+	@Override
+	public boolean isOccluded(Ray ray, float maxDist)
+	{
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float reciDirX = 1.0f / rayDir.x;
+		float reciDirY = 1.0f / rayDir.y;
+		float reciDirZ = 1.0f / rayDir.z;
+		
+		float tMin = 0.0f;
+		float tMax = maxDist;
+		float t0, t1;
+		
+		t0 = (m_rootBounds[0] - rayOrigin.x) * reciDirX;
+		t1 = (m_rootBounds[3] - rayOrigin.x) * reciDirX;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		t0 = (m_rootBounds[1] - rayOrigin.y) * reciDirY;
+		t1 = (m_rootBounds[4] - rayOrigin.y) * reciDirY;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		t0 = (m_rootBounds[2] - rayOrigin.z) * reciDirZ;
+		t1 = (m_rootBounds[5] - rayOrigin.z) * reciDirZ;
+		if(t0 > t1) { float temp = t0; t0 = t1; t1 = temp; }
+		tMin = t0 > tMin ? t0 : tMin;
+		tMax = t1 < tMax ? t1 : tMax;
+		
+		if(tMin > tMax)
+		{
+			return false;
+		}
+		
+		TraversalStack stack = m_traversalStack.get();
+		
+		int stackSize = 0;
+		int nodeIndex = 0;
+		
+		while(true)
+		{
+			int nodeInfo = m_nodes[nodeIndex * 2 + 1];
+			int flag     = nodeInfo & 3;
+			
+			if(flag != LEAF_FLAG)
+			{
+				float splitPos       = Float.intBitsToFloat(m_nodes[nodeIndex * 2]);
+				int   positiveIndex  = nodeInfo >>> 2;
+				float axisRayOrigin;
+				float axisReciRayDir;
+				
+				switch(flag)
+				{
+				case 0:  axisRayOrigin = rayOrigin.x; axisReciRayDir = reciDirX; break;
+				case 1:  axisRayOrigin = rayOrigin.y; axisReciRayDir = reciDirY; break;
+				default: axisRayOrigin = rayOrigin.z; axisReciRayDir = reciDirZ; break;
+				}
+				
+				int nearIndex;
+				int farIndex;
+				
+				if(splitPos > axisRayOrigin)
+				{
+					nearIndex = nodeIndex + 1;
+					farIndex  = positiveIndex;
+				}
+				else
+				{
+					nearIndex = positiveIndex;
+					farIndex  = nodeIndex + 1;
+				}
+				
+				float raySplitPlaneDist = (splitPos - axisRayOrigin) * axisReciRayDir;
+				
+				if(raySplitPlaneDist >= tMax || raySplitPlaneDist < 0.0f)
+				{
+					nodeIndex = nearIndex;
+				}
+				else if(raySplitPlaneDist <= tMin && raySplitPlaneDist > 0.0f)
+				{
+					nodeIndex = farIndex;
+				}
+				else
+				{
+					stack.nodeIndices[stackSize] = farIndex;
+					stack.tMins[stackSize]       = raySplitPlaneDist;
+					stack.tMaxs[stackSize]       = tMax;
+					stackSize++;
+					
+					nodeIndex = nearIndex;
+					tMax      = raySplitPlaneDist;
+				}
+			}
+			else
+			{
+				// a primitive straddling the leaf may be hit outside [tMin, tMax], but anything within 
+				// maxDist still blocks the ray
+				if(m_leaves.isLeafOccluded(nodeIndex, ray, maxDist))
+				{
+					return true;
+				}
+				
+				if(stackSize == 0)
+				{
+					return false;
+				}
+				
+				stackSize--;
+				nodeIndex = stack.nodeIndices[stackSize];
+				tMin      = stack.tMins[stackSize];
+				tMax      = stack.tMaxs[stackSize];
+			}
+		}
 	}
 
 	@Override
-	public void addPrimitive(Primitive primitive)
+	public void addModel(Model model)
+	{
+		// world space primitives get their transform from Primitive.getModel(), which is the 
+		// prototype's for a model instance
+		if(model.getPrimitive().getModel() != model)
+		{
+			logger.printWrn("instanced model ignored, instancing requires a two-level structure");
+			return;
+		}
+		
+		model.getPrimitive().getAtomicPrimitives(m_atomicPrimitives);
+	}
+	
+	@Override
+	public void removeModel(Model model)
 	{
-		primitive.getAtomicPrimitives(m_atomicPrimitives);
+		List<AtomicPrimitive> remainingPrimitives = new ArrayList<>(m_atomicPrimitives.size());
+		
+		for(AtomicPrimitive primitive : m_atomicPrimitives)
+		{
+			if(primitive.getModel() != model)
+			{
+				remainingPrimitives.add(primitive);
+			}
+		}
+		
+		m_atomicPrimitives = remainingPrimitives;
+	}
+	
+	// Primitives are stored in world space, so any change means a full rebuild. The tree is rebuilt in 
+	// place, so no rays may be traced meanwhile.
+	@Override
+	public void updateData()
+	{
+		processData();
 	}
 
 	@Override
@@ -68,7 +449,80 @@ public class Kdtree implements PartitionStrategy
 			}
 		}
 		
-		m_rootKdtreeNode = new KdtreeNode();
-		m_rootKdtreeNode.build(m_atomicPrimitives);
+		long startMs = Time.getMilliTime();
+		
+		m_primitives = m_atomicPrimitives.toArray(new AtomicPrimitive[m_atomicPrimitives.size()]);
+		
+		float[] primBounds = KdtreeBuilder.gatherBounds(m_atomicPrimitives);
+		
+		KdtreeCache cache    = m_cacheDirectory != null ? new KdtreeCache(m_cacheDirectory, m_cacheSizeLimit) : null;
+		long        cacheKey = cache != null ? KdtreeCache.calcKey(primBounds) : 0L;
+		int         treeDepth;
+		String      source;
+		
+		if(cache != null && cache.load(cacheKey, m_primitives.length))
+		{
+			m_nodes            = cache.getNodes();
+			m_primitiveIndices = cache.getPrimitiveIndices();
+			m_rootBounds       = cache.getRootBounds();
+			treeDepth          = cache.getTreeDepth();
+			source             = "loaded from cache";
+		}
+		else
+		{
+			KdtreeBuilder builder = new KdtreeBuilder(primBounds);
+			builder.build();
+			
+			m_nodes            = builder.getNodes();
+			m_primitiveIndices = builder.getPrimitiveIndices();
+			m_rootBounds       = builder.getRootBounds();
+			treeDepth          = builder.getTreeDepth();
+			source             = "built";
+			
+			if(cache != null)
+			{
+				cache.save(cacheKey, m_primitives.length, builder.getNodes(), builder.getPrimitiveIndices(), 
+				           builder.getRootBounds(), treeDepth);
+			}
+		}
+		
+		m_leaves = new KdtreeLeaves(m_nodes, m_primitiveIndices, m_primitives);
+		
+		final int stackCapacity = treeDepth + 1;
+		m_traversalStack = new ThreadLocal<TraversalStack>()
+		{
+			@Override
+			public TraversalStack initialValue()
+			{
+				return new TraversalStack(stackCapacity);
+			}
+		};
+		
+		// created on first use, see findClosestIntersections()
+		m_packetTraversal = new ThreadLocal<KdtreePacketTraversal>();
+		m_stackCapacity   = stackCapacity;
+		
+		logger.printMsg(m_primitives.length + " primitives, " + m_nodes.length / 2 + " nodes, " + 
+		                m_primitiveIndices.length + " references, " + m_leaves.getNumBlocks() + " triangle blocks, " + 
+		                "depth " + treeDepth + ", " + source + " in " + (Time.getMilliTime() - startMs) + " ms");
+	}
+	
+	private static class TraversalStack
+	{
+		public int[]   nodeIndices;
+		public float[] tMins;
+		public float[] tMaxs;
+		
+		// a single element, written in place by KdtreeLeaves
+		public AtomicPrimitive[] closestPrimitives;
+		
+		public TraversalStack(int capacity)
+		{
+			nodeIndices = new int[capacity];
+			tMins       = new float[capacity];
+			tMaxs       = new float[capacity];
+			
+			closestPrimitives = new AtomicPrimitive[1];
+		}
 	}
 }
@@ -0,0 +1,620 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.kdtree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import model.boundingVolume.AABB;
+import model.primitive.AtomicPrimitive;
+import util.IntArrayList;
+
+// SAH k-d tree construction in O(N log N), following Ingo Wald and Vlastimil Havran's "On building 
+// fast kd-Trees for Ray Tracing, and on doing that in O(N log N)" (2006). Every primitive contributes 
+// a start and an end event (or a single planar event) per axis. Events are sorted once at the root; 
+// each node finds its best plane with one linear sweep per axis and then splits its sorted event 
+// lists into the children's lists, so no node ever sorts more than the few events regenerated for 
+// primitives straddling the plane. Straddling primitives are classified by their bounding box clipped 
+// to the child (no exact triangle clipping). Large subtrees are built in parallel.
+//
+// Nodes are written straight into the int layout described in Kdtree as they are built, depth-first, 
+// with no intermediate node objects. A subtree built by another task goes into arrays of its own and 
+// is appended to its parent's arrays once done, shifting its child and primitive offsets.
+//
+// An event is packed into a long so that plain long order equals event order: 
+// [sortable position bits : 32][event type : 2][primitive index : 30].
+
+class KdtreeBuilder
+{
+	private static final float COST_TRAVERSAL    = 1.0f;
+	private static final float COST_INTERSECTION = 1.0f;
+	private static final float EMPTY_BONUS       = 0.8f;
+	
+	private static final int PARALLEL_THRESHOLD = 4096;
+	
+	// events of the same position are ordered end, planar, start
+	private static final int END    = 0;
+	private static final int PLANAR = 1;
+	private static final int START  = 2;
+	
+	private static final byte BOTH       = 0;
+	private static final byte LEFT_ONLY  = 1;
+	private static final byte RIGHT_ONLY = 2;
+	
+	private float[] m_primBounds;
+	private int     m_maxDepth;
+	
+	private ThreadLocal<byte[]> m_primSides;
+	
+	// results
+	private int[]   m_nodes;
+	private int[]   m_primitiveIndices;
+	private float[] m_rootBounds;
+	private int     m_treeDepth;
+	
+	// primBounds: world space (minX, minY, minZ, maxX, maxY, maxZ) of each primitive, see gatherBounds(); 
+	// the tree depends on nothing else
+	public KdtreeBuilder(float[] primBounds)
+	{
+		m_primBounds = primBounds;
+	}
+	
+	public void build()
+	{
+		final int numPrimitives = m_primBounds.length / 6;
+		
+		m_maxDepth   = (int)(8 + 1.3 * Math.log(Math.max(numPrimitives, 1)) / Math.log(2.0));
+		m_primSides  = new ThreadLocal<byte[]>()
+		{
+			@Override
+			public byte[] initialValue()
+			{
+				return new byte[numPrimitives];
+			}
+		};
+		
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		
+		float[] rootBounds = new float[6];
+		setEmptyBounds(rootBounds);
+		for(int i = 0; i < numPrimitives; i++)
+		{
+			for(int axis = 0; axis < 3; axis++)
+			{
+				rootBounds[axis]     = Math.min(rootBounds[axis],     m_primBounds[i * 6 + axis]);
+				rootBounds[axis + 3] = Math.max(rootBounds[axis + 3], m_primBounds[i * 6 + axis + 3]);
+			}
+		}
+		
+		if(numPrimitives == 0)
+		{
+			Arrays.fill(rootBounds, 0.0f);
+		}
+		
+		// the only sort of the whole build
+		long[][] events = new long[3][];
+		int[] allPrimitives = new int[numPrimitives];
+		for(int i = 0; i < numPrimitives; i++)
+		{
+			allPrimitives[i] = i;
+		}
+		for(int axis = 0; axis < 3; axis++)
+		{
+			events[axis] = genEvents(allPrimitives, numPrimitives, axis, rootBounds);
+			Arrays.parallelSort(events[axis]);
+		}
+		
+		Subtree tree = pool.invoke(new BuildTask(events, numPrimitives, rootBounds, 0));
+		
+		m_treeDepth        = tree.depth;
+		m_nodes            = tree.nodes.toArray();
+		m_primitiveIndices = tree.primitiveIndices.toArray();
+		m_rootBounds       = rootBounds;
+		
+		// only needed during the build
+		m_primBounds = null;
+		m_primSides  = null;
+	}
+	
+	public static float[] gatherBounds(List<AtomicPrimitive> primitives)
+	{
+		float[] primBounds = new float[primitives.size() * 6];
+		
+		ForkJoinPool.commonPool().invoke(new GatherBoundsTask(primitives, primBounds, 0, primitives.size()));
+		
+		return primBounds;
+	}
+	
+	public int[] getNodes()
+	{
+		return m_nodes;
+	}
+	
+	public int[] getPrimitiveIndices()
+	{
+		return m_primitiveIndices;
+	}
+	
+	public float[] getRootBounds()
+	{
+		return m_rootBounds;
+	}
+	
+	public int getTreeDepth()
+	{
+		return m_treeDepth;
+	}
+	
+	// Appends the node and its subtree to the tree; returns the depth of the subtree.
+	private int buildNode(long[][] events, int numPrimitives, float[] bounds, int depth, boolean isParallel, Subtree tree)
+	{
+		// find the best plane, one sweep per axis
+		
+		float   nodeArea        = calcSurfaceArea(bounds);
+		float   bestCost        = Float.POSITIVE_INFINITY;
+		int     splitAxis       = 0;
+		float   bestSplitPos    = 0.0f;
+		boolean isPlanarsOnLeft = false;
+		
+		for(int axis = 0; axis < 3; axis++)
+		{
+			long[] axisEvents = events[axis];
+			
+			// a child's surface area is 2 * (crossSectionArea + extent along axis * perimeterHalf)
+			int   u                = (axis + 1) % 3;
+			int   v                = (axis + 2) % 3;
+			float crossSectionArea = (bounds[u + 3] - bounds[u]) * (bounds[v + 3] - bounds[v]);
+			float perimeterHalf    = (bounds[u + 3] - bounds[u]) + (bounds[v + 3] - bounds[v]);
+			
+			int numLeft  = 0;
+			int numRight = numPrimitives;
+			
+			int i = 0;
+			while(i < axisEvents.length)
+			{
+				int positionKey = (int)(axisEvents[i] >> 32);
+				int numEnds     = 0;
+				int numPlanars  = 0;
+				int numStarts   = 0;
+				
+				while(i < axisEvents.length && (int)(axisEvents[i] >> 32) == positionKey && getType(axisEvents[i]) == END)
+				{
+					numEnds++;
+					i++;
+				}
+				while(i < axisEvents.length && (int)(axisEvents[i] >> 32) == positionKey && getType(axisEvents[i]) == PLANAR)
+				{
+					numPlanars++;
+					i++;
+				}
+				while(i < axisEvents.length && (int)(axisEvents[i] >> 32) == positionKey && getType(axisEvents[i]) == START)
+				{
+					numStarts++;
+					i++;
+				}
+				
+				numRight -= numPlanars + numEnds;
+				
+				float splitPos = decodePosition(positionKey);
+				
+				if(splitPos > bounds[axis] && splitPos < bounds[axis + 3])
+				{
+					float leftArea  = 2.0f * (crossSectionArea + (splitPos - bounds[axis]) * perimeterHalf);
+					float rightArea = 2.0f * (crossSectionArea + (bounds[axis + 3] - splitPos) * perimeterHalf);
+					
+					float planarsLeftCost  = calcSplitCost(leftArea / nodeArea, rightArea / nodeArea, numLeft + numPlanars, numRight);
+					float planarsRightCost = calcSplitCost(leftArea / nodeArea, rightArea / nodeArea, numLeft, numRight + numPlanars);
+					
+					if(planarsLeftCost < bestCost)
+					{
+						bestCost        = planarsLeftCost;
+						splitAxis       = axis;
+						bestSplitPos    = splitPos;
+						isPlanarsOnLeft = true;
+					}
+					
+					if(planarsRightCost < bestCost)
+					{
+						bestCost        = planarsRightCost;
+						splitAxis       = axis;
+						bestSplitPos    = splitPos;
+						isPlanarsOnLeft = false;
+					}
+				}
+				
+				numLeft += numStarts + numPlanars;
+			}
+		}
+		
+		if(bestCost >= COST_INTERSECTION * numPrimitives || depth >= m_maxDepth)
+		{
+			// leaf: [offset into the primitive references][(number of primitives << 2) | LEAF_FLAG]
+			tree.nodes.add(tree.primitiveIndices.size());
+			tree.nodes.add((numPrimitives << 2) | Kdtree.LEAF_FLAG);
+			
+			for(long event : events[0])
+			{
+				if(getType(event) != END)
+				{
+					tree.primitiveIndices.add(getPrimitiveIndex(event));
+				}
+			}
+			
+			return 1;
+		}
+		
+		float splitPos = bestSplitPos;
+		
+		// classify primitives against the chosen plane
+		
+		byte[]  sides         = m_primSides.get();
+		int[]   primitives    = collectPrimitives(events[0], numPrimitives);
+		int     numBoth       = 0;
+		int     numLeftOnly   = 0;
+		int     numRightOnly  = 0;
+		
+		for(int primIndex : primitives)
+		{
+			sides[primIndex] = BOTH;
+		}
+		
+		for(long event : events[splitAxis])
+		{
+			int   type      = getType(event);
+			int   primIndex = getPrimitiveIndex(event);
+			float position  = decodePosition((int)(event >> 32));
+			
+			if(type == END && position <= splitPos)
+			{
+				sides[primIndex] = LEFT_ONLY;
+			}
+			else if(type == START && position >= splitPos)
+			{
+				sides[primIndex] = RIGHT_ONLY;
+			}
+			else if(type == PLANAR)
+			{
+				if(position < splitPos || (position == splitPos && isPlanarsOnLeft))
+				{
+					sides[primIndex] = LEFT_ONLY;
+				}
+				else
+				{
+					sides[primIndex] = RIGHT_ONLY;
+				}
+			}
+		}
+		
+		int[] bothPrimitives = new int[primitives.length];
+		for(int primIndex : primitives)
+		{
+			switch(sides[primIndex])
+			{
+			case LEFT_ONLY:  numLeftOnly++;                          break;
+			case RIGHT_ONLY: numRightOnly++;                         break;
+			default:         bothPrimitives[numBoth++] = primIndex;  break;
+			}
+		}
+		
+		float[] leftBounds  = Arrays.copyOf(bounds, 6);
+		float[] rightBounds = Arrays.copyOf(bounds, 6);
+		leftBounds[splitAxis + 3] = splitPos;
+		rightBounds[splitAxis]    = splitPos;
+		
+		// Split the sorted event lists. Events of one-sided primitives keep their order; straddling 
+		// primitives get new events from their clipped bounds, which are sorted and merged in.
+		
+		long[][] leftEvents  = new long[3][];
+		long[][] rightEvents = new long[3][];
+		
+		for(int axis = 0; axis < 3; axis++)
+		{
+			long[] axisEvents = events[axis];
+			long[] left       = new long[axisEvents.length];
+			long[] right      = new long[axisEvents.length];
+			int    numLeftEvents  = 0;
+			int    numRightEvents = 0;
+			
+			for(long event : axisEvents)
+			{
+				byte side = sides[getPrimitiveIndex(event)];
+				
+				if(side == LEFT_ONLY)
+				{
+					left[numLeftEvents++] = event;
+				}
+				else if(side == RIGHT_ONLY)
+				{
+					right[numRightEvents++] = event;
+				}
+			}
+			
+			long[] newLeft  = genEvents(bothPrimitives, numBoth, axis, leftBounds);
+			long[] newRight = genEvents(bothPrimitives, numBoth, axis, rightBounds);
+			Arrays.sort(newLeft);
+			Arrays.sort(newRight);
+			
+			leftEvents[axis]  = merge(left, numLeftEvents, newLeft);
+			rightEvents[axis] = merge(right, numRightEvents, newRight);
+		}
+		
+		// the parent's events are no longer needed, let them go before recursing
+		Arrays.fill(events, null);
+		
+		int numLeftPrimitives  = numLeftOnly + numBoth;
+		int numRightPrimitives = numRightOnly + numBoth;
+		
+		// interior: [split position][(index of positive child << 2) | split axis], the negative child 
+		// follows directly and the positive child's index is known once that one is done
+		int nodeIndex = tree.nodes.size() / 2;
+		tree.nodes.add(Float.floatToRawIntBits(splitPos));
+		tree.nodes.add(splitAxis);
+		
+		int negativeDepth;
+		int positiveDepth;
+		int positiveIndex;
+		
+		if(isParallel && numPrimitives > PARALLEL_THRESHOLD)
+		{
+			BuildTask positiveTask = new BuildTask(rightEvents, numRightPrimitives, rightBounds, depth + 1);
+			positiveTask.fork();
+			
+			negativeDepth = buildNode(leftEvents, numLeftPrimitives, leftBounds, depth + 1, true, tree);
+			positiveIndex = tree.nodes.size() / 2;
+			
+			Subtree positiveTree = positiveTask.join();
+			tree.append(positiveTree);
+			positiveDepth = positiveTree.depth;
+		}
+		else
+		{
+			negativeDepth = buildNode(leftEvents, numLeftPrimitives, leftBounds, depth + 1, false, tree);
+			positiveIndex = tree.nodes.size() / 2;
+			positiveDepth = buildNode(rightEvents, numRightPrimitives, rightBounds, depth + 1, false, tree);
+		}
+		
+		tree.nodes.set(nodeIndex * 2 + 1, (positiveIndex << 2) | splitAxis);
+		
+		return 1 + Math.max(negativeDepth, positiveDepth);
+	}
+	
+	private static float calcSplitCost(float leftProbability, float rightProbability, int numLeft, int numRight)
+	{
+		float cost = COST_TRAVERSAL + COST_INTERSECTION * (leftProbability * numLeft + rightProbability * numRight);
+		
+		return numLeft == 0 || numRight == 0 ? cost * EMPTY_BONUS : cost;
+	}
+	
+	// every primitive has exactly one start or planar event per axis
+	private static int[] collectPrimitives(long[] axisEvents, int numPrimitives)
+	{
+		int[] primitives = new int[numPrimitives];
+		int   count      = 0;
+		
+		for(long event : axisEvents)
+		{
+			if(getType(event) != END)
+			{
+				primitives[count++] = getPrimitiveIndex(event);
+			}
+		}
+		
+		return primitives;
+	}
+	
+	// events of the given primitives' bounds clipped to the node bounds, unsorted
+	private long[] genEvents(int[] primitives, int numPrimitives, int axis, float[] bounds)
+	{
+		long[] events    = new long[numPrimitives * 2];
+		int    numEvents = 0;
+		
+		for(int i = 0; i < numPrimitives; i++)
+		{
+			int   primIndex = primitives[i];
+			float min       = Math.max(m_primBounds[primIndex * 6 + axis],     bounds[axis]);
+			float max       = Math.min(m_primBounds[primIndex * 6 + axis + 3], bounds[axis + 3]);
+			
+			if(min == max)
+			{
+				events[numEvents++] = encodeEvent(min, PLANAR, primIndex);
+			}
+			else
+			{
+				events[numEvents++] = encodeEvent(min, START, primIndex);
+				events[numEvents++] = encodeEvent(max, END, primIndex);
+			}
+		}
+		
+		return Arrays.copyOf(events, numEvents);
+	}
+	
+	private static long[] merge(long[] a, int numA, long[] b)
+	{
+		long[] result = new long[numA + b.length];
+		int i = 0, j = 0, k = 0;
+		
+		while(i < numA && j < b.length)
+		{
+			result[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+		}
+		while(i < numA)
+		{
+			result[k++] = a[i++];
+		}
+		while(j < b.length)
+		{
+			result[k++] = b[j++];
+		}
+		
+		return result;
+	}
+	
+	private static long encodeEvent(float position, int type, int primIndex)
+	{
+		int bits = Float.floatToIntBits(position + 0.0f);
+		int positionKey = bits ^ ((bits >> 31) & 0x7FFFFFFF);
+		
+		return ((long)positionKey << 32) | (((long)type << 30) | primIndex);
+	}
+	
+	private static float decodePosition(int positionKey)
+	{
+		return Float.intBitsToFloat(positionKey ^ ((positionKey >> 31) & 0x7FFFFFFF));
+	}
+	
+	private static int getType(long event)
+	{
+		return (int)(event >>> 30) & 3;
+	}
+	
+	private static int getPrimitiveIndex(long event)
+	{
+		return (int)event & 0x3FFFFFFF;
+	}
+	
+	private static void setEmptyBounds(float[] bounds)
+	{
+		bounds[0] = bounds[1] = bounds[2] = Float.POSITIVE_INFINITY;
+		bounds[3] = bounds[4] = bounds[5] = Float.NEGATIVE_INFINITY;
+	}
+	
+	private static float calcSurfaceArea(float[] bounds)
+	{
+		float dx = bounds[3] - bounds[0];
+		float dy = bounds[4] - bounds[1];
+		float dz = bounds[5] - bounds[2];
+		
+		return 2.0f * (dx * dy + dy * dz + dz * dx);
+	}
+	
+	// Nodes and primitive references of a subtree, node and reference offsets relative to its arrays.
+	private static class Subtree
+	{
+		public IntArrayList nodes            = new IntArrayList();
+		public IntArrayList primitiveIndices = new IntArrayList();
+		public int          depth;
+		
+		// appends the other subtree's nodes and references, shifting the offsets stored in its nodes
+		public void append(Subtree other)
+		{
+			int nodeOffset      = nodes.size() / 2;
+			int primitiveOffset = primitiveIndices.size();
+			
+			for(int i = 0; i < other.nodes.size(); i += 2)
+			{
+				int data     = other.nodes.get(i);
+				int nodeInfo = other.nodes.get(i + 1);
+				
+				if((nodeInfo & 3) == Kdtree.LEAF_FLAG)
+				{
+					nodes.add(data + primitiveOffset);
+					nodes.add(nodeInfo);
+				}
+				else
+				{
+					nodes.add(data);
+					nodes.add(nodeInfo + (nodeOffset << 2));
+				}
+			}
+			
+			for(int i = 0; i < other.primitiveIndices.size(); i++)
+			{
+				primitiveIndices.add(other.primitiveIndices.get(i));
+			}
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private class BuildTask extends RecursiveTask<Subtree>
+	{
+		private long[][] m_events;
+		private int      m_numPrimitives;
+		private float[]  m_bounds;
+		private int      m_depth;
+		
+		public BuildTask(long[][] events, int numPrimitives, float[] bounds, int depth)
+		{
+			m_events        = events;
+			m_numPrimitives = numPrimitives;
+			m_bounds        = bounds;
+			m_depth         = depth;
+		}
+		
+		@Override
+		protected Subtree compute()
+		{
+			long[][] events = m_events;
+			m_events = null;
+			
+			Subtree tree = new Subtree();
+			tree.depth = buildNode(events, m_numPrimitives, m_bounds, m_depth, true, tree);
+			
+			return tree;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class GatherBoundsTask extends RecursiveAction
+	{
+		private List<AtomicPrimitive> m_primitives;
+		private float[]               m_primBounds;
+		private int                   m_beginIndex;
+		private int                   m_endIndex;
+		
+		public GatherBoundsTask(List<AtomicPrimitive> primitives, float[] primBounds, int beginIndex, int endIndex)
+		{
+			m_primitives = primitives;
+			m_primBounds = primBounds;
+			m_beginIndex = beginIndex;
+			m_endIndex   = endIndex;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(m_endIndex - m_beginIndex > PARALLEL_THRESHOLD)
+			{
+				int midIndex = (m_beginIndex + m_endIndex) / 2;
+				invokeAll(new GatherBoundsTask(m_primitives, m_primBounds, m_beginIndex, midIndex), 
+				          new GatherBoundsTask(m_primitives, m_primBounds, midIndex, m_endIndex));
+				return;
+			}
+			
+			for(int i = m_beginIndex; i < m_endIndex; i++)
+			{
+				AABB aabb = m_primitives.get(i).calcTransformedAABB();
+				
+				m_primBounds[i * 6]     = aabb.getMinVertex().x;
+				m_primBounds[i * 6 + 1] = aabb.getMinVertex().y;
+				m_primBounds[i * 6 + 2] = aabb.getMinVertex().z;
+				m_primBounds[i * 6 + 3] = aabb.getMaxVertex().x;
+				m_primBounds[i * 6 + 4] = aabb.getMaxVertex().y;
+				m_primBounds[i * 6 + 5] = aabb.getMaxVertex().z;
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.kdtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import util.IOUtil;
+import util.Logger;
+
+// On-disk cache of built k-d trees. A tree only depends on the bounds of its primitives (see 
+// KdtreeBuilder), so the cache key is a hash of exactly these bounds; any change to geometry or 
+// transforms that could change the tree changes the key.
+//
+// Files are written in native byte order and memory mapped read-only on load, the node and primitive 
+// reference arrays are then copied into int arrays in one bulk transfer without any parsing. Cache files 
+// are readable by everyone (they are shared between users rendering the same scene), and after each save 
+// the least recently used files are deleted until the directory fits in the size limit; loading a file 
+// counts as using it. Layout (all values 4 bytes):
+//
+// [magic][version][number of primitives][tree depth][key : 8 bytes][number of node ints]
+// [number of primitive references][root bounds : 6 floats][padding : 2]
+// [nodes ...][primitive references ...]
+
+class KdtreeCache
+{
+	private static final Logger logger = new Logger("k-d Tree Cache");
+	
+	private static final int MAGIC        = 0x4B445452;
+	private static final int VERSION      = 1;
+	private static final int HEADER_BYTES = 64;
+	private static final String EXTENSION = ".kdtree";
+	
+	public static final long DEFAULT_SIZE_LIMIT = 1L << 30;
+	
+	private File m_directory;
+	private long m_sizeLimit;
+	
+	// loaded data
+	private int[]   m_nodes;
+	private int[]   m_primitiveIndices;
+	private float[] m_rootBounds;
+	private int     m_treeDepth;
+	
+	public KdtreeCache(File directory, long sizeLimit)
+	{
+		m_directory = directory;
+		m_sizeLimit = sizeLimit;
+	}
+	
+	// 64-bit FNV-1a over the bit patterns of the bounds
+	public static long calcKey(float[] primBounds)
+	{
+		long hash = 0xcbf29ce484222325L;
+		
+		hash = (hash ^ VERSION) * 0x100000001b3L;
+		hash = (hash ^ primBounds.length) * 0x100000001b3L;
+		
+		for(int i = 0; i < primBounds.length; i++)
+		{
+			hash = (hash ^ Float.floatToRawIntBits(primBounds[i])) * 0x100000001b3L;
+		}
+		
+		return hash;
+	}
+	
+	// Returns false if there is no usable cache file for the key, in which case the tree has to be built.
+	public boolean load(long key, int numPrimitives)
+	{
+		File file = getFile(key);
+		
+		if(!file.isFile())
+		{
+			return false;
+		}
+		
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.nativeOrder());
+			
+			if(buffer.capacity() < HEADER_BYTES || 
+			   buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || 
+			   buffer.getInt(8) != numPrimitives || buffer.getLong(16) != key)
+			{
+				logger.printWrn("ignoring stale or foreign cache file <" + file + ">");
+				return false;
+			}
+			
+			int numNodeInts            = buffer.getInt(24);
+			int numPrimitiveReferences = buffer.getInt(28);
+			
+			if((long)HEADER_BYTES + 4L * numNodeInts + 4L * numPrimitiveReferences != buffer.capacity())
+			{
+				logger.printWrn("ignoring truncated cache file <" + file + ">");
+				return false;
+			}
+			
+			m_treeDepth  = buffer.getInt(12);
+			m_rootBounds = new float[6];
+			for(int i = 0; i < 6; i++)
+			{
+				m_rootBounds[i] = buffer.getFloat(32 + i * 4);
+			}
+			
+			m_nodes            = new int[numNodeInts];
+			m_primitiveIndices = new int[numPrimitiveReferences];
+			
+			buffer.position(HEADER_BYTES);
+			buffer.asIntBuffer().get(m_nodes).get(m_primitiveIndices);
+			
+			// keeps the file from being evicted; failing to update the time is harmless
+			file.setLastModified(System.currentTimeMillis());
+			
+			return true;
+		}
+		catch(IOException e)
+		{
+			logger.printWrn("couldn't load <" + file + ">, info: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	// Failing to save is not fatal, the tree is simply built again next time.
+	public void save(long key, int numPrimitives, int[] nodes, int[] primitiveIndices, float[] rootBounds, int treeDepth)
+	{
+		File file = getFile(key);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (nodes.length + primitiveIndices.length) * 4);
+		buffer.order(ByteOrder.nativeOrder());
+		
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, numPrimitives);
+		buffer.putInt(12, treeDepth);
+		buffer.putLong(16, key);
+		buffer.putInt(24, nodes.length);
+		buffer.putInt(28, primitiveIndices.length);
+		for(int i = 0; i < 6; i++)
+		{
+			buffer.putFloat(32 + i * 4, rootBounds[i]);
+		}
+		
+		buffer.position(HEADER_BYTES);
+		buffer.asIntBuffer().put(nodes).put(primitiveIndices);
+		buffer.position(0);
+		
+		try
+		{
+			IOUtil.writeFileAtomically(file, buffer);
+		}
+		catch(IOException e)
+		{
+			logger.printWrn("couldn't save <" + file + ">, info: " + e.getMessage());
+			return;
+		}
+		
+		for(File evictedFile : IOUtil.deleteLeastRecentlyModified(m_directory, EXTENSION, m_sizeLimit, file))
+		{
+			logger.printMsg("evicted <" + evictedFile + ">");
+		}
+	}
+	
+	public int[] getNodes()
+	{
+		return m_nodes;
+	}
+	
+	public int[] getPrimitiveIndices()
+	{
+		return m_primitiveIndices;
+	}
+	
+	public float[] getRootBounds()
+	{
+		return m_rootBounds;
+	}
+	
+	public int getTreeDepth()
+	{
+		return m_treeDepth;
+	}
+	
+	private File getFile(long key)
+	{
+		return new File(m_directory, String.format("%016x" + EXTENSION, key));
+	}
+}
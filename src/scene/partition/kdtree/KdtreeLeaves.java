@@ -0,0 +1,305 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.kdtree;
+
+
+import core.Ray;
+import math.Vector3f;
+import model.primitive.AtomicPrimitive;
+import scene.partition.PackedTriangles;
+
+// Primitives of the k-d tree's leaves in the form traversal tests them. Triangles are packed leaf by 
+// leaf into blocks of BLOCK_SIZE, each block holding the three plane equations PackedTriangles 
+// precomputes for its triangles, in world space and component by component (structure of arrays):
+//
+// [NX of all lanes][NY of all lanes][NZ of all lanes][ND of all lanes]   triangle plane
+// [BX of all lanes][BY of all lanes][BZ of all lanes][BD of all lanes]   barycentric coordinate of B
+// [CX of all lanes][CY of all lanes][CZ of all lanes][CD of all lanes]   barycentric coordinate of C
+//
+// A ray is tested against a whole block in one branch-free loop over the lanes that only touches the 
+// block array; the triangle objects are needed only once the closest hit is known. The last block of 
+// a leaf is padded with empty slots which are never hit. Leaf primitives that are not triangles are 
+// kept as primitive indices and tested through their own methods.
+
+class KdtreeLeaves
+{
+	static final int BLOCK_SIZE = 4;
+	
+	private static final int BLOCK_FLOATS = BLOCK_SIZE * PackedTriangles.NUM_FLOATS;
+	
+	private float[]           m_blockData;
+	private AtomicPrimitive[] m_blockTriangles;
+	private int[]             m_otherPrimitiveIndices;
+	private AtomicPrimitive[] m_primitives;
+	
+	// four ints per node (only filled for leaves): begin and end block, begin and end of other primitives
+	private int[] m_leafRanges;
+	
+	public KdtreeLeaves(int[] nodes, int[] primitiveIndices, AtomicPrimitive[] primitives)
+	{
+		m_primitives = primitives;
+		
+		// world space vertices of every triangle, transformed once no matter how many leaves refer to it
+		
+		float[]   vertices   = new float[primitives.length * 9];
+		boolean[] isTriangle = new boolean[primitives.length];
+		Vector3f  vA         = new Vector3f();
+		Vector3f  vB         = new Vector3f();
+		Vector3f  vC         = new Vector3f();
+		
+		for(int i = 0; i < primitives.length; i++)
+		{
+			isTriangle[i] = primitives[i].getTransformedVertices(vA, vB, vC);
+			
+			if(isTriangle[i])
+			{
+				vertices[i * 9 + 0] = vA.x; vertices[i * 9 + 1] = vA.y; vertices[i * 9 + 2] = vA.z;
+				vertices[i * 9 + 3] = vB.x; vertices[i * 9 + 4] = vB.y; vertices[i * 9 + 5] = vB.z;
+				vertices[i * 9 + 6] = vC.x; vertices[i * 9 + 7] = vC.y; vertices[i * 9 + 8] = vC.z;
+			}
+		}
+		
+		int numNodes = nodes.length / 2;
+		
+		m_leafRanges = new int[numNodes * 4];
+		
+		// count blocks and other primitives so the arrays can be allocated up front
+		
+		int numBlocks = 0;
+		int numOthers = 0;
+		
+		for(int nodeIndex = 0; nodeIndex < numNodes; nodeIndex++)
+		{
+			int nodeInfo = nodes[nodeIndex * 2 + 1];
+			
+			if((nodeInfo & 3) != Kdtree.LEAF_FLAG)
+			{
+				continue;
+			}
+			
+			int primitivesOffset = nodes[nodeIndex * 2];
+			int numPrimitives    = nodeInfo >>> 2;
+			int numTriangles     = 0;
+			
+			for(int i = primitivesOffset; i < primitivesOffset + numPrimitives; i++)
+			{
+				if(isTriangle[primitiveIndices[i]])
+				{
+					numTriangles++;
+				}
+			}
+			
+			numBlocks += (numTriangles + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			numOthers += numPrimitives - numTriangles;
+		}
+		
+		m_blockData             = new float[numBlocks * BLOCK_FLOATS];
+		m_blockTriangles        = new AtomicPrimitive[numBlocks * BLOCK_SIZE];
+		m_otherPrimitiveIndices = new int[numOthers];
+		
+		int blockLane  = 0;
+		int otherIndex = 0;
+		
+		for(int nodeIndex = 0; nodeIndex < numNodes; nodeIndex++)
+		{
+			int nodeInfo = nodes[nodeIndex * 2 + 1];
+			
+			if((nodeInfo & 3) != Kdtree.LEAF_FLAG)
+			{
+				continue;
+			}
+			
+			int primitivesOffset = nodes[nodeIndex * 2];
+			int numPrimitives    = nodeInfo >>> 2;
+			
+			m_leafRanges[nodeIndex * 4 + 0] = blockLane / BLOCK_SIZE;
+			m_leafRanges[nodeIndex * 4 + 2] = otherIndex;
+			
+			for(int i = primitivesOffset; i < primitivesOffset + numPrimitives; i++)
+			{
+				int primIndex = primitiveIndices[i];
+				
+				if(!isTriangle[primIndex])
+				{
+					m_otherPrimitiveIndices[otherIndex++] = primIndex;
+					continue;
+				}
+				
+				PackedTriangles.pack(vertices, primIndex * 9, m_blockData, calcLaneOffset(blockLane), BLOCK_SIZE);
+				
+				m_blockTriangles[blockLane] = primitives[primIndex];
+				blockLane++;
+			}
+			
+			for(; blockLane % BLOCK_SIZE != 0; blockLane++)
+			{
+				PackedTriangles.packEmpty(m_blockData, calcLaneOffset(blockLane), BLOCK_SIZE);
+			}
+			
+			m_leafRanges[nodeIndex * 4 + 1] = blockLane / BLOCK_SIZE;
+			m_leafRanges[nodeIndex * 4 + 3] = otherIndex;
+		}
+	}
+	
+	// Tests all primitives of the leaf against the ray and returns the distance of the closest hit below 
+	// closestHitDist, storing the primitive hit in closestPrimitives[slot]. If there is none, 
+	// closestHitDist is returned and closestPrimitives[slot] left untouched.
+	public float intersectLeaf(int nodeIndex, Ray ray, float closestHitDist, AtomicPrimitive[] closestPrimitives, int slot)
+	{
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float ox = rayOrigin.x;
+		float oy = rayOrigin.y;
+		float oz = rayOrigin.z;
+		float dx = rayDir.x;
+		float dy = rayDir.y;
+		float dz = rayDir.z;
+		
+		int closestLane = -1;
+		
+		int blockEnd = m_leafRanges[nodeIndex * 4 + 1];
+		
+		for(int block = m_leafRanges[nodeIndex * 4]; block < blockEnd; block++)
+		{
+			int b = block * BLOCK_FLOATS;
+			
+			for(int lane = 0; lane < BLOCK_SIZE; lane++)
+			{
+				float hitDist = PackedTriangles.calcHitDist(m_blockData, b + lane, BLOCK_SIZE, ox, oy, oz, dx, dy, dz);
+				
+				// misses are NaN and fail the comparison
+				if(hitDist < closestHitDist)
+				{
+					closestHitDist = hitDist;
+					closestLane    = block * BLOCK_SIZE + lane;
+				}
+			}
+		}
+		
+		if(closestLane != -1)
+		{
+			closestPrimitives[slot] = m_blockTriangles[closestLane];
+		}
+		
+		int otherEnd = m_leafRanges[nodeIndex * 4 + 3];
+		
+		for(int i = m_leafRanges[nodeIndex * 4 + 2]; i < otherEnd; i++)
+		{
+			AtomicPrimitive primitive = m_primitives[m_otherPrimitiveIndices[i]];
+			float           hitDist   = primitive.calcIntersectDist(ray, closestHitDist);
+			
+			if(hitDist < closestHitDist)
+			{
+				closestHitDist          = hitDist;
+				closestPrimitives[slot] = primitive;
+			}
+		}
+		
+		return closestHitDist;
+	}
+	
+	// Whether any primitive of the leaf is hit closer than maxDist.
+	public boolean isLeafOccluded(int nodeIndex, Ray ray, float maxDist)
+	{
+		Vector3f rayOrigin = ray.getOrigin();
+		Vector3f rayDir    = ray.getDir();
+		
+		float ox = rayOrigin.x;
+		float oy = rayOrigin.y;
+		float oz = rayOrigin.z;
+		float dx = rayDir.x;
+		float dy = rayDir.y;
+		float dz = rayDir.z;
+		
+		int blockEnd = m_leafRanges[nodeIndex * 4 + 1];
+		
+		for(int block = m_leafRanges[nodeIndex * 4]; block < blockEnd; block++)
+		{
+			int     b          = block * BLOCK_FLOATS;
+			boolean isOccluded = false;
+			
+			for(int lane = 0; lane < BLOCK_SIZE; lane++)
+			{
+				float hitDist = PackedTriangles.calcHitDist(m_blockData, b + lane, BLOCK_SIZE, ox, oy, oz, dx, dy, dz);
+				
+				isOccluded |= hitDist < maxDist;
+			}
+			
+			if(isOccluded)
+			{
+				return true;
+			}
+		}
+		
+		int otherEnd = m_leafRanges[nodeIndex * 4 + 3];
+		
+		for(int i = m_leafRanges[nodeIndex * 4 + 2]; i < otherEnd; i++)
+		{
+			if(m_primitives[m_otherPrimitiveIndices[i]].calcIntersectDist(ray, maxDist) < maxDist)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	// the raw arrays, for packet traversal (see KdtreePacketTraversal)
+	
+	float[] getBlockData()
+	{
+		return m_blockData;
+	}
+	
+	AtomicPrimitive[] getBlockTriangles()
+	{
+		return m_blockTriangles;
+	}
+	
+	int[] getOtherPrimitiveIndices()
+	{
+		return m_otherPrimitiveIndices;
+	}
+	
+	AtomicPrimitive[] getPrimitives()
+	{
+		return m_primitives;
+	}
+	
+	int[] getLeafRanges()
+	{
+		return m_leafRanges;
+	}
+	
+	public int getNumBlocks()
+	{
+		return m_blockTriangles.length / BLOCK_SIZE;
+	}
+	
+	private static int calcLaneOffset(int blockLane)
+	{
+		return blockLane / BLOCK_SIZE * BLOCK_FLOATS + blockLane % BLOCK_SIZE;
+	}
+}
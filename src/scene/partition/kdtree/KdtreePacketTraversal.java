@@ -0,0 +1,450 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package scene.partition.kdtree;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import core.Ray;
+import core.RayPacket;
+import model.primitive.AtomicPrimitive;
+import model.primitive.Intersection;
+import scene.partition.PackedTriangles;
+
+// Traverses a k-d tree with a whole RayPacket at once, one vector lane per ray (Java Vector API, see 
+// RayPacket). The packet's rays must agree in the signs of their directions, so the order in which 
+// the children of a node are visited is the same for all of them: each node is fetched once for the 
+// packet and a child is entered as long as any lane's interval overlaps it, every lane keeping its 
+// own interval and closest hit. In leaves, every triangle is broadcast to all lanes and tested with 
+// the same arithmetic as PackedTriangles.calcHitDist(), so results match single ray traversal.
+//
+// The species has to be a compile time constant for the JIT to turn vector operations into SIMD 
+// instructions, hence one subclass per packet width. Instances are per thread.
+
+abstract class KdtreePacketTraversal
+{
+	private static final int   BLOCK_SIZE   = KdtreeLeaves.BLOCK_SIZE;
+	private static final int   BLOCK_FLOATS = BLOCK_SIZE * PackedTriangles.NUM_FLOATS;
+	private static final float EPSILON      = PackedTriangles.EPSILON;
+	
+	private int[]             m_nodes;
+	private float[]           m_rootBounds;
+	private float[]           m_blockData;
+	private AtomicPrimitive[] m_blockTriangles;
+	private int[]             m_otherPrimitiveIndices;
+	private AtomicPrimitive[] m_primitives;
+	private int[]             m_leafRanges;
+	
+	// current interval of each lane, and the traversal stack with numLanes floats per entry
+	private float[] m_tMins;
+	private float[] m_tMaxs;
+	private int[]   m_stackNodeIndices;
+	private float[] m_stackTMins;
+	private float[] m_stackTMaxs;
+	
+	private float[]           m_closestHitDists;
+	private AtomicPrimitive[] m_closestPrimitives;
+	
+	public static KdtreePacketTraversal create(int numLanes, int[] nodes, float[] rootBounds, KdtreeLeaves leaves, int stackCapacity)
+	{
+		switch(numLanes)
+		{
+		case 4:  return new Lanes4(nodes, rootBounds, leaves, stackCapacity);
+		case 8:  return new Lanes8(nodes, rootBounds, leaves, stackCapacity);
+		case 16: return new Lanes16(nodes, rootBounds, leaves, stackCapacity);
+		default: throw new IllegalArgumentException("no packet traversal for " + numLanes + " lanes");
+		}
+	}
+	
+	protected KdtreePacketTraversal(int[] nodes, float[] rootBounds, KdtreeLeaves leaves, int stackCapacity)
+	{
+		int numLanes = getSpecies().length();
+		
+		m_nodes                 = nodes;
+		m_rootBounds            = rootBounds;
+		m_blockData             = leaves.getBlockData();
+		m_blockTriangles        = leaves.getBlockTriangles();
+		m_otherPrimitiveIndices = leaves.getOtherPrimitiveIndices();
+		m_primitives            = leaves.getPrimitives();
+		m_leafRanges            = leaves.getLeafRanges();
+		
+		m_tMins = new float[numLanes];
+		m_tMaxs = new float[numLanes];
+		
+		m_stackNodeIndices = new int[stackCapacity];
+		m_stackTMins       = new float[stackCapacity * numLanes];
+		m_stackTMaxs       = new float[stackCapacity * numLanes];
+		
+		m_closestHitDists   = new float[numLanes];
+		m_closestPrimitives = new AtomicPrimitive[numLanes];
+	}
+	
+	protected abstract VectorSpecies<Float> getSpecies();
+	
+	public int getNumLanes()
+	{
+		return getSpecies().length();
+	}
+	
+	// The packet's capacity must equal the number of lanes and its directions must be coherent (see 
+	// RayPacket.hasCoherentDirs()).
+	//
+	// No vector is carried from one loop iteration to the next: the current intervals and closest hits 
+	// live in per-lane arrays and are loaded where needed, since vectors merged at loop heads (or passed 
+	// to calls that aren't inlined) are boxed and lose their SIMD form.
+	public void findClosestIntersections(RayPacket packet)
+	{
+		VectorSpecies<Float> species  = getSpecies();
+		int                  numLanes = species.length();
+		
+		clipToRootBounds(packet);
+		
+		Arrays.fill(m_closestHitDists, Float.POSITIVE_INFINITY);
+		
+		int     nodeIndex    = 0;
+		int     stackSize    = 0;
+		boolean isTraversing = isAnyLaneActive(m_tMins, m_tMaxs, 0);
+		
+		while(isTraversing)
+		{
+			int nodeInfo = m_nodes[nodeIndex * 2 + 1];
+			int flag     = nodeInfo & 3;
+			
+			if(flag != Kdtree.LEAF_FLAG)
+			{
+				float   splitPos      = Float.intBitsToFloat(m_nodes[nodeIndex * 2]);
+				int     positiveIndex = nodeInfo >>> 2;
+				float[] axisOrigins;
+				float[] axisReciDirs;
+				
+				switch(flag)
+				{
+				case 0:  axisOrigins = packet.getOriginXs(); axisReciDirs = packet.getReciDirXs(); break;
+				case 1:  axisOrigins = packet.getOriginYs(); axisReciDirs = packet.getReciDirYs(); break;
+				default: axisOrigins = packet.getOriginZs(); axisReciDirs = packet.getReciDirZs(); break;
+				}
+				
+				// all rays cross the plane in the same direction, the side they come from is near
+				boolean isAxisNeg = axisReciDirs[0] < 0.0f;
+				int     nearIndex = isAxisNeg ? positiveIndex : nodeIndex + 1;
+				int     farIndex  = isAxisNeg ? nodeIndex + 1 : positiveIndex;
+				
+				FloatVector tMin            = FloatVector.fromArray(species, m_tMins,           0);
+				FloatVector tMax            = FloatVector.fromArray(species, m_tMaxs,           0);
+				FloatVector closestHitDists = FloatVector.fromArray(species, m_closestHitDists, 0);
+				
+				// Lanes lying on the splitting plane get NaN and keep their whole interval for both 
+				// children, as the comparisons below fail for them.
+				FloatVector splitDists = FloatVector.broadcast(species, splitPos).
+				                         sub(FloatVector.fromArray(species, axisOrigins, 0)).
+				                         mul(FloatVector.fromArray(species, axisReciDirs, 0));
+				FloatVector nearTMax   = tMax.blend(splitDists, splitDists.compare(VectorOperators.LT, tMax));
+				FloatVector farTMin    = tMin.blend(splitDists, splitDists.compare(VectorOperators.GT, tMin));
+				
+				// a child is entered if any lane's interval overlaps it before that lane's closest hit
+				boolean isNearHit = tMin.compare(VectorOperators.LE, nearTMax.min(closestHitDists)).anyTrue();
+				boolean isFarHit  = farTMin.compare(VectorOperators.LE, tMax.min(closestHitDists)).anyTrue();
+				
+				if(isNearHit)
+				{
+					if(isFarHit)
+					{
+						m_stackNodeIndices[stackSize] = farIndex;
+						farTMin.intoArray(m_stackTMins, stackSize * numLanes);
+						tMax.intoArray(m_stackTMaxs, stackSize * numLanes);
+						stackSize++;
+					}
+					
+					nodeIndex = nearIndex;
+					nearTMax.intoArray(m_tMaxs, 0);
+					continue;
+				}
+				else if(isFarHit)
+				{
+					nodeIndex = farIndex;
+					farTMin.intoArray(m_tMins, 0);
+					continue;
+				}
+			}
+			else
+			{
+				intersectLeaf(nodeIndex, packet);
+			}
+			
+			// continue with the next node some lane still has to visit
+			
+			isTraversing = false;
+			
+			while(stackSize > 0)
+			{
+				stackSize--;
+				
+				if(isAnyLaneActive(m_stackTMins, m_stackTMaxs, stackSize * numLanes))
+				{
+					nodeIndex = m_stackNodeIndices[stackSize];
+					System.arraycopy(m_stackTMins, stackSize * numLanes, m_tMins, 0, numLanes);
+					System.arraycopy(m_stackTMaxs, stackSize * numLanes, m_tMaxs, 0, numLanes);
+					
+					isTraversing = true;
+					break;
+				}
+			}
+		}
+		
+		for(int lane = 0; lane < packet.getSize(); lane++)
+		{
+			AtomicPrimitive primitive    = m_closestPrimitives[lane];
+			Intersection    intersection = packet.getIntersection(lane);
+			
+			m_closestPrimitives[lane] = null;
+			intersection.clear();
+			
+			if(primitive != null)
+			{
+				primitive.calcIntersectionDetail(packet.getRay(lane), m_closestHitDists[lane], intersection);
+			}
+			
+			packet.setHit(lane, primitive != null);
+		}
+		
+		for(int lane = packet.getSize(); lane < numLanes; lane++)
+		{
+			m_closestPrimitives[lane] = null;
+		}
+	}
+	
+	// Whether the interval stored at offset is non-empty before the closest hit for any lane.
+	private boolean isAnyLaneActive(float[] tMins, float[] tMaxs, int offset)
+	{
+		VectorSpecies<Float> species = getSpecies();
+		
+		FloatVector tMin            = FloatVector.fromArray(species, tMins,             offset);
+		FloatVector tMax            = FloatVector.fromArray(species, tMaxs,             offset);
+		FloatVector closestHitDists = FloatVector.fromArray(species, m_closestHitDists, 0);
+		
+		return tMin.compare(VectorOperators.LE, tMax.min(closestHitDists)).anyTrue();
+	}
+	
+	// Clips the rays against the root bounds as the single ray traversal does, writing the intervals to 
+	// m_tMins and m_tMaxs. Lanes beyond the packet's size start out empty.
+	private void clipToRootBounds(RayPacket packet)
+	{
+		VectorSpecies<Float> species = getSpecies();
+		
+		FloatVector tMin = FloatVector.zero(species);
+		FloatVector tMax = FloatVector.broadcast(species, Float.POSITIVE_INFINITY);
+		
+		tMin = tMin.blend(Float.POSITIVE_INFINITY, species.indexInRange(0, packet.getSize()).not());
+		
+		for(int axis = 0; axis < 3; axis++)
+		{
+			float[] origins;
+			float[] reciDirs;
+			
+			switch(axis)
+			{
+			case 0:  origins = packet.getOriginXs(); reciDirs = packet.getReciDirXs(); break;
+			case 1:  origins = packet.getOriginYs(); reciDirs = packet.getReciDirYs(); break;
+			default: origins = packet.getOriginZs(); reciDirs = packet.getReciDirZs(); break;
+			}
+			
+			FloatVector axisOrigins  = FloatVector.fromArray(species, origins,  0);
+			FloatVector axisReciDirs = FloatVector.fromArray(species, reciDirs, 0);
+			
+			FloatVector t0 = FloatVector.broadcast(species, m_rootBounds[axis]).sub(axisOrigins).mul(axisReciDirs);
+			FloatVector t1 = FloatVector.broadcast(species, m_rootBounds[axis + 3]).sub(axisOrigins).mul(axisReciDirs);
+			
+			VectorMask<Float> isSwapped = t0.compare(VectorOperators.GT, t1);
+			FloatVector       tNear     = t0.blend(t1, isSwapped);
+			FloatVector       tFar      = t1.blend(t0, isSwapped);
+			
+			tMin = tMin.blend(tNear, tNear.compare(VectorOperators.GT, tMin));
+			tMax = tMax.blend(tFar,  tFar.compare(VectorOperators.LT, tMax));
+		}
+		
+		tMin.intoArray(m_tMins, 0);
+		tMax.intoArray(m_tMaxs, 0);
+	}
+	
+	// Tests all primitives of the leaf against every lane, updating the lanes' closest hits in 
+	// m_closestHitDists and m_closestPrimitives.
+	private void intersectLeaf(int nodeIndex, RayPacket packet)
+	{
+		VectorSpecies<Float> species = getSpecies();
+		float[]              data    = m_blockData;
+		
+		FloatVector ox = FloatVector.fromArray(species, packet.getOriginXs(), 0);
+		FloatVector oy = FloatVector.fromArray(species, packet.getOriginYs(), 0);
+		FloatVector oz = FloatVector.fromArray(species, packet.getOriginZs(), 0);
+		FloatVector dx = FloatVector.fromArray(species, packet.getDirXs(),    0);
+		FloatVector dy = FloatVector.fromArray(species, packet.getDirYs(),    0);
+		FloatVector dz = FloatVector.fromArray(species, packet.getDirZs(),    0);
+		
+		FloatVector closestHitDists = FloatVector.fromArray(species, m_closestHitDists, 0);
+		
+		int blockEnd = m_leafRanges[nodeIndex * 4 + 1];
+		
+		for(int block = m_leafRanges[nodeIndex * 4]; block < blockEnd; block++)
+		{
+			for(int slot = 0; slot < BLOCK_SIZE; slot++)
+			{
+				int t = block * BLOCK_FLOATS + slot;
+				
+				if(PackedTriangles.isEmpty(data, t, BLOCK_SIZE))
+				{
+					continue;
+				}
+				
+				float nx = data[t + PackedTriangles.NX * BLOCK_SIZE];
+				float ny = data[t + PackedTriangles.NY * BLOCK_SIZE];
+				float nz = data[t + PackedTriangles.NZ * BLOCK_SIZE];
+				
+				FloatVector planeDists = FloatVector.broadcast(species, data[t + PackedTriangles.ND * BLOCK_SIZE]).
+				                         sub(ox.mul(nx).add(oy.mul(ny)).add(oz.mul(nz)));
+				FloatVector dists      = planeDists.div(dx.mul(nx).add(dy.mul(ny)).add(dz.mul(nz)));
+				
+				FloatVector hitXs = ox.add(dists.mul(dx));
+				FloatVector hitYs = oy.add(dists.mul(dy));
+				FloatVector hitZs = oz.add(dists.mul(dz));
+				
+				FloatVector baryBs = hitXs.mul(data[t + PackedTriangles.BX * BLOCK_SIZE]).
+				                     add(hitYs.mul(data[t + PackedTriangles.BY * BLOCK_SIZE])).
+				                     add(hitZs.mul(data[t + PackedTriangles.BZ * BLOCK_SIZE])).
+				                     add(data[t + PackedTriangles.BD * BLOCK_SIZE]);
+				FloatVector baryCs = hitXs.mul(data[t + PackedTriangles.CX * BLOCK_SIZE]).
+				                     add(hitYs.mul(data[t + PackedTriangles.CY * BLOCK_SIZE])).
+				                     add(hitZs.mul(data[t + PackedTriangles.CZ * BLOCK_SIZE])).
+				                     add(data[t + PackedTriangles.CD * BLOCK_SIZE]);
+				
+				// misses are NaN or out of range and fail the last comparison
+				VectorMask<Float> isHit = baryBs.compare(VectorOperators.GE, 0.0f).
+				                          and(baryCs.compare(VectorOperators.GE, 0.0f)).
+				                          and(baryBs.add(baryCs).compare(VectorOperators.LE, 1.0f)).
+				                          and(dists.compare(VectorOperators.GE, EPSILON)).
+				                          and(dists.compare(VectorOperators.LT, closestHitDists));
+				
+				if(!isHit.anyTrue())
+				{
+					continue;
+				}
+				
+				closestHitDists = closestHitDists.blend(dists, isHit);
+				
+				AtomicPrimitive triangle = m_blockTriangles[block * BLOCK_SIZE + slot];
+				
+				for(long lanes = isHit.toLong(); lanes != 0; lanes &= lanes - 1)
+				{
+					m_closestPrimitives[Long.numberOfTrailingZeros(lanes)] = triangle;
+				}
+			}
+		}
+		
+		int otherBegin = m_leafRanges[nodeIndex * 4 + 2];
+		int otherEnd   = m_leafRanges[nodeIndex * 4 + 3];
+		
+		closestHitDists.intoArray(m_closestHitDists, 0);
+		
+		if(otherBegin == otherEnd)
+		{
+			return;
+		}
+		
+		// Other primitives have no packed form and are tested lane by lane, only for the lanes whose 
+		// interval reaches into the leaf, as single ray traversal would.
+		
+		FloatVector tMin        = FloatVector.fromArray(species, m_tMins, 0);
+		FloatVector tMax        = FloatVector.fromArray(species, m_tMaxs, 0);
+		long        activeLanes = tMin.compare(VectorOperators.LE, tMax.min(closestHitDists)).toLong();
+		
+		for(int i = otherBegin; i < otherEnd; i++)
+		{
+			AtomicPrimitive primitive = m_primitives[m_otherPrimitiveIndices[i]];
+			
+			for(long lanes = activeLanes; lanes != 0; lanes &= lanes - 1)
+			{
+				int   lane    = Long.numberOfTrailingZeros(lanes);
+				Ray   ray     = packet.getRay(lane);
+				float hitDist = primitive.calcIntersectDist(ray, m_closestHitDists[lane]);
+				
+				if(hitDist < m_closestHitDists[lane])
+				{
+					m_closestHitDists[lane]   = hitDist;
+					m_closestPrimitives[lane] = primitive;
+				}
+			}
+		}
+	}
+	
+	private static final class Lanes4 extends KdtreePacketTraversal
+	{
+		private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_128;
+		
+		public Lanes4(int[] nodes, float[] rootBounds, KdtreeLeaves leaves, int stackCapacity)
+		{
+			super(nodes, rootBounds, leaves, stackCapacity);
+		}
+		
+		@Override
+		protected VectorSpecies<Float> getSpecies()
+		{
+			return SPECIES;
+		}
+	}
+	
+	private static final class Lanes8 extends KdtreePacketTraversal
+	{
+		private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+		
+		public Lanes8(int[] nodes, float[] rootBounds, KdtreeLeaves leaves, int stackCapacity)
+		{
+			super(nodes, rootBounds, leaves, stackCapacity);
+		}
+		
+		@Override
+		protected VectorSpecies<Float> getSpecies()
+		{
+			return SPECIES;
+		}
+	}
+	
+	private static final class Lanes16 extends KdtreePacketTraversal
+	{
+		private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_512;
+		
+		public Lanes16(int[] nodes, float[] rootBounds, KdtreeLeaves leaves, int stackCapacity)
+		{
+			super(nodes, rootBounds, leaves, stackCapacity);
+		}
+		
+		@Override
+		protected VectorSpecies<Float> getSpecies()
+		{
+			return SPECIES;
+		}
+	}
+}
@@ -29,14 +29,12 @@ import java.awt.image.BufferedImage;
 import javax.swing.JPanel;
 
 import core.HdrFrame;
-import math.Vector3f;
-import util.Color;
-import util.Func;
 
 @SuppressWarnings("serial")
 public class Display extends JPanel
 {
 	private BufferedImage m_bufferedImage;
+	private int[]         m_pixels;
 	
 	public Display(int widthPx, int heightPx)
 	{
@@ -45,58 +43,22 @@ public class Display extends JPanel
 		this.setPreferredSize(new Dimension(widthPx, heightPx));
 		
 		m_bufferedImage = new BufferedImage(widthPx, heightPx, BufferedImage.TYPE_INT_RGB);
+		m_pixels        = new int[widthPx * heightPx];
 	}
 	
 	// safe to call from any thread since repaint() uses EDT internally
 	public void render(HdrFrame frame)
 	{
+		if(frame.containsNaN())
+		{
+			System.out.println("NaN!");
+			System.exit(1);
+		}
+		
 		synchronized(m_bufferedImage)
 		{
-			Vector3f color = new Vector3f();
-			
-			for(int x = 0; x < frame.getWidthPx(); x++)
-			{
-				for(int y = 0; y < frame.getHeightPx(); y++)
-				{
-					int inversedY = frame.getHeightPx() - y - 1;
-					
-//					float r = Func.clamp(frame.getPixelR(x, y), 0.0f, 1.0f);
-//					float g = Func.clamp(frame.getPixelG(x, y), 0.0f, 1.0f);
-//					float b = Func.clamp(frame.getPixelB(x, y), 0.0f, 1.0f);
-					
-					float r = frame.getPixelR(x, y);
-					float g = frame.getPixelG(x, y);
-					float b = frame.getPixelB(x, y);
-					
-					color.set(r, g, b);
-					
-					// Reinhard tone mapping
-//					r = r / (1.0f + r);
-//					g = g / (1.0f + g);
-//					b = b / (1.0f + b);
-//					
-//					r = (float)Math.pow(r, 1.0 / 2.2);
-//					g = (float)Math.pow(g, 1.0 / 2.2);
-//					b = (float)Math.pow(b, 1.0 / 2.2);
-					
-					// Jim Hejl and Richard Burgess-Dawson (GDC)
-					// no need of pow(1/2.2)
-					color.subLocal(0.004f).clampLocal(0.0f, Float.MAX_VALUE);
-					Vector3f numerator = color.mul(6.2f).addLocal(0.5f).mulLocal(color);
-					Vector3f denominator = color.mul(6.2f).addLocal(1.7f).mulLocal(color).addLocal(0.06f);
-					r = numerator.x / denominator.x;
-					g = numerator.y / denominator.y;
-					b = numerator.z / denominator.z;
-					
-					if(r != r || g != g || b != b)
-					{
-						System.out.println("NaN!");
-						System.exit(1);
-					}
-					
-					m_bufferedImage.setRGB(x, inversedY, Color.toARGBInt(0.0f, r, g, b));
-				}
-			}
+			frame.toneMapToRgbInts(m_pixels);
+			m_bufferedImage.setRGB(0, 0, frame.getWidthPx(), frame.getHeightPx(), m_pixels, 0, frame.getWidthPx());
 		}
 		
 		this.repaint();
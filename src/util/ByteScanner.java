@@ -0,0 +1,291 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Reads numbers and words from ASCII text in [begin, end) of a byte buffer, typically a memory mapped 
+// file, without creating Strings. Several scanners may read disjoint ranges of the same buffer from 
+// different threads. Numbers are separated by spaces or tabs; line breaks are never skipped implicitly.
+public final class ByteScanner
+{
+	private static final int MAX_MANTISSA_DIGITS = 18;
+	
+	private static final double[] POW10 = {1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9, 
+	                                       1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 
+	                                       1e20, 1e21, 1e22};
+	
+	private ByteBuffer m_buffer;
+	private int        m_pos;
+	private int        m_end;
+	
+	public ByteScanner(ByteBuffer buffer, int begin, int end)
+	{
+		m_buffer = buffer;
+		m_pos    = begin;
+		m_end    = end;
+	}
+	
+	// The file must be smaller than 2 GB.
+	public static MappedByteBuffer mapFile(String fullFileName) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(Paths.get(fullFileName), StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("file " + fullFileName + " is too large to be mapped");
+			}
+			
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+	
+	// Splits the buffer into at most numRanges ranges that begin at the start of a line; range i is 
+	// [result[i], result[i + 1]). Fewer ranges are returned if lines are too long to split further.
+	public static int[] splitAtLines(ByteBuffer buffer, int numRanges)
+	{
+		IntArrayList bounds = new IntArrayList(numRanges + 1);
+		int          size   = buffer.limit();
+		
+		bounds.add(0);
+		
+		for(int i = 1; i < numRanges; i++)
+		{
+			int pos = Math.max((int)((long)size * i / numRanges), bounds.get(bounds.size() - 1));
+			
+			while(pos < size && buffer.get(pos) != '\n')
+			{
+				pos++;
+			}
+			
+			if(pos + 1 < size && pos + 1 > bounds.get(bounds.size() - 1))
+			{
+				bounds.add(pos + 1);
+			}
+		}
+		
+		bounds.add(size);
+		
+		return bounds.toArray();
+	}
+	
+	public boolean hasRemaining()
+	{
+		return m_pos < m_end;
+	}
+	
+	// Returns the byte at the given offset from the current position, or -1 past the end.
+	public int peek(int offset)
+	{
+		return m_pos + offset < m_end ? m_buffer.get(m_pos + offset) : -1;
+	}
+	
+	public int peek()
+	{
+		return peek(0);
+	}
+	
+	public void skip(int numBytes)
+	{
+		m_pos = Math.min(m_pos + numBytes, m_end);
+	}
+	
+	public void skipSpaces()
+	{
+		while(m_pos < m_end && isSpace(m_buffer.get(m_pos)))
+		{
+			m_pos++;
+		}
+	}
+	
+	// True if only spaces are left on the current line.
+	public boolean isAtLineEnd()
+	{
+		skipSpaces();
+		
+		return m_pos == m_end || isLineBreak(m_buffer.get(m_pos));
+	}
+	
+	// Moves to the beginning of the next line.
+	public void nextLine()
+	{
+		while(m_pos < m_end && m_buffer.get(m_pos++) != '\n');
+	}
+	
+	// Parses an optionally signed decimal integer; 0 is returned if there are no digits.
+	public int nextInt()
+	{
+		skipSpaces();
+		
+		boolean isNegative = false;
+		
+		if(m_pos < m_end && (m_buffer.get(m_pos) == '-' || m_buffer.get(m_pos) == '+'))
+		{
+			isNegative = m_buffer.get(m_pos++) == '-';
+		}
+		
+		int value = 0;
+		
+		while(m_pos < m_end && isDigit(m_buffer.get(m_pos)))
+		{
+			value = value * 10 + (m_buffer.get(m_pos++) - '0');
+		}
+		
+		return isNegative ? -value : value;
+	}
+	
+	// Parses a decimal number such as "-1.25e-3". Up to 18 significant digits are taken into account, 
+	// which is plenty for a float. Anything unusual (nan, inf, hexadecimal) is handed to 
+	// Float.parseFloat() instead; unparsable text yields NaN.
+	public float nextFloat()
+	{
+		skipSpaces();
+		
+		int begin = m_pos;
+		
+		boolean isNegative = false;
+		
+		if(m_pos < m_end && (m_buffer.get(m_pos) == '-' || m_buffer.get(m_pos) == '+'))
+		{
+			isNegative = m_buffer.get(m_pos++) == '-';
+		}
+		
+		long mantissa  = 0;
+		int  numDigits = 0;
+		int  exponent  = 0;
+		
+		boolean hasDigits = false;
+		
+		while(m_pos < m_end && isDigit(m_buffer.get(m_pos)))
+		{
+			if(numDigits < MAX_MANTISSA_DIGITS)
+			{
+				mantissa = mantissa * 10 + (m_buffer.get(m_pos) - '0');
+				numDigits += mantissa != 0 ? 1 : 0;
+			}
+			else
+			{
+				exponent++;
+			}
+			
+			hasDigits = true;
+			m_pos++;
+		}
+		
+		if(m_pos < m_end && m_buffer.get(m_pos) == '.')
+		{
+			m_pos++;
+			
+			while(m_pos < m_end && isDigit(m_buffer.get(m_pos)))
+			{
+				if(numDigits < MAX_MANTISSA_DIGITS)
+				{
+					mantissa = mantissa * 10 + (m_buffer.get(m_pos) - '0');
+					numDigits += mantissa != 0 ? 1 : 0;
+					exponent--;
+				}
+				
+				hasDigits = true;
+				m_pos++;
+			}
+		}
+		
+		if(hasDigits && m_pos < m_end && (m_buffer.get(m_pos) == 'e' || m_buffer.get(m_pos) == 'E'))
+		{
+			m_pos++;
+			
+			exponent += nextInt();
+		}
+		
+		if(!hasDigits || (m_pos < m_end && !isDelimiter(m_buffer.get(m_pos))))
+		{
+			return parseFloatToken(begin);
+		}
+		
+		double value = mantissa;
+		
+		if(exponent < 0)
+		{
+			value = -exponent < POW10.length ? value / POW10[-exponent] : value / Math.pow(10.0, -exponent);
+		}
+		else if(exponent > 0)
+		{
+			value = exponent < POW10.length ? value * POW10[exponent] : value * Math.pow(10.0, exponent);
+		}
+		
+		return (float)(isNegative ? -value : value);
+	}
+	
+	private float parseFloatToken(int begin)
+	{
+		m_pos = begin;
+		
+		while(m_pos < m_end && !isDelimiter(m_buffer.get(m_pos)))
+		{
+			m_pos++;
+		}
+		
+		byte[] token = new byte[m_pos - begin];
+		
+		for(int i = 0; i < token.length; i++)
+		{
+			token[i] = m_buffer.get(begin + i);
+		}
+		
+		try
+		{
+			return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+		}
+		catch(NumberFormatException e)
+		{
+			return Float.NaN;
+		}
+	}
+	
+	private static boolean isDigit(byte character)
+	{
+		return character >= '0' && character <= '9';
+	}
+	
+	private static boolean isSpace(byte character)
+	{
+		return character == ' ' || character == '\t';
+	}
+	
+	private static boolean isLineBreak(byte character)
+	{
+		return character == '\n' || character == '\r';
+	}
+	
+	private static boolean isDelimiter(byte character)
+	{
+		return isSpace(character) || isLineBreak(character) || character == '/';
+	}
+}
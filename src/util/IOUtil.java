@@ -29,7 +29,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import javax.imageio.ImageIO;
@@ -167,4 +176,108 @@ public final class IOUtil
 		
 		return folderNames;
 	}
+	
+	// Writes the buffer's remaining bytes to a temporary file next to the target and then moves it over 
+	// the target, so other processes never see a partially written file. The file ends up readable by 
+	// everyone (rw-r--r--) for caches shared between users, not owner-only like a plain temporary file.
+	public static void writeFileAtomically(File file, ByteBuffer buffer) throws IOException
+	{
+		Path directory = file.getAbsoluteFile().getParentFile().toPath();
+		
+		Files.createDirectories(directory);
+		
+		Path tempFile = Files.createTempFile(directory, file.getName(), ".tmp");
+		
+		try
+		{
+			try
+			{
+				Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-r--r--"));
+			}
+			catch(UnsupportedOperationException e)
+			{
+				// not a POSIX file system, the directory's defaults apply
+			}
+			
+			try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE))
+			{
+				while(buffer.hasRemaining())
+				{
+					channel.write(buffer);
+				}
+			}
+			
+			Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(IOException e)
+		{
+			Files.deleteIfExists(tempFile);
+			throw e;
+		}
+	}
+	
+	// Deletes the least recently modified files with the given extension in the directory until the rest 
+	// fit in numLimitBytes. keptFile is never deleted, even if it is larger than the limit by itself. 
+	// Returns the deleted files.
+	public static List<File> deleteLeastRecentlyModified(File directory, String extension, long numLimitBytes, File keptFile)
+	{
+		List<File> deletedFiles = new ArrayList<>();
+		File[]     files        = directory.listFiles();
+		
+		if(files == null)
+		{
+			return deletedFiles;
+		}
+		
+		// times are read once up front, other processes may touch the files while sorting
+		FileStamp[] stamps       = new FileStamp[files.length];
+		int         numStamps    = 0;
+		long        numFileBytes = 0;
+		
+		for(File file : files)
+		{
+			if(file.isFile() && file.getName().endsWith(extension))
+			{
+				stamps[numStamps] = new FileStamp(file);
+				numFileBytes += stamps[numStamps].numBytes;
+				numStamps++;
+			}
+		}
+		
+		Arrays.sort(stamps, 0, numStamps, new Comparator<FileStamp>()
+		{
+			@Override
+			public int compare(FileStamp a, FileStamp b)
+			{
+				return Long.compare(a.lastModified, b.lastModified);
+			}
+		});
+		
+		for(int i = 0; i < numStamps && numFileBytes > numLimitBytes; i++)
+		{
+			FileStamp stamp = stamps[i];
+			
+			if(!stamp.file.equals(keptFile) && stamp.file.delete())
+			{
+				numFileBytes -= stamp.numBytes;
+				deletedFiles.add(stamp.file);
+			}
+		}
+		
+		return deletedFiles;
+	}
+	
+	private static class FileStamp
+	{
+		public File file;
+		public long lastModified;
+		public long numBytes;
+		
+		public FileStamp(File file)
+		{
+			this.file         = file;
+			this.lastModified = file.lastModified();
+			this.numBytes     = file.length();
+		}
+	}
 }
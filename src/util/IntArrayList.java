@@ -0,0 +1,82 @@
+//	The MIT License (MIT)
+//	
+//	Copyright (c) 2016 Tzu-Chieh Chang (as known as D01phiN)
+//	
+//	Permission is hereby granted, free of charge, to any person obtaining a copy
+//	of this software and associated documentation files (the "Software"), to deal
+//	in the Software without restriction, including without limitation the rights
+//	to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//	copies of the Software, and to permit persons to whom the Software is
+//	furnished to do so, subject to the following conditions:
+//	
+//	The above copyright notice and this permission notice shall be included in all
+//	copies or substantial portions of the Software.
+//	
+//	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//	FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//	AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//	LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//	SOFTWARE.
+
+
+package util;
+
+import java.util.Arrays;
+
+// A growable array of ints without boxing.
+
+public class IntArrayList
+{
+	// NOTICE: This class is not thread-safe.
+	
+	private int[] m_data;
+	private int   m_size;
+	
+	public IntArrayList()
+	{
+		this(16);
+	}
+	
+	public IntArrayList(int initialCapacity)
+	{
+		m_data = new int[Math.max(initialCapacity, 1)];
+		m_size = 0;
+	}
+	
+	public void add(int value)
+	{
+		if(m_size == m_data.length)
+		{
+			m_data = Arrays.copyOf(m_data, m_data.length * 2);
+		}
+		
+		m_data[m_size++] = value;
+	}
+	
+	public int get(int index)
+	{
+		return m_data[index];
+	}
+	
+	public void set(int index, int value)
+	{
+		m_data[index] = value;
+	}
+	
+	public int size()
+	{
+		return m_size;
+	}
+	
+	public void clear()
+	{
+		m_size = 0;
+	}
+	
+	public int[] toArray()
+	{
+		return Arrays.copyOf(m_data, m_size);
+	}
+}
@@ -20,43 +20,38 @@
 //	OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 //	SOFTWARE.
 
-package core;
 
-import scene.Scene;
-import util.Debug;
+package util;
 
-public class TraceWorker implements Runnable
+import java.util.Locale;
+
+public final class SystemInfo
 {
-	private Scene         m_scene;
-	private SampleManager m_sampleManager;
-	private PathTracer    m_pathTracer;
-	private HdrFrame         m_sampleResult;
+	public static enum OsType {UNKNOWN, WINDOWS, LINUX};
 	
-	public TraceWorker(Scene scene, SampleManager sampleManager, int xRes, int yRes)
-	{
-		m_scene         = scene;
-		m_sampleManager = sampleManager;
-		m_pathTracer    = new PathTracer();
-		m_sampleResult  = new HdrFrame(xRes, yRes);
-	}
+	private static final Logger logger = new Logger(SystemInfo.class.getSimpleName());
 	
-	@Override
-	public void run()
+	public static OsType retrieveOsType()
 	{
-		try
+		String osName = System.getProperty("os.name");
+		String osNameLowerCase = osName.toLowerCase(Locale.ROOT);
+		
+		if(osNameLowerCase.contains("windows"))
 		{
-			while(true)
-			{
-				m_pathTracer.trace(m_scene, m_sampleResult);
-				m_sampleManager.addSample(m_sampleResult);
-			}
+			logger.printMsg("OS is Windows (" + osName + ")");
+			return OsType.WINDOWS;
 		}
-		catch(Exception e)
+		else if(osNameLowerCase.contains("linux"))
 		{
-			Debug.printErr("LALALA!!!");
-			Debug.printErr(e.getMessage());
-			e.printStackTrace();
-			Debug.exit();
+			logger.printMsg("OS is Linux (" + osName + ")");
+			return OsType.LINUX;
+		}
+		else
+		{
+			logger.printWrn("OS is unknown/unsupported (" + osName + ")");
+			return OsType.UNKNOWN;
 		}
 	}
+	
+	private SystemInfo() {}
 }